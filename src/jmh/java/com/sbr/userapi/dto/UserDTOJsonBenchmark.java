@@ -0,0 +1,76 @@
+package com.sbr.userapi.dto;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Benchmark of the JSON serialization of lists of {@link UserDTO}, as written
+ * by the searches and read by the bulk creations of users
+ * 
+ * @author sbrouet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UserDTOJsonBenchmark {
+
+	/** Number of users in the serialized lists */
+	@Param({ "10", "1000" })
+	private int size;
+
+	private ObjectWriter writer;
+
+	private ObjectReader reader;
+
+	private List<UserDTO> userDTOs;
+
+	private byte[] json;
+
+	@Setup
+	public void createUsers() throws IOException {
+		final TypeReference<List<UserDTO>> listType = new TypeReference<List<UserDTO>>() {
+		};
+		final ObjectMapper objectMapper = new ObjectMapper();
+		writer = objectMapper.writerFor(listType);
+		reader = objectMapper.readerFor(listType);
+
+		userDTOs = new ArrayList<>(size);
+		for (long id = 1; id <= size; id++) {
+			userDTOs.add(new UserDTO(id, "First" + id, "user" + id + "@userapi.sbr", "password" + id, 0L));
+		}
+		json = writer.writeValueAsBytes(userDTOs);
+	}
+
+	@Benchmark
+	public byte[] writeUserDTOList() throws IOException {
+		return writer.writeValueAsBytes(userDTOs);
+	}
+
+	@Benchmark
+	public List<UserDTO> readUserDTOList() throws IOException {
+		return reader.readValue(json);
+	}
+}
@@ -0,0 +1,71 @@
+package com.sbr.userapi.mapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sbr.userapi.dto.UserDTO;
+import com.sbr.userapi.model.User;
+
+/**
+ * Benchmark of the conversions of lists of users between entities and DTOs
+ * done by {@link UserMapper}, as done by the searches and the bulk creations
+ * of users
+ * 
+ * @author sbrouet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UserMapperBenchmark {
+	private static final UserMapper USER_MAPPER = Mappers.getMapper(UserMapper.class);
+
+	/** Number of users in the converted lists */
+	@Param({ "10", "1000" })
+	private int size;
+
+	private List<User> users;
+
+	private List<UserDTO> userDTOs;
+
+	@Setup
+	public void createUsers() {
+		users = new ArrayList<>(size);
+		userDTOs = new ArrayList<>(size);
+		for (long id = 1; id <= size; id++) {
+			users.add(new User(id, "First" + id, "user" + id + "@userapi.sbr", "password" + id, 0L));
+			userDTOs.add(new UserDTO(id, "First" + id, "user" + id + "@userapi.sbr", "password" + id, 0L));
+		}
+	}
+
+	@Benchmark
+	public List<UserDTO> userListToUserDTOList() {
+		return USER_MAPPER.userListToUserDTOList(users);
+	}
+
+	@Benchmark
+	public List<User> userDTOListToUserList() {
+		final List<User> result = new ArrayList<>(userDTOs.size());
+		for (UserDTO dto : userDTOs) {
+			result.add(USER_MAPPER.userDTOtoUser(dto));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,56 @@
+package com.sbr.userapi.service.location;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.client.RestTemplate;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Benchmark of the building of the URL of the Ip Api external service by
+ * {@link LocationService#buildCountryCodeRestServiceURLForIP(String)}, done
+ * for each lookup which is not answered by the local IP country database
+ * 
+ * @author sbrouet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LocationServiceBenchmark {
+
+	private LocationService locationService;
+
+	@Setup
+	public void createLocationService() {
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setIpAPIUrlTemplate("https://ipapi.co/{0}/country");
+		configurationBean.setIpAPICacheSize(100);
+		configurationBean.setIpAPICacheTtlFound(60);
+		configurationBean.setIpAPICacheTtlUndefined(60);
+		// No call to the external service : the HTTP clients are not used
+		locationService = new LocationService(new RestTemplate(), null, configurationBean, ip -> Optional.empty(),
+				LocationService.createExternalServiceCache(configurationBean), new SimpleMeterRegistry());
+	}
+
+	@Benchmark
+	public String buildCountryCodeRestServiceURLForIP() {
+		return locationService.buildCountryCodeRestServiceURLForIP(LocationTestConstants.SWISSCOM_CH_IP);
+	}
+}
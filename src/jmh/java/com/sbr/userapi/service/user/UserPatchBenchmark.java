@@ -0,0 +1,77 @@
+package com.sbr.userapi.service.user;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sbr.userapi.exception.InvalidPatchException;
+import com.sbr.userapi.exception.PatchTestFailedException;
+import com.sbr.userapi.model.User;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Benchmark of the application of a JSON Patch document to a user by
+ * {@link UserPatchCompiler} and {@link UserPatchPlan}, as done by
+ * {@link UserService#patchUser(Long, JsonNode, Long)} : the plan of the
+ * document is found in cache by the shape of the document, then applied
+ * 
+ * @author sbrouet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UserPatchBenchmark {
+
+	private static final String PATCH = "[{\"op\":\"test\",\"path\":\"/email\",\"value\":\"mfaraday@userapi.sbr\"},"
+			+ "{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Albert\"},"
+			+ "{\"op\":\"replace\",\"path\":\"/password\",\"value\":\"newPassword1\"}]";
+
+	private UserPatchCompiler patchCompiler;
+
+	private JsonNode patch;
+
+	private UserPatchPlan plan;
+
+	@Setup
+	public void compilePatch() throws IOException, InvalidPatchException {
+		patchCompiler = new UserPatchCompiler(new SimpleMeterRegistry());
+		patch = new ObjectMapper().readTree(PATCH);
+		plan = patchCompiler.compile(patch);
+	}
+
+	@Benchmark
+	public UserPatchPlan compile() throws InvalidPatchException {
+		return patchCompiler.compile(patch);
+	}
+
+	@Benchmark
+	public User apply() throws InvalidPatchException, PatchTestFailedException {
+		final User user = new User(1L, "Michael", "mfaraday@userapi.sbr", "dummyTestPwd1", 0L);
+		plan.apply(user, patch);
+		return user;
+	}
+
+	@Benchmark
+	public User compileAndApply() throws InvalidPatchException, PatchTestFailedException {
+		final User user = new User(1L, "Michael", "mfaraday@userapi.sbr", "dummyTestPwd1", 0L);
+		patchCompiler.compile(patch).apply(user, patch);
+		return user;
+	}
+}
@@ -0,0 +1,117 @@
+package com.sbr.userapi.service.user;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.sbr.userapi.TestConstants;
+import com.sbr.userapi.UserApiApplication;
+import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.exception.UserNotFoundException;
+import com.sbr.userapi.exception.UserVersionConflictException;
+import com.sbr.userapi.exception.location.CannotComputeLocationException;
+import com.sbr.userapi.exception.location.LocationNotAuthorizedException;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.service.location.LocationTestConstants;
+import com.sbr.userapi.test.TestConfigurationExcludeFilter;
+import com.sbr.userapi.test.TestUtils;
+
+/**
+ * Benchmark of the operations of {@link UserService} on users, in the
+ * application started without web server on an in-memory H2 database.<BR/>
+ * The messages are sent directly (delivery mode SYNC) to the test binder of
+ * spring-cloud-stream, which stands for the message bus behind
+ * {@link com.sbr.userapi.messaging.processor.MessageProcessor
+ * MessageProcessor}. The location of the callers is found in the test IP
+ * country database, the Ip Api external service is never called
+ * 
+ * @author sbrouet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UserServiceBenchmark {
+
+	private ConfigurableApplicationContext context;
+
+	private UserService userService;
+
+	/** Counter making the emails of the created users unique */
+	private final AtomicLong createdUsers = new AtomicLong();
+
+	/** A user read, searched and updated by the benchmarks */
+	private User existingUser;
+
+	@Setup(Level.Trial)
+	public void startApplication() throws CannotComputeLocationException, LocationNotAuthorizedException,
+			CouldNotSendMessageBusMessage {
+		context = new SpringApplicationBuilder(UserApiApplication.class).web(WebApplicationType.NONE)
+				.profiles(TestConstants.SPRING_PROFILE_IN_MEMORY_DATABASE_H2)
+				.initializers(TestConfigurationExcludeFilter::register)
+				.run("--location.database.path=classpath:location/ip-country-test.csv",
+						"--ipapi.fallback.enabled=false", "--messaging.delivery.mode=SYNC",
+						// The debug logs of the tests would be measured too
+						"--logging.level.com.sbr=warn");
+		userService = context.getBean(UserService.class);
+		existingUser = userService.createUser(newUser(), LocationTestConstants.SWISSCOM_CH_IP);
+	}
+
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+
+	private User newUser() {
+		final long number = createdUsers.incrementAndGet();
+		return new User("First" + number, "benchmark" + number + "@userapi.sbr", TestUtils.USER_CHARLES_PASSWORD);
+	}
+
+	@Benchmark
+	public User createUser()
+			throws CannotComputeLocationException, LocationNotAuthorizedException, CouldNotSendMessageBusMessage {
+		return userService.createUser(newUser(), LocationTestConstants.SWISSCOM_CH_IP);
+	}
+
+	@Benchmark
+	public User getUserById() throws UserNotFoundException {
+		return userService.getUserById(existingUser.getId());
+	}
+
+	@Benchmark
+	public List<User> findUserByEmail() {
+		return userService.findUser(null, existingUser.getEmail());
+	}
+
+	@Benchmark
+	public User updateUser()
+			throws UserNotFoundException, UserVersionConflictException, CouldNotSendMessageBusMessage {
+		return userService.updateUser(new User(existingUser.getId(), "Updated" + createdUsers.incrementAndGet(),
+				existingUser.getEmail(), existingUser.getPassword()));
+	}
+
+	@Benchmark
+	public void createThenDeleteUser() throws CannotComputeLocationException, LocationNotAuthorizedException,
+			CouldNotSendMessageBusMessage, UserNotFoundException {
+		userService.deleteUserById(userService.createUser(newUser(), LocationTestConstants.SWISSCOM_CH_IP).getId());
+	}
+}
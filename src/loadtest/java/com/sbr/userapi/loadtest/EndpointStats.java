@@ -0,0 +1,95 @@
+package com.sbr.userapi.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Outcome of the requests sent to one endpoint : latency histogram (in
+ * microseconds), number of responses by HTTP status, number of requests which
+ * failed without response and number of requests which were not sent.<BR/>
+ * Recorded concurrently by the threads receiving the responses
+ * 
+ * @author sbrouet
+ *
+ */
+public class EndpointStats {
+
+	/** Latencies in microseconds, with 3 significant digits */
+	private final Recorder latencies = new Recorder(3);
+
+	private final Map<Integer, LongAdder> statuses = new ConcurrentSkipListMap<>();
+
+	private final LongAdder failures = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Record a response
+	 * 
+	 * @param status       HTTP status of the response
+	 * @param latencyNanos time between the moment the request was due to be sent
+	 *                     and the response
+	 */
+	public void recordResponse(final int status, final long latencyNanos) {
+		latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+		statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Record a request which failed without response (connection error,
+	 * timeout)
+	 * 
+	 * @param latencyNanos time between the moment the request was due to be sent
+	 *                     and the failure
+	 */
+	public void recordFailure(final long latencyNanos) {
+		latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+		failures.increment();
+	}
+
+	/**
+	 * Record a request which was not sent, because too many requests were waiting
+	 * for their response or no user could be found to send it
+	 */
+	public void recordDropped() {
+		dropped.increment();
+	}
+
+	/**
+	 * Forget all the recorded requests, e.g. at the end of the warmup
+	 */
+	public void reset() {
+		latencies.reset();
+		statuses.clear();
+		failures.reset();
+		dropped.reset();
+	}
+
+	/**
+	 * @return the latencies recorded since the previous call or the last
+	 *         {@link #reset()}
+	 */
+	public Histogram getLatencies() {
+		return latencies.getIntervalHistogram();
+	}
+
+	/**
+	 * @return number of responses by HTTP status
+	 */
+	public Map<Integer, LongAdder> getStatuses() {
+		return statuses;
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+}
@@ -0,0 +1,91 @@
+package com.sbr.userapi.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Ip Api external service : answers
+ * <code>GET /{ip}/country</code> with the same country for all IP addresses,
+ * after a configurable latency. The application is pointed to it by setting
+ * property <code>ipapi.url.template</code> to {@link #getUrlTemplate()}
+ * 
+ * @author sbrouet
+ *
+ */
+public class IpApiStub {
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	/** Number of requests answered */
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * Start the stub on a free port of the loopback interface
+	 * 
+	 * @param country   country code answered for all IP addresses
+	 * @param latencyMs time (in milliseconds) waited before answering
+	 * @throws IOException when the server could not be started
+	 */
+	public IpApiStub(final String country, final long latencyMs) throws IOException {
+		final byte[] body = country.getBytes(StandardCharsets.UTF_8);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", exchange -> answer(exchange, body, latencyMs));
+		// The latency is simulated by waiting threads : one thread per pending request
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	private void answer(final HttpExchange exchange, final byte[] body, final long latencyMs) throws IOException {
+		try {
+			if (latencyMs > 0) {
+				Thread.sleep(latencyMs);
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/plain");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+			requests.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return the url template of the stub, in the format of property
+	 *         <code>ipapi.url.template</code>
+	 */
+	public String getUrlTemplate() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+				+ "/{0}/country";
+	}
+
+	/**
+	 * @return number of requests answered since the stub was started
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Stop the stub at once
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
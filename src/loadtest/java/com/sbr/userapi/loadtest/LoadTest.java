@@ -0,0 +1,332 @@
+package com.sbr.userapi.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sbr.userapi.TestConstants;
+import com.sbr.userapi.UserApiApplication;
+import com.sbr.userapi.test.TestConfigurationExcludeFilter;
+import com.sbr.userapi.web.UserControllerConstants;
+
+/**
+ * Self-contained load test of the API on users : starts the application on a
+ * random port with an in-memory H2 database, the spring-cloud-stream test
+ * binder in place of RabbitMQ and an {@link IpApiStub} in place of the Ip Api
+ * external service. Then sends a mix of requests to
+ * {@link com.sbr.userapi.web.UserController UserController} at a fixed
+ * arrival rate, and reports the throughput and the latency percentiles of each
+ * endpoint.<BR/>
+ * Requests are sent when they are due, whatever the response times of the
+ * previous ones, and their latency is measured from the moment they were due :
+ * a slow application does not slow the load down and its queuing is part of
+ * the reported latencies.<BR/>
+ * Creations come from {@link LoadTestOptions#getClientIps()} distinct client
+ * IP addresses, given in header <code>X-Forwarded-For</code>. See
+ * {@link LoadTestOptions} for the options
+ * 
+ * @author sbrouet
+ *
+ */
+public class LoadTest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+
+	private static final String HEADER_X_FORWARDED_FOR = "X-Forwarded-For";
+
+	private static final String MEDIA_TYPE_JSON_PATCH = "application/json-patch+json";
+
+	private static final String PASSWORD = "loadTestPassword";
+
+	/** Number of users created at once before the warmup */
+	private static final int SEED_BATCH_SIZE = 100;
+
+	/** Maximum time waited for the last responses */
+	private static final long COMPLETION_TIMEOUT_SECONDS = 60;
+
+	private final LoadTestOptions options;
+
+	/** Url of the users resource */
+	private final String usersUrl;
+
+	private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(5)).build();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	/** Emails of the existing users by id */
+	private final ConcurrentSkipListMap<Long, String> users = new ConcurrentSkipListMap<>();
+
+	/** Counter making the names and emails of the users unique */
+	private final AtomicLong userCount = new AtomicLong();
+
+	/** Permits of the requests waiting for their response */
+	private final Semaphore inFlight;
+
+	private final Map<Operation, EndpointStats> stats = new EnumMap<>(Operation.class);
+
+	/** Operations to send, each one repeated according to its weight */
+	private final Operation[] weightedOperations;
+
+	public LoadTest(final LoadTestOptions options, final String usersUrl) {
+		this.options = options;
+		this.usersUrl = usersUrl;
+		this.inFlight = new Semaphore(options.getMaxInFlight());
+		final List<Operation> operations = new ArrayList<>();
+		options.getMix().forEach((operation, weight) -> {
+			stats.put(operation, new EndpointStats());
+			for (int i = 0; i < weight; i++) {
+				operations.add(operation);
+			}
+		});
+		this.weightedOperations = operations.toArray(new Operation[0]);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final LoadTestOptions options = LoadTestOptions.parse(args);
+		LOGGER.info("Load test with options : " + options);
+
+		final IpApiStub ipApiStub = new IpApiStub(options.getIpApiCountry(), options.getIpApiLatency());
+		final ConfigurableApplicationContext context = new SpringApplicationBuilder(UserApiApplication.class)
+				.profiles(TestConstants.SPRING_PROFILE_IN_MEMORY_DATABASE_H2).profiles(options.getProfiles())
+				.initializers(TestConfigurationExcludeFilter::register)
+				.run("--server.port=0",
+						// The client IP of the creations is taken from header X-Forwarded-For
+						"--server.forward-headers-strategy=native", "--ipapi.url.template=" + ipApiStub.getUrlTemplate(),
+						// The debug logs of the tests would be measured too
+						"--logging.level.com.sbr=warn");
+		try {
+			final int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+			new LoadTest(options, "http://localhost:" + port + UserControllerConstants.REST_API_ROOT_URL).run();
+			LOGGER.info("The Ip Api stub answered " + ipApiStub.getRequests() + " requests");
+		} finally {
+			context.close();
+			ipApiStub.stop();
+		}
+	}
+
+	/**
+	 * Create the users, send requests during the warmup then during the measured
+	 * duration, and report
+	 */
+	public void run() throws IOException, InterruptedException {
+		LOGGER.info("Creating " + options.getUsers() + " users");
+		final List<CompletableFuture<?>> creations = new ArrayList<>();
+		for (int i = 0; i < options.getUsers(); i++) {
+			creations.add(httpClient.sendAsync(createUserRequest(), HttpResponse.BodyHandlers.ofByteArray())
+					.thenAccept(this::onUserCreated));
+			if (creations.size() == SEED_BATCH_SIZE) {
+				CompletableFuture.allOf(creations.toArray(new CompletableFuture[0])).join();
+				creations.clear();
+			}
+		}
+		CompletableFuture.allOf(creations.toArray(new CompletableFuture[0])).join();
+
+		LOGGER.info("Warmup during " + options.getWarmup() + "s at " + options.getRate() + " requests/s");
+		sendRequests(options.getWarmup());
+		stats.values().forEach(EndpointStats::reset);
+
+		LOGGER.info("Measuring during " + options.getDuration() + "s at " + options.getRate() + " requests/s");
+		sendRequests(options.getDuration());
+		if (!inFlight.tryAcquire(options.getMaxInFlight(), COMPLETION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			LOGGER.warn("Some requests did not complete within " + COMPLETION_TIMEOUT_SECONDS + "s");
+		}
+		report(System.out);
+	}
+
+	/**
+	 * Send requests at the fixed rate, each one at the moment it is due
+	 * 
+	 * @param seconds time during which requests are sent
+	 */
+	private void sendRequests(final int seconds) {
+		final long periodNanos = TimeUnit.SECONDS.toNanos(1) / options.getRate();
+		final long count = (long) options.getRate() * seconds;
+		final long start = System.nanoTime();
+		for (long i = 0; i < count; i++) {
+			final long dueTime = start + i * periodNanos;
+			long wait;
+			while ((wait = dueTime - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			send(weightedOperations[ThreadLocalRandom.current().nextInt(weightedOperations.length)], dueTime);
+		}
+	}
+
+	private void send(final Operation operation, final long dueTime) {
+		final EndpointStats endpointStats = stats.get(operation);
+		final HttpRequest request = buildRequest(operation);
+		if (null == request || !inFlight.tryAcquire()) {
+			endpointStats.recordDropped();
+			return;
+		}
+		httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+			inFlight.release();
+			final long latency = System.nanoTime() - dueTime;
+			if (null != error) {
+				endpointStats.recordFailure(latency);
+			} else {
+				endpointStats.recordResponse(response.statusCode(), latency);
+				if (Operation.CREATE == operation) {
+					onUserCreated(response);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the request of an operation, <code>null</code> when no user exists
+	 *         to send it
+	 */
+	private HttpRequest buildRequest(final Operation operation) {
+		if (Operation.CREATE == operation) {
+			return createUserRequest();
+		}
+		final Map.Entry<Long, String> user = pickUser();
+		if (null == user) {
+			return null;
+		}
+		final long id = user.getKey();
+		final String email = user.getValue();
+		switch (operation) {
+		case GET_BY_ID:
+			return HttpRequest.newBuilder(URI.create(usersUrl + "/" + id)).GET().build();
+		case FIND_BY_EMAIL:
+			return HttpRequest.newBuilder(URI.create(usersUrl + UserControllerConstants.PATH_FIND + "?"
+					+ UserControllerConstants.PARAM_EMAIL + "=" + URLEncoder.encode(email, StandardCharsets.UTF_8)))
+					.GET().build();
+		case UPDATE:
+			return HttpRequest.newBuilder(URI.create(usersUrl + "/" + id))
+					.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+					.PUT(HttpRequest.BodyPublishers
+							.ofString(userJson("Updated" + userCount.incrementAndGet(), email).toString()))
+					.build();
+		case PATCH:
+			final ObjectNode replaceFirstName = objectMapper.createObjectNode().put("op", "replace")
+					.put("path", "/firstName").put("value", "Patched" + userCount.incrementAndGet());
+			return HttpRequest.newBuilder(URI.create(usersUrl + "/" + id))
+					.header(HttpHeaders.CONTENT_TYPE, MEDIA_TYPE_JSON_PATCH)
+					.method("PATCH", HttpRequest.BodyPublishers
+							.ofString(objectMapper.createArrayNode().add(replaceFirstName).toString()))
+					.build();
+		case DELETE:
+			// Removed at once so that no other request is sent on this user
+			if (null == users.remove(id)) {
+				return null;
+			}
+			return HttpRequest.newBuilder(URI.create(usersUrl + "/" + id)).DELETE().build();
+		default:
+			throw new IllegalArgumentException("Unsupported operation " + operation);
+		}
+	}
+
+	private HttpRequest createUserRequest() {
+		final long number = userCount.incrementAndGet();
+		final int clientIp = ThreadLocalRandom.current().nextInt(options.getClientIps());
+		return HttpRequest.newBuilder(URI.create(usersUrl))
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.header(HEADER_X_FORWARDED_FOR,
+						"10." + ((clientIp >> 16) & 0xFF) + "." + ((clientIp >> 8) & 0xFF) + "." + (clientIp & 0xFF))
+				.POST(HttpRequest.BodyPublishers
+						.ofString(userJson("Load" + number, "load" + number + "@userapi.sbr").toString()))
+				.build();
+	}
+
+	private ObjectNode userJson(final String firstName, final String email) {
+		return objectMapper.createObjectNode().put("firstName", firstName).put("email", email).put("password",
+				PASSWORD);
+	}
+
+	private void onUserCreated(final HttpResponse<byte[]> response) {
+		if (HttpStatus.CREATED.value() != response.statusCode()) {
+			return;
+		}
+		try {
+			final JsonNode user = objectMapper.readTree(response.body());
+			users.put(user.get("id").asLong(), user.get("email").asText());
+		} catch (IOException e) {
+			LOGGER.warn("Could not read created user", e);
+		}
+	}
+
+	/**
+	 * @return a random existing user, <code>null</code> when there is none
+	 */
+	private Map.Entry<Long, String> pickUser() {
+		final Map.Entry<Long, String> first = users.firstEntry();
+		final Map.Entry<Long, String> last = users.lastEntry();
+		if (null == first || null == last || first.getKey() > last.getKey()) {
+			return null;
+		}
+		final Map.Entry<Long, String> user = users
+				.ceilingEntry(ThreadLocalRandom.current().nextLong(first.getKey(), last.getKey() + 1));
+		return null == user ? first : user;
+	}
+
+	/**
+	 * Print the throughput and the latency percentiles of each endpoint, and write
+	 * the full latency histogram of each endpoint in directory
+	 * {@link LoadTestOptions#getOutput()}
+	 */
+	private void report(final PrintStream out) throws IOException {
+		final File outputDirectory = new File(options.getOutput());
+		outputDirectory.mkdirs();
+
+		out.println();
+		out.println("Load test on Java " + Runtime.version() + " : " + options);
+		out.printf("%-20s %9s %9s %9s %9s %9s %9s %8s %8s  %s%n", "Endpoint", "Responses", "Resp/s", "p50 ms",
+				"p99 ms", "p99.9 ms", "max ms", "Failed", "Dropped", "Statuses");
+		for (Map.Entry<Operation, EndpointStats> entry : stats.entrySet()) {
+			final EndpointStats endpointStats = entry.getValue();
+			final Histogram latencies = endpointStats.getLatencies();
+			final long responses = latencies.getTotalCount() - endpointStats.getFailures();
+			out.printf("%-20s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %8d %8d  %s%n", entry.getKey().getEndpoint(),
+					responses, (double) responses / options.getDuration(), millis(latencies.getValueAtPercentile(50)),
+					millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+					millis(latencies.getMaxValue()), endpointStats.getFailures(), endpointStats.getDropped(),
+					endpointStats.getStatuses());
+
+			try (PrintStream histogramOut = new PrintStream(
+					new File(outputDirectory, entry.getKey().name().toLowerCase() + ".hgrm"),
+					StandardCharsets.UTF_8)) {
+				// Values in milliseconds
+				latencies.outputPercentileDistribution(histogramOut, 1000.0);
+			}
+		}
+		out.println("Latency histograms written in " + outputDirectory.getAbsolutePath());
+	}
+
+	private static double millis(final long micros) {
+		return micros / 1000.0;
+	}
+}
@@ -0,0 +1,184 @@
+package com.sbr.userapi.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Options of the {@link LoadTest}, given on the command line as
+ * <code>--name=value</code>. All options have a default value
+ * 
+ * @author sbrouet
+ *
+ */
+public class LoadTestOptions {
+
+	/** Requests sent per second, whatever the response times */
+	private int rate = 200;
+
+	/** Time (in seconds) during which the requests are measured */
+	private int duration = 30;
+
+	/** Time (in seconds) during which requests are sent before being measured */
+	private int warmup = 10;
+
+	/** Number of users created before the warmup */
+	private int users = 1000;
+
+	/**
+	 * Number of distinct client IP addresses of the creations, which drives the
+	 * hit ratio of the cache of the Ip Api answers
+	 */
+	private int clientIps = 1000;
+
+	/** Latency (in milliseconds) of the Ip Api stub */
+	private long ipApiLatency = 50;
+
+	/** Country answered by the Ip Api stub */
+	private String ipApiCountry = "CH";
+
+	/**
+	 * Maximum number of requests waiting for their response : further requests
+	 * are not sent and counted as dropped
+	 */
+	private int maxInFlight = 2000;
+
+	/** Directory where the latency histograms are written */
+	private String output = "target/load-test";
+
+	/**
+	 * Spring profiles of the application, besides the in-memory database one,
+	 * e.g. <code>virtual-threads</code>. Comma separated
+	 */
+	private String profiles = "";
+
+	/** Weight of each operation in the traffic */
+	private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+
+	public LoadTestOptions() {
+		mix.put(Operation.GET_BY_ID, 50);
+		mix.put(Operation.FIND_BY_EMAIL, 20);
+		mix.put(Operation.CREATE, 10);
+		mix.put(Operation.UPDATE, 10);
+		mix.put(Operation.PATCH, 5);
+		mix.put(Operation.DELETE, 5);
+	}
+
+	/**
+	 * Parse the command line
+	 * 
+	 * @param args options as <code>--name=value</code>, the mix being given as
+	 *             <code>--mix=GET_BY_ID:50,CREATE:10,...</code> (missing
+	 *             operations are not sent)
+	 * @return the options
+	 * @throws IllegalArgumentException when an option is unknown or has an
+	 *                                  invalid value
+	 */
+	public static LoadTestOptions parse(final String... args) {
+		final LoadTestOptions options = new LoadTestOptions();
+		for (String arg : args) {
+			final int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				throw new IllegalArgumentException("Option [" + arg + "] is not like --name=value");
+			}
+			final String name = arg.substring(2, separator);
+			final String value = arg.substring(separator + 1);
+			switch (name) {
+			case "rate":
+				options.rate = Integer.parseInt(value);
+				break;
+			case "duration":
+				options.duration = Integer.parseInt(value);
+				break;
+			case "warmup":
+				options.warmup = Integer.parseInt(value);
+				break;
+			case "users":
+				options.users = Integer.parseInt(value);
+				break;
+			case "client-ips":
+				options.clientIps = Integer.parseInt(value);
+				break;
+			case "ipapi-latency":
+				options.ipApiLatency = Long.parseLong(value);
+				break;
+			case "ipapi-country":
+				options.ipApiCountry = value;
+				break;
+			case "max-in-flight":
+				options.maxInFlight = Integer.parseInt(value);
+				break;
+			case "output":
+				options.output = value;
+				break;
+			case "profiles":
+				options.profiles = value;
+				break;
+			case "mix":
+				options.mix.clear();
+				for (String weight : value.split(",")) {
+					final String[] operationAndWeight = weight.split(":");
+					options.mix.put(Operation.valueOf(operationAndWeight[0].trim()),
+							Integer.parseInt(operationAndWeight[1].trim()));
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option [" + name + "]");
+			}
+		}
+		if (options.rate <= 0 || options.clientIps <= 0 || options.mix.isEmpty()) {
+			throw new IllegalArgumentException("rate and client-ips must be positive, and mix must not be empty");
+		}
+		return options;
+	}
+
+	public int getRate() {
+		return rate;
+	}
+
+	public int getDuration() {
+		return duration;
+	}
+
+	public int getWarmup() {
+		return warmup;
+	}
+
+	public int getUsers() {
+		return users;
+	}
+
+	public int getClientIps() {
+		return clientIps;
+	}
+
+	public long getIpApiLatency() {
+		return ipApiLatency;
+	}
+
+	public String getIpApiCountry() {
+		return ipApiCountry;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public String getOutput() {
+		return output;
+	}
+
+	public String[] getProfiles() {
+		return profiles.isBlank() ? new String[0] : profiles.split(",");
+	}
+
+	public Map<Operation, Integer> getMix() {
+		return mix;
+	}
+
+	@Override
+	public String toString() {
+		return "rate=" + rate + "/s, duration=" + duration + "s, warmup=" + warmup + "s, users=" + users
+				+ ", client-ips=" + clientIps + ", ipapi-latency=" + ipApiLatency + "ms, ipapi-country="
+				+ ipApiCountry + ", max-in-flight=" + maxInFlight + ", profiles=" + profiles + ", mix=" + mix;
+	}
+}
@@ -0,0 +1,28 @@
+package com.sbr.userapi.loadtest;
+
+/**
+ * Operations on users sent by the {@link LoadTest}, one per endpoint of
+ * {@link com.sbr.userapi.web.UserController UserController}
+ * 
+ * @author sbrouet
+ *
+ */
+public enum Operation {
+	GET_BY_ID("GET /users/{id}"),
+	FIND_BY_EMAIL("GET /users/find"),
+	CREATE("POST /users"),
+	UPDATE("PUT /users/{id}"),
+	PATCH("PATCH /users/{id}"),
+	DELETE("DELETE /users/{id}");
+
+	/** Method and path of the endpoint, as shown in the report */
+	private final String endpoint;
+
+	private Operation(final String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+}
@@ -1,14 +1,49 @@
 package com.sbr.userapi.configuration;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
 import java.time.Duration;
+import java.util.Optional;
 
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.coyote.ProtocolHandler;
+import org.hibernate.stat.internal.StatisticsInitiator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.monitoring.RequestPhaseEvent;
+import com.sbr.userapi.monitoring.SlowQueryLog;
+import com.sbr.userapi.monitoring.SlowQueryStatisticsFactory;
+import com.sbr.userapi.service.location.CountryCodeResolver;
+import com.sbr.userapi.service.location.IpCountryDatabase;
+import com.sbr.userapi.service.location.LocationService;
+import com.sbr.userapi.service.user.UserCache;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
 /**
  * The application configuration allows to create Spring Beans that are used by
  * other components so that they can be autowired
@@ -18,11 +53,60 @@ import org.springframework.web.client.RestTemplate;
  */
 @Component
 @Configuration
+@EnableScheduling
 public class ApplicationConfiguration {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ApplicationConfiguration.class);
+
+	/** Name of the cache of the Ip Api external service answers in metrics */
+	private static final String IP_API_CACHE_NAME = "ipapi.country";
+
+	/** Name of the bean running works in a read-only transaction */
+	public static final String READ_ONLY_TRANSACTION_OPERATIONS = "readOnlyTransactionOperations";
 
 	@Autowired
 	private ConfigurationBean configBean;
 
+	/**
+	 * Warn when virtual threads are enabled on a JDK which does not support them :
+	 * the application then runs on platform threads
+	 */
+	@PostConstruct
+	public void checkVirtualThreads() {
+		if (configBean.isVirtualThreadsEnabled() && !VirtualThreads.isSupported()) {
+			LOGGER.warn("Virtual threads are enabled but not supported by Java " + Runtime.version().feature()
+					+ " (Java 21 or later is needed) : platform threads are used");
+		}
+	}
+
+	/**
+	 * Register the events of the phases of the requests to the Java Flight
+	 * Recorder when they are enabled, so that they are recorded when a recording
+	 * is running. Otherwise they are not registered and cost nearly nothing
+	 */
+	@PostConstruct
+	public void registerRequestPhaseEvents() {
+		RequestPhaseEvent.setRegistered(configBean.isJfrEventsEnabled());
+		if (configBean.isJfrEventsEnabled() && LOGGER.isInfoEnabled()) {
+			LOGGER.info("Phases of the requests are recorded as Java Flight Recorder events "
+					+ RequestPhaseEvent.NAME + " when a recording is running");
+		}
+	}
+
+	/**
+	 * Process the requests on virtual threads, one per request, instead of the
+	 * pool of platform threads of Tomcat, when virtual threads are enabled (see
+	 * the <code>virtual-threads</code> profile) and supported
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "users.virtual-threads.enabled", havingValue = "true")
+	public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsProtocolHandlerCustomizer() {
+		return protocolHandler -> {
+			if (VirtualThreads.isSupported()) {
+				protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("tomcat-handler-"));
+			}
+		};
+	}
+
 	/**
 	 * Create a {@link RestTemplate} configured according to the application
 	 * properties file
@@ -33,4 +117,117 @@ public class ApplicationConfiguration {
 				.setReadTimeout(Duration.ofMillis(configBean.getIpAPITimeoutRead())).build();
 	}
 
+	/**
+	 * Create the non blocking {@link HttpClient} used by the asynchronous location
+	 * lookups, with the connect timeout of the application properties file. The
+	 * read timeout is set on each request. The answers are handled on virtual
+	 * threads when they are enabled and supported
+	 */
+	@Bean
+	public HttpClient ipApiHttpClient() {
+		final HttpClient.Builder builder = HttpClient.newBuilder()
+				.connectTimeout(Duration.ofMillis(configBean.getIpAPITimeoutConnect()));
+		if (configBean.isVirtualThreadsEnabled() && VirtualThreads.isSupported()) {
+			builder.executor(VirtualThreads.newThreadPerTaskExecutor("ipapi-client-"));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Create the local {@link CountryCodeResolver} : an {@link IpCountryDatabase}
+	 * loaded from the file configured in the application properties file, or an
+	 * empty database when no file is configured
+	 * 
+	 * @throws IOException when the configured file could not be read
+	 */
+	@Bean
+	public CountryCodeResolver localCountryCodeResolver(ResourceLoader resourceLoader) throws IOException {
+		final String databasePath = configBean.getLocationDatabasePath();
+		if (StringUtils.isBlank(databasePath)) {
+			return IpCountryDatabase.EMPTY;
+		}
+		try (InputStream csv = resourceLoader.getResource(databasePath).getInputStream()) {
+			return IpCountryDatabase.load(csv);
+		}
+	}
+
+	/**
+	 * Create the cache of the Ip Api external service answers used by the
+	 * {@link LocationService}
+	 */
+	@Bean
+	public AsyncCache<String, Optional<String>> ipApiCountryCodeCache() {
+		return LocationService.createExternalServiceCache(configBean);
+	}
+
+	/**
+	 * Register the statistics (hits, misses, load times...) of the cache of the Ip
+	 * Api external service answers as metrics <code>cache.*</code> tagged with
+	 * <code>cache=ipapi.country</code>
+	 */
+	@Bean
+	public MeterBinder ipApiCountryCodeCacheMetrics(AsyncCache<String, Optional<String>> ipApiCountryCodeCache) {
+		return registry -> CaffeineCacheMetrics.monitor(registry, ipApiCountryCodeCache.synchronous(),
+				IP_API_CACHE_NAME);
+	}
+
+	/**
+	 * Create the cache of users by id used by the {@link UserCache}
+	 */
+	@Bean
+	public AsyncCache<Long, User> userByIdCache() {
+		return UserCache.createCache(configBean);
+	}
+
+	/**
+	 * Register the statistics (hits, misses, evictions...) of the cache of users by
+	 * id as metrics <code>cache.*</code> tagged with <code>cache=users</code>
+	 */
+	@Bean
+	public MeterBinder userByIdCacheMetrics(AsyncCache<Long, User> userByIdCache) {
+		return registry -> CaffeineCacheMetrics.monitor(registry, userByIdCache.synchronous(), UserCache.CACHE_NAME);
+	}
+
+	/**
+	 * Run works in a read-write transaction. This is the transaction template
+	 * injected by default, it replaces the one of Spring Boot which backs off as
+	 * soon as another {@link TransactionOperations} bean exists
+	 */
+	@Bean
+	@Primary
+	public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+		return new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * Run works in a read-only transaction : Hibernate neither keeps a snapshot of
+	 * the loaded entities nor flushes them
+	 */
+	@Bean(READ_ONLY_TRANSACTION_OPERATIONS)
+	public TransactionOperations readOnlyTransactionOperations(PlatformTransactionManager transactionManager) {
+		final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setReadOnly(true);
+		return transactionTemplate;
+	}
+
+	/**
+	 * Build the Hibernate statistics so that they also record the slow queries in
+	 * the {@link SlowQueryLog}, see the <code>hibernate</code> Actuator endpoint
+	 */
+	@Bean
+	public HibernatePropertiesCustomizer slowQueryStatisticsCustomizer(SlowQueryLog slowQueryLog) {
+		return hibernateProperties -> hibernateProperties.put(StatisticsInitiator.STATS_BUILDER,
+				new SlowQueryStatisticsFactory(slowQueryLog));
+	}
+
+	/**
+	 * Time the methods annotated with {@link io.micrometer.core.annotation.Timed
+	 * Timed} (operations of the user service, messages sent to the message bus),
+	 * tagged with the class, the method and the exception thrown if any
+	 */
+	@Bean
+	public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+		return new TimedAspect(meterRegistry);
+	}
+
 }
\ No newline at end of file
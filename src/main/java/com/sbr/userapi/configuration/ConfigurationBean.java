@@ -3,6 +3,9 @@ package com.sbr.userapi.configuration;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.sbr.userapi.service.message.BackpressurePolicy;
+import com.sbr.userapi.service.message.MessageDeliveryMode;
+
 /**
  * Contains values from the application configuration
  * 
@@ -31,6 +34,185 @@ public class ConfigurationBean {
 	@Value("${ipapi.timeout.read}")
 	private long ipAPITimeoutRead;
 
+	/**
+	 * Whether the Ip Api external service is called when the country of an IP
+	 * address is not found in the local IP country database
+	 */
+	@Value("${ipapi.fallback.enabled}")
+	private boolean ipAPIFallbackEnabled;
+
+	/**
+	 * Maximum number of IP addresses whose country code returned by the Ip Api
+	 * external service is kept in cache
+	 */
+	@Value("${ipapi.cache.size}")
+	private long ipAPICacheSize;
+
+	/**
+	 * Time in seconds during which a country code returned by the Ip Api external
+	 * service is kept in cache
+	 */
+	@Value("${ipapi.cache.ttl.found}")
+	private long ipAPICacheTtlFound;
+
+	/**
+	 * Time in seconds during which an "Undefined" answer from the Ip Api external
+	 * service is kept in cache
+	 */
+	@Value("${ipapi.cache.ttl.undefined}")
+	private long ipAPICacheTtlUndefined;
+
+	/**
+	 * Location of the local IP country database CSV file, as a Spring resource
+	 * location (e.g. <code>file:/data/ip-country.csv</code> or
+	 * <code>classpath:ip-country.csv</code>). Empty when there is no local
+	 * database
+	 */
+	@Value("${location.database.path}")
+	private String locationDatabasePath;
+
+	/**
+	 * How messages about user operations are delivered to the message bus
+	 */
+	@Value("${messaging.delivery.mode}")
+	private MessageDeliveryMode messageDeliveryMode;
+
+	/**
+	 * Maximum number of messages sent by the outbox relay in one database
+	 * transaction
+	 */
+	@Value("${messaging.outbox.relay.batch-size}")
+	private int outboxRelayBatchSize;
+
+	/**
+	 * Maximum number of messages waiting in the queue of the asynchronous
+	 * publisher
+	 */
+	@Value("${messaging.async.queue-capacity}")
+	private int asyncQueueCapacity;
+
+	/**
+	 * Maximum number of messages sent in one batch by the asynchronous publisher
+	 */
+	@Value("${messaging.async.batch-size}")
+	private int asyncBatchSize;
+
+	/**
+	 * Maximum time in milliseconds a message waits for its batch to be full before
+	 * the asynchronous publisher sends it
+	 */
+	@Value("${messaging.async.linger}")
+	private long asyncLinger;
+
+	/**
+	 * What happens when a message is published while the queue of the
+	 * asynchronous publisher is full
+	 */
+	@Value("${messaging.async.backpressure}")
+	private BackpressurePolicy asyncBackpressurePolicy;
+
+	/**
+	 * Maximum time in milliseconds a caller waits for room in the queue of the
+	 * asynchronous publisher, with backpressure policy
+	 * {@link BackpressurePolicy#BLOCK}
+	 */
+	@Value("${messaging.async.block-timeout}")
+	private long asyncBlockTimeout;
+
+	/**
+	 * Maximum number of users created, updated or deleted in one database
+	 * transaction by a bulk operation
+	 */
+	@Value("${users.bulk.chunk-size}")
+	private int bulkChunkSize;
+
+	/** Maximum number of users kept in the cache of users by id */
+	@Value("${users.cache.size}")
+	private long userCacheSize;
+
+	/** Time in seconds during which a user is kept in the cache of users by id */
+	@Value("${users.cache.ttl}")
+	private long userCacheTtl;
+
+	/**
+	 * Number of emails the filter of emails is sized for, more layers are added
+	 * beyond
+	 */
+	@Value("${users.email-filter.expected-insertions}")
+	private long emailFilterExpectedInsertions;
+
+	/** Maximum false positive probability of the filter of emails */
+	@Value("${users.email-filter.fpp}")
+	private double emailFilterFpp;
+
+	/** Maximum number of events kept in the log of user changes */
+	@Value("${users.change-log.max-events}")
+	private int changeLogMaxEvents;
+
+	/** Time in seconds during which an event is kept in the log of user changes */
+	@Value("${users.change-log.retention}")
+	private long changeLogRetention;
+
+	/**
+	 * Maximum time in milliseconds a long polling consumer of the log of user
+	 * changes waits for events
+	 */
+	@Value("${users.change-log.poll-timeout}")
+	private long changeLogPollTimeout;
+
+	/**
+	 * Maximum time in milliseconds a stream (Server-Sent Events) of the log of
+	 * user changes stays open
+	 */
+	@Value("${users.change-log.stream-timeout}")
+	private long changeLogStreamTimeout;
+
+	/**
+	 * Maximum number of pages of events waiting to be sent to a subscriber of the
+	 * log of user changes, which is disconnected beyond
+	 */
+	@Value("${users.change-log.subscriber-buffer}")
+	private int changeLogSubscriberBuffer;
+
+	/**
+	 * Number of threads running the database transactions of the asynchronous
+	 * creations of users
+	 */
+	@Value("${users.async.write-threads}")
+	private int asyncWriteThreads;
+
+	/**
+	 * Maximum number of asynchronous creations of users waiting for a thread,
+	 * further ones are rejected
+	 */
+	@Value("${users.async.write-queue-capacity}")
+	private int asyncWriteQueueCapacity;
+
+	/**
+	 * Whether the requests and the asynchronous work run on virtual threads, when
+	 * the running JDK supports them
+	 */
+	@Value("${users.virtual-threads.enabled}")
+	private boolean virtualThreadsEnabled;
+
+	/**
+	 * Whether the phases of the requests are recorded as Java Flight Recorder
+	 * events when a recording is running
+	 */
+	@Value("${jfr.events.enabled}")
+	private boolean jfrEventsEnabled;
+
+	/**
+	 * Minimum execution time (in milliseconds) of the queries kept in the log of
+	 * slow queries, while the Hibernate statistics are enabled
+	 */
+	@Value("${jpa.diagnostics.slow-query-threshold}")
+	private long slowQueryThreshold;
+
+	/** Maximum number of queries kept in the log of slow queries */
+	@Value("${jpa.diagnostics.slow-query-log-size}")
+	private int slowQueryLogSize;
+
 	public String getIpAPIUrlTemplate() {
 		return ipAPIUrlTemplate;
 	}
@@ -55,4 +237,228 @@ public class ConfigurationBean {
 		this.ipAPITimeoutRead = ipAPITimeoutRead;
 	}
 
+	public boolean isIpAPIFallbackEnabled() {
+		return ipAPIFallbackEnabled;
+	}
+
+	public void setIpAPIFallbackEnabled(boolean ipAPIFallbackEnabled) {
+		this.ipAPIFallbackEnabled = ipAPIFallbackEnabled;
+	}
+
+	public long getIpAPICacheSize() {
+		return ipAPICacheSize;
+	}
+
+	public void setIpAPICacheSize(long ipAPICacheSize) {
+		this.ipAPICacheSize = ipAPICacheSize;
+	}
+
+	public long getIpAPICacheTtlFound() {
+		return ipAPICacheTtlFound;
+	}
+
+	public void setIpAPICacheTtlFound(long ipAPICacheTtlFound) {
+		this.ipAPICacheTtlFound = ipAPICacheTtlFound;
+	}
+
+	public long getIpAPICacheTtlUndefined() {
+		return ipAPICacheTtlUndefined;
+	}
+
+	public void setIpAPICacheTtlUndefined(long ipAPICacheTtlUndefined) {
+		this.ipAPICacheTtlUndefined = ipAPICacheTtlUndefined;
+	}
+
+	public String getLocationDatabasePath() {
+		return locationDatabasePath;
+	}
+
+	public void setLocationDatabasePath(String locationDatabasePath) {
+		this.locationDatabasePath = locationDatabasePath;
+	}
+
+	public MessageDeliveryMode getMessageDeliveryMode() {
+		return messageDeliveryMode;
+	}
+
+	public void setMessageDeliveryMode(MessageDeliveryMode messageDeliveryMode) {
+		this.messageDeliveryMode = messageDeliveryMode;
+	}
+
+	public int getOutboxRelayBatchSize() {
+		return outboxRelayBatchSize;
+	}
+
+	public void setOutboxRelayBatchSize(int outboxRelayBatchSize) {
+		this.outboxRelayBatchSize = outboxRelayBatchSize;
+	}
+
+	public int getAsyncQueueCapacity() {
+		return asyncQueueCapacity;
+	}
+
+	public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+		this.asyncQueueCapacity = asyncQueueCapacity;
+	}
+
+	public int getAsyncBatchSize() {
+		return asyncBatchSize;
+	}
+
+	public void setAsyncBatchSize(int asyncBatchSize) {
+		this.asyncBatchSize = asyncBatchSize;
+	}
+
+	public long getAsyncLinger() {
+		return asyncLinger;
+	}
+
+	public void setAsyncLinger(long asyncLinger) {
+		this.asyncLinger = asyncLinger;
+	}
+
+	public BackpressurePolicy getAsyncBackpressurePolicy() {
+		return asyncBackpressurePolicy;
+	}
+
+	public void setAsyncBackpressurePolicy(BackpressurePolicy asyncBackpressurePolicy) {
+		this.asyncBackpressurePolicy = asyncBackpressurePolicy;
+	}
+
+	public long getAsyncBlockTimeout() {
+		return asyncBlockTimeout;
+	}
+
+	public void setAsyncBlockTimeout(long asyncBlockTimeout) {
+		this.asyncBlockTimeout = asyncBlockTimeout;
+	}
+
+	public int getBulkChunkSize() {
+		return bulkChunkSize;
+	}
+
+	public void setBulkChunkSize(int bulkChunkSize) {
+		this.bulkChunkSize = bulkChunkSize;
+	}
+
+	public long getUserCacheSize() {
+		return userCacheSize;
+	}
+
+	public void setUserCacheSize(long userCacheSize) {
+		this.userCacheSize = userCacheSize;
+	}
+
+	public long getUserCacheTtl() {
+		return userCacheTtl;
+	}
+
+	public void setUserCacheTtl(long userCacheTtl) {
+		this.userCacheTtl = userCacheTtl;
+	}
+
+	public long getEmailFilterExpectedInsertions() {
+		return emailFilterExpectedInsertions;
+	}
+
+	public void setEmailFilterExpectedInsertions(long emailFilterExpectedInsertions) {
+		this.emailFilterExpectedInsertions = emailFilterExpectedInsertions;
+	}
+
+	public double getEmailFilterFpp() {
+		return emailFilterFpp;
+	}
+
+	public void setEmailFilterFpp(double emailFilterFpp) {
+		this.emailFilterFpp = emailFilterFpp;
+	}
+
+	public int getChangeLogMaxEvents() {
+		return changeLogMaxEvents;
+	}
+
+	public void setChangeLogMaxEvents(int changeLogMaxEvents) {
+		this.changeLogMaxEvents = changeLogMaxEvents;
+	}
+
+	public long getChangeLogRetention() {
+		return changeLogRetention;
+	}
+
+	public void setChangeLogRetention(long changeLogRetention) {
+		this.changeLogRetention = changeLogRetention;
+	}
+
+	public long getChangeLogPollTimeout() {
+		return changeLogPollTimeout;
+	}
+
+	public void setChangeLogPollTimeout(long changeLogPollTimeout) {
+		this.changeLogPollTimeout = changeLogPollTimeout;
+	}
+
+	public long getChangeLogStreamTimeout() {
+		return changeLogStreamTimeout;
+	}
+
+	public void setChangeLogStreamTimeout(long changeLogStreamTimeout) {
+		this.changeLogStreamTimeout = changeLogStreamTimeout;
+	}
+
+	public int getChangeLogSubscriberBuffer() {
+		return changeLogSubscriberBuffer;
+	}
+
+	public void setChangeLogSubscriberBuffer(int changeLogSubscriberBuffer) {
+		this.changeLogSubscriberBuffer = changeLogSubscriberBuffer;
+	}
+
+	public int getAsyncWriteThreads() {
+		return asyncWriteThreads;
+	}
+
+	public void setAsyncWriteThreads(int asyncWriteThreads) {
+		this.asyncWriteThreads = asyncWriteThreads;
+	}
+
+	public int getAsyncWriteQueueCapacity() {
+		return asyncWriteQueueCapacity;
+	}
+
+	public void setAsyncWriteQueueCapacity(int asyncWriteQueueCapacity) {
+		this.asyncWriteQueueCapacity = asyncWriteQueueCapacity;
+	}
+
+	public boolean isVirtualThreadsEnabled() {
+		return virtualThreadsEnabled;
+	}
+
+	public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+		this.virtualThreadsEnabled = virtualThreadsEnabled;
+	}
+
+	public boolean isJfrEventsEnabled() {
+		return jfrEventsEnabled;
+	}
+
+	public void setJfrEventsEnabled(boolean jfrEventsEnabled) {
+		this.jfrEventsEnabled = jfrEventsEnabled;
+	}
+
+	public long getSlowQueryThreshold() {
+		return slowQueryThreshold;
+	}
+
+	public void setSlowQueryThreshold(long slowQueryThreshold) {
+		this.slowQueryThreshold = slowQueryThreshold;
+	}
+
+	public int getSlowQueryLogSize() {
+		return slowQueryLogSize;
+	}
+
+	public void setSlowQueryLogSize(int slowQueryLogSize) {
+		this.slowQueryLogSize = slowQueryLogSize;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+package com.sbr.userapi.configuration;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads (JDK 21 and later) while the application is compiled
+ * for an older Java release : the JDK methods are looked up by reflection, so
+ * the same build runs on platform threads on older JDKs and on virtual threads
+ * on newer ones
+ * 
+ * @author sbrouet
+ *
+ */
+public final class VirtualThreads {
+
+	/** First Java release where virtual threads are a final feature */
+	private static final int MIN_JAVA_VERSION = 21;
+
+	/**
+	 * <code>Thread.ofVirtual()</code>, <code>null</code> before JDK 21. JDK 19 and
+	 * 20 have it as a preview feature, which fails unless previews are enabled
+	 */
+	private static final Method OF_VIRTUAL = findOfVirtual();
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return whether the running JDK supports virtual threads
+	 */
+	public static boolean isSupported() {
+		return null != OF_VIRTUAL;
+	}
+
+	/**
+	 * Create a factory of virtual threads
+	 * 
+	 * @param prefix prefix of the names of the threads, followed by a counter
+	 * @return the factory
+	 * @throws UnsupportedOperationException when the running JDK does not support
+	 *                                       virtual threads
+	 */
+	public static ThreadFactory newThreadFactory(final String prefix) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException(
+					"Virtual threads are not supported by Java " + Runtime.version().feature());
+		}
+		try {
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = OF_VIRTUAL.invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not create a factory of virtual threads", e);
+		}
+	}
+
+	/**
+	 * Create an executor which starts a new virtual thread for each task
+	 * 
+	 * @param prefix prefix of the names of the threads, followed by a counter
+	 * @return the executor
+	 * @throws UnsupportedOperationException when the running JDK does not support
+	 *                                       virtual threads
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(final String prefix) {
+		final ThreadFactory threadFactory = newThreadFactory(prefix);
+		try {
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, threadFactory);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not create an executor of virtual threads", e);
+		}
+	}
+
+	private static Method findOfVirtual() {
+		if (Runtime.version().feature() < MIN_JAVA_VERSION) {
+			return null;
+		}
+		try {
+			return Thread.class.getMethod("ofVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
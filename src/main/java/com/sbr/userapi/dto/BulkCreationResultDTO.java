@@ -0,0 +1,35 @@
+package com.sbr.userapi.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A Data Transfer Object that represents the outcome of a bulk creation of
+ * users
+ * 
+ * @author sbrouet
+ *
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class BulkCreationResultDTO {
+
+	/** Number of users created */
+	private int created;
+
+	/** Number of users not created, because invalid or failed */
+	private int rejected;
+
+	/** One result per user, in the order of the request */
+	private List<UserCreationResultDTO> results;
+}
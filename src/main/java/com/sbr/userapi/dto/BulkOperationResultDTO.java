@@ -0,0 +1,32 @@
+package com.sbr.userapi.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A Data Transfer Object that represents the outcome of a bulk delete or
+ * update of users
+ * 
+ * @author sbrouet
+ *
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class BulkOperationResultDTO {
+
+	/** Number of users deleted or updated */
+	private int affected;
+
+	/** Requested ids for which no user exists */
+	private List<Long> missingIds;
+}
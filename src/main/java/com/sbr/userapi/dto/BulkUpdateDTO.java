@@ -0,0 +1,33 @@
+package com.sbr.userapi.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A Data Transfer Object that represents the same update applied to many
+ * users. Fields left <code>null</code> are not updated
+ * 
+ * @author sbrouet
+ *
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString(exclude = "password")
+public class BulkUpdateDTO {
+
+	/** Ids of the users to be updated */
+	private List<Long> ids;
+
+	private String firstName;
+
+	private String password;
+}
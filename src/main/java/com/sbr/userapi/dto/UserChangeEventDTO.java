@@ -0,0 +1,33 @@
+package com.sbr.userapi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A Data Transfer Object that represents a change of a user read from the log
+ * of user changes
+ * 
+ * @author sbrouet
+ * 
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class UserChangeEventDTO {
+
+	private long offset;
+
+	private long timeStamp;
+
+	/** USER_CREATED, USER_UPDATED or USER_DELETED */
+	private String type;
+
+	private Long userId;
+}
@@ -0,0 +1,37 @@
+package com.sbr.userapi.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A Data Transfer Object that represents the changes of users read from the
+ * log of user changes from a given offset
+ * 
+ * @author sbrouet
+ * 
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class UserChangeFeedDTO {
+
+	/** Identifies the log the offsets come from */
+	private String logId;
+
+	/** When <code>true</code>, changes were missed : users must be read again */
+	private boolean reset;
+
+	/** Offset to read the next changes from */
+	private long nextOffset;
+
+	private List<UserChangeEventDTO> events;
+}
@@ -0,0 +1,38 @@
+package com.sbr.userapi.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A Data Transfer Object that represents the outcome of the creation of one
+ * user among the users of a bulk creation
+ * 
+ * @author sbrouet
+ *
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class UserCreationResultDTO {
+
+	/** Position of the user in the request, starting from 0 */
+	private int index;
+
+	/** CREATED, INVALID or FAILED */
+	private String status;
+
+	/** Id of the created user, <code>null</code> when not created */
+	private Long id;
+
+	/** Why the user was not created, empty when created */
+	private List<String> errors;
+}
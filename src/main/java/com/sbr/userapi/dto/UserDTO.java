@@ -1,5 +1,8 @@
 package com.sbr.userapi.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -28,4 +31,12 @@ public class UserDTO {
 	private String email;
 
 	private String password;
+
+	/**
+	 * Version of the user, see {@link com.sbr.userapi.model.User#getVersion()}.
+	 * When set on an update, the update is rejected if the user has another
+	 * version
+	 */
+	@JsonInclude(Include.NON_NULL)
+	private Long version;
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.sbr.userapi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A Data Transfer Object that represents a user suggested by the
+ * autocompletion on first name
+ * 
+ * @author sbrouet
+ * 
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class UserSuggestionDTO {
+
+	private Long id;
+
+	private String firstName;
+}
@@ -0,0 +1,18 @@
+package com.sbr.userapi.exception;
+
+/**
+ * Exception when a JSON Patch document cannot be applied to a User because it
+ * is malformed, or uses an operation or a path which is not supported<BR/>
+ * It is mapped to HTTP Status {@link HttpStatus#BAD_REQUEST)} (error 400)
+ * 
+ * @author sbrouet
+ * 
+ */
+public class InvalidPatchException extends Exception {
+
+	private static final long serialVersionUID = -6114387562940316281L;
+
+	public InvalidPatchException(String message) {
+		super(message);
+	}
+}
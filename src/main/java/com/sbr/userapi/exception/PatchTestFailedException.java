@@ -0,0 +1,19 @@
+package com.sbr.userapi.exception;
+
+/**
+ * Exception when a <code>test</code> operation of a JSON Patch document fails
+ * : the User does not have the expected value, so the patch is not applied at
+ * all<BR/>
+ * It is mapped to HTTP Status {@link HttpStatus#CONFLICT)} (error 409)
+ * 
+ * @author sbrouet
+ * 
+ */
+public class PatchTestFailedException extends Exception {
+
+	private static final long serialVersionUID = 2950738149164327561L;
+
+	public PatchTestFailedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,19 @@
+package com.sbr.userapi.exception;
+
+/**
+ * Exception when a precondition of a request, such as its
+ * <code>If-Match</code> header, cannot be met<BR/>
+ * It is mapped to HTTP Status {@link HttpStatus#PRECONDITION_FAILED)} (error
+ * 412)
+ * 
+ * @author sbrouet
+ * 
+ */
+public class PreconditionFailedException extends Exception {
+
+	private static final long serialVersionUID = -2294618837104521750L;
+
+	public PreconditionFailedException(String message) {
+		super(message);
+	}
+}
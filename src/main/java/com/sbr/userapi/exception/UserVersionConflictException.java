@@ -0,0 +1,19 @@
+package com.sbr.userapi.exception;
+
+/**
+ * Exception when a User could not be updated because it does not have the
+ * version expected by the update anymore : it was updated meanwhile by another
+ * writer<BR/>
+ * It is mapped to HTTP Status {@link HttpStatus#CONFLICT)} (error 409)
+ * 
+ * @author sbrouet
+ *
+ */
+public class UserVersionConflictException extends Exception {
+
+	private static final long serialVersionUID = 4187210586385032649L;
+
+	public UserVersionConflictException(String message) {
+		super(message);
+	}
+}
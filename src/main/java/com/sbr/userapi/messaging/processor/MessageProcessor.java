@@ -1,11 +1,15 @@
 package com.sbr.userapi.messaging.processor;
 
+import org.springframework.cloud.stream.annotation.Input;
 import org.springframework.cloud.stream.annotation.Output;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
 
 /**
- * Provides access to a binded output channel. Binded automatically at
- * application startup thanks to the
+ * Provides access to the binded output channel, where user messages are sent,
+ * and to the binded input channel, where each application instance receives
+ * all the user messages to keep its cache of users coherent. Binded
+ * automatically at application startup thanks to the
  * {@link org.springframework.cloud.stream.annotation.EnableBinding
  * EnableBinding} annotation, see application main class
  * {@link com.sbr.userapi.UserApiApplication}
@@ -16,6 +20,15 @@ import org.springframework.messaging.MessageChannel;
 public interface MessageProcessor {
 	static final String OUTPUT_MESSAGE_CHANNEL_NAME = "com.sbr.userapi.output";
 
+	/**
+	 * Input channel bound to the destination of the output channel, without
+	 * consumer group : each application instance receives all messages
+	 */
+	static final String INVALIDATION_INPUT_CHANNEL_NAME = "cacheInvalidationInput";
+
 	@Output(OUTPUT_MESSAGE_CHANNEL_NAME)
 	MessageChannel mainChannel();
+
+	@Input(INVALIDATION_INPUT_CHANNEL_NAME)
+	SubscribableChannel invalidationChannel();
 }
\ No newline at end of file
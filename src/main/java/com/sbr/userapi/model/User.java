@@ -4,13 +4,18 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -27,15 +32,32 @@ import lombok.Setter;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "USER")
+@Table(name = "USER", indexes = { @Index(name = "IDX_USER_FIRST_NAME", columnList = "first_name"),
+		@Index(name = "UK_USER_EMAIL", columnList = "email", unique = true) })
 public class User {
 
+	/**
+	 * Number of user ids reserved at once by an application instance.<BR/>
+	 * WARNING : MUST be equal to the <code>INCREMENT BY</code> value of database
+	 * sequence SEQ_USER_ID
+	 */
+	public static final int ID_ALLOCATION_SIZE = 50;
+
 	/**
 	 * User id. Ids are generated by a sequence generator based on a sequence which
-	 * is required to exist inside database
+	 * is required to exist inside database.<BR/>
+	 * Ids are allocated by blocks ("pooled-lo" optimizer) : each sequence call
+	 * returns the first id of a block of {@link #ID_ALLOCATION_SIZE} ids which is
+	 * reserved for this application instance, so the sequence is called once per
+	 * block instead of once per insert. Application instances sharing the database
+	 * never get the same block
 	 */
 	@Id
-	@SequenceGenerator(name = "userIdSequenceGenerator", sequenceName = "SEQ_USER_ID", initialValue = 10, allocationSize = 1)
+	@GenericGenerator(name = "userIdSequenceGenerator", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+			@Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "SEQ_USER_ID"),
+			@Parameter(name = SequenceStyleGenerator.INITIAL_PARAM, value = "10"),
+			@Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "" + ID_ALLOCATION_SIZE),
+			@Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo") })
 	@GeneratedValue(generator = "userIdSequenceGenerator")
 	@NotNull(message = "id cannot be null")
 	private Long id;
@@ -45,6 +67,7 @@ public class User {
 	@Size(min = 1, max = 100, message = "first_name must be between {min} and {max} characters long")
 	private String firstName;
 
+	/** Unique : at most one user per email */
 	@Column(name = "email", nullable = false, length = 50)
 	@Email(message = "Email should be valid")
 	@NotBlank(message = "email cannot be null or blank")
@@ -56,6 +79,27 @@ public class User {
 	@Size(min = 10, max = 50, message = "password must be between {min} and {max} characters long")
 	private String password;
 
+	/**
+	 * Version of the user, incremented by each update. An update which expects a
+	 * version is rejected when the user was meanwhile updated by another writer
+	 * (optimistic concurrency). <code>null</code> when the version is not known
+	 */
+	@Version
+	@Column(name = "version", nullable = false)
+	private Long version;
+
+	/**
+	 * Constructor with all fields set except version
+	 * 
+	 * @param id        user's id
+	 * @param firstName user's first name
+	 * @param email     user's email
+	 * @param password  user's password
+	 */
+	public User(final Long id, final String firstName, final String email, final String password) {
+		this(id, firstName, email, password, null);
+	}
+
 	/**
 	 * Constructor with all fields set except id
 	 * 
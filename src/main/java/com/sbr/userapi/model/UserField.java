@@ -0,0 +1,66 @@
+package com.sbr.userapi.model;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The fields of a {@link User} which can be written by a partial update. The
+ * name of a field is both its property in the JSON representation of a user
+ * and its attribute in JPQL queries
+ * 
+ * @author sbrouet
+ * 
+ */
+public enum UserField {
+	FIRST_NAME("firstName", User::getFirstName, User::setFirstName),
+	EMAIL("email", User::getEmail, User::setEmail),
+	PASSWORD("password", User::getPassword, User::setPassword);
+
+	private final String name;
+
+	private final Function<User, String> getter;
+
+	private final BiConsumer<User, String> setter;
+
+	private UserField(final String name, final Function<User, String> getter, final BiConsumer<User, String> setter) {
+		this.name = name;
+		this.getter = getter;
+		this.setter = setter;
+	}
+
+	/**
+	 * Find a field by its name
+	 * 
+	 * @param name name of the field, such as <code>firstName</code>
+	 * @return the field, or <code>null</code> when there is no writable field with
+	 *         this name
+	 */
+	public static UserField fromName(final String name) {
+		for (UserField field : values()) {
+			if (field.name.equals(name)) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param user a user
+	 * @return the value of this field in given user
+	 */
+	public String get(final User user) {
+		return getter.apply(user);
+	}
+
+	/**
+	 * @param user  a user
+	 * @param value the new value of this field in given user
+	 */
+	public void set(final User user, final String value) {
+		setter.accept(user, value);
+	}
+}
@@ -1,5 +1,10 @@
 package com.sbr.userapi.model.messaging;
 
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
@@ -21,13 +26,19 @@ public class Message {
 	 * Enumeration of the valid message types that describe a user operation
 	 */
 	public static enum Type {
-		USER_CREATED, USER_DELETED, USER_UPDATED
+		USER_CREATED, USER_DELETED, USER_UPDATED,
+		/** Many users were created at once, their ids are in {@link #userIds} */
+		USERS_CREATED
 	}
 
 	private long timeStamp;
 
 	private Long userId;
 
+	/** Ids of the users the message is about, only for operations on many users */
+	@JsonInclude(Include.NON_NULL)
+	private List<Long> userIds;
+
 	private Type type;
 
 	/** Default constructor */
@@ -48,4 +59,17 @@ public class Message {
 		this.type = type;
 	}
 
+	/**
+	 * Constructor for a message about many users
+	 * 
+	 * @param userIds ids of the users
+	 * @param the     type of operation
+	 */
+	public Message(long timeStamp, List<Long> userIds, Type type) {
+		super();
+		this.timeStamp = timeStamp;
+		this.userIds = userIds;
+		this.type = type;
+	}
+
 }
@@ -0,0 +1,97 @@
+package com.sbr.userapi.model.messaging;
+
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Entity for mapping messages waiting to be sent to the message bus to the
+ * database table "OUTBOX_MESSAGE" (transactional outbox). Such a message is
+ * stored in the same transaction as the user operation it describes, then sent
+ * and deleted by the {@link com.sbr.userapi.service.message.OutboxRelay
+ * OutboxRelay}
+ * 
+ * @author sbrouet
+ *
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@ToString
+@Entity
+@Table(name = "OUTBOX_MESSAGE")
+public class OutboxMessage {
+
+	/**
+	 * Outbox message id. Ids are generated by a sequence generator based on a
+	 * sequence which is required to exist inside database. Ids are NOT reserved by
+	 * blocks unlike {@link com.sbr.userapi.model.User#getId() user ids} : all
+	 * application instances take the next value of the shared sequence, one id
+	 * at a time.<BR/>
+	 * This keeps the messages of a user in the order of its operations : an
+	 * operation writes the row of the user (or locks it) before storing its
+	 * message, so a later operation on the same user waits for the commit of the
+	 * previous one, and then gets a greater id from the sequence. With ids
+	 * reserved by blocks, the later operation could get a smaller id from the
+	 * block of another instance.<BR/>
+	 * Ids do NOT give the commit order of messages about different users : a
+	 * transaction may take an id then commit after a transaction which took a
+	 * greater id, so the relay may send the second message first. No global order
+	 * is guaranteed
+	 */
+	@Id
+	@SequenceGenerator(name = "outboxMessageIdSequenceGenerator", sequenceName = "SEQ_OUTBOX_MESSAGE_ID", allocationSize = 1)
+	@GeneratedValue(generator = "outboxMessageIdSequenceGenerator")
+	private Long id;
+
+	@Column(name = "time_stamp", nullable = false)
+	private long timeStamp;
+
+	@Column(name = "user_id")
+	private Long userId;
+
+	@Lob
+	@Column(name = "user_ids")
+	@Convert(converter = UserIdListConverter.class)
+	private List<Long> userIds;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "type", nullable = false, length = 20)
+	private Message.Type type;
+
+	/**
+	 * Constructor from the message to be sent
+	 * 
+	 * @param message message to be sent to the message bus
+	 */
+	public OutboxMessage(final Message message) {
+		super();
+		this.timeStamp = message.getTimeStamp();
+		this.userId = message.getUserId();
+		this.userIds = message.getUserIds();
+		this.type = message.getType();
+	}
+
+	/**
+	 * @return the message to be sent to the message bus
+	 */
+	public Message toMessage() {
+		final Message message = new Message(timeStamp, userId, type);
+		message.setUserIds(userIds);
+		return message;
+	}
+}
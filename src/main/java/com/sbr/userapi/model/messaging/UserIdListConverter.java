@@ -0,0 +1,40 @@
+package com.sbr.userapi.model.messaging;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores a list of user ids in a single database column, as comma separated
+ * values
+ * 
+ * @author sbrouet
+ *
+ */
+@Converter
+public class UserIdListConverter implements AttributeConverter<List<Long>, String> {
+
+	private static final String SEPARATOR = ",";
+
+	@Override
+	public String convertToDatabaseColumn(final List<Long> userIds) {
+		if (null == userIds) {
+			return null;
+		}
+		return userIds.stream().map(String::valueOf).collect(Collectors.joining(SEPARATOR));
+	}
+
+	@Override
+	public List<Long> convertToEntityAttribute(final String column) {
+		if (null == column) {
+			return null;
+		}
+		if (column.isEmpty()) {
+			return List.of();
+		}
+		return Arrays.stream(column.split(SEPARATOR)).map(Long::valueOf).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,201 @@
+package com.sbr.userapi.monitoring;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Actuator endpoint <code>/actuator/hibernate</code> exposing the Hibernate
+ * statistics, to find slow queries and N+1 patterns under production load
+ * without restarting :
+ * <ul>
+ * <li><code>GET</code> : executions, mean and max time of each query, loads and
+ * fetches of each entity, second level cache hit ratios and the most recent
+ * {@link SlowQueryLog slow queries}</li>
+ * <li><code>POST</code> with <code>{"enabled": true|false,
+ * "slowQueryThreshold": ms}</code> (both optional) : enable or disable the
+ * statistics, change the threshold of the slow queries</li>
+ * <li><code>DELETE</code> : reset the statistics and the slow queries</li>
+ * </ul>
+ * The statistics are disabled at startup unless property
+ * <code>spring.jpa.properties.hibernate.generate_statistics</code> is
+ * <code>true</code>, as collecting them costs on each query
+ * 
+ * @author sbrouet
+ *
+ */
+@Component
+@Endpoint(id = "hibernate")
+public class HibernateStatisticsEndpoint {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HibernateStatisticsEndpoint.class);
+
+	private final Statistics statistics;
+
+	private final SlowQueryLog slowQueryLog;
+
+	@Autowired
+	public HibernateStatisticsEndpoint(EntityManagerFactory entityManagerFactory, SlowQueryLog slowQueryLog) {
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		this.slowQueryLog = slowQueryLog;
+	}
+
+	@ReadOperation
+	public HibernateStatisticsDescriptor statistics() {
+		final List<QueryDescriptor> queries = Arrays.stream(statistics.getQueries())
+				.map(query -> new QueryDescriptor(query, statistics.getQueryStatistics(query)))
+				.sorted(Comparator.comparingLong(QueryDescriptor::getTotalTime).reversed())
+				.collect(Collectors.toList());
+		final List<EntityDescriptor> entities = Arrays.stream(statistics.getEntityNames())
+				.map(entity -> new EntityDescriptor(entity, statistics.getEntityStatistics(entity)))
+				.collect(Collectors.toList());
+		final List<CacheRegionDescriptor> cacheRegions = Arrays
+				.stream(statistics.getSecondLevelCacheRegionNames())
+				.map(region -> new CacheRegionDescriptor(region, statistics.getDomainDataRegionStatistics(region)))
+				.collect(Collectors.toList());
+		return new HibernateStatisticsDescriptor(statistics.isStatisticsEnabled(), statistics.getStartTime(),
+				statistics.getTransactionCount(), statistics.getPrepareStatementCount(),
+				statistics.getEntityLoadCount(), statistics.getEntityFetchCount(),
+				statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount(),
+				ratio(statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount()), queries,
+				entities, cacheRegions, slowQueryLog.getThreshold(), slowQueryLog.getQueries());
+	}
+
+	/**
+	 * Enable or disable the statistics and change the threshold of the slow
+	 * queries
+	 * 
+	 * @param enabled            whether the statistics are collected, unchanged
+	 *                           when <code>null</code>
+	 * @param slowQueryThreshold minimum execution time (in milliseconds) of a slow
+	 *                           query, unchanged when <code>null</code>
+	 */
+	@WriteOperation
+	public void configure(@Nullable Boolean enabled, @Nullable Long slowQueryThreshold) {
+		if (null != slowQueryThreshold) {
+			slowQueryLog.setThreshold(slowQueryThreshold);
+		}
+		if (null != enabled) {
+			statistics.setStatisticsEnabled(enabled);
+		}
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info("Hibernate statistics enabled : " + statistics.isStatisticsEnabled()
+					+ ", slow query threshold : " + slowQueryLog.getThreshold() + " ms");
+		}
+	}
+
+	/**
+	 * Reset the statistics and forget the slow queries
+	 */
+	@DeleteOperation
+	public void clear() {
+		statistics.clear();
+		slowQueryLog.clear();
+	}
+
+	/**
+	 * @return hits / (hits + misses), <code>null</code> when there was no access
+	 */
+	private static Double ratio(final long hits, final long misses) {
+		return 0 == hits + misses ? null : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * Statistics of the Hibernate session factory. Times are in milliseconds
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static final class HibernateStatisticsDescriptor {
+		private final boolean enabled;
+		/** Time stamp of the start of the statistics or of their last reset */
+		private final long startTime;
+		private final long transactionCount;
+		/** JDBC statements prepared : many statements per transaction hint at N+1 */
+		private final long statementCount;
+		private final long entityLoadCount;
+		private final long entityFetchCount;
+		private final long secondLevelCacheHitCount;
+		private final long secondLevelCacheMissCount;
+		private final Double secondLevelCacheHitRatio;
+		/** Sorted by total execution time, the longest first */
+		private final List<QueryDescriptor> queries;
+		private final List<EntityDescriptor> entities;
+		private final List<CacheRegionDescriptor> secondLevelCacheRegions;
+		private final long slowQueryThreshold;
+		/** The most recent first */
+		private final List<SlowQuery> slowQueries;
+	}
+
+	@Getter
+	public static final class QueryDescriptor {
+		private final String query;
+		private final long executionCount;
+		private final long rowCount;
+		private final double meanTime;
+		private final long maxTime;
+		private final long totalTime;
+
+		QueryDescriptor(final String query, final QueryStatistics queryStatistics) {
+			this.query = query;
+			this.executionCount = queryStatistics.getExecutionCount();
+			this.rowCount = queryStatistics.getExecutionRowCount();
+			this.meanTime = queryStatistics.getExecutionAvgTimeAsDouble();
+			this.maxTime = queryStatistics.getExecutionMaxTime();
+			this.totalTime = queryStatistics.getExecutionTotalTime();
+		}
+	}
+
+	@Getter
+	public static final class EntityDescriptor {
+		private final String entity;
+		private final long loadCount;
+		private final long fetchCount;
+		private final long insertCount;
+		private final long updateCount;
+		private final long deleteCount;
+
+		EntityDescriptor(final String entity, final EntityStatistics entityStatistics) {
+			this.entity = entity;
+			this.loadCount = entityStatistics.getLoadCount();
+			this.fetchCount = entityStatistics.getFetchCount();
+			this.insertCount = entityStatistics.getInsertCount();
+			this.updateCount = entityStatistics.getUpdateCount();
+			this.deleteCount = entityStatistics.getDeleteCount();
+		}
+	}
+
+	@Getter
+	public static final class CacheRegionDescriptor {
+		private final String region;
+		private final long hitCount;
+		private final long missCount;
+		private final Double hitRatio;
+
+		CacheRegionDescriptor(final String region, final CacheRegionStatistics regionStatistics) {
+			this.region = region;
+			this.hitCount = regionStatistics.getHitCount();
+			this.missCount = regionStatistics.getMissCount();
+			this.hitRatio = ratio(hitCount, missCount);
+		}
+	}
+}
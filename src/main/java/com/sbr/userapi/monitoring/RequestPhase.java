@@ -0,0 +1,21 @@
+package com.sbr.userapi.monitoring;
+
+/**
+ * Phases of the processing of a request on users, recorded as
+ * {@link RequestPhaseEvent}
+ * 
+ * @author sbrouet
+ *
+ */
+public enum RequestPhase {
+	/** From the entry in the controller until the response is ready */
+	CONTROLLER,
+	/** Conversion between user entities and DTOs */
+	MAPPING,
+	/** Call to a repository, including the database round trips */
+	REPOSITORY,
+	/** Call to the Ip Api external service to get the country of a client */
+	LOCATION_LOOKUP,
+	/** Sending of a message to the message bus */
+	MESSAGE_SEND;
+}
@@ -0,0 +1,117 @@
+package com.sbr.userapi.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Registered;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event timing one {@link RequestPhase phase} of the
+ * processing of a request on users, to be correlated with the GC, lock and I/O
+ * events of the same recording.<BR/>
+ * 
+ * The event is only registered to the Flight Recorder when property
+ * <code>jfr.events.enabled</code> is <code>true</code> (see
+ * {@link #setRegistered(boolean)}). Otherwise its methods are the empty ones of
+ * {@link Event}, so that timing a phase costs nearly nothing. It is recorded
+ * only when a recording is running, e.g. started with
+ * <code>-XX:StartFlightRecording</code> or <code>jcmd &lt;pid&gt; JFR.start</code>
+ * 
+ * <pre>
+ * final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.MAPPING, "userToUserDTO");
+ * try {
+ * 	// phase
+ * } finally {
+ * 	event.finish(userId);
+ * }
+ * </pre>
+ * 
+ * @author sbrouet
+ *
+ */
+@Name(RequestPhaseEvent.NAME)
+@Label("User API Request Phase")
+@Category({ "User API" })
+@Description("Duration of a phase of the processing of a request on users")
+@StackTrace(false)
+@Registered(false)
+public class RequestPhaseEvent extends Event {
+
+	/** Name of the event in the recordings */
+	public static final String NAME = "com.sbr.userapi.RequestPhase";
+
+	/** Value of {@link #userId} when the phase is not about a single user */
+	public static final long NO_USER_ID = 0;
+
+	@Label("Phase")
+	private String phase;
+
+	@Label("Operation")
+	@Description("Method of the controller or of the repository, external service call or message type")
+	private String operation;
+
+	@Label("User Id")
+	@Description("Id of the user the phase is about, 0 when none or many")
+	private long userId;
+
+	/**
+	 * Start timing a phase
+	 * 
+	 * @param phase     the phase
+	 * @param operation what is done in the phase
+	 * @return the started event, to be {@link #finish(Long) finished} at the end
+	 *         of the phase
+	 */
+	public static RequestPhaseEvent start(final RequestPhase phase, final String operation) {
+		final RequestPhaseEvent event = new RequestPhaseEvent();
+		if (event.isEnabled()) {
+			event.phase = phase.name();
+			event.operation = operation;
+			event.begin();
+		}
+		return event;
+	}
+
+	/**
+	 * End timing the phase and record the event, when a recording is running and
+	 * the duration of the phase reaches the threshold of the recording
+	 * 
+	 * @param userId id of the user the phase is about, may be <code>null</code>
+	 */
+	public void finish(final Long userId) {
+		end();
+		if (shouldCommit()) {
+			this.userId = null == userId ? NO_USER_ID : userId;
+			commit();
+		}
+	}
+
+	/**
+	 * Register the event to the Flight Recorder, or unregister it
+	 * 
+	 * @param registered whether the event is recorded when a recording is running
+	 */
+	public static void setRegistered(final boolean registered) {
+		if (registered) {
+			FlightRecorder.register(RequestPhaseEvent.class);
+		} else {
+			FlightRecorder.unregister(RequestPhaseEvent.class);
+		}
+	}
+
+	public String getPhase() {
+		return phase;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+}
@@ -0,0 +1,119 @@
+package com.sbr.userapi.monitoring;
+
+import java.util.concurrent.CompletionStage;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpEntity;
+import org.springframework.stereotype.Component;
+
+import com.sbr.userapi.dto.UserDTO;
+import com.sbr.userapi.model.User;
+
+/**
+ * Records a {@link RequestPhaseEvent} for each call to an endpoint of the
+ * {@link com.sbr.userapi.web.UserController UserController} (phase
+ * {@link RequestPhase#CONTROLLER}, until the returned future is completed for
+ * the asynchronous endpoints) and for each call to a repository (phase
+ * {@link RequestPhase#REPOSITORY}).<BR/>
+ * 
+ * Only created when property <code>jfr.events.enabled</code> is
+ * <code>true</code> : otherwise the controller and the repositories are not
+ * proxied for the events at all
+ * 
+ * @author sbrouet
+ *
+ */
+@Aspect
+@Component
+@ConditionalOnProperty(name = "jfr.events.enabled", havingValue = "true")
+public class RequestPhaseEventsAspect {
+
+	/** Name of the parameters holding the id of a user */
+	private static final String USER_ID_PARAMETER_NAME = "id";
+
+	@Around("execution(public * com.sbr.userapi.web.UserController.*(..))")
+	public Object recordControllerPhase(final ProceedingJoinPoint joinPoint) throws Throwable {
+		return record(RequestPhase.CONTROLLER, joinPoint.getSignature().getName(), joinPoint);
+	}
+
+	@Around("this(org.springframework.data.repository.Repository)")
+	public Object recordRepositoryPhase(final ProceedingJoinPoint joinPoint) throws Throwable {
+		// Repository methods are mostly declared by the Spring Data interfaces :
+		// the operation is named after the repository of the application
+		return record(RequestPhase.REPOSITORY,
+				AopProxyUtils.proxiedUserInterfaces(joinPoint.getThis())[0].getSimpleName() + "."
+						+ joinPoint.getSignature().getName(),
+				joinPoint);
+	}
+
+	private Object record(final RequestPhase phase, final String operation, final ProceedingJoinPoint joinPoint)
+			throws Throwable {
+		final RequestPhaseEvent event = RequestPhaseEvent.start(phase, operation);
+		final Long argumentUserId = findUserId(joinPoint);
+		Object result = null;
+		try {
+			result = joinPoint.proceed();
+			if (result instanceof CompletionStage) {
+				// The phase ends when the asynchronous processing is over
+				return ((CompletionStage<?>) result).whenComplete(
+						(value, e) -> event.finish(null != argumentUserId ? argumentUserId : userIdOf(value)));
+			}
+			return result;
+		} finally {
+			if (!(result instanceof CompletionStage)) {
+				event.finish(null != argumentUserId ? argumentUserId : userIdOf(result));
+			}
+		}
+	}
+
+	/**
+	 * Find the id of the user a call is about in its arguments : a {@link User},
+	 * an argument named <code>id</code> or the only argument when it is a
+	 * {@link Long} (the names of the parameters of the Spring Data interfaces are
+	 * not known)
+	 * 
+	 * @return the id, <code>null</code> when not found
+	 */
+	private static Long findUserId(final ProceedingJoinPoint joinPoint) {
+		final Object[] args = joinPoint.getArgs();
+		if (args.length == 1 && args[0] instanceof Long) {
+			return (Long) args[0];
+		}
+		final String[] parameterNames = joinPoint.getSignature() instanceof MethodSignature
+				? ((MethodSignature) joinPoint.getSignature()).getParameterNames()
+				: null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] instanceof User) {
+				return ((User) args[i]).getId();
+			}
+			if (args[i] instanceof Long && null != parameterNames && i < parameterNames.length
+					&& USER_ID_PARAMETER_NAME.equals(parameterNames[i])) {
+				return (Long) args[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param value result of a call
+	 * @return id of the user returned by a call, as entity, DTO or body of a
+	 *         response, <code>null</code> when the call did not return a user
+	 */
+	private static Long userIdOf(final Object value) {
+		if (value instanceof User) {
+			return ((User) value).getId();
+		}
+		if (value instanceof UserDTO) {
+			return ((UserDTO) value).getId();
+		}
+		if (value instanceof HttpEntity) {
+			return userIdOf(((HttpEntity<?>) value).getBody());
+		}
+		return null;
+	}
+}
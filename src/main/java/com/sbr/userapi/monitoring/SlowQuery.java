@@ -0,0 +1,51 @@
+package com.sbr.userapi.monitoring;
+
+/**
+ * A query whose execution took longer than the threshold of the
+ * {@link SlowQueryLog}
+ * 
+ * @author sbrouet
+ *
+ */
+public class SlowQuery {
+
+	/** Time stamp of the end of the execution */
+	private final long timeStamp;
+
+	/** HQL / JPQL query, or SQL for a native query */
+	private final String query;
+
+	/** Execution time in milliseconds */
+	private final long time;
+
+	/** Number of rows returned */
+	private final int rows;
+
+	public SlowQuery(final long timeStamp, final String query, final long time, final int rows) {
+		this.timeStamp = timeStamp;
+		this.query = query;
+		this.time = time;
+		this.rows = rows;
+	}
+
+	public long getTimeStamp() {
+		return timeStamp;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	@Override
+	public String toString() {
+		return "SlowQuery [timeStamp=" + timeStamp + ", query=" + query + ", time=" + time + ", rows=" + rows + "]";
+	}
+}
@@ -0,0 +1,120 @@
+package com.sbr.userapi.monitoring;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.service.time.TimeService;
+
+/**
+ * Bounded log of the most recent {@link SlowQuery slow queries} : queries whose
+ * execution took at least a threshold, which can be changed at runtime. When
+ * the log is full, the oldest query is dropped.<BR/>
+ * Fed by the Hibernate statistics (see {@link SlowQueryStatisticsFactory}),
+ * only while they are enabled<BR/>
+ * <B>Thread safe</B>
+ * 
+ * @author sbrouet
+ *
+ */
+@Component
+public class SlowQueryLog {
+
+	private final TimeService timeService;
+
+	/** Maximum number of queries kept */
+	private final int capacity;
+
+	/** Minimum execution time (in milliseconds) of a slow query */
+	private volatile long threshold;
+
+	/**
+	 * Guards the queries. A lock rather than a monitor, which would pin a virtual
+	 * thread recording a query to its carrier
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Queries from the oldest to the most recent, guarded by lock */
+	private final Deque<SlowQuery> queries;
+
+	@Autowired
+	public SlowQueryLog(TimeService timeService, ConfigurationBean configurationBean) {
+		this.timeService = timeService;
+		this.capacity = configurationBean.getSlowQueryLogSize();
+		this.threshold = configurationBean.getSlowQueryThreshold();
+		this.queries = new ArrayDeque<>(capacity);
+	}
+
+	/**
+	 * Record the execution of a query when it is slow
+	 * 
+	 * @param query HQL / JPQL query, or SQL for a native query
+	 * @param time  execution time in milliseconds
+	 * @param rows  number of rows returned
+	 */
+	public void record(final String query, final long time, final int rows) {
+		if (time < threshold || capacity <= 0) {
+			return;
+		}
+		final SlowQuery slowQuery = new SlowQuery(timeService.getCurrentDateTimeTimestamp(), query, time, rows);
+		lock.lock();
+		try {
+			if (queries.size() >= capacity) {
+				queries.removeFirst();
+			}
+			queries.addLast(slowQuery);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the slow queries kept, the most recent first
+	 */
+	public List<SlowQuery> getQueries() {
+		final List<SlowQuery> recentFirst;
+		lock.lock();
+		try {
+			recentFirst = new ArrayList<>(queries);
+		} finally {
+			lock.unlock();
+		}
+		Collections.reverse(recentFirst);
+		return recentFirst;
+	}
+
+	/**
+	 * Forget all the slow queries
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			queries.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param threshold minimum execution time (in milliseconds) of the queries
+	 *                  recorded from now on
+	 */
+	public void setThreshold(long threshold) {
+		this.threshold = threshold;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,49 @@
+package com.sbr.userapi.monitoring;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.internal.StatisticsImpl;
+import org.hibernate.stat.spi.StatisticsFactory;
+import org.hibernate.stat.spi.StatisticsImplementor;
+
+/**
+ * Builds the Hibernate statistics so that they also feed a
+ * {@link SlowQueryLog} with the execution times of the queries. Set as
+ * Hibernate property <code>hibernate.stats.factory</code>.<BR/>
+ * Hibernate only times the queries while the statistics are enabled : slow
+ * queries are recorded then only
+ * 
+ * @author sbrouet
+ *
+ */
+public class SlowQueryStatisticsFactory implements StatisticsFactory {
+
+	private final SlowQueryLog slowQueryLog;
+
+	public SlowQueryStatisticsFactory(final SlowQueryLog slowQueryLog) {
+		this.slowQueryLog = slowQueryLog;
+	}
+
+	@Override
+	public StatisticsImplementor buildStatistics(SessionFactoryImplementor sessionFactory) {
+		return new SlowQueryStatistics(sessionFactory, slowQueryLog);
+	}
+
+	/**
+	 * Standard Hibernate statistics, which also record the slow queries
+	 */
+	static class SlowQueryStatistics extends StatisticsImpl {
+
+		private final SlowQueryLog slowQueryLog;
+
+		SlowQueryStatistics(final SessionFactoryImplementor sessionFactory, final SlowQueryLog slowQueryLog) {
+			super(sessionFactory);
+			this.slowQueryLog = slowQueryLog;
+		}
+
+		@Override
+		public void queryExecuted(String query, int rows, long time) {
+			super.queryExecuted(query, rows, time);
+			slowQueryLog.record(query, time, rows);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package com.sbr.userapi.repository;
+
+import java.util.List;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import com.sbr.userapi.model.messaging.OutboxMessage;
+
+/**
+ * A {@link JpaRepository} that allows operations on {@link OutboxMessage
+ * messages waiting to be sent to the message bus}
+ * 
+ * @author sbrouet
+ *
+ */
+@Repository
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, Long> {
+
+	/**
+	 * Find the oldest messages waiting to be sent, ordered by id, and lock them
+	 * until the end of the current transaction so that concurrent relays (e.g. on
+	 * other application nodes) wait instead of sending the same messages
+	 * 
+	 * @param pageable holds the maximum number of messages to return, its page
+	 *                 number should always be 0
+	 * @return list of messages, may be empty but never <code>null</code>
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("SELECT m FROM OutboxMessage m ORDER BY m.id")
+	public List<OutboxMessage> findOldestForUpdate(Pageable pageable);
+}
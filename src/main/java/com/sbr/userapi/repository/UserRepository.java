@@ -1,8 +1,20 @@
 package com.sbr.userapi.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.repository.query.QueryByExampleExecutor;
 import org.springframework.stereotype.Repository;
 
@@ -15,6 +27,155 @@ import com.sbr.userapi.model.User;
  *
  */
 @Repository
-public interface UserRepository extends JpaRepository<User, Long>, QueryByExampleExecutor<User> {
+public interface UserRepository
+		extends JpaRepository<User, Long>, QueryByExampleExecutor<User>, UserRepositoryCustom {
+
+	/**
+	 * Number of rows fetched from the database at once when streaming users. Keeps
+	 * memory bounded while avoiding a database round trip per row
+	 */
+	static final String STREAM_FETCH_SIZE = "1000";
+
+	/**
+	 * Find the users having given first name, using index
+	 * <code>IDX_USER_FIRST_NAME</code>
+	 * 
+	 * @param firstName exact first name
+	 * @return list of users, may be empty but never <code>null</code>
+	 */
 	public List<User> findByFirstName(String firstName);
+
+	/**
+	 * Find the user having given email, using unique index
+	 * <code>UK_USER_EMAIL</code>
+	 * 
+	 * @param email exact email
+	 * @return the user, if any
+	 */
+	public Optional<User> findByEmail(String email);
+
+	/**
+	 * Find the user having given first name and email, using unique index
+	 * <code>UK_USER_EMAIL</code>
+	 * 
+	 * @param firstName exact first name
+	 * @param email     exact email
+	 * @return the user, if any
+	 */
+	public Optional<User> findByFirstNameAndEmail(String firstName, String email);
+
+	/**
+	 * Find the users having an id strictly greater than given id, ordered by
+	 * id.<BR/>
+	 * This is a keyset (a.k.a "seek") query : the database jumps directly to the
+	 * first matching row using the primary key index, so the cost of a page does
+	 * not depend on its depth, contrary to an OFFSET based pagination. The
+	 * <code>pageable</code> is only expected to carry the page size, its page
+	 * number should always be 0
+	 * 
+	 * @param id       exclusive lower bound of the returned ids
+	 * @param pageable holds the maximum number of users to return
+	 * @return list of users, may be empty but never <code>null</code>
+	 */
+	public List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+	/**
+	 * Stream all users ordered by id. Rows are read through a forward-only cursor
+	 * fetched by chunks of {@link #STREAM_FETCH_SIZE} rows, so the whole table is
+	 * never loaded in memory at once.<BR/>
+	 * WARNINGS :
+	 * <UL>
+	 * <LI>must be called inside a transaction and the stream must be closed after
+	 * use</LI>
+	 * <LI>users stay attached to the persistence context until they are
+	 * {@link #detach(User) detached}</LI>
+	 * </UL>
+	 * 
+	 * @return a stream of users, may be empty but never <code>null</code>
+	 */
+	@QueryHints({ @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+			@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true") })
+	@Query("SELECT u FROM User u ORDER BY u.id")
+	public Stream<User> streamAll();
+
+	/**
+	 * Find which of given ids are ids of existing users, and lock these users until
+	 * the end of the current transaction so they cannot be deleted meanwhile
+	 * 
+	 * @param ids ids to look for
+	 * @return ids of the existing users, in no particular order
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("SELECT u.id FROM User u WHERE u.id IN :ids")
+	public List<Long> lockExistingIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Delete the users having given ids with a single statement. Users are
+	 * neither loaded nor deleted one by one
+	 * 
+	 * @param ids ids of the users to be deleted
+	 * @return number of deleted users
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("DELETE FROM User u WHERE u.id IN :ids")
+	public int deleteByIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Delete the user having given id with a single statement, without loading it
+	 * first
+	 * 
+	 * @param id id of the user to be deleted
+	 * @return number of deleted users : 0 when the user does not exist
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("DELETE FROM User u WHERE u.id = :id")
+	public int deleteOneById(@Param("id") Long id);
+
+	/**
+	 * Delete the user having given id and version with a single statement
+	 * 
+	 * @param id      id of the user to be deleted
+	 * @param version expected version of the user
+	 * @return number of deleted users : 0 when the user does not exist or does not
+	 *         have the expected version
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("DELETE FROM User u WHERE u.id = :id AND u.version = :version")
+	public int deleteByIdAndVersion(@Param("id") Long id, @Param("version") Long version);
+
+	/**
+	 * Update the users having given ids with a single statement, setting the same
+	 * value to all of them, and increment their version. A <code>null</code> value
+	 * leaves the field unchanged
+	 * 
+	 * @param ids       ids of the users to be updated
+	 * @param firstName new first name, <code>null</code> means unchanged
+	 * @param password  new password, <code>null</code> means unchanged
+	 * @return number of updated users
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("UPDATE User u SET u.firstName = COALESCE(:firstName, u.firstName), "
+			+ "u.password = COALESCE(:password, u.password), u.version = u.version + 1 WHERE u.id IN :ids")
+	public int updateByIds(@Param("ids") Collection<Long> ids, @Param("firstName") String firstName,
+			@Param("password") String password);
+
+	/**
+	 * Update all fields of the user having given id with a single statement and
+	 * increment its version. The user is not loaded first.<BR/>
+	 * When an expected version is given, the user is only updated if it still has
+	 * this version (optimistic concurrency)
+	 * 
+	 * @param id        id of the user to be updated
+	 * @param firstName new first name
+	 * @param email     new email
+	 * @param password  new password
+	 * @param version   expected version, <code>null</code> means any version
+	 * @return number of updated users : 0 when the user does not exist or does not
+	 *         have the expected version
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("UPDATE User u SET u.firstName = :firstName, u.email = :email, u.password = :password, "
+			+ "u.version = u.version + 1 WHERE u.id = :id AND u.version = COALESCE(:version, u.version)")
+	public int updateById(@Param("id") Long id, @Param("firstName") String firstName, @Param("email") String email,
+			@Param("password") String password, @Param("version") Long version);
 }
@@ -0,0 +1,51 @@
+package com.sbr.userapi.repository;
+
+import java.util.Optional;
+import java.util.Set;
+
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.UserField;
+
+/**
+ * Custom operations on {@link User users} which cannot be expressed as Spring
+ * Data query methods. Implemented by {@link UserRepositoryCustomImpl} and
+ * exposed through {@link UserRepository}
+ * 
+ * @author sbrouet
+ *
+ */
+public interface UserRepositoryCustom {
+
+	/**
+	 * Remove a user from the current persistence context. Once detached, the user
+	 * is no longer tracked by the ORM and can be garbage collected, which keeps
+	 * the persistence context from growing while iterating over many users
+	 * 
+	 * @param user the user to be detached
+	 */
+	public void detach(User user);
+
+	/**
+	 * Read the current state of a user from the database, even when the user was
+	 * already loaded in the current persistence context with a state which may be
+	 * outdated since
+	 * 
+	 * @param id id of the user
+	 * @return the user, detached from the persistence context, or empty when it
+	 *         does not exist
+	 */
+	public Optional<User> findCurrentById(Long id);
+
+	/**
+	 * Update some fields of a user with a single statement and increment its
+	 * version, only if the user still has the version it holds. The user is not
+	 * loaded first and the other fields are not written
+	 * 
+	 * @param user   holds the id, the expected version and the new values of the
+	 *               user
+	 * @param fields fields to be updated, must not be empty
+	 * @return number of updated users : 0 when the user does not exist or does not
+	 *         have the expected version
+	 */
+	public int updateFields(User user, Set<UserField> fields);
+}
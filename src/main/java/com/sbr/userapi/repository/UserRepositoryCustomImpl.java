@@ -0,0 +1,64 @@
+package com.sbr.userapi.repository;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.UserField;
+
+/**
+ * Implementation of {@link UserRepositoryCustom} based on the JPA
+ * {@link EntityManager}. Found automatically by Spring Data thanks to its name
+ * 
+ * @author sbrouet
+ *
+ */
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/** JPQL update statements by set of updated fields, built once */
+	private final Map<Set<UserField>, String> updateStatements = new ConcurrentHashMap<>();
+
+	@Override
+	public void detach(final User user) {
+		entityManager.detach(user);
+	}
+
+	@Override
+	public Optional<User> findCurrentById(final Long id) {
+		final User user = entityManager.find(User.class, id);
+		if (null == user) {
+			return Optional.empty();
+		}
+		// Found in the persistence context, the state may predate a bulk update
+		entityManager.refresh(user);
+		entityManager.detach(user);
+		return Optional.of(user);
+	}
+
+	@Override
+	public int updateFields(final User user, final Set<UserField> fields) {
+		final Query query = entityManager.createQuery(
+				updateStatements.computeIfAbsent(EnumSet.copyOf(fields), UserRepositoryCustomImpl::buildUpdateStatement));
+		for (UserField field : fields) {
+			query.setParameter(field.getName(), field.get(user));
+		}
+		return query.setParameter("id", user.getId()).setParameter("version", user.getVersion()).executeUpdate();
+	}
+
+	private static String buildUpdateStatement(final Set<UserField> fields) {
+		return fields.stream().map(field -> "u." + field.getName() + " = :" + field.getName())
+				.collect(Collectors.joining(", ", "UPDATE User u SET ",
+						", u.version = u.version + 1 WHERE u.id = :id AND u.version = :version"));
+	}
+}
@@ -0,0 +1,23 @@
+package com.sbr.userapi.service.location;
+
+import java.util.Optional;
+
+/**
+ * Resolves the country of an IP address without calling any external service.
+ * Used by the {@link LocationService} before falling back to the Ip Api
+ * external service
+ * 
+ * @author sbrouet
+ *
+ */
+public interface CountryCodeResolver {
+
+	/**
+	 * Find the country code for given IP address
+	 * 
+	 * @param ip IP address to get country code for
+	 * @return the ISO 3166-1 Alpha 2 country code, or an empty {@link Optional}
+	 *         when the country of this IP address is not known by the resolver
+	 */
+	public Optional<String> findCountryCode(String ip);
+}
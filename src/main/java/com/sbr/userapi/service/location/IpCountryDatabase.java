@@ -0,0 +1,245 @@
+package com.sbr.userapi.service.location;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory database of IPv4 address ranges and their country, which allows
+ * resolving the country of an IP address in a few microseconds without any
+ * network access.<BR/>
+ * Ranges are held in sorted arrays of primitives (about 10 bytes per range) and
+ * looked up by binary search.<BR/>
+ * <B>Thread safe</B> : the database is immutable once loaded
+ * 
+ * @author sbrouet
+ *
+ */
+public class IpCountryDatabase implements CountryCodeResolver {
+	private static final Logger LOGGER = LoggerFactory.getLogger(IpCountryDatabase.class);
+
+	/** A database which contains no range, so that never resolves any country */
+	public static final IpCountryDatabase EMPTY = new IpCountryDatabase(new int[0], new int[0], new short[0],
+			new String[0]);
+
+	/** Prefix of an IPv4 address mapped into an IPv6 address */
+	private static final String IPV4_MAPPED_IPV6_PREFIX = "::ffff:";
+
+	/**
+	 * Addresses are unsigned 32 bits values : flipping the sign bit allows storing
+	 * them as signed ints which keep the same ordering
+	 */
+	private static final int SIGN_FLIP = 0x80000000;
+
+	/** First address of each range (sign flipped), sorted */
+	private final int[] rangeStarts;
+
+	/** Last address of each range (sign flipped), inclusive */
+	private final int[] rangeEnds;
+
+	/** Index in {@link #countryCodes} of the country of each range */
+	private final short[] rangeCountries;
+
+	/** Distinct country codes */
+	private final String[] countryCodes;
+
+	private IpCountryDatabase(final int[] rangeStarts, final int[] rangeEnds, final short[] rangeCountries,
+			final String[] countryCodes) {
+		this.rangeStarts = rangeStarts;
+		this.rangeEnds = rangeEnds;
+		this.rangeCountries = rangeCountries;
+		this.countryCodes = countryCodes;
+	}
+
+	@Override
+	public Optional<String> findCountryCode(final String ip) {
+		final long address = parseIPv4(ip);
+		if (address < 0 || rangeStarts.length == 0) {
+			return Optional.empty();
+		}
+		final int key = (int) address ^ SIGN_FLIP;
+		int index = Arrays.binarySearch(rangeStarts, key);
+		if (index < 0) {
+			// Not a range start : take the range which starts just before the address
+			index = -index - 2;
+			if (index < 0 || key > rangeEnds[index]) {
+				return Optional.empty();
+			}
+		}
+		return Optional.of(countryCodes[rangeCountries[index]]);
+	}
+
+	/**
+	 * @return number of ranges in the database
+	 */
+	public int size() {
+		return rangeStarts.length;
+	}
+
+	/**
+	 * Load a database from a CSV file which contains one IPv4 range per line with
+	 * columns <code>first address,last address,country code</code>. Addresses
+	 * may be written in dotted notation (<code>1.0.0.0</code>) or as integers
+	 * (<code>16777216</code>), values may be quoted and extra columns are
+	 * ignored, which matches the free "lite" databases of the main providers.
+	 * Ranges must not overlap. Empty lines, lines starting with <code>#</code>,
+	 * IPv6 ranges and ranges with an unknown country (<code>-</code> or
+	 * <code>ZZ</code>) are skipped
+	 * 
+	 * @param csv the CSV contents, encoded in UTF-8. Not closed by this method
+	 * @return the loaded database
+	 * @throws IOException              when the contents could not be read
+	 * @throws IllegalArgumentException when a line is not valid
+	 */
+	public static IpCountryDatabase load(final InputStream csv) throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8));
+		final Map<String, Short> countryIndexes = new HashMap<>();
+		int[] starts = new int[1024];
+		int[] ends = new int[1024];
+		short[] countries = new short[1024];
+		int size = 0;
+		boolean sorted = true;
+
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.isBlank() || line.startsWith("#") || line.indexOf(':') >= 0) {
+				continue;
+			}
+			final String[] columns = line.split(",");
+			if (columns.length < 3) {
+				throw new IllegalArgumentException("Invalid IP range at line " + lineNumber + " : " + line);
+			}
+			final long start = parseAddress(unquote(columns[0]));
+			final long end = parseAddress(unquote(columns[1]));
+			final String country = unquote(columns[2]);
+			if (start < 0 || end < start) {
+				throw new IllegalArgumentException("Invalid IP range at line " + lineNumber + " : " + line);
+			}
+			if (country.isEmpty() || "-".equals(country) || "ZZ".equals(country)) {
+				continue;
+			}
+
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+				countries = Arrays.copyOf(countries, size * 2);
+			}
+			starts[size] = (int) start ^ SIGN_FLIP;
+			ends[size] = (int) end ^ SIGN_FLIP;
+			countries[size] = countryIndexes.computeIfAbsent(country, c -> (short) countryIndexes.size());
+			sorted = sorted && (size == 0 || starts[size - 1] < starts[size]);
+			size++;
+		}
+
+		final String[] countryCodes = new String[countryIndexes.size()];
+		countryIndexes.forEach((country, index) -> countryCodes[index] = country);
+
+		final IpCountryDatabase database = sorted
+				? new IpCountryDatabase(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size),
+						Arrays.copyOf(countries, size), countryCodes)
+				: sortRanges(starts, ends, countries, size, countryCodes);
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info("IP country database loaded : " + size + " ranges, " + countryCodes.length + " countries");
+		}
+		return database;
+	}
+
+	/**
+	 * Build a database from ranges which are not sorted by start address
+	 */
+	private static IpCountryDatabase sortRanges(final int[] starts, final int[] ends, final short[] countries,
+			final int size, final String[] countryCodes) {
+		// Sort (start, original index) pairs packed into longs to avoid boxing
+		final long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) starts[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		final int[] sortedStarts = new int[size];
+		final int[] sortedEnds = new int[size];
+		final short[] sortedCountries = new short[size];
+		for (int i = 0; i < size; i++) {
+			final int index = (int) keys[i];
+			sortedStarts[i] = starts[index];
+			sortedEnds[i] = ends[index];
+			sortedCountries[i] = countries[index];
+		}
+		return new IpCountryDatabase(sortedStarts, sortedEnds, sortedCountries, countryCodes);
+	}
+
+	private static String unquote(final String value) {
+		final String trimmed = value.trim();
+		if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+			return trimmed.substring(1, trimmed.length() - 1);
+		}
+		return trimmed;
+	}
+
+	/**
+	 * Parse an address from the database, in dotted or integer notation
+	 * 
+	 * @return the unsigned value of the address, or -1 when not valid
+	 */
+	private static long parseAddress(final String value) {
+		if (value.indexOf('.') >= 0) {
+			return parseIPv4(value);
+		}
+		try {
+			final long address = Long.parseLong(value);
+			return address >= 0 && address <= 0xFFFFFFFFL ? address : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Parse an IPv4 address in dotted notation. Never resolves host names, so
+	 * never issues a DNS request
+	 * 
+	 * @param ip address to be parsed, may be an IPv4 mapped IPv6 address
+	 * @return the unsigned value of the address, or -1 when <code>ip</code> is not
+	 *         a valid IPv4 address
+	 */
+	static long parseIPv4(final String ip) {
+		if (null == ip) {
+			return -1;
+		}
+		final String dotted = ip.regionMatches(true, 0, IPV4_MAPPED_IPV6_PREFIX, 0, IPV4_MAPPED_IPV6_PREFIX.length())
+				? ip.substring(IPV4_MAPPED_IPV6_PREFIX.length())
+				: ip;
+		long address = 0;
+		int octet = -1;
+		int octets = 0;
+		for (int i = 0; i < dotted.length(); i++) {
+			final char c = dotted.charAt(i);
+			if (c >= '0' && c <= '9') {
+				octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+				if (octet > 255) {
+					return -1;
+				}
+			} else if (c == '.' && octet >= 0 && octets < 3) {
+				address = (address << 8) | octet;
+				octet = -1;
+				octets++;
+			} else {
+				return -1;
+			}
+		}
+		if (octet < 0 || octets != 3) {
+			return -1;
+		}
+		return (address << 8) | octet;
+	}
+}
@@ -1,5 +1,15 @@
 package com.sbr.userapi.service.location;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,8 +20,17 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.sbr.userapi.configuration.ConfigurationBean;
 import com.sbr.userapi.exception.location.CannotComputeLocationException;
+import com.sbr.userapi.monitoring.RequestPhase;
+import com.sbr.userapi.monitoring.RequestPhaseEvent;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 /**
  * Service which allows checking for the location of an IP address
@@ -35,22 +54,96 @@ public class LocationService {
 	 */
 	static String COUNTRY_UNDEFINED_RESPONSE_BODY = "Undefined";
 
+	/**
+	 * Name of the timer of the country lookups, tagged with the mode
+	 * (<code>sync</code> or <code>async</code>) and the outcome
+	 */
+	public static final String LOOKUP_TIMER_NAME = "location.lookup";
+
+	/**
+	 * Name of the timer of the calls to the external REST Webservice, tagged with
+	 * the mode (<code>sync</code> or <code>async</code>) and the outcome
+	 */
+	public static final String IP_API_TIMER_NAME = "location.ipapi.requests";
+
+	private static final String MODE_SYNC = "sync";
+
+	private static final String MODE_ASYNC = "async";
+
+	private static final String OUTCOME_SUCCESS = "success";
+
+	private static final String OUTCOME_ERROR = "error";
+
 	/**
 	 * Client to the external REST Webservice used to get IP location information
 	 */
 	private RestTemplate restTemplate;
 
+	/**
+	 * Non blocking client to the external REST Webservice, used by the
+	 * asynchronous lookups so that no thread waits for the answer
+	 */
+	private HttpClient httpClient;
+
+	/** Maximum time to wait for the answer of an asynchronous lookup */
+	private Duration ipApiRequestTimeout;
+
 	/** Template for url for requesting location data */
 	private UriComponents ipApiUriComponents;
 
+	/** Resolves countries locally, without calling any external service */
+	private CountryCodeResolver localCountryCodeResolver;
+
+	/**
+	 * Whether the external REST Webservice is called when the local resolver does
+	 * not know an IP address
+	 */
+	private boolean ipApiFallbackEnabled;
+
+	/**
+	 * Cache of the external REST Webservice answers by IP address. An empty value
+	 * means that the service answered that it does not know the IP address
+	 * country.<BR/>
+	 * Concurrent lookups of the same IP address which is not in cache, synchronous
+	 * or asynchronous, wait for a single call to the external service. Failed
+	 * calls are not cached
+	 */
+	private AsyncCache<String, Optional<String>> externalServiceCache;
+
+	/** Registry of the timers of the lookups and of the external service calls */
+	private MeterRegistry meterRegistry;
+
 	@Autowired
-	public LocationService(RestTemplate restTemplate, ConfigurationBean configurationBean) {
+	public LocationService(RestTemplate restTemplate, HttpClient httpClient, ConfigurationBean configurationBean,
+			CountryCodeResolver localCountryCodeResolver, AsyncCache<String, Optional<String>> externalServiceCache,
+			MeterRegistry meterRegistry) {
 		this.restTemplate = restTemplate;
+		this.meterRegistry = meterRegistry;
+		this.httpClient = httpClient;
+		this.ipApiRequestTimeout = Duration.ofMillis(configurationBean.getIpAPITimeoutRead());
+		this.localCountryCodeResolver = localCountryCodeResolver;
+		this.externalServiceCache = externalServiceCache;
+		this.ipApiFallbackEnabled = configurationBean.isIpAPIFallbackEnabled();
 
 		// Prepare url template
 		ipApiUriComponents = UriComponentsBuilder.fromUriString(configurationBean.getIpAPIUrlTemplate()).build();
 	}
 
+	/**
+	 * Create a cache for the external REST Webservice answers, configured
+	 * according to the application properties file. Statistics are recorded
+	 * 
+	 * @param configurationBean holds cache size and times to live
+	 * @return a new empty cache
+	 */
+	public static AsyncCache<String, Optional<String>> createExternalServiceCache(
+			ConfigurationBean configurationBean) {
+		return Caffeine.newBuilder().maximumSize(configurationBean.getIpAPICacheSize())
+				.expireAfter(new CountryCodeExpiry(TimeUnit.SECONDS.toNanos(configurationBean.getIpAPICacheTtlFound()),
+						TimeUnit.SECONDS.toNanos(configurationBean.getIpAPICacheTtlUndefined())))
+				.recordStats().buildAsync();
+	}
+
 	/**
 	 * Indicates whether or not an IP address is from Switzerland
 	 * 
@@ -72,8 +165,27 @@ public class LocationService {
 	}
 
 	/**
-	 * Get the country code for given IP address<BR/>
-	 * WARNING : this method does call an external REST service
+	 * Indicates whether or not an IP address is from Switzerland, without blocking
+	 * the calling thread : when the external REST service must be called, the
+	 * returned future is completed by the thread receiving its answer
+	 * 
+	 * @param ip IP address to be checked
+	 * @return a future completed with <code>true</code> when IP is from
+	 *         Switzerland, otherwise with <code>false</code>. It is completed
+	 *         exceptionally with a {@link CannotComputeLocationException} when the
+	 *         location could not be computed
+	 */
+	public CompletableFuture<Boolean> isCallerFromSwitzerlandAsync(final String ip) {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("isCallerFromSwitzerlandAsync(" + ip + ")");
+		}
+		return getCountryCodeForIPAsync(ip).thenApply(SWITZERLAND_COUNTRY_CODE_ISO_3166_1::equals);
+	}
+
+	/**
+	 * Get the country code for given IP address. The local resolver is asked
+	 * first, then the external REST service when the local resolver does not know
+	 * the IP address and the fallback is enabled. The lookup is timed
 	 * 
 	 * @param ip IP address to get code for
 	 * @return the ISO 3166-1 Alpha 2 country code
@@ -81,25 +193,244 @@ public class LocationService {
 	 *                                        computed by its IP
 	 */
 	String getCountryCodeForIP(final String ip) throws CannotComputeLocationException {
+		final Timer.Sample sample = Timer.start(meterRegistry);
+		String outcome = OUTCOME_ERROR;
+		try {
+			final String countryCode = lookupCountryCodeForIP(ip);
+			outcome = OUTCOME_SUCCESS;
+			return countryCode;
+		} finally {
+			sample.stop(timer(LOOKUP_TIMER_NAME, MODE_SYNC, outcome));
+		}
+	}
+
+	private String lookupCountryCodeForIP(final String ip) throws CannotComputeLocationException {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("getCountryCodeForIP(" + ip + ")");
 		}
-		final ResponseEntity<String> response = restTemplate.getForEntity(buildCountryCodeRestServiceURLForIP(ip),
-				String.class);
-		if (!HttpStatus.OK.equals(response.getStatusCode())
-				|| COUNTRY_UNDEFINED_RESPONSE_BODY.equals(response.getBody())) {
+		final Optional<String> localCountry = localCountryCodeResolver.findCountryCode(ip);
+		if (localCountry.isPresent()) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("IP " + ip + " is from country [" + localCountry.get() + "] (local database)");
+			}
+			return localCountry.get();
+		}
+		if (!ipApiFallbackEnabled) {
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("Could not get location from local database for ip [" + ip + "]");
+			}
+			throw new CannotComputeLocationException("Could not compute location for ip [" + ip + "]");
+		}
+		final Optional<String> externalCountry = getCachedCountryCodeForIPFromExternalService(ip);
+		if (externalCountry.isEmpty()) {
 			if (LOGGER.isInfoEnabled()) {
-				LOGGER.info("Could get location from external service for ip [" + ip + "]. HttpStatus ["
-						+ response.getStatusCode() + "] Response Body [" + response.getBody() + "]");
+				LOGGER.info("Could not get location from external service for ip [" + ip + "]. Response Body ["
+						+ COUNTRY_UNDEFINED_RESPONSE_BODY + "]");
 			}
 			throw new CannotComputeLocationException("Could not compute location for ip [" + ip + "]");
 		}
+		return externalCountry.get();
+	}
+
+	/**
+	 * Get the country code for given IP address without blocking the calling
+	 * thread, same as {@link #getCountryCodeForIP(String)}
+	 * 
+	 * @param ip IP address to get code for
+	 * @return a future completed with the ISO 3166-1 Alpha 2 country code, or
+	 *         exceptionally with a {@link CannotComputeLocationException} when the
+	 *         client location could not be computed by its IP
+	 */
+	CompletableFuture<String> getCountryCodeForIPAsync(final String ip) {
+		final Timer.Sample sample = Timer.start(meterRegistry);
+		return lookupCountryCodeForIPAsync(ip).whenComplete((countryCode, e) -> sample
+				.stop(timer(LOOKUP_TIMER_NAME, MODE_ASYNC, null == e ? OUTCOME_SUCCESS : OUTCOME_ERROR)));
+	}
+
+	private CompletableFuture<String> lookupCountryCodeForIPAsync(final String ip) {
+		final Optional<String> localCountry = localCountryCodeResolver.findCountryCode(ip);
+		if (localCountry.isPresent()) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("IP " + ip + " is from country [" + localCountry.get() + "] (local database)");
+			}
+			return CompletableFuture.completedFuture(localCountry.get());
+		}
+		if (!ipApiFallbackEnabled) {
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("Could not get location from local database for ip [" + ip + "]");
+			}
+			return CompletableFuture
+					.failedFuture(new CannotComputeLocationException("Could not compute location for ip [" + ip + "]"));
+		}
+		return externalServiceCache.get(ip, (key, executor) -> getCountryCodeForIPFromExternalServiceAsync(key))
+				.thenApply(externalCountry -> {
+					if (externalCountry.isEmpty()) {
+						if (LOGGER.isInfoEnabled()) {
+							LOGGER.info("Could not get location from external service for ip [" + ip
+									+ "]. Response Body [" + COUNTRY_UNDEFINED_RESPONSE_BODY + "]");
+						}
+						throw new CompletionException(
+								new CannotComputeLocationException("Could not compute location for ip [" + ip + "]"));
+					}
+					return externalCountry.get();
+				});
+	}
 
-		final String country = response.getBody();
+	/**
+	 * Get the country code for given IP address from the cache of the external
+	 * REST service answers, calling the service when the IP address is not in cache
+	 * 
+	 * @param ip IP address to get code for
+	 * @return the ISO 3166-1 Alpha 2 country code, empty when the external service
+	 *         does not know the IP address country
+	 * @throws CannotComputeLocationException when the external service could not
+	 *                                        be called successfully
+	 */
+	private Optional<String> getCachedCountryCodeForIPFromExternalService(final String ip)
+			throws CannotComputeLocationException {
+		// The external service is called by the current thread once a pending entry
+		// is in cache, not inside a computation of the cache : the call is not made
+		// while holding a lock of the cache, which would pin a virtual thread
+		final CompletableFuture<Optional<String>> load = new CompletableFuture<>();
+		final CompletableFuture<Optional<String>> cached = externalServiceCache.get(ip, (key, executor) -> load);
+		if (cached == load) {
+			try {
+				load.complete(getCountryCodeForIPFromExternalService(ip));
+			} catch (Throwable e) {
+				// Nothing is cached when loading fails. Errors too complete the pending
+				// entry, otherwise the next lookups of the IP address would wait forever
+				load.completeExceptionally(e);
+				throw e;
+			}
+		}
+		try {
+			// Also waits for any call already pending for the same IP address
+			return cached.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof CannotComputeLocationException) {
+				throw (CannotComputeLocationException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return statistics (hits, misses, load times...) of the cache of the external
+	 *         REST service answers
+	 */
+	public CacheStats getCountryCodeCacheStats() {
+		return externalServiceCache.synchronous().stats();
+	}
+
+	/**
+	 * Remove all the external REST service answers from cache
+	 */
+	public void clearCountryCodeCache() {
+		externalServiceCache.synchronous().invalidateAll();
+	}
+
+	/**
+	 * Get the country code for given IP address from the external REST
+	 * service<BR/>
+	 * WARNING : this method does call an external REST service
+	 * 
+	 * @param ip IP address to get code for
+	 * @return the ISO 3166-1 Alpha 2 country code, empty when the external service
+	 *         answered that it does not know the IP address country
+	 * @throws CannotComputeLocationException when the external service did not
+	 *                                        answer successfully
+	 */
+	Optional<String> getCountryCodeForIPFromExternalService(final String ip) throws CannotComputeLocationException {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("getCountryCodeForIPFromExternalService(" + ip + ")");
+		}
+		final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.LOCATION_LOOKUP, "ipapi." + MODE_SYNC);
+		final Timer.Sample sample = Timer.start(meterRegistry);
+		String outcome = OUTCOME_ERROR;
+		try {
+			final ResponseEntity<String> response = restTemplate
+					.getForEntity(buildCountryCodeRestServiceURLForIP(ip), String.class);
+			final Optional<String> countryCode = readCountryCode(ip, response.getStatusCode().value(),
+					response.getBody());
+			outcome = OUTCOME_SUCCESS;
+			return countryCode;
+		} finally {
+			sample.stop(timer(IP_API_TIMER_NAME, MODE_SYNC, outcome));
+			event.finish(null);
+		}
+	}
+
+	/**
+	 * Get the country code for given IP address from the external REST service
+	 * with the non blocking client<BR/>
+	 * WARNING : this method does call an external REST service
+	 * 
+	 * @param ip IP address to get code for
+	 * @return a future completed with the ISO 3166-1 Alpha 2 country code, empty
+	 *         when the external service answered that it does not know the IP
+	 *         address country. It is completed exceptionally with a
+	 *         {@link CannotComputeLocationException} when the external service did
+	 *         not answer successfully
+	 */
+	CompletableFuture<Optional<String>> getCountryCodeForIPFromExternalServiceAsync(final String ip) {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("getCountryCodeForIPFromExternalServiceAsync(" + ip + ")");
+		}
+		final HttpRequest request = HttpRequest.newBuilder(URI.create(buildCountryCodeRestServiceURLForIP(ip)))
+				.timeout(ipApiRequestTimeout).GET().build();
+		final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.LOCATION_LOOKUP, "ipapi." + MODE_ASYNC);
+		final Timer.Sample sample = Timer.start(meterRegistry);
+		return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, e) -> {
+			event.finish(null);
+			sample.stop(timer(IP_API_TIMER_NAME, MODE_ASYNC,
+					null == e && HttpStatus.OK.value() == response.statusCode() ? OUTCOME_SUCCESS : OUTCOME_ERROR));
+			try {
+				if (null != e) {
+					throw new CannotComputeLocationException("Could not compute location for ip [" + ip + "]",
+							e instanceof CompletionException && null != e.getCause() ? e.getCause() : e);
+				}
+				return readCountryCode(ip, response.statusCode(), response.body());
+			} catch (CannotComputeLocationException cannotComputeLocationException) {
+				throw new CompletionException(cannotComputeLocationException);
+			}
+		});
+	}
+
+	/**
+	 * Read the country code from an answer of the external REST service
+	 * 
+	 * @param ip         IP address the country code was requested for
+	 * @param statusCode Http status code of the answer
+	 * @param body       body of the answer
+	 * @return the ISO 3166-1 Alpha 2 country code, empty when the external service
+	 *         answered that it does not know the IP address country
+	 * @throws CannotComputeLocationException when the external service did not
+	 *                                        answer successfully
+	 */
+	private Optional<String> readCountryCode(final String ip, final int statusCode, final String body)
+			throws CannotComputeLocationException {
+		if (HttpStatus.OK.value() != statusCode) {
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("Could get location from external service for ip [" + ip + "]. HttpStatus [" + statusCode
+						+ "] Response Body [" + body + "]");
+			}
+			throw new CannotComputeLocationException("Could not compute location for ip [" + ip + "]");
+		}
+		if (COUNTRY_UNDEFINED_RESPONSE_BODY.equals(body)) {
+			return Optional.empty();
+		}
+
+		final String country = body;
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("IP " + ip + " is from country [" + country + "]");
 		}
-		return country;
+		return Optional.ofNullable(country);
 	}
 
 	/**
@@ -113,4 +444,50 @@ public class LocationService {
 		return ipApiUriComponents.expand(ip).toUriString();
 	}
 
+	/**
+	 * Get the timer with given name and tags, registered on first use
+	 * 
+	 * @param name    {@link #LOOKUP_TIMER_NAME} or {@link #IP_API_TIMER_NAME}
+	 * @param mode    <code>sync</code> or <code>async</code>
+	 * @param outcome <code>success</code> or <code>error</code>
+	 * @return the timer
+	 */
+	private Timer timer(final String name, final String mode, final String outcome) {
+		return Timer.builder(name).tag("mode", mode).tag("outcome", outcome).register(meterRegistry);
+	}
+
+	/**
+	 * Expiry policy of the external REST service answers : known countries and
+	 * "Undefined" answers have distinct time to live
+	 */
+	private static class CountryCodeExpiry implements Expiry<String, Optional<String>> {
+
+		/** Time to live in nanoseconds of a country code */
+		private final long foundTtlNanos;
+
+		/** Time to live in nanoseconds of an "Undefined" answer */
+		private final long undefinedTtlNanos;
+
+		CountryCodeExpiry(long foundTtlNanos, long undefinedTtlNanos) {
+			this.foundTtlNanos = foundTtlNanos;
+			this.undefinedTtlNanos = undefinedTtlNanos;
+		}
+
+		@Override
+		public long expireAfterCreate(String ip, Optional<String> country, long currentTime) {
+			return country.isPresent() ? foundTtlNanos : undefinedTtlNanos;
+		}
+
+		@Override
+		public long expireAfterUpdate(String ip, Optional<String> country, long currentTime,
+				long currentDuration) {
+			return expireAfterCreate(ip, country, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(String ip, Optional<String> country, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+
 }
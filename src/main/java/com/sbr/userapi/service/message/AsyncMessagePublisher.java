@@ -0,0 +1,330 @@
+package com.sbr.userapi.service.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.messaging.processor.MessageProcessor;
+import com.sbr.userapi.model.messaging.Message;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes messages to the message bus in the background, for the
+ * {@link MessageDeliveryMode#ASYNC ASYNC} delivery mode.<BR/>
+ * Messages are put in a bounded in-memory queue : a lock-free
+ * {@link ConcurrentLinkedQueue} whose capacity is enforced by a
+ * {@link Semaphore}, so callers only contend on compare-and-set operations
+ * while the queue is not full. When the queue is full, the configured
+ * {@link BackpressurePolicy} applies.<BR/>
+ * Inside a transaction, a slot of the queue is taken at once, so that the
+ * backpressure policy applies to the operation, but the message is only put in
+ * the queue once the transaction is committed : the message of a rolled back
+ * operation is never sent, and no message reaches consumers before its
+ * operation is committed.<BR/>
+ * A dedicated publisher thread sends the queued messages in order, back to
+ * back, by batches : a batch is flushed when it is full or when its oldest
+ * message has waited for the linger time.<BR/>
+ * Metrics : <code>messaging.async.queue.depth</code> (gauge),
+ * <code>messaging.async.flush</code> (timer of batch flushes),
+ * <code>messaging.async.dropped</code> and
+ * <code>messaging.async.failed</code> (counters of lost messages)<BR/>
+ * WARNING : messages still in the queue are lost when the application stops
+ * abruptly, and messages which could not be sent are not retried
+ * 
+ * @author sbrouet
+ *
+ */
+@Component
+public class AsyncMessagePublisher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncMessagePublisher.class);
+
+	/** Maximum time in milliseconds for sending queued messages at shutdown */
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+	/** Message processor allows sending messages to a service bus */
+	private MessageProcessor messageProcessor;
+
+	/** Messages waiting to be sent, oldest first */
+	private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+
+	/** One permit per free slot in the queue */
+	private final Semaphore freeSlots;
+
+	/**
+	 * Number of messages in the queue. Incremented before a message is put in the
+	 * queue, so it never goes below zero, and may briefly count a message not
+	 * readable yet
+	 */
+	private final AtomicInteger depth = new AtomicInteger();
+
+	private final int batchSize;
+
+	private final long lingerNanos;
+
+	private final BackpressurePolicy backpressurePolicy;
+
+	private final long blockTimeoutMillis;
+
+	/** Whether the publisher thread is started when the application starts */
+	private final boolean enabled;
+
+	private final Timer flushTimer;
+
+	private final Counter droppedCounter;
+
+	private final Counter failedCounter;
+
+	private volatile Thread publisherThread;
+
+	private volatile boolean running;
+
+	@Autowired
+	public AsyncMessagePublisher(MessageProcessor messageProcessor, ConfigurationBean configurationBean,
+			MeterRegistry meterRegistry) {
+		this.messageProcessor = messageProcessor;
+		this.freeSlots = new Semaphore(configurationBean.getAsyncQueueCapacity());
+		this.batchSize = configurationBean.getAsyncBatchSize();
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(configurationBean.getAsyncLinger());
+		this.backpressurePolicy = configurationBean.getAsyncBackpressurePolicy();
+		this.blockTimeoutMillis = configurationBean.getAsyncBlockTimeout();
+		this.enabled = MessageDeliveryMode.ASYNC == configurationBean.getMessageDeliveryMode();
+
+		Gauge.builder("messaging.async.queue.depth", depth, AtomicInteger::get)
+				.description("Number of messages waiting to be sent").register(meterRegistry);
+		flushTimer = Timer.builder("messaging.async.flush").description("Time for sending a batch of messages")
+				.register(meterRegistry);
+		droppedCounter = Counter.builder("messaging.async.dropped")
+				.description("Number of messages dropped because the queue was full").register(meterRegistry);
+		failedCounter = Counter.builder("messaging.async.failed")
+				.description("Number of messages which could not be sent").register(meterRegistry);
+	}
+
+	/**
+	 * Start the publisher thread when the {@link MessageDeliveryMode#ASYNC ASYNC}
+	 * delivery mode is configured
+	 */
+	@PostConstruct
+	public void startIfEnabled() {
+		if (enabled) {
+			start();
+		}
+	}
+
+	/**
+	 * Start the publisher thread
+	 */
+	synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		publisherThread = new Thread(this::publishUntilStopped, "async-message-publisher");
+		publisherThread.setDaemon(true);
+		publisherThread.start();
+	}
+
+	/**
+	 * Stop the publisher thread, after it has sent the messages still in the
+	 * queue or after {@link #SHUTDOWN_TIMEOUT_MILLIS}
+	 */
+	@PreDestroy
+	public synchronized void stop() throws InterruptedException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(publisherThread);
+		publisherThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+		if (depth.get() > 0) {
+			LOGGER.warn("Async message publisher stopped, " + depth.get() + " messages were not sent");
+		}
+	}
+
+	/**
+	 * Put a message in the queue, to be sent in the background. Inside a
+	 * transaction, the message is put in the queue once the transaction is
+	 * committed, and dropped when it is rolled back
+	 * 
+	 * @param message message to be sent
+	 * @throws CouldNotSendMessageBusMessage when the queue is full and the
+	 *                                       backpressure policy rejects the
+	 *                                       message
+	 */
+	public void enqueue(final Message message) throws CouldNotSendMessageBusMessage {
+		switch (backpressurePolicy) {
+		case BLOCK:
+			acquireFreeSlotOrWait(message);
+			break;
+		case DROP_OLDEST:
+			acquireFreeSlotOrDropOldest(message);
+			break;
+		default:
+			if (!freeSlots.tryAcquire()) {
+				throw new CouldNotSendMessageBusMessage("Message queue is full, message rejected: message=" + message);
+			}
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					if (STATUS_COMMITTED == status) {
+						offer(message);
+					} else {
+						freeSlots.release();
+						if (LOGGER.isDebugEnabled()) {
+							LOGGER.debug("Transaction not committed, message not sent : " + message);
+						}
+					}
+				}
+			});
+		} else {
+			offer(message);
+		}
+	}
+
+	/**
+	 * Put a message in the queue, its slot being already taken
+	 */
+	private void offer(final Message message) {
+		final int newDepth = depth.incrementAndGet();
+		queue.offer(message);
+		// Wake up the publisher when a batch starts (linger time begins) or is full
+		if (newDepth == 1 || newDepth == batchSize) {
+			LockSupport.unpark(publisherThread);
+		}
+	}
+
+	private void acquireFreeSlotOrWait(final Message message) throws CouldNotSendMessageBusMessage {
+		try {
+			if (!freeSlots.tryAcquire(blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new CouldNotSendMessageBusMessage(
+						"Message queue still full after " + blockTimeoutMillis + "ms, message rejected: message="
+								+ message);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CouldNotSendMessageBusMessage("Interrupted while waiting for the message queue: message="
+					+ message, e);
+		}
+	}
+
+	/**
+	 * Take a free slot in the queue or, when the queue is full, take the slot of
+	 * the oldest message which is dropped. When the slots are all taken by
+	 * transactions not completed yet, there is no message to drop : wait for a
+	 * slot as with {@link BackpressurePolicy#BLOCK}
+	 */
+	private void acquireFreeSlotOrDropOldest(final Message message) throws CouldNotSendMessageBusMessage {
+		if (freeSlots.tryAcquire()) {
+			return;
+		}
+		final Message dropped = queue.poll();
+		if (null == dropped) {
+			acquireFreeSlotOrWait(message);
+			return;
+		}
+		depth.decrementAndGet();
+		droppedCounter.increment();
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Message queue is full, message dropped : " + dropped);
+		}
+	}
+
+	/**
+	 * @return number of messages waiting to be sent
+	 */
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * Main loop of the publisher thread : wait for a batch then send it, until
+	 * stopped and the queue is empty
+	 */
+	private void publishUntilStopped() {
+		final List<Message> batch = new ArrayList<>(batchSize);
+		while (running || depth.get() > 0) {
+			awaitBatch();
+			drainTo(batch);
+			if (!batch.isEmpty()) {
+				flushTimer.record(() -> flush(batch));
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Wait until a batch is full, or the linger time has elapsed since the
+	 * publisher noticed the first message of the batch, or the publisher is
+	 * stopped
+	 */
+	private void awaitBatch() {
+		long lingerDeadline = 0;
+		boolean lingering = false;
+		while (running && depth.get() < batchSize) {
+			if (depth.get() == 0) {
+				lingering = false;
+				LockSupport.parkNanos(this, lingerNanos);
+				continue;
+			}
+			final long now = System.nanoTime();
+			if (!lingering) {
+				lingering = true;
+				lingerDeadline = now + lingerNanos;
+			} else if (now - lingerDeadline >= 0) {
+				return;
+			}
+			LockSupport.parkNanos(this, lingerDeadline - now);
+		}
+	}
+
+	/**
+	 * Move at most {@link #batchSize} messages from the queue to given batch
+	 */
+	private void drainTo(final List<Message> batch) {
+		Message message;
+		while (batch.size() < batchSize && null != (message = queue.poll())) {
+			depth.decrementAndGet();
+			freeSlots.release();
+			batch.add(message);
+		}
+	}
+
+	/**
+	 * Send given messages back to back, in order
+	 */
+	private void flush(final List<Message> batch) {
+		for (Message message : batch) {
+			try {
+				MessageService.publish(messageProcessor, message);
+			} catch (CouldNotSendMessageBusMessage e) {
+				failedCounter.increment();
+				LOGGER.warn("Could not send message asynchronously : " + message, e);
+			}
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("flush() sent a batch of " + batch.size() + " messages");
+		}
+	}
+}
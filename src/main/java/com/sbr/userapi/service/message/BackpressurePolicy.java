@@ -0,0 +1,26 @@
+package com.sbr.userapi.service.message;
+
+/**
+ * What happens when a message is published asynchronously while the queue of
+ * the {@link AsyncMessagePublisher} is full
+ * 
+ * @author sbrouet
+ *
+ */
+public enum BackpressurePolicy {
+
+	/**
+	 * The caller waits until there is room in the queue. When the queue is still
+	 * full after the configured timeout, the message is rejected
+	 */
+	BLOCK,
+
+	/**
+	 * The oldest message in the queue is dropped to make room for the new one.
+	 * The caller never waits nor fails
+	 */
+	DROP_OLDEST,
+
+	/** The message is rejected immediately */
+	FAIL_FAST
+}
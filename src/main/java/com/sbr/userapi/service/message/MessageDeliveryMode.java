@@ -0,0 +1,33 @@
+package com.sbr.userapi.service.message;
+
+/**
+ * How messages about user operations are delivered to the message bus
+ * 
+ * @author sbrouet
+ *
+ */
+public enum MessageDeliveryMode {
+
+	/**
+	 * Messages are sent to the message bus directly, inside the transaction of the
+	 * user operation : the transaction waits for the message bus and fails when
+	 * the message cannot be sent
+	 */
+	SYNC,
+
+	/**
+	 * Messages are stored in the outbox table, in the same transaction as the user
+	 * operation, then sent to the message bus in the background by the
+	 * {@link OutboxRelay}
+	 */
+	OUTBOX,
+
+	/**
+	 * Messages are put in an in-memory queue once the transaction of the user
+	 * operation is committed, and sent to the message bus by batches in the
+	 * background by the {@link AsyncMessagePublisher}. The user operation does not
+	 * wait for the message bus, but messages still in the queue are lost when the
+	 * application stops abruptly
+	 */
+	ASYNC
+}
@@ -1,6 +1,7 @@
 package com.sbr.userapi.service.message;
 
 import java.util.Date;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,9 +9,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 
+import com.sbr.userapi.configuration.ConfigurationBean;
 import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
 import com.sbr.userapi.messaging.processor.MessageProcessor;
 import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.model.messaging.OutboxMessage;
+import com.sbr.userapi.monitoring.RequestPhase;
+import com.sbr.userapi.monitoring.RequestPhaseEvent;
+import com.sbr.userapi.repository.OutboxMessageRepository;
+
+import io.micrometer.core.annotation.Timed;
 
 /**
  * Service for sending messages to the message bus
@@ -22,18 +30,41 @@ import com.sbr.userapi.model.messaging.Message;
 public class MessageService {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MessageService.class);
 
-	private static final long SERVICE_BUS_SEND_MESSAGE_TIMEOUT_MILLIS = 2000;
+	static final long SERVICE_BUS_SEND_MESSAGE_TIMEOUT_MILLIS = 2000;
+
+	/**
+	 * Name of the timer of the messages sent, tagged with the method and the
+	 * exception thrown if any
+	 */
+	public static final String TIMER_NAME = "messaging.send";
 
 	/** Message processor allows sending messages to a service bus */
 	private MessageProcessor messageProcessor;
 
+	/** Repository of the messages waiting to be sent to the service bus */
+	private OutboxMessageRepository outboxMessageRepository;
+
+	/** Publishes messages to the service bus in the background */
+	private AsyncMessagePublisher asyncMessagePublisher;
+
+	/** How messages are delivered to the service bus */
+	private MessageDeliveryMode deliveryMode;
+
 	@Autowired
-	public MessageService(MessageProcessor messageProcessor) {
+	public MessageService(MessageProcessor messageProcessor, OutboxMessageRepository outboxMessageRepository,
+			AsyncMessagePublisher asyncMessagePublisher, ConfigurationBean configurationBean) {
 		this.messageProcessor = messageProcessor;
+		this.outboxMessageRepository = outboxMessageRepository;
+		this.asyncMessagePublisher = asyncMessagePublisher;
+		this.deliveryMode = configurationBean.getMessageDeliveryMode();
 	}
 
 	/**
-	 * Send message to the service bus with given message information
+	 * Send message to the service bus with given message information.<BR/>
+	 * Depending on the {@link MessageDeliveryMode}, the message is either sent
+	 * directly, stored in the outbox, joining the current transaction, to be sent
+	 * later by the {@link OutboxRelay}, or queued to be sent in the background by
+	 * the {@link AsyncMessagePublisher}
 	 * 
 	 * @param messageType message type see enum {@link Message.Type} for possible
 	 *                    values
@@ -42,8 +73,75 @@ public class MessageService {
 	 *                                       message bus
 	 * 
 	 */
+	@Timed(TIMER_NAME)
 	public void sendMessage(final Message.Type messageType, final Long userId) throws CouldNotSendMessageBusMessage {
-		final Message message = new Message(new Date().getTime(), userId, messageType);
+		final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.MESSAGE_SEND, messageType.name());
+		try {
+			send(new Message(new Date().getTime(), userId, messageType));
+		} finally {
+			event.finish(userId);
+		}
+	}
+
+	/**
+	 * Send a single message about many users to the service bus, see
+	 * {@link #sendMessage(Message.Type, Long)}
+	 * 
+	 * @param messageType message type see enum {@link Message.Type} for possible
+	 *                    values
+	 * @param userIds     ids of the users the message is about
+	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
+	 *                                       message bus
+	 */
+	@Timed(TIMER_NAME)
+	public void sendMessage(final Message.Type messageType, final List<Long> userIds)
+			throws CouldNotSendMessageBusMessage {
+		final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.MESSAGE_SEND, messageType.name());
+		try {
+			send(new Message(new Date().getTime(), userIds, messageType));
+		} finally {
+			event.finish(null);
+		}
+	}
+
+	private void send(final Message message) throws CouldNotSendMessageBusMessage {
+		if (MessageDeliveryMode.OUTBOX == deliveryMode) {
+			final OutboxMessage outboxMessage = outboxMessageRepository.save(new OutboxMessage(message));
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Message stored in outbox : " + outboxMessage);
+			}
+			return;
+		}
+		if (MessageDeliveryMode.ASYNC == deliveryMode) {
+			asyncMessagePublisher.enqueue(message);
+			return;
+		}
+		publishMessage(message);
+	}
+
+	/**
+	 * Send given message to the service bus right now, whatever the
+	 * {@link MessageDeliveryMode}
+	 * 
+	 * @param message message to be sent
+	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
+	 *                                       message bus
+	 */
+	@Timed(TIMER_NAME)
+	public void publishMessage(final Message message) throws CouldNotSendMessageBusMessage {
+		publish(messageProcessor, message);
+	}
+
+	/**
+	 * Send given message to the service bus through given message processor
+	 * 
+	 * @param messageProcessor the message processor to use
+	 * @param message          message to be sent
+	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
+	 *                                       message bus
+	 */
+	static void publish(final MessageProcessor messageProcessor, final Message message)
+			throws CouldNotSendMessageBusMessage {
 		try {
 			if (!messageProcessor.mainChannel().send(message(message), SERVICE_BUS_SEND_MESSAGE_TIMEOUT_MILLIS)) {
 				throwCouldNotSendMessageBusMessage(message, null);
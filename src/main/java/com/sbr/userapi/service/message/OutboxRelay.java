@@ -0,0 +1,124 @@
+package com.sbr.userapi.service.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.model.messaging.OutboxMessage;
+import com.sbr.userapi.repository.OutboxMessageRepository;
+
+/**
+ * Background relay which sends the messages stored in the outbox to the message
+ * bus, in id order, then deletes them from the outbox.<BR/>
+ * The messages of a user are sent in the order of its operations (see
+ * {@link OutboxMessage#getId()}). The messages of different users are not sent
+ * in commit order : a message committed late with a small id is sent after
+ * messages with greater ids already relayed.<BR/>
+ * Messages are read, sent and deleted by batches, one database transaction per
+ * batch. When the message bus fails, the relay stops and retries on next run
+ * from the first message not sent.<BR/>
+ * WARNING : delivery is "at least once" : a message may be sent again when the
+ * application stops between sending a batch and committing its deletion, so
+ * consumers must tolerate duplicates
+ * 
+ * @author sbrouet
+ *
+ */
+@Component
+public class OutboxRelay {
+	private static final Logger LOGGER = LoggerFactory.getLogger(OutboxRelay.class);
+
+	/** Repository of the messages waiting to be sent to the service bus */
+	private OutboxMessageRepository outboxMessageRepository;
+
+	/** Service for sending messages to the Message Bus */
+	private MessageService messageService;
+
+	/** Executes each batch in its own transaction */
+	private TransactionOperations transactionOperations;
+
+	/** Maximum number of messages sent in one transaction */
+	private int batchSize;
+
+	@Autowired
+	public OutboxRelay(OutboxMessageRepository outboxMessageRepository, MessageService messageService,
+			TransactionOperations transactionOperations, ConfigurationBean configurationBean) {
+		this.outboxMessageRepository = outboxMessageRepository;
+		this.messageService = messageService;
+		this.transactionOperations = transactionOperations;
+		this.batchSize = configurationBean.getOutboxRelayBatchSize();
+	}
+
+	/**
+	 * Send all the messages waiting in the outbox, batch after batch, until the
+	 * outbox is empty or the message bus fails
+	 * 
+	 * @return number of messages sent
+	 */
+	@Scheduled(fixedDelayString = "${messaging.outbox.relay.interval}", initialDelayString = "${messaging.outbox.relay.interval}")
+	public long relayPendingMessages() {
+		long sentCount = 0;
+		BatchResult result;
+		do {
+			result = transactionOperations.execute(status -> relayBatch());
+			sentCount += result.sentCount;
+		} while (!result.failed && result.sentCount == batchSize);
+
+		if (sentCount > 0 && LOGGER.isDebugEnabled()) {
+			LOGGER.debug("relayPendingMessages() sent " + sentCount + " messages");
+		}
+		return sentCount;
+	}
+
+	/**
+	 * Send the oldest messages of the outbox, at most {@link #batchSize}, and
+	 * delete the ones that were sent. Must be called inside a transaction
+	 * 
+	 * @return result of the batch, never <code>null</code>
+	 */
+	private BatchResult relayBatch() {
+		final List<OutboxMessage> pendingMessages = outboxMessageRepository
+				.findOldestForUpdate(PageRequest.of(0, batchSize));
+		final List<OutboxMessage> sentMessages = new ArrayList<>(pendingMessages.size());
+		boolean failed = false;
+		for (OutboxMessage outboxMessage : pendingMessages) {
+			try {
+				messageService.publishMessage(outboxMessage.toMessage());
+			} catch (CouldNotSendMessageBusMessage e) {
+				// Keep this message and the next ones for the next run, to preserve order
+				LOGGER.warn("Could not relay outbox message " + outboxMessage + ", will retry later", e);
+				failed = true;
+				break;
+			}
+			sentMessages.add(outboxMessage);
+		}
+		if (!sentMessages.isEmpty()) {
+			outboxMessageRepository.deleteInBatch(sentMessages);
+		}
+		return new BatchResult(sentMessages.size(), failed);
+	}
+
+	/** Result of the relay of one batch of messages */
+	private static class BatchResult {
+
+		/** Number of messages sent */
+		private final int sentCount;
+
+		/** Whether the message bus failed during the batch */
+		private final boolean failed;
+
+		BatchResult(int sentCount, boolean failed) {
+			this.sentCount = sentCount;
+			this.failed = failed;
+		}
+	}
+}
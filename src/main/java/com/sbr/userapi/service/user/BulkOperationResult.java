@@ -0,0 +1,36 @@
+package com.sbr.userapi.service.user;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk operation on users identified by their ids
+ * 
+ * @author sbrouet
+ *
+ */
+public class BulkOperationResult {
+
+	/** Ids of the users the operation was applied to, in request order */
+	private final List<Long> affectedIds;
+
+	/** Requested ids for which no user exists, in request order */
+	private final List<Long> missingIds;
+
+	public BulkOperationResult(final List<Long> affectedIds, final List<Long> missingIds) {
+		this.affectedIds = affectedIds;
+		this.missingIds = missingIds;
+	}
+
+	public List<Long> getAffectedIds() {
+		return affectedIds;
+	}
+
+	public List<Long> getMissingIds() {
+		return missingIds;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkOperationResult [affectedIds=" + affectedIds + ", missingIds=" + missingIds + "]";
+	}
+}
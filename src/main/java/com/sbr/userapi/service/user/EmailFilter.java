@@ -0,0 +1,524 @@
+package com.sbr.userapi.service.user;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.ConsumeOkEvent;
+import org.springframework.amqp.rabbit.listener.ListenerContainerConsumerFailedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.messaging.processor.MessageProcessor;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.repository.UserRepository;
+import com.sbr.userapi.service.message.MessageDeliveryMode;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * A scalable Bloom filter of the emails of all {@link User users}, which tells
+ * without any database access that an email is definitely not used by any
+ * user.<BR/>
+ * The filter is made of layers : when the current layer holds as many emails
+ * as its capacity, a new layer with twice the capacity and half the false
+ * positive probability is added, so the overall false positive probability
+ * stays below the configured one whatever the number of users.<BR/>
+ * Emails are added as soon as they are written by this application instance,
+ * and when a {@link Message.Type#USER_CREATED USER_CREATED},
+ * {@link Message.Type#USERS_CREATED USERS_CREATED} or
+ * {@link Message.Type#USER_UPDATED USER_UPDATED} message is received from the
+ * message bus, so that the emails written by other instances are added
+ * too.<BR/>
+ * The queue of these messages has no consumer group : it only exists while
+ * this instance is connected to the message bus, and the messages sent while it
+ * does not exist are never received. So the emails of all users are loaded from
+ * the database once the application is ready (its bindings are started), again
+ * each time the consumer of the queue is connected back, and periodically (see
+ * <code>users.email-filter.resync-interval</code>). The filter is only trusted
+ * after such a load, and not while the consumer is disconnected : until then
+ * it answers that any email might be used.<BR/>
+ * The filter is only trusted with the {@link MessageDeliveryMode#OUTBOX OUTBOX}
+ * delivery mode, where a message is sent once the operation it describes is
+ * committed and is kept until it is sent. With {@link MessageDeliveryMode#SYNC
+ * SYNC}, a message may be received before the emails it refers to are
+ * committed, and with {@link MessageDeliveryMode#ASYNC ASYNC} it may be dropped
+ * : the filter would then miss emails of other instances, so it answers that
+ * any email might be used and the database is always searched.<BR/>
+ * Even when trusted, the filter may answer that an email is not used while it
+ * was just committed by another instance whose message was not relayed and
+ * received yet : this window lasts about the relay interval of the outbox (see
+ * <code>messaging.outbox.relay.interval</code>) plus the delivery delay of the
+ * message bus, and the unique constraint of the database stays the final check
+ * of a duplicate email.<BR/>
+ * A Bloom filter cannot remove an email : the emails of deleted users, and the
+ * previous emails of updated users, stay in the filter as stale entries. They
+ * only cause extra database lookups, and disappear when the application
+ * restarts.<BR/>
+ * Metrics : <code>users.email.filter.fpp</code> (estimated false positive
+ * probability), <code>users.email.filter.memory</code> (bytes),
+ * <code>users.email.filter.entries</code>,
+ * <code>users.email.filter.stale</code> (gauges) and
+ * <code>users.email.filter.lookups</code> (counter tagged with the
+ * <code>result</code> : negative, true_positive or false_positive)<BR/>
+ * <B>Thread safe</B> : lookups and additions are lock-free, only the addition
+ * of a layer takes a lock. Loads are run one at a time
+ * 
+ * @author sbrouet
+ * 
+ */
+@Component
+public class EmailFilter {
+	private static final Logger LOGGER = LoggerFactory.getLogger(EmailFilter.class);
+
+	/** Ratio between the capacities of two successive layers */
+	private static final int CAPACITY_GROWTH = 2;
+
+	/**
+	 * Ratio between the false positive probabilities of two successive layers :
+	 * the sum over all layers stays below twice the probability of the first one
+	 */
+	private static final double FPP_TIGHTENING = 0.5;
+
+	private final UserRepository repository;
+
+	private final TransactionOperations transactionOperations;
+
+	/**
+	 * Whether the messages about the emails written by other application instances
+	 * are sent once committed, see {@link MessageDeliveryMode#OUTBOX OUTBOX}
+	 */
+	private final boolean outbox;
+
+	/**
+	 * Whether the emails of all users were loaded while the consumer of the user
+	 * messages was connected, and it was not disconnected since
+	 */
+	private volatile boolean synced;
+
+	/** Whether the consumer of the user messages is connected to the message bus */
+	private volatile boolean consumerConnected = true;
+
+	/**
+	 * Incremented each time the consumer of the user messages is connected or
+	 * disconnected, so that a load which overlaps a reconnection does not make
+	 * the filter trusted
+	 */
+	private final AtomicLong consumerEpoch = new AtomicLong();
+
+	/** Ensures that loads are run one at a time */
+	private final ReentrantLock loadLock = new ReentrantLock();
+
+	/**
+	 * Guards the addition of a layer. A lock rather than a monitor, which would
+	 * pin a virtual thread to its carrier
+	 */
+	private final ReentrantLock layersLock = new ReentrantLock();
+
+	/** Runs the loads requested by the message bus consumer thread */
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "email-filter-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Layers of the filter, the last one receives the new emails */
+	private final List<Layer> layers = new CopyOnWriteArrayList<>();
+
+	/** Number of emails in the filter which are not used anymore */
+	private final AtomicLong staleEntries = new AtomicLong();
+
+	private final Counter negativeLookups;
+
+	private final Counter truePositiveLookups;
+
+	private final Counter falsePositiveLookups;
+
+	@Autowired
+	public EmailFilter(UserRepository repository, TransactionOperations transactionOperations,
+			ConfigurationBean configurationBean, MeterRegistry meterRegistry) {
+		this.repository = repository;
+		this.transactionOperations = transactionOperations;
+		this.outbox = MessageDeliveryMode.OUTBOX == configurationBean.getMessageDeliveryMode();
+		// The first layer gets half of the configured probability, see FPP_TIGHTENING
+		layers.add(new Layer(configurationBean.getEmailFilterExpectedInsertions(),
+				configurationBean.getEmailFilterFpp() * (1 - FPP_TIGHTENING)));
+
+		Gauge.builder("users.email.filter.fpp", this, EmailFilter::getEstimatedFpp)
+				.description("Estimated false positive probability of the filter of emails").register(meterRegistry);
+		Gauge.builder("users.email.filter.memory", this, EmailFilter::getMemoryFootprint).baseUnit("bytes")
+				.description("Memory used by the bits of the filter of emails").register(meterRegistry);
+		Gauge.builder("users.email.filter.entries", this, EmailFilter::getEntries)
+				.description("Number of emails in the filter of emails").register(meterRegistry);
+		Gauge.builder("users.email.filter.stale", staleEntries, AtomicLong::get)
+				.description("Number of emails in the filter which are not used anymore").register(meterRegistry);
+		negativeLookups = createLookupCounter(meterRegistry, "negative");
+		truePositiveLookups = createLookupCounter(meterRegistry, "true_positive");
+		falsePositiveLookups = createLookupCounter(meterRegistry, "false_positive");
+	}
+
+	private static Counter createLookupCounter(final MeterRegistry meterRegistry, final String result) {
+		return Counter.builder("users.email.filter.lookups").tag("result", result)
+				.description("Number of searches by email, by answer of the filter of emails")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Add the emails of all users from the database, then trust the filter if the
+	 * consumer of the user messages stayed connected meanwhile : the emails
+	 * committed before the load are read, and those committed after it are told by
+	 * the messages. Emails already in the filter are kept, so that the emails
+	 * written by this instance and not committed yet are not lost
+	 */
+	@Scheduled(fixedDelayString = "${users.email-filter.resync-interval}",
+			initialDelayString = "${users.email-filter.resync-interval}")
+	public void load() {
+		loadLock.lock();
+		try {
+			final long epoch = consumerEpoch.get();
+			final long start = System.currentTimeMillis();
+			final long entriesBefore = getEntries();
+			transactionOperations.executeWithoutResult(status -> {
+				try (Stream<User> users = repository.streamAll()) {
+					final Iterator<User> iterator = users.iterator();
+					while (iterator.hasNext()) {
+						final User user = iterator.next();
+						add(user.getEmail());
+						repository.detach(user);
+					}
+				}
+			});
+			synced = consumerConnected && epoch == consumerEpoch.get();
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("load() added " + (getEntries() - entriesBefore) + " emails in "
+						+ (System.currentTimeMillis() - start) + "ms, entries=" + getEntries() + ", memory="
+						+ getMemoryFootprint() + " bytes, synced=" + synced);
+			}
+		} finally {
+			loadLock.unlock();
+		}
+	}
+
+	/**
+	 * Load the emails of all users once the bindings to the message bus are
+	 * started, so that no user written by another instance in between is missed
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		load();
+	}
+
+	/**
+	 * Stop trusting the filter when the consumer of the user messages is
+	 * disconnected : the messages sent meanwhile are never received
+	 * 
+	 * @param event the failure of a consumer of the message bus
+	 */
+	@EventListener
+	public void onConsumerFailed(final ListenerContainerConsumerFailedEvent event) {
+		consumerConnected = false;
+		consumerEpoch.incrementAndGet();
+		synced = false;
+		if (LOGGER.isWarnEnabled()) {
+			LOGGER.warn("onConsumerFailed() filter not trusted until the next load, reason=" + event.getReason());
+		}
+	}
+
+	/**
+	 * Load again the emails of all users when the consumer of the user messages
+	 * is connected, to add those written while it was disconnected
+	 * 
+	 * @param event the start of a consumer of the message bus
+	 */
+	@EventListener
+	public void onConsumerStarted(final ConsumeOkEvent event) {
+		consumerConnected = true;
+		consumerEpoch.incrementAndGet();
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info("onConsumerStarted() loading the emails of all users, queue=" + event.getQueue());
+		}
+		loader.execute(this::load);
+	}
+
+	@PreDestroy
+	public void stop() {
+		loader.shutdownNow();
+	}
+
+	/**
+	 * Tell whether an email may be used by a user. Comparison ignores case
+	 * 
+	 * @param email the email to look for
+	 * @return <code>false</code> when no user has this email for sure,
+	 *         <code>true</code> when a user may have this email. Always
+	 *         <code>true</code> when the filter is not trusted
+	 */
+	public boolean mightContain(final String email) {
+		if (!isTrusted()) {
+			return true;
+		}
+		final long hash1 = hash(email);
+		final long hash2 = hash2(hash1);
+		for (Layer layer : layers) {
+			if (layer.mightContain(hash1, hash2)) {
+				return true;
+			}
+		}
+		negativeLookups.increment();
+		return false;
+	}
+
+	/**
+	 * Record the outcome of a database search by email for which the filter
+	 * answered that the email might be used
+	 * 
+	 * @param found whether a user was actually found
+	 */
+	public void recordPositiveLookup(final boolean found) {
+		if (!isTrusted()) {
+			return;
+		}
+		(found ? truePositiveLookups : falsePositiveLookups).increment();
+	}
+
+	/**
+	 * Add the email of a user. Emails are added before the transaction which
+	 * writes them is committed : an email of a rolled back operation only becomes
+	 * a stale entry
+	 * 
+	 * @param email the email of a user
+	 * @return <code>true</code> when the email was added, <code>false</code> when
+	 *         it might already be in the filter
+	 */
+	public boolean add(final String email) {
+		final long hash1 = hash(email);
+		final long hash2 = hash2(hash1);
+		for (Layer layer : layers) {
+			if (layer.mightContain(hash1, hash2)) {
+				return false;
+			}
+		}
+		currentLayer().put(hash1, hash2);
+		return true;
+	}
+
+	/**
+	 * Record that emails are not used anymore, because their users were deleted or
+	 * their email was changed
+	 * 
+	 * @param count number of emails
+	 */
+	public void markStale(final long count) {
+		staleEntries.addAndGet(count);
+	}
+
+	/**
+	 * Add the emails of the users created or updated by any application instance,
+	 * as told by a message received from the message bus
+	 * 
+	 * @param message a message received from the message bus
+	 */
+	@StreamListener(MessageProcessor.INVALIDATION_INPUT_CHANNEL_NAME)
+	public void onUserMessage(final Message message) {
+		final List<Long> ids;
+		if (Message.Type.USERS_CREATED == message.getType()) {
+			ids = message.getUserIds();
+		} else if (Message.Type.USER_CREATED == message.getType() || Message.Type.USER_UPDATED == message.getType()) {
+			ids = List.of(message.getUserId());
+		} else {
+			return;
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("onUserMessage() adding the emails of users " + ids);
+		}
+		repository.findAllById(ids).forEach(user -> add(user.getEmail()));
+	}
+
+	/**
+	 * @return whether the answers of the filter are used : with the
+	 *         {@link MessageDeliveryMode#OUTBOX OUTBOX} delivery mode, once the
+	 *         emails of all users are loaded and while the consumer of the user
+	 *         messages is connected
+	 */
+	public boolean isTrusted() {
+		return outbox && synced;
+	}
+
+	/**
+	 * @return estimated probability that {@link #mightContain(String)} answers
+	 *         <code>true</code> for an email which was never added
+	 */
+	public double getEstimatedFpp() {
+		double trueNegativeProbability = 1;
+		for (Layer layer : layers) {
+			trueNegativeProbability *= 1 - layer.getEstimatedFpp();
+		}
+		return 1 - trueNegativeProbability;
+	}
+
+	/**
+	 * @return number of bytes used by the bits of the filter
+	 */
+	public long getMemoryFootprint() {
+		return layers.stream().mapToLong(Layer::getMemoryFootprint).sum();
+	}
+
+	/**
+	 * @return number of distinct emails added to the filter, including stale ones
+	 */
+	public long getEntries() {
+		return layers.stream().mapToLong(Layer::getEntries).sum();
+	}
+
+	/**
+	 * @return number of layers of the filter
+	 */
+	int getLayerCount() {
+		return layers.size();
+	}
+
+	/**
+	 * @return the layer which receives new emails, a new layer is added when the
+	 *         last one is full
+	 */
+	private Layer currentLayer() {
+		final Layer last = layers.get(layers.size() - 1);
+		if (!last.isFull()) {
+			return last;
+		}
+		layersLock.lock();
+		try {
+			final Layer lastAfterLock = layers.get(layers.size() - 1);
+			if (!lastAfterLock.isFull()) {
+				return lastAfterLock;
+			}
+			final Layer added = new Layer(lastAfterLock.capacity * CAPACITY_GROWTH,
+					lastAfterLock.fpp * FPP_TIGHTENING);
+			layers.add(added);
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("currentLayer() added layer " + layers.size() + " for " + added.capacity + " emails");
+			}
+			return added;
+		} finally {
+			layersLock.unlock();
+		}
+	}
+
+	/**
+	 * 64 bits FNV-1a hash of the email in lower case, with its bits mixed so that
+	 * all of them depend on all characters
+	 */
+	private static long hash(final String email) {
+		final String normalized = null == email ? "" : email.toLowerCase(Locale.ROOT);
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < normalized.length(); i++) {
+			hash ^= normalized.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Second hash, derived from the first one. Odd so that all the bits of a layer
+	 * can be reached
+	 */
+	private static long hash2(final long hash1) {
+		return mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+	}
+
+	/** Finalization step of the MurmurHash3 64 bits hash */
+	private static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+	/**
+	 * A classic Bloom filter sized for a capacity and a false positive
+	 * probability. The bits of an email are computed by double hashing
+	 */
+	private static final class Layer {
+		private final long capacity;
+
+		private final double fpp;
+
+		private final int hashCount;
+
+		private final long bitCount;
+
+		private final AtomicLongArray words;
+
+		private final AtomicLong entries = new AtomicLong();
+
+		Layer(final long capacity, final double fpp) {
+			this.capacity = Math.max(1, capacity);
+			this.fpp = fpp;
+			final double ln2 = Math.log(2);
+			final long words = Math.max(1, (long) Math.ceil(-this.capacity * Math.log(fpp) / (ln2 * ln2) / 64));
+			this.words = new AtomicLongArray(Math.toIntExact(words));
+			this.bitCount = words * 64;
+			this.hashCount = Math.max(1, (int) Math.round((double) bitCount / this.capacity * ln2));
+		}
+
+		boolean mightContain(final long hash1, final long hash2) {
+			long combined = hash1;
+			for (int i = 0; i < hashCount; i++, combined += hash2) {
+				final long bit = Math.floorMod(combined, bitCount);
+				if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void put(final long hash1, final long hash2) {
+			long combined = hash1;
+			for (int i = 0; i < hashCount; i++, combined += hash2) {
+				final long bit = Math.floorMod(combined, bitCount);
+				final long mask = 1L << bit;
+				words.getAndAccumulate((int) (bit >>> 6), mask, (word, added) -> word | added);
+			}
+			entries.incrementAndGet();
+		}
+
+		boolean isFull() {
+			return entries.get() >= capacity;
+		}
+
+		long getEntries() {
+			return entries.get();
+		}
+
+		long getMemoryFootprint() {
+			return bitCount / 8;
+		}
+
+		/** Probability that all the bits of an email which was never added are set */
+		double getEstimatedFpp() {
+			return Math.pow(1 - Math.exp(-(double) hashCount * entries.get() / bitCount), hashCount);
+		}
+	}
+}
@@ -0,0 +1,458 @@
+package com.sbr.userapi.service.user;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.ConsumeOkEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.messaging.processor.MessageProcessor;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.repository.UserRepository;
+import com.sbr.userapi.service.message.MessageDeliveryMode;
+
+/**
+ * In-memory index of the first names of all {@link User users}, for
+ * autocompletion : finds the users whose first name starts with a prefix
+ * without any database access.<BR/>
+ * First names are normalized (case folded, accents removed) and kept in a
+ * sorted set of (normalized first name, id) entries, so a prefix search is a
+ * seek in the set followed by the reading of the matching entries, in first
+ * name order.<BR/>
+ * The index is updated by {@link UserService} once the transaction of each
+ * user operation is committed, and when a user message is received from the
+ * message bus, so that the operations of other instances are indexed too : the
+ * first names of the created or updated users are read from the database,
+ * deleted users are removed. Messages are only applied with the
+ * {@link MessageDeliveryMode#OUTBOX OUTBOX} delivery mode : with
+ * {@link MessageDeliveryMode#SYNC SYNC}, a message is sent before its operation
+ * is committed, or even when it is rolled back, and the first name read would
+ * be the previous one ; with {@link MessageDeliveryMode#ASYNC ASYNC}, messages
+ * may be dropped.<BR/>
+ * The queue of the user messages only exists while this instance is connected
+ * to the message bus, so messages may be missed. The index is therefore rebuilt
+ * from the database once the application is ready (its bindings are started),
+ * each time the consumer of the queue is connected back, and periodically (see
+ * <code>users.first-name-index.resync-interval</code>) : the operations of
+ * other instances which were missed, or not applied because of the delivery
+ * mode, are indexed at the latest by the next rebuild. The updates made during
+ * a rebuild are journaled by user id, and the users they touched are copied
+ * from the current index into the rebuilt one before it replaces the current
+ * one, so no update is lost.<BR/>
+ * <B>Thread safe</B> : searches are lock-free and may run concurrently with
+ * updates and rebuilds
+ * 
+ * @author sbrouet
+ * 
+ */
+@Component
+public class FirstNameIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FirstNameIndex.class);
+
+	/** Combining marks left by the decomposition of accented characters */
+	private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+	private final UserRepository repository;
+
+	private final TransactionOperations transactionOperations;
+
+	/**
+	 * Whether the user messages are sent once their operation is committed, see
+	 * {@link MessageDeliveryMode#OUTBOX OUTBOX}
+	 */
+	private final boolean outbox;
+
+	/** Entries searched and updated, replaced by each rebuild */
+	private volatile Entries current = new Entries();
+
+	/**
+	 * Ids of the users updated since the start of the running rebuild,
+	 * <code>null</code> when no rebuild is running
+	 */
+	private volatile Set<Long> journal;
+
+	/**
+	 * Updates take the read lock, so that they run concurrently. The start and
+	 * the end of a rebuild take the write lock, so that no update is missed by
+	 * the journal
+	 */
+	private final ReentrantReadWriteLock updateLock = new ReentrantReadWriteLock();
+
+	/** Ensures that rebuilds are run one at a time */
+	private final ReentrantLock loadLock = new ReentrantLock();
+
+	/** Runs the rebuilds requested by the message bus consumer thread */
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "first-name-index-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@Autowired
+	public FirstNameIndex(UserRepository repository, TransactionOperations transactionOperations,
+			ConfigurationBean configurationBean) {
+		this.repository = repository;
+		this.transactionOperations = transactionOperations;
+		this.outbox = MessageDeliveryMode.OUTBOX == configurationBean.getMessageDeliveryMode();
+	}
+
+	/**
+	 * Rebuild the index from the first names of all users in the database, then
+	 * replace the current index. The users updated meanwhile are taken from the
+	 * current index, which received these updates
+	 */
+	@Scheduled(fixedDelayString = "${users.first-name-index.resync-interval}",
+			initialDelayString = "${users.first-name-index.resync-interval}")
+	public void load() {
+		loadLock.lock();
+		try {
+			final long start = System.currentTimeMillis();
+			final Set<Long> updatedIds = ConcurrentHashMap.newKeySet();
+			updateLock.writeLock().lock();
+			try {
+				journal = updatedIds;
+			} finally {
+				updateLock.writeLock().unlock();
+			}
+			final Entries rebuilt = new Entries();
+			boolean loaded = false;
+			try {
+				transactionOperations.executeWithoutResult(status -> {
+					try (Stream<User> users = repository.streamAll()) {
+						final Iterator<User> iterator = users.iterator();
+						while (iterator.hasNext()) {
+							final User user = iterator.next();
+							rebuilt.put(user.getId(), user.getFirstName());
+							repository.detach(user);
+						}
+					}
+				});
+				loaded = true;
+			} finally {
+				updateLock.writeLock().lock();
+				try {
+					journal = null;
+					if (loaded) {
+						// The current index has the latest first name of the users updated meanwhile
+						updatedIds.forEach(id -> rebuilt.copy(id, current));
+						current = rebuilt;
+					}
+				} finally {
+					updateLock.writeLock().unlock();
+				}
+			}
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("load() indexed the first names of " + size() + " users in "
+						+ (System.currentTimeMillis() - start) + "ms");
+			}
+		} finally {
+			loadLock.unlock();
+		}
+	}
+
+	/**
+	 * Build the index once the bindings to the message bus are started, so that
+	 * no user written by another instance in between is missed
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		load();
+	}
+
+	/**
+	 * Rebuild the index when the consumer of the user messages is connected, to
+	 * index the users written by other instances while it was disconnected
+	 * 
+	 * @param event the start of a consumer of the message bus
+	 */
+	@EventListener
+	public void onConsumerStarted(final ConsumeOkEvent event) {
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info("onConsumerStarted() rebuilding the index, queue=" + event.getQueue());
+		}
+		loader.execute(this::load);
+	}
+
+	@PreDestroy
+	public void stop() {
+		loader.shutdownNow();
+	}
+
+	/**
+	 * Find the users whose first name starts with given prefix, ignoring case and
+	 * accents
+	 * 
+	 * @param prefix     beginning of the first name, an empty prefix matches all
+	 *                   users
+	 * @param maxResults maximum number of users returned
+	 * @return matching users ordered by normalized first name then id, may be
+	 *         empty but never <code>null</code>
+	 */
+	public List<UserSuggestion> findByPrefix(final String prefix, final int maxResults) {
+		final String normalizedPrefix = normalize(prefix);
+		final List<UserSuggestion> suggestions = new ArrayList<>(Math.min(maxResults, 16));
+		for (Entry entry : current.entries.tailSet(new Entry(normalizedPrefix, Long.MIN_VALUE, null))) {
+			if (suggestions.size() >= maxResults || !entry.getKey().startsWith(normalizedPrefix)) {
+				break;
+			}
+			suggestions.add(new UserSuggestion(entry.getId(), entry.getFirstName()));
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Index the first name of a user once the current transaction, if any, is
+	 * committed. Replaces the previous first name of the user
+	 * 
+	 * @param id        id of the user
+	 * @param firstName first name of the user
+	 */
+	public void put(final Long id, final String firstName) {
+		afterCommit(() -> doPut(id, firstName));
+	}
+
+	/**
+	 * Index the same first name for many users once the current transaction, if
+	 * any, is committed
+	 * 
+	 * @param ids       ids of the users
+	 * @param firstName first name of the users
+	 */
+	public void put(final Collection<Long> ids, final String firstName) {
+		final List<Long> idsCopy = List.copyOf(ids);
+		afterCommit(() -> idsCopy.forEach(id -> doPut(id, firstName)));
+	}
+
+	/**
+	 * Remove a user from the index once the current transaction, if any, is
+	 * committed
+	 * 
+	 * @param id id of the user
+	 */
+	public void remove(final Long id) {
+		remove(List.of(id));
+	}
+
+	/**
+	 * Remove users from the index once the current transaction, if any, is
+	 * committed
+	 * 
+	 * @param ids ids of the users
+	 */
+	public void remove(final Collection<Long> ids) {
+		final List<Long> idsCopy = List.copyOf(ids);
+		afterCommit(() -> idsCopy.forEach(this::doRemove));
+	}
+
+	/**
+	 * Index the first names of the users created, updated or deleted by any
+	 * application instance, as told by a message received from the message bus.
+	 * Ignored unless messages are sent once their operation is committed
+	 * 
+	 * @param message a message received from the message bus
+	 */
+	@StreamListener(MessageProcessor.INVALIDATION_INPUT_CHANNEL_NAME)
+	public void onUserMessage(final Message message) {
+		if (!outbox) {
+			return;
+		}
+		final List<Long> ids = null == message.getUserIds() ? List.of(message.getUserId()) : message.getUserIds();
+		if (Message.Type.USER_DELETED == message.getType()) {
+			ids.forEach(this::doRemove);
+			return;
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("onUserMessage() indexing the first names of users " + ids);
+		}
+		final Set<Long> missingIds = new HashSet<>(ids);
+		repository.findAllById(ids).forEach(user -> {
+			doPut(user.getId(), user.getFirstName());
+			missingIds.remove(user.getId());
+		});
+		// Deleted meanwhile
+		missingIds.forEach(this::doRemove);
+	}
+
+	/**
+	 * Remove all users from the index
+	 */
+	public void clear() {
+		current.clear();
+	}
+
+	/**
+	 * @return number of users in the index
+	 */
+	public int size() {
+		return current.size();
+	}
+
+	/**
+	 * Normalize a first name or a prefix : accents are removed and case is folded,
+	 * so that "Émile", "emile" and "EMILE" have the same key
+	 */
+	static String normalize(final String value) {
+		if (null == value) {
+			return "";
+		}
+		final String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+		return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+	}
+
+	private void doPut(final Long id, final String firstName) {
+		updateLock.readLock().lock();
+		try {
+			current.put(id, firstName);
+			record(id);
+		} finally {
+			updateLock.readLock().unlock();
+		}
+	}
+
+	private void doRemove(final Long id) {
+		updateLock.readLock().lock();
+		try {
+			current.remove(id);
+			record(id);
+		} finally {
+			updateLock.readLock().unlock();
+		}
+	}
+
+	/** Journal an updated user while a rebuild is running */
+	private void record(final Long id) {
+		final Set<Long> updatedIds = journal;
+		if (null != updatedIds) {
+			updatedIds.add(id);
+		}
+	}
+
+	/**
+	 * Run an update of the index once the current transaction is committed, or now
+	 * when there is no transaction. A rolled back operation leaves the index
+	 * unchanged
+	 */
+	private static void afterCommit(final Runnable update) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					update.run();
+				}
+			});
+		} else {
+			update.run();
+		}
+	}
+
+	/**
+	 * The entries of the index, sorted for the searches and by user id for the
+	 * updates
+	 */
+	private static final class Entries {
+		/** Entries sorted by normalized first name then id */
+		private final NavigableSet<Entry> entries = new ConcurrentSkipListSet<>(
+				Comparator.comparing(Entry::getKey).thenComparing(Entry::getId));
+
+		/** Current entry of each user, so an update or a delete can remove it */
+		private final Map<Long, Entry> entriesById = new ConcurrentHashMap<>();
+
+		void put(final Long id, final String firstName) {
+			// Updates of the same user are serialized by the map
+			entriesById.compute(id, (key, previous) -> {
+				if (null != previous) {
+					entries.remove(previous);
+				}
+				final Entry entry = new Entry(normalize(firstName), id, firstName);
+				entries.add(entry);
+				return entry;
+			});
+		}
+
+		void remove(final Long id) {
+			entriesById.computeIfPresent(id, (key, previous) -> {
+				entries.remove(previous);
+				return null;
+			});
+		}
+
+		/** Set the entry of a user as it is in other entries */
+		void copy(final Long id, final Entries source) {
+			final Entry entry = source.entriesById.get(id);
+			if (null == entry) {
+				remove(id);
+			} else {
+				put(id, entry.getFirstName());
+			}
+		}
+
+		void clear() {
+			entriesById.clear();
+			entries.clear();
+		}
+
+		int size() {
+			return entriesById.size();
+		}
+	}
+
+	/**
+	 * An entry of the index : the first name of a user and its normalized key
+	 */
+	private static final class Entry {
+		private final String key;
+
+		private final Long id;
+
+		private final String firstName;
+
+		Entry(final String key, final Long id, final String firstName) {
+			this.key = key;
+			this.id = id;
+			this.firstName = firstName;
+		}
+
+		String getKey() {
+			return key;
+		}
+
+		Long getId() {
+			return id;
+		}
+
+		String getFirstName() {
+			return firstName;
+		}
+	}
+}
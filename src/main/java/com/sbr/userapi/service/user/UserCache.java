@@ -0,0 +1,174 @@
+package com.sbr.userapi.service.user;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.messaging.processor.MessageProcessor;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+
+/**
+ * In-process cache of {@link User users} by id, in front of the database.<BR/>
+ * The cache is bounded in size (W-TinyLFU eviction) and entries expire after a
+ * time to live. It holds detached copies of users : callers always get their
+ * own copy, which they may modify without altering the cache.<BR/>
+ * Entries are invalidated :
+ * <UL>
+ * <LI>when a user is updated or deleted by this application instance, both
+ * immediately and after the end of the transaction, so that a concurrent read
+ * cannot put back the previous version of the user</LI>
+ * <LI>when a {@link Message.Type#USER_UPDATED USER_UPDATED} or
+ * {@link Message.Type#USER_DELETED USER_DELETED} message is received from the
+ * message bus, so that all application instances stay coherent</LI>
+ * </UL>
+ * Cache statistics are published as metrics <code>cache.*</code> tagged with
+ * <code>cache=users</code>
+ * 
+ * @author sbrouet
+ *
+ */
+@Component
+public class UserCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserCache.class);
+
+	/** Name of the cache in metrics */
+	public static final String CACHE_NAME = "users";
+
+	/**
+	 * Users by id. Entries are futures so that a user is loaded outside of the
+	 * locks of the cache, see {@link #get(Long, Function)}
+	 */
+	private final AsyncCache<Long, User> cache;
+
+	@Autowired
+	public UserCache(AsyncCache<Long, User> userByIdCache) {
+		this.cache = userByIdCache;
+	}
+
+	/**
+	 * Create the underlying cache, configured according to the application
+	 * properties file
+	 */
+	public static AsyncCache<Long, User> createCache(ConfigurationBean configurationBean) {
+		return Caffeine.newBuilder().maximumSize(configurationBean.getUserCacheSize())
+				.expireAfterWrite(configurationBean.getUserCacheTtl(), TimeUnit.SECONDS).recordStats().buildAsync();
+	}
+
+	/**
+	 * Get a user from the cache, or from the loader when not in cache. Concurrent
+	 * calls for the same id wait for a single load.<BR/>
+	 * The loader is run by the calling thread once a pending entry is in the
+	 * cache, not inside a computation of the cache : the database round trip is
+	 * not done while holding a lock of the cache, which would block the loads of
+	 * other ids sharing this lock and pin virtual threads to their carrier. A user
+	 * invalidated while it is loaded is not cached
+	 * 
+	 * @param id     id of the user
+	 * @param loader loads the user when not in cache, returns <code>null</code>
+	 *               when the user does not exist (nothing is cached then)
+	 * @return a copy of the user, or <code>null</code> when the user does not
+	 *         exist
+	 */
+	public User get(final Long id, final Function<Long, User> loader) {
+		final CompletableFuture<User> load = new CompletableFuture<>();
+		final CompletableFuture<User> cached = cache.get(id, (key, executor) -> load);
+		if (cached == load) {
+			try {
+				load.complete(copy(loader.apply(id)));
+			} catch (Throwable e) {
+				// Nothing is cached when loading fails. Errors too complete the pending
+				// entry, otherwise the next calls for the user would wait forever
+				load.completeExceptionally(e);
+				throw e;
+			}
+		}
+		try {
+			return copy(cached.join());
+		} catch (CompletionException e) {
+			// The load of a concurrent call failed
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Remove a user from the cache, now and once the current transaction, if any,
+	 * is completed
+	 * 
+	 * @param id id of the user
+	 */
+	public void invalidate(final Long id) {
+		invalidate(List.of(id));
+	}
+
+	/**
+	 * Remove users from the cache, now and once the current transaction, if any,
+	 * is completed
+	 * 
+	 * @param ids ids of the users
+	 */
+	public void invalidate(final Collection<Long> ids) {
+		cache.synchronous().invalidateAll(ids);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			// A read during the transaction still sees the previous version of the users
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					cache.synchronous().invalidateAll(ids);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Remove all users from the cache
+	 */
+	public void invalidateAll() {
+		cache.synchronous().invalidateAll();
+	}
+
+	/**
+	 * Remove the user a message is about from the cache, when the message tells
+	 * that the user was updated or deleted, possibly by another application
+	 * instance
+	 * 
+	 * @param message a message received from the message bus
+	 */
+	@StreamListener(MessageProcessor.INVALIDATION_INPUT_CHANNEL_NAME)
+	public void onUserMessage(final Message message) {
+		if (Message.Type.USER_UPDATED != message.getType() && Message.Type.USER_DELETED != message.getType()) {
+			return;
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("onUserMessage() invalidating user " + message.getUserId());
+		}
+		cache.synchronous().invalidate(message.getUserId());
+	}
+
+	private static User copy(final User user) {
+		if (null == user) {
+			return null;
+		}
+		return new User(user.getId(), user.getFirstName(), user.getEmail(), user.getPassword(), user.getVersion());
+	}
+}
@@ -0,0 +1,72 @@
+package com.sbr.userapi.service.user;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sbr.userapi.messaging.processor.MessageProcessor;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+
+/**
+ * Counts the changes of {@link User users}, so that clients can tell whether
+ * users changed since they last read them without any database access.<BR/>
+ * The counter is incremented once the transaction of each creation, update or
+ * deletion of users by this application instance is completed, and when a user
+ * message from any application instance is received from the message bus.
+ * Counters of different application instances are not related : the
+ * {@link #getValue() value} of the counter also holds an epoch drawn at random
+ * when the application instance starts.<BR/>
+ * <B>Thread safe</B>
+ * 
+ * @author sbrouet
+ * 
+ */
+@Component
+public class UserChangeCounter {
+
+	/** Tells this application instance apart from the others and from restarts */
+	private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+	private final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * Record a change of users, once the current transaction, if any, is
+	 * completed. Until then, readers still see the previous users with the
+	 * previous value
+	 */
+	public void increment() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					counter.incrementAndGet();
+				}
+			});
+		} else {
+			counter.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Record the change of users told by a message received from the message bus,
+	 * possibly sent by another application instance
+	 * 
+	 * @param message a message received from the message bus
+	 */
+	@StreamListener(MessageProcessor.INVALIDATION_INPUT_CHANNEL_NAME)
+	public void onUserMessage(final Message message) {
+		counter.incrementAndGet();
+	}
+
+	/**
+	 * @return an opaque value which changes whenever users change
+	 */
+	public String getValue() {
+		return epoch + "-" + counter.get();
+	}
+}
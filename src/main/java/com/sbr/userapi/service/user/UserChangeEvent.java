@@ -0,0 +1,56 @@
+package com.sbr.userapi.service.user;
+
+import com.sbr.userapi.model.messaging.Message;
+
+/**
+ * A change of a single user recorded in the {@link UserChangeLog}
+ * 
+ * @author sbrouet
+ * 
+ */
+public class UserChangeEvent {
+
+	/** Position of the event in the log of this application instance */
+	private final long offset;
+
+	/** Time stamp of the message which told the change */
+	private final long timeStamp;
+
+	/**
+	 * One of {@link Message.Type#USER_CREATED USER_CREATED},
+	 * {@link Message.Type#USER_UPDATED USER_UPDATED} or
+	 * {@link Message.Type#USER_DELETED USER_DELETED}
+	 */
+	private final Message.Type type;
+
+	private final Long userId;
+
+	public UserChangeEvent(final long offset, final long timeStamp, final Message.Type type, final Long userId) {
+		this.offset = offset;
+		this.timeStamp = timeStamp;
+		this.type = type;
+		this.userId = userId;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public long getTimeStamp() {
+		return timeStamp;
+	}
+
+	public Message.Type getType() {
+		return type;
+	}
+
+	public Long getUserId() {
+		return userId;
+	}
+
+	@Override
+	public String toString() {
+		return "UserChangeEvent [offset=" + offset + ", timeStamp=" + timeStamp + ", type=" + type + ", userId="
+				+ userId + "]";
+	}
+}
@@ -0,0 +1,69 @@
+package com.sbr.userapi.service.user;
+
+import java.util.List;
+
+/**
+ * Events read from the {@link UserChangeLog} from a given offset
+ * 
+ * @author sbrouet
+ * 
+ */
+public class UserChangeFeed {
+
+	/**
+	 * Identifies the log which gave the offsets : offsets of different logs
+	 * (application instances or restarts) are not related
+	 */
+	private final String logId;
+
+	/**
+	 * Whether events were lost since the requested offset : they were dropped by
+	 * the retention of the log, or the offset does not come from this log. The
+	 * consumer must read the users again before going on from
+	 * {@link #getNextOffset()}
+	 */
+	private final boolean reset;
+
+	/** Offset to read from to get the events following these ones */
+	private final long nextOffset;
+
+	/** Events ordered by offset, may be empty */
+	private final List<UserChangeEvent> events;
+
+	public UserChangeFeed(final String logId, final boolean reset, final long nextOffset,
+			final List<UserChangeEvent> events) {
+		this.logId = logId;
+		this.reset = reset;
+		this.nextOffset = nextOffset;
+		this.events = events;
+	}
+
+	public String getLogId() {
+		return logId;
+	}
+
+	public boolean isReset() {
+		return reset;
+	}
+
+	public long getNextOffset() {
+		return nextOffset;
+	}
+
+	public List<UserChangeEvent> getEvents() {
+		return events;
+	}
+
+	/**
+	 * @return whether the consumer has something to handle : events or a reset
+	 */
+	public boolean hasNews() {
+		return reset || !events.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "UserChangeFeed [logId=" + logId + ", reset=" + reset + ", nextOffset=" + nextOffset + ", events="
+				+ events + "]";
+	}
+}
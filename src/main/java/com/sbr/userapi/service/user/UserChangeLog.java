@@ -0,0 +1,524 @@
+package com.sbr.userapi.service.user;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.stereotype.Component;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.configuration.VirtualThreads;
+import com.sbr.userapi.messaging.processor.MessageProcessor;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.service.time.TimeService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Append-only in-process log of the changes of {@link User users}, so that
+ * consumers which cannot attach to the message bus can catch up incrementally
+ * from any offset instead of reading all users again.<BR/>
+ * The log is fed by the user messages received from the message bus, sent by
+ * any application instance. Each change of a user gets the next offset of the
+ * log : a message about many users gives one event per user.<BR/>
+ * The log is compacted by user id : only the latest event of each user is
+ * kept. It is bounded by a maximum number of events and by a retention time :
+ * a consumer which asks for dropped events is told to read the users again
+ * ({@link UserChangeFeed#isReset()}).<BR/>
+ * Offsets are only meaningful for the log of this application instance, which
+ * is identified by a random {@link UserChangeFeed#getLogId() log id}.<BR/>
+ * A single background thread reads the new events for all the subscribers, in
+ * offset order, and puts them in the bounded buffer of each subscriber. Each
+ * subscriber receives the events of its buffer on a thread of its own, so that
+ * a slow subscriber never delays the others. A subscriber whose buffer is full
+ * when new events are appended is disconnected : it has fallen behind and is
+ * expected to come back from its last event.<BR/>
+ * Metrics : <code>users.change.log.events</code>,
+ * <code>users.change.log.subscriptions</code> (gauges) and
+ * <code>users.change.log.disconnections</code> (counter)<BR/>
+ * <B>Thread safe</B>
+ * 
+ * @author sbrouet
+ * 
+ */
+@Component
+public class UserChangeLog {
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserChangeLog.class);
+
+	/**
+	 * Receives the events of the log
+	 */
+	@FunctionalInterface
+	public interface Subscriber {
+
+		/**
+		 * Handle events of the log. Called by one thread at a time, which may block
+		 * without delaying the other subscribers
+		 * 
+		 * @param feed events following the previous ones received by the
+		 *             subscriber, or a reset
+		 * @return whether the subscriber accepts more events
+		 */
+		boolean accept(UserChangeFeed feed);
+
+		/**
+		 * Called once, instead of {@link #accept(UserChangeFeed)}, when the
+		 * subscriber fell behind : it does not receive events anymore
+		 */
+		default void disconnected() {
+		}
+	}
+
+	/**
+	 * A subscriber with its position in the log
+	 */
+	public static final class Subscription {
+
+		private final Subscriber subscriber;
+
+		/** Maximum number of events handed over at once */
+		private final int limit;
+
+		/** Whether the subscription ends once events were handed over */
+		private final boolean once;
+
+		/** Offset of the next event to buffer, only used by the notifier thread */
+		private long position;
+
+		/** Events read by the notifier thread, waiting to be handed over */
+		private final BlockingQueue<UserChangeFeed> buffer;
+
+		/** Whether a sender thread is handing over the buffered events */
+		private final AtomicBoolean sending = new AtomicBoolean();
+
+		/**
+		 * Whether the notifier thread stopped reading the events because the buffer
+		 * was full : the sender asks for more once it made room
+		 */
+		private volatile boolean behind;
+
+		/** Whether the subscriber fell behind and must be told so */
+		private volatile boolean overflowed;
+
+		private volatile boolean cancelled;
+
+		private Subscription(final Subscriber subscriber, final long from, final int limit, final boolean once,
+				final int bufferCapacity) {
+			this.subscriber = subscriber;
+			this.position = from;
+			this.limit = limit;
+			this.once = once;
+			this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+		}
+	}
+
+	/** Tells this log apart from the logs of other instances and from restarts */
+	private final String logId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+	/**
+	 * Guards the events and the offsets. A lock rather than a monitor, which would
+	 * pin a virtual thread to its carrier
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Events by offset, guarded by lock */
+	private final TreeMap<Long, UserChangeEvent> events = new TreeMap<>();
+
+	/** Offset of the latest event of each user, guarded by lock */
+	private final Map<Long, Long> latestOffsetByUserId = new HashMap<>();
+
+	/** Offset of the next event, guarded by lock */
+	private long nextOffset;
+
+	/** Events before this offset were dropped by retention, guarded by lock */
+	private long retainedFrom;
+
+	private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+	/** Reads the events of all the subscribers into their buffer */
+	private final ExecutorService notifier = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "user-change-log-notifier");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Hand over the buffered events, one thread per subscriber at most */
+	private final ExecutorService senders;
+
+	private final Counter disconnections;
+
+	private final TimeService timeService;
+
+	private final int maxEvents;
+
+	private final long retentionMillis;
+
+	private final long pollTimeout;
+
+	private final long streamTimeout;
+
+	private final int subscriberBuffer;
+
+	@Autowired
+	public UserChangeLog(TimeService timeService, ConfigurationBean configurationBean, MeterRegistry meterRegistry) {
+		this.timeService = timeService;
+		this.maxEvents = configurationBean.getChangeLogMaxEvents();
+		this.retentionMillis = configurationBean.getChangeLogRetention() * 1000;
+		this.pollTimeout = configurationBean.getChangeLogPollTimeout();
+		this.streamTimeout = configurationBean.getChangeLogStreamTimeout();
+		this.subscriberBuffer = Math.max(1, configurationBean.getChangeLogSubscriberBuffer());
+		this.senders = createSenders(configurationBean);
+
+		Gauge.builder("users.change.log.events", this, UserChangeLog::size)
+				.description("Number of events in the log of user changes").register(meterRegistry);
+		Gauge.builder("users.change.log.subscriptions", subscriptions, Set::size)
+				.description("Number of consumers waiting for user changes").register(meterRegistry);
+		disconnections = Counter.builder("users.change.log.disconnections")
+				.description("Number of consumers disconnected because they fell behind the user changes")
+				.register(meterRegistry);
+	}
+
+	private static ExecutorService createSenders(final ConfigurationBean configurationBean) {
+		if (configurationBean.isVirtualThreadsEnabled() && VirtualThreads.isSupported()) {
+			return VirtualThreads.newThreadPerTaskExecutor("user-change-log-sender-");
+		}
+		final AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newCachedThreadPool(runnable -> {
+			final Thread thread = new Thread(runnable, "user-change-log-sender-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Record the changes told by a message received from the message bus,
+	 * possibly sent by another application instance
+	 * 
+	 * @param message a message received from the message bus
+	 */
+	@StreamListener(MessageProcessor.INVALIDATION_INPUT_CHANNEL_NAME)
+	public void onUserMessage(final Message message) {
+		append(message);
+	}
+
+	/**
+	 * Append one event per user of given message, then notify the subscribers in
+	 * the background
+	 * 
+	 * @param message a message about users
+	 */
+	void append(final Message message) {
+		final Message.Type type = Message.Type.USERS_CREATED == message.getType() ? Message.Type.USER_CREATED
+				: message.getType();
+		final List<Long> userIds = null == message.getUserIds() ? Collections.singletonList(message.getUserId())
+				: message.getUserIds();
+		lock.lock();
+		try {
+			for (Long userId : userIds) {
+				if (null == userId) {
+					continue;
+				}
+				final long offset = nextOffset++;
+				final Long previousOffset = latestOffsetByUserId.put(userId, offset);
+				if (null != previousOffset) {
+					// Compaction : only the latest change of a user matters
+					events.remove(previousOffset);
+				}
+				events.put(offset, new UserChangeEvent(offset, message.getTimeStamp(), type, userId));
+			}
+			applyRetention();
+		} finally {
+			lock.unlock();
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("append() " + message);
+		}
+		if (!notifier.isShutdown()) {
+			notifier.execute(this::notifySubscriptions);
+		}
+	}
+
+	/**
+	 * Drop the oldest events beyond the maximum number of events or the retention
+	 * time. Must be called with the lock held
+	 */
+	private void applyRetention() {
+		final long oldestTimeStamp = timeService.getCurrentDateTimeTimestamp() - retentionMillis;
+		Map.Entry<Long, UserChangeEvent> oldest;
+		while (null != (oldest = events.firstEntry())
+				&& (events.size() > maxEvents || oldest.getValue().getTimeStamp() < oldestTimeStamp)) {
+			events.pollFirstEntry();
+			latestOffsetByUserId.remove(oldest.getValue().getUserId(), oldest.getKey());
+			retainedFrom = oldest.getKey() + 1;
+		}
+	}
+
+	/**
+	 * Resolve an offset given by a consumer : an offset of another log is mapped
+	 * beyond the end of this log, so that reading from it is a reset
+	 * 
+	 * @param logId  id of the log the offset comes from, <code>null</code> means
+	 *               this log
+	 * @param offset the offset
+	 * @return the offset in this log
+	 */
+	public long resolveOffset(final String logId, final long offset) {
+		return null == logId || this.logId.equals(logId) ? offset : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Read the events of the log from given offset
+	 * 
+	 * @param from  offset of the first event to read
+	 * @param limit maximum number of events to read
+	 * @return the events, never <code>null</code>. When the events from
+	 *         <code>from</code> were dropped or when <code>from</code> is beyond
+	 *         the end of the log, it is a reset
+	 */
+	public UserChangeFeed read(final long from, final int limit) {
+		lock.lock();
+		try {
+			applyRetention();
+			if (from > nextOffset) {
+				// Offset of another log : the consumer cannot know what it missed
+				return new UserChangeFeed(logId, true, nextOffset, Collections.emptyList());
+			}
+			final List<UserChangeEvent> page = new ArrayList<>(Math.min(limit, events.size()));
+			for (UserChangeEvent event : events.tailMap(from, true).values()) {
+				if (page.size() == limit) {
+					break;
+				}
+				page.add(event);
+			}
+			// When all events were read, skip the offsets of the compacted events
+			final long next = page.size() < limit ? nextOffset : page.get(page.size() - 1).getOffset() + 1;
+			return new UserChangeFeed(logId, from < retainedFrom, next, page);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hand over the events from given offset to a subscriber, once : at once when
+	 * there are such events, otherwise as soon as an event is appended (long
+	 * polling)
+	 * 
+	 * @param from       offset of the first event to hand over
+	 * @param limit      maximum number of events handed over
+	 * @param subscriber receives the events
+	 * @return the subscription, to be {@link #cancel(Subscription) cancelled} when
+	 *         the subscriber gives up waiting
+	 */
+	public Subscription poll(final long from, final int limit, final Subscriber subscriber) {
+		return subscribe(new Subscription(subscriber, from, limit, true, 1));
+	}
+
+	/**
+	 * Hand over the events from given offset to a subscriber, then all the events
+	 * appended next until it does not accept events anymore or its subscription is
+	 * {@link #cancel(Subscription) cancelled} (streaming)
+	 * 
+	 * @param from       offset of the first event to hand over
+	 * @param limit      maximum number of events handed over at once
+	 * @param subscriber receives the events
+	 * @return the subscription
+	 */
+	public Subscription follow(final long from, final int limit, final Subscriber subscriber) {
+		return subscribe(new Subscription(subscriber, from, limit, false, subscriberBuffer));
+	}
+
+	private Subscription subscribe(final Subscription subscription) {
+		subscriptions.add(subscription);
+		notifier.execute(() -> deliver(subscription, false));
+		return subscription;
+	}
+
+	/**
+	 * Stop handing over events to a subscriber
+	 * 
+	 * @param subscription the subscription
+	 */
+	public void cancel(final Subscription subscription) {
+		subscription.cancelled = true;
+		subscriptions.remove(subscription);
+	}
+
+	private void notifySubscriptions() {
+		subscriptions.forEach(subscription -> deliver(subscription, true));
+	}
+
+	/**
+	 * Buffer the events following its position for a subscriber, if any, and have
+	 * them handed over. Only called by the notifier thread, so that a subscriber
+	 * receives each event once and in order
+	 * 
+	 * @param appended whether events were just appended : the subscriber is
+	 *                 disconnected when its buffer is full
+	 */
+	private void deliver(final Subscription subscription, final boolean appended) {
+		while (subscriptions.contains(subscription)) {
+			final UserChangeFeed feed = read(subscription.position, subscription.limit);
+			if (!feed.hasNews()) {
+				return;
+			}
+			if (!subscription.buffer.offer(feed)) {
+				if (appended) {
+					disconnect(subscription);
+					return;
+				}
+				// Catching up : the sender asks for more events once it made room
+				subscription.behind = true;
+				if (subscription.buffer.remainingCapacity() == 0) {
+					return;
+				}
+				// The sender made room meanwhile
+				subscription.behind = false;
+				continue;
+			}
+			subscription.position = feed.getNextOffset();
+			if (subscription.once) {
+				subscriptions.remove(subscription);
+			}
+			send(subscription);
+			if (feed.getEvents().size() < subscription.limit) {
+				// Not a full page : no more events
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stop buffering events for a subscriber which fell behind, and tell it
+	 */
+	private void disconnect(final Subscription subscription) {
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info("deliver() subscriber fell behind at offset " + subscription.position + " of log " + logId
+					+ ", it is disconnected");
+		}
+		subscriptions.remove(subscription);
+		subscription.overflowed = true;
+		subscription.buffer.clear();
+		disconnections.increment();
+		send(subscription);
+	}
+
+	/**
+	 * Hand over the buffered events of a subscriber on a sender thread, unless one
+	 * is already doing so
+	 */
+	private void send(final Subscription subscription) {
+		if (subscription.sending.compareAndSet(false, true)) {
+			try {
+				senders.execute(() -> drain(subscription));
+			} catch (RejectedExecutionException e) {
+				// Stopping
+				subscription.sending.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Hand over the buffered events to a subscriber. Runs on a sender thread, one
+	 * at a time for a subscription
+	 */
+	private void drain(final Subscription subscription) {
+		try {
+			UserChangeFeed feed;
+			while (!subscription.cancelled && null != (feed = subscription.buffer.poll())) {
+				if (subscription.behind && !notifier.isShutdown()) {
+					subscription.behind = false;
+					notifier.execute(() -> deliver(subscription, false));
+				}
+				boolean accepted;
+				try {
+					accepted = subscription.subscriber.accept(feed);
+				} catch (RuntimeException e) {
+					LOGGER.warn("Subscriber failed handling user changes, it is unsubscribed", e);
+					accepted = false;
+				}
+				if (!accepted) {
+					cancel(subscription);
+				}
+			}
+			if (subscription.overflowed && !subscription.cancelled) {
+				cancel(subscription);
+				subscription.subscriber.disconnected();
+			}
+		} catch (RuntimeException e) {
+			LOGGER.warn("Subscriber failed handling user changes, it is unsubscribed", e);
+			cancel(subscription);
+		} finally {
+			subscription.sending.set(false);
+		}
+		// Events buffered meanwhile
+		if (!subscription.cancelled && (!subscription.buffer.isEmpty() || subscription.overflowed)) {
+			send(subscription);
+		}
+	}
+
+	/**
+	 * @return the id of this log
+	 */
+	public String getLogId() {
+		return logId;
+	}
+
+	/**
+	 * @return the number of events in the log
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return events.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return maximum time in milliseconds a polling consumer waits for events
+	 */
+	public long getPollTimeout() {
+		return pollTimeout;
+	}
+
+	/**
+	 * @return maximum time in milliseconds a stream of events stays open, the
+	 *         consumer reconnects then
+	 */
+	public long getStreamTimeout() {
+		return streamTimeout;
+	}
+
+	/**
+	 * Stop notifying the subscribers
+	 */
+	@PreDestroy
+	public void stop() {
+		notifier.shutdownNow();
+		senders.shutdownNow();
+	}
+}
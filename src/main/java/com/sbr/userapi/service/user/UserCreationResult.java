@@ -0,0 +1,75 @@
+package com.sbr.userapi.service.user;
+
+import java.util.List;
+
+import com.sbr.userapi.model.User;
+
+/**
+ * Outcome of the creation of one user among the users of a bulk creation
+ * 
+ * @author sbrouet
+ *
+ */
+public class UserCreationResult {
+
+	public static enum Status {
+		/** User was created */
+		CREATED,
+		/** User was rejected because some of its fields are not valid */
+		INVALID,
+		/** User is valid but could not be inserted in database */
+		FAILED
+	}
+
+	/** Position of the user in the bulk creation request, starting from 0 */
+	private final int index;
+
+	private final Status status;
+
+	/** The created user, only when status is {@link Status#CREATED} */
+	private final User user;
+
+	/** Why the user was not created, empty when status is {@link Status#CREATED} */
+	private final List<String> errors;
+
+	private UserCreationResult(final int index, final Status status, final User user, final List<String> errors) {
+		this.index = index;
+		this.status = status;
+		this.user = user;
+		this.errors = errors;
+	}
+
+	public static UserCreationResult created(final int index, final User user) {
+		return new UserCreationResult(index, Status.CREATED, user, List.of());
+	}
+
+	public static UserCreationResult invalid(final int index, final List<String> errors) {
+		return new UserCreationResult(index, Status.INVALID, null, errors);
+	}
+
+	public static UserCreationResult failed(final int index, final String error) {
+		return new UserCreationResult(index, Status.FAILED, null, List.of(error));
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public User getUser() {
+		return user;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	@Override
+	public String toString() {
+		return "UserCreationResult [index=" + index + ", status=" + status + ", user=" + user + ", errors=" + errors
+				+ "]";
+	}
+}
@@ -0,0 +1,231 @@
+package com.sbr.userapi.service.user;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sbr.userapi.exception.InvalidPatchException;
+import com.sbr.userapi.exception.PatchTestFailedException;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.UserField;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Compiles JSON Patch documents (RFC 6902) into {@link UserPatchPlan plans}
+ * which change the fields of a {@link User} directly, without converting the
+ * user to a JSON tree and back.<BR/>
+ * Supported operations :
+ * <UL>
+ * <LI><code>add</code> and <code>replace</code> of a {@link UserField field}
+ * with a string value</LI>
+ * <LI><code>copy</code> of a field into another one</LI>
+ * <LI><code>test</code> of a field, of the <code>id</code> or of the
+ * <code>version</code> of the user</LI>
+ * <LI><code>move</code> of a field onto itself, which does nothing</LI>
+ * </UL>
+ * All fields of a user are mandatory so they cannot be removed, and the
+ * <code>id</code> and <code>version</code> cannot be modified.<BR/>
+ * Plans are cached by shape of document (its operations and paths, not its
+ * values), at most {@link #MAX_CACHED_PLANS} of them. Cache statistics are
+ * published as metrics <code>cache.*</code> tagged with
+ * <code>cache=userPatchPlans</code>
+ * 
+ * @author sbrouet
+ * 
+ */
+@Component
+public class UserPatchCompiler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserPatchCompiler.class);
+
+	/** Name of the cache of plans in metrics */
+	public static final String CACHE_NAME = "userPatchPlans";
+
+	/** Maximum number of plans kept in cache */
+	static final int MAX_CACHED_PLANS = 256;
+
+	private static final String MEMBER_OP = "op";
+	private static final String MEMBER_PATH = "path";
+	private static final String MEMBER_FROM = "from";
+	private static final String MEMBER_VALUE = "value";
+
+	private static final String PATH_ID = "/id";
+	private static final String PATH_VERSION = "/version";
+
+	/** Compiled plans by shape of document, see {@link #shapeOf(JsonNode)} */
+	private final Cache<String, UserPatchPlan> plans;
+
+	@Autowired
+	public UserPatchCompiler(MeterRegistry meterRegistry) {
+		this.plans = Caffeine.newBuilder().maximumSize(MAX_CACHED_PLANS).recordStats().build();
+		CaffeineCacheMetrics.monitor(meterRegistry, plans, CACHE_NAME);
+	}
+
+	/**
+	 * Get the plan of a JSON Patch document, compiled once for all the documents
+	 * having the same shape
+	 * 
+	 * @param patch a JSON Patch document : an array of operations
+	 * @return the plan, never <code>null</code>
+	 * @throws InvalidPatchException when the document is malformed, or uses an
+	 *                               operation or a path which is not supported
+	 */
+	public UserPatchPlan compile(final JsonNode patch) throws InvalidPatchException {
+		final String shape = shapeOf(patch);
+		UserPatchPlan plan = plans.getIfPresent(shape);
+		if (null == plan) {
+			plan = doCompile(patch);
+			plans.put(shape, plan);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("compile() new plan for shape [" + shape + "]");
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Compute the shape of a document : its operations with their paths. Each
+	 * string is prefixed by its length so that two different documents cannot
+	 * have the same shape
+	 */
+	private static String shapeOf(final JsonNode patch) throws InvalidPatchException {
+		if (null == patch || !patch.isArray()) {
+			throw new InvalidPatchException("A JSON Patch must be an array of operations");
+		}
+		final StringBuilder shape = new StringBuilder();
+		for (int index = 0; index < patch.size(); index++) {
+			final JsonNode operation = patch.get(index);
+			appendMember(shape, index, operation, MEMBER_OP);
+			appendMember(shape, index, operation, MEMBER_PATH);
+			if (operation.has(MEMBER_FROM)) {
+				appendMember(shape, index, operation, MEMBER_FROM);
+			}
+		}
+		return shape.toString();
+	}
+
+	private static void appendMember(final StringBuilder shape, final int index, final JsonNode operation,
+			final String member) throws InvalidPatchException {
+		final String text = textMember(index, operation, member);
+		shape.append(text.length()).append(':').append(text);
+	}
+
+	private static String textMember(final int index, final JsonNode operation, final String member)
+			throws InvalidPatchException {
+		final JsonNode node = operation.get(member);
+		if (null == node || !node.isTextual()) {
+			throw new InvalidPatchException("Operation " + index + " must have a string \"" + member + "\" member");
+		}
+		return node.textValue();
+	}
+
+	private static UserPatchPlan doCompile(final JsonNode patch) throws InvalidPatchException {
+		final List<UserPatchPlan.Step> steps = new ArrayList<>(patch.size());
+		final Set<UserField> writtenFields = EnumSet.noneOf(UserField.class);
+		for (int index = 0; index < patch.size(); index++) {
+			final JsonNode operation = patch.get(index);
+			final String op = textMember(index, operation, MEMBER_OP);
+			final String path = textMember(index, operation, MEMBER_PATH);
+			switch (op) {
+			case "add":
+			case "replace":
+				steps.add(compileSet(index, writableField(index, path)));
+				writtenFields.add(writableField(index, path));
+				break;
+			case "copy":
+				steps.add(compileCopy(writableField(index, textMember(index, operation, MEMBER_FROM)),
+						writableField(index, path)));
+				writtenFields.add(writableField(index, path));
+				break;
+			case "test":
+				steps.add(compileTest(index, path));
+				break;
+			case "move":
+				if (!path.equals(textMember(index, operation, MEMBER_FROM))) {
+					throw new InvalidPatchException("Operation " + index + " cannot move " + path
+							+ " : all fields of a user are mandatory");
+				}
+				writableField(index, path);
+				// Moving a field onto itself does nothing
+				steps.add((user, node) -> {
+				});
+				break;
+			case "remove":
+				throw new InvalidPatchException(
+						"Operation " + index + " cannot remove " + path + " : all fields of a user are mandatory");
+			default:
+				throw new InvalidPatchException("Operation " + index + " is not supported : " + op);
+			}
+		}
+		return new UserPatchPlan(Collections.unmodifiableList(steps), Collections.unmodifiableSet(writtenFields));
+	}
+
+	private static UserField writableField(final int index, final String path) throws InvalidPatchException {
+		final UserField field = path.startsWith("/") ? UserField.fromName(path.substring(1)) : null;
+		if (null != field) {
+			return field;
+		}
+		if (PATH_ID.equals(path) || PATH_VERSION.equals(path)) {
+			throw new InvalidPatchException("Operation " + index + " cannot modify " + path);
+		}
+		throw new InvalidPatchException("Operation " + index + " has an unknown path : " + path);
+	}
+
+	private static UserPatchPlan.Step compileSet(final int index, final UserField field) {
+		return (user, operation) -> field.set(user, textValue(index, operation));
+	}
+
+	private static UserPatchPlan.Step compileCopy(final UserField from, final UserField to) {
+		return (user, operation) -> to.set(user, from.get(user));
+	}
+
+	private static UserPatchPlan.Step compileTest(final int index, final String path) throws InvalidPatchException {
+		if (PATH_ID.equals(path)) {
+			return compileNumberTest(index, path, User::getId);
+		}
+		if (PATH_VERSION.equals(path)) {
+			return compileNumberTest(index, path, User::getVersion);
+		}
+		final UserField field = writableField(index, path);
+		return (user, operation) -> {
+			if (!Objects.equals(field.get(user), textValue(index, operation))) {
+				throw new PatchTestFailedException("Operation " + index + " failed : " + path + " is not "
+						+ operation.get(MEMBER_VALUE));
+			}
+		};
+	}
+
+	private static UserPatchPlan.Step compileNumberTest(final int index, final String path,
+			final Function<User, Long> getter) {
+		return (user, operation) -> {
+			final JsonNode value = operation.get(MEMBER_VALUE);
+			if (null == value || !value.canConvertToLong() || !value.isIntegralNumber()) {
+				throw new InvalidPatchException("The value of operation " + index + " must be an integer");
+			}
+			if (!Objects.equals(getter.apply(user), value.longValue())) {
+				throw new PatchTestFailedException("Operation " + index + " failed : " + path + " is not " + value);
+			}
+		};
+	}
+
+	private static String textValue(final int index, final JsonNode operation) throws InvalidPatchException {
+		final JsonNode value = operation.get(MEMBER_VALUE);
+		if (null == value || !value.isTextual()) {
+			throw new InvalidPatchException("The value of operation " + index + " must be a string");
+		}
+		return value.textValue();
+	}
+}
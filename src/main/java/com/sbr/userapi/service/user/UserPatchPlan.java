@@ -0,0 +1,69 @@
+package com.sbr.userapi.service.user;
+
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sbr.userapi.exception.InvalidPatchException;
+import com.sbr.userapi.exception.PatchTestFailedException;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.UserField;
+
+/**
+ * A JSON Patch document compiled into changes of the fields of a {@link User},
+ * see {@link UserPatchCompiler}.<BR/>
+ * A plan only depends on the operations and paths of the document it was
+ * compiled from, not on its values : it is shared by all the documents having
+ * the same operations and paths, and reads the values from the document it is
+ * applied with
+ * 
+ * @author sbrouet
+ * 
+ */
+public class UserPatchPlan {
+
+	/**
+	 * A compiled operation, applied with the JSON object of the operation in the
+	 * document
+	 */
+	@FunctionalInterface
+	static interface Step {
+		void apply(User user, JsonNode operation) throws InvalidPatchException, PatchTestFailedException;
+	}
+
+	/** One step per operation of the document, in the same order */
+	private final List<Step> steps;
+
+	/** Fields which may be written by the plan */
+	private final Set<UserField> writtenFields;
+
+	UserPatchPlan(final List<Step> steps, final Set<UserField> writtenFields) {
+		this.steps = steps;
+		this.writtenFields = writtenFields;
+	}
+
+	/**
+	 * @return the fields which may be written by the plan, the other fields of
+	 *         the user are left unchanged
+	 */
+	public Set<UserField> getWrittenFields() {
+		return writtenFields;
+	}
+
+	/**
+	 * Apply the operations of a document to a user, in order
+	 * 
+	 * @param user  the user to be patched, modified in place
+	 * @param patch the document this plan was compiled from, or any document
+	 *              having the same operations and paths
+	 * @throws InvalidPatchException    when a value of the document does not have
+	 *                                  the type of its field
+	 * @throws PatchTestFailedException when a <code>test</code> operation fails.
+	 *                                  The user may then be partially patched
+	 */
+	public void apply(final User user, final JsonNode patch) throws InvalidPatchException, PatchTestFailedException {
+		for (int index = 0; index < steps.size(); index++) {
+			steps.get(index).apply(user, patch.get(index));
+		}
+	}
+}
@@ -1,25 +1,55 @@
 package com.sbr.userapi.service.user;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Example;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sbr.userapi.configuration.ApplicationConfiguration;
+import com.sbr.userapi.configuration.ConfigurationBean;
 import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.exception.InvalidPatchException;
+import com.sbr.userapi.exception.PatchTestFailedException;
 import com.sbr.userapi.exception.UserNotFoundException;
+import com.sbr.userapi.exception.UserVersionConflictException;
 import com.sbr.userapi.exception.location.CannotComputeLocationException;
 import com.sbr.userapi.exception.location.LocationNotAuthorizedException;
 import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.UserField;
 import com.sbr.userapi.model.messaging.Message;
 import com.sbr.userapi.repository.UserRepository;
 import com.sbr.userapi.service.location.LocationService;
 import com.sbr.userapi.service.message.MessageService;
 
+import io.micrometer.core.annotation.Timed;
+
 /**
  * Service for CRUD and search operations on {@link User users}. Operations are
  * executed on the the persistence layer
@@ -31,6 +61,18 @@ import com.sbr.userapi.service.message.MessageService;
 public class UserService {
 	private static final Logger LOGGER = LoggerFactory.getLogger(UserService.class);
 
+	/**
+	 * Name of the timer of the operations, tagged with the method and the exception
+	 * thrown if any
+	 */
+	public static final String TIMER_NAME = "users.service";
+
+	/** Cursor value that is lower than any user id, used to get the first page */
+	private static final Long FIRST_PAGE_CURSOR = Long.MIN_VALUE;
+
+	/** Message of the rejection of a creation of users from outside Switzerland */
+	private static final String LOCATION_NOT_AUTHORIZED_MESSAGE = "Only clients with an IP address from Switzerland are authorized to create new users";
+
 	/** Repository that allows operations on {@link User users} */
 	private UserRepository repository;
 
@@ -40,46 +82,142 @@ public class UserService {
 	/** Service for sending messages to the Message Bus */
 	private MessageService messageService;
 
+	/** Validates users of a bulk creation before they are inserted */
+	private Validator validator;
+
+	/** Runs each chunk of a bulk creation in its own transaction */
+	private TransactionOperations transactionOperations;
+
+	/** Runs the loads of users missing from the cache in a read-only transaction */
+	private TransactionOperations readOnlyTransactionOperations;
+
+	/** Maximum number of users handled in one transaction by a bulk operation */
+	private int bulkChunkSize;
+
+	/** Cache of users by id, in front of the repository */
+	private UserCache userCache;
+
+	/** In-memory index of the first names, for autocompletion */
+	private FirstNameIndex firstNameIndex;
+
+	/** Filter of the emails of all users, avoids searching unused emails */
+	private EmailFilter emailFilter;
+
+	/** Compiles the JSON Patch documents of partial updates */
+	private UserPatchCompiler patchCompiler;
+
+	/** Counts the changes of users, for the conditional reads of users */
+	private UserChangeCounter changeCounter;
+
+	/** Runs the database transactions of the asynchronous creations of users */
+	private UserWriteExecutor writeExecutor;
+
 	@Autowired
-	public UserService(UserRepository repository, LocationService locationService, MessageService messageService) {
+	public UserService(UserRepository repository, LocationService locationService, MessageService messageService,
+			Validator validator, TransactionOperations transactionOperations,
+			@Qualifier(ApplicationConfiguration.READ_ONLY_TRANSACTION_OPERATIONS) TransactionOperations readOnlyTransactionOperations,
+			ConfigurationBean configurationBean, UserCache userCache, FirstNameIndex firstNameIndex,
+			EmailFilter emailFilter, UserPatchCompiler patchCompiler, UserChangeCounter changeCounter,
+			UserWriteExecutor writeExecutor) {
 		this.repository = repository;
+		this.userCache = userCache;
+		this.firstNameIndex = firstNameIndex;
+		this.emailFilter = emailFilter;
+		this.patchCompiler = patchCompiler;
+		this.changeCounter = changeCounter;
+		this.writeExecutor = writeExecutor;
 		this.locationService = locationService;
 		this.messageService = messageService;
+		this.validator = validator;
+		this.transactionOperations = transactionOperations;
+		this.readOnlyTransactionOperations = readOnlyTransactionOperations;
+		this.bulkChunkSize = configurationBean.getBulkChunkSize();
 	}
 
 	/**
-	 * Find all existing users in database
+	 * Find a page of existing users in database, ordered by id. Pages are
+	 * delimited by a cursor on the user id (keyset pagination) : the next page is
+	 * requested by passing the id of the last user of the current page
 	 * 
+	 * @param afterId id after which users are returned (exclusive).
+	 *                <code>null</code> means from the first user
+	 * @param limit   maximum number of users to return, must be strictly positive
 	 * @return list of users, may be empty but never <code>null</code>
 	 */
+	@Timed(TIMER_NAME)
 	@Transactional(readOnly = true)
-	public List<User> findAll() {
-		final List<User> users = repository.findAll();
+	public List<User> findPage(final Long afterId, final int limit) {
+		final List<User> users = repository.findByIdGreaterThanOrderByIdAsc(
+				null == afterId ? FIRST_PAGE_CURSOR : afterId, PageRequest.of(0, limit));
 		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("findAll() found " + users.size() + " users");
+			LOGGER.debug("findPage(" + afterId + ", " + limit + ") found " + users.size() + " users");
 		}
 		return users;
 	}
 
 	/**
-	 * Get user from database by its {@link User#getId()}. When user is not found,
-	 * an exception is thrown
+	 * Get the version of the whole set of users : an opaque value which changes
+	 * whenever a user is created, updated or deleted, by this application instance
+	 * or by another one (once its message is received). The database is not
+	 * accessed
+	 * 
+	 * @return the version of the users, never <code>null</code>
+	 */
+	public String getUsersVersion() {
+		return changeCounter.getValue();
+	}
+
+	/**
+	 * Export all existing users in database, ordered by id. Users are read one
+	 * after the other from a database cursor and handed to the consumer, then
+	 * detached from the persistence context, so memory usage does not depend on the
+	 * number of users
+	 * 
+	 * @param consumer called once for each user, in id order. The user must not be
+	 *                 kept by the consumer as it is detached once consumed
+	 * @return number of exported users
+	 */
+	@Timed(TIMER_NAME)
+	@Transactional(readOnly = true)
+	public long exportAll(final Consumer<User> consumer) {
+		long count = 0;
+		try (Stream<User> users = repository.streamAll()) {
+			final Iterator<User> iterator = users.iterator();
+			while (iterator.hasNext()) {
+				final User user = iterator.next();
+				consumer.accept(user);
+				repository.detach(user);
+				count++;
+			}
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("exportAll() exported " + count + " users");
+		}
+		return count;
+	}
+
+	/**
+	 * Get user by its {@link User#getId()}, from the {@link UserCache} or from
+	 * database when not in cache. When user is not found, an exception is thrown.
+	 * Only the load from database runs in a (read-only) transaction : a user found
+	 * in cache neither opens a transaction nor takes a database connection
 	 * 
 	 * @param id id of the requested user
-	 * @return a {@link User}, never <code>null</code>
+	 * @return a detached copy of the {@link User}, never <code>null</code>
 	 * @throws UserNotFoundException when user could not be found
 	 */
-	@Transactional(readOnly = true)
+	@Timed(TIMER_NAME)
 	public User getUserById(final Long id) throws UserNotFoundException {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("getUserById (" + id + ")");
 		}
-		Optional<User> user = repository.findById(id);
-		if (user.isPresent()) {
+		final User user = userCache.get(id, key -> readOnlyTransactionOperations
+				.execute(status -> repository.findById(key).orElse(null)));
+		if (null != user) {
 			if (LOGGER.isDebugEnabled()) {
 				LOGGER.debug("getUserById (" + id + ") user was found");
 			}
-			return user.get();
+			return user;
 		} else {
 			if (LOGGER.isInfoEnabled()) {
 				LOGGER.info("getUserById (" + id + ") user NOT found");
@@ -91,7 +229,10 @@ public class UserService {
 	/**
 	 * Find all existing users in database with exact matching on user fields. Each
 	 * criterion is optional, criteria are combined with an "and" logic. When no
-	 * criterion is specified, all users are returned
+	 * criterion is specified, all users are returned<BR/>
+	 * Each combination of criteria has its own query, which uses the index on the
+	 * first name or the unique index on the email. A search by an email which the
+	 * {@link EmailFilter} knows to be unused does not access the database
 	 * 
 	 * @param firstName first name to search for. <code>null</code> means no
 	 *                  criterion on first name field
@@ -99,21 +240,56 @@ public class UserService {
 	 *                  email field
 	 * @return list of users, may be empty but never <code>null</code>
 	 */
+	@Timed(TIMER_NAME)
 	@Transactional(readOnly = true)
 	public List<User> findUser(final String firstName, final String email) {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("findUser (" + firstName + ", " + email + ")");
 		}
-		final User exampleUser = new User(firstName, email, null /* no search by password */);
-		final List<User> result = repository.findAll(Example.of(exampleUser));
+		final List<User> result;
+		if (null == email) {
+			result = null == firstName ? repository.findAll() : repository.findByFirstName(firstName);
+		} else if (!emailFilter.mightContain(email)) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("findUser (" + firstName + ", " + email + ") email is not used by any user");
+			}
+			return List.of();
+		} else if (null == firstName) {
+			result = repository.findByEmail(email).map(List::of).orElse(List.of());
+			emailFilter.recordPositiveLookup(!result.isEmpty());
+		} else {
+			result = repository.findByFirstNameAndEmail(firstName, email).map(List::of).orElse(List.of());
+		}
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("findUser (" + firstName + ", " + email + ") found " + result.size() + " users");
 		}
 		return result;
 	}
 
+	/**
+	 * Suggest users whose first name starts with given prefix, ignoring case and
+	 * accents. Users are read from the {@link FirstNameIndex}, the database is not
+	 * accessed
+	 * 
+	 * @param prefix     beginning of the first name
+	 * @param maxResults maximum number of suggested users
+	 * @return suggested users ordered by first name, may be empty but never
+	 *         <code>null</code>
+	 */
+	@Timed(TIMER_NAME)
+	public List<UserSuggestion> suggestUsers(final String prefix, final int maxResults) {
+		final List<UserSuggestion> suggestions = firstNameIndex.findByPrefix(prefix, maxResults);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("suggestUsers (" + prefix + ", " + maxResults + ") found " + suggestions.size() + " users");
+		}
+		return suggestions;
+	}
+
 	/**
 	 * Create a new {@link User} with provided information<BR/>
+	 * The location of the caller is looked up while the user is validated, and
+	 * the transaction which inserts the user only starts once both succeeded : no
+	 * database connection is held during the location lookup<BR/>
 	 * WARNING : only callers with an IP address in Switzerland are authorized to
 	 * create new users, otherwise the request is rejected
 	 * 
@@ -121,7 +297,8 @@ public class UserService {
 	 *                           user it will be ignored
 	 * @param clientRemoteAddrID the remote IP address of client calling the service
 	 * @throws a {@link RuntimeException} or subclass is thrown when user could not
-	 *           be created
+	 *           be created, a {@link ConstraintViolationException} when the user
+	 *           is not valid
 	 * @return the newly created {@link User} having an {@link User#getId()} set
 	 * @throws CannotComputeLocationException when the location of the client could
 	 *                                        not be computed
@@ -130,25 +307,81 @@ public class UserService {
 	 * @throws CouldNotSendMessageBusMessage  when message could not be sent to the
 	 *                                        message bus
 	 */
-	@Transactional
+	@Timed(TIMER_NAME)
 	public User createUser(final User newUser, final String clientRemoteAddrID)
 			throws CannotComputeLocationException, LocationNotAuthorizedException, CouldNotSendMessageBusMessage {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("createUser (user:" + newUser + ", clientRemoteAddrID:" + clientRemoteAddrID + ")");
 		}
 
-		// Check pre-requisite : only IP addresses from Switzerland can create new
-		// users, otherwise the request must be rejected
-		if (!locationService.isCallerFromSwitzerland(clientRemoteAddrID)) {
-			// if (!locationService.isCallerFromSwitzerland(clientRemoteAddrID)) {
-			throw new LocationNotAuthorizedException(
-					"Only clients with an IP address from Switzerland are authorized to create new users");
+		final CompletableFuture<Boolean> isCallerFromSwitzerland = locationService
+				.isCallerFromSwitzerlandAsync(clientRemoteAddrID);
+		final Set<ConstraintViolation<User>> violations = validateNewUser(newUser);
+		if (!violations.isEmpty()) {
+			throw new ConstraintViolationException(violations);
 		}
+		checkCallerIsAuthorizedToCreateUsers(isCallerFromSwitzerland);
 
+		return executeChunk(() -> insertUser(newUser));
+	}
+
+	/**
+	 * Create a new {@link User} with provided information, without blocking the
+	 * calling thread : the location of the caller is checked with a non blocking
+	 * call while the user is validated, then the user is inserted in its own
+	 * transaction by the {@link UserWriteExecutor}. No database connection is held
+	 * while the location is checked. Only the creation of a single user has such a
+	 * non blocking variant, the other operations of this service block the calling
+	 * thread<BR/>
+	 * WARNING : only callers with an IP address in Switzerland are authorized to
+	 * create new users, otherwise the request is rejected
+	 * 
+	 * @param newUser            the new user to be created. If an id is set on the
+	 *                           user it will be ignored
+	 * @param clientRemoteAddrID the remote IP address of client calling the service
+	 * @return a future completed with the newly created {@link User} having an
+	 *         {@link User#getId()} set, or exceptionally with the same exceptions
+	 *         as {@link #createUser(User, String)}. It is completed exceptionally
+	 *         with a {@link java.util.concurrent.RejectedExecutionException} when
+	 *         too many creations are already waiting
+	 */
+	@Timed(TIMER_NAME)
+	public CompletableFuture<User> createUserAsync(final User newUser, final String clientRemoteAddrID) {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("createUserAsync (user:" + newUser + ", clientRemoteAddrID:" + clientRemoteAddrID + ")");
+		}
+		final CompletableFuture<Boolean> isCallerFromSwitzerland = locationService
+				.isCallerFromSwitzerlandAsync(clientRemoteAddrID);
+		final Set<ConstraintViolation<User>> violations = validateNewUser(newUser);
+		if (!violations.isEmpty()) {
+			return CompletableFuture.failedFuture(new ConstraintViolationException(violations));
+		}
+		return isCallerFromSwitzerland.thenCompose(isFromSwitzerland -> {
+			if (!isFromSwitzerland) {
+				return CompletableFuture
+						.failedFuture(new LocationNotAuthorizedException(LOCATION_NOT_AUTHORIZED_MESSAGE));
+			}
+			return writeExecutor.submit(() -> executeChunk(() -> insertUser(newUser)));
+		});
+	}
+
+	/**
+	 * Insert a new user, in the current transaction
+	 * 
+	 * @param newUser the new user to be created. If an id is set on the user it
+	 *                will be ignored
+	 * @return the newly created {@link User} having an {@link User#getId()} set
+	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
+	 *                                       message bus
+	 */
+	private User insertUser(final User newUser) throws CouldNotSendMessageBusMessage {
 		// Id is computed by the ORM -> force id to null here to avoid a value being set
 		// by caller and let the ORM provide one
 		newUser.setId(null);
 		final User createdUser = repository.save(newUser);
+		firstNameIndex.put(createdUser.getId(), createdUser.getFirstName());
+		emailFilter.add(createdUser.getEmail());
+		changeCounter.increment();
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("createUser() New user created : " + createdUser);
 		}
@@ -159,31 +392,376 @@ public class UserService {
 		return createdUser;
 	}
 
+	/**
+	 * Create many new {@link User users} at once, typically for an import.<BR/>
+	 * The location of the caller is checked once for all users, while all users
+	 * are validated : invalid users are reported and skipped. Valid users are inserted
+	 * by chunks of {@link ConfigurationBean#getBulkChunkSize()} users, each chunk
+	 * in its own transaction with its inserts sent to the database as JDBC batches,
+	 * and a single {@link Message.Type#USERS_CREATED} message is sent per chunk.
+	 * When a chunk cannot be inserted, all its users are reported as failed and
+	 * the next chunks are still inserted.<BR/>
+	 * WARNING : only callers with an IP address in Switzerland are authorized to
+	 * create new users, otherwise the request is rejected
+	 * 
+	 * @param newUsers           the new users to be created. Ids set on the users
+	 *                           are ignored
+	 * @param clientRemoteAddrID the remote IP address of client calling the service
+	 * @return one result per user, in the same order as <code>newUsers</code>
+	 * @throws CannotComputeLocationException when the location of the client could
+	 *                                        not be computed
+	 * @throws LocationNotAuthorizedException when the location of the client is not
+	 *                                        authorized
+	 */
+	@Timed(TIMER_NAME)
+	public List<UserCreationResult> createUsers(final List<User> newUsers, final String clientRemoteAddrID)
+			throws CannotComputeLocationException, LocationNotAuthorizedException {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("createUsers (" + newUsers.size() + " users, clientRemoteAddrID:" + clientRemoteAddrID + ")");
+		}
+		final CompletableFuture<Boolean> isCallerFromSwitzerland = locationService
+				.isCallerFromSwitzerlandAsync(clientRemoteAddrID);
+		final UserCreationResult[] results = new UserCreationResult[newUsers.size()];
+		for (int index = 0; index < newUsers.size(); index++) {
+			final List<String> errors = validate(newUsers.get(index));
+			if (!errors.isEmpty()) {
+				results[index] = UserCreationResult.invalid(index, errors);
+			}
+		}
+		checkCallerIsAuthorizedToCreateUsers(isCallerFromSwitzerland);
+
+		final List<Integer> chunk = new ArrayList<>(bulkChunkSize);
+		for (int index = 0; index < newUsers.size(); index++) {
+			if (null != results[index]) {
+				continue;
+			}
+			chunk.add(index);
+			if (chunk.size() == bulkChunkSize) {
+				createChunk(newUsers, chunk, results);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			createChunk(newUsers, chunk, results);
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Check pre-requisite for creating users : only IP addresses from Switzerland
+	 * can create new users, otherwise the request must be rejected
+	 * 
+	 * @param isCallerFromSwitzerland the pending location lookup of the caller,
+	 *                                which is waited for
+	 */
+	private void checkCallerIsAuthorizedToCreateUsers(final CompletableFuture<Boolean> isCallerFromSwitzerland)
+			throws CannotComputeLocationException, LocationNotAuthorizedException {
+		final boolean isFromSwitzerland;
+		try {
+			isFromSwitzerland = isCallerFromSwitzerland.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof CannotComputeLocationException) {
+				throw (CannotComputeLocationException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+		if (!isFromSwitzerland) {
+			throw new LocationNotAuthorizedException(LOCATION_NOT_AUTHORIZED_MESSAGE);
+		}
+	}
+
+	/**
+	 * Validate a user to be created. The id is not validated as it is computed by
+	 * the ORM
+	 * 
+	 * @return the validation errors, empty when user is valid
+	 */
+	private List<String> validate(final User user) {
+		if (null == user) {
+			return List.of("user cannot be null");
+		}
+		return validateNewUser(user).stream()
+				.map(violation -> violation.getPropertyPath() + ": " + violation.getMessage()).sorted()
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Validate a user to be created, before any database access. The id is not
+	 * validated as it is computed by the ORM
+	 * 
+	 * @return the constraint violations, empty when user is valid
+	 */
+	private Set<ConstraintViolation<User>> validateNewUser(final User user) {
+		return validator.validate(user).stream()
+				.filter(violation -> !"id".equals(violation.getPropertyPath().toString())).collect(Collectors.toSet());
+	}
+
+	/**
+	 * Insert the users at given indexes in one transaction and send one message
+	 * for all of them, then store the result of each user
+	 */
+	private void createChunk(final List<User> newUsers, final List<Integer> indexes,
+			final UserCreationResult[] results) {
+		final List<User> users = indexes.stream().map(newUsers::get).collect(Collectors.toList());
+		// Id is computed by the ORM -> force id to null
+		users.forEach(user -> user.setId(null));
+		final List<User> createdUsers;
+		try {
+			createdUsers = executeChunk(() -> {
+				final List<User> saved = repository.saveAll(users);
+				// Send the batched inserts now so that a failure is known before the message
+				repository.flush();
+				saved.forEach(user -> {
+					firstNameIndex.put(user.getId(), user.getFirstName());
+					emailFilter.add(user.getEmail());
+				});
+				changeCounter.increment();
+				messageService.sendMessage(Message.Type.USERS_CREATED,
+						saved.stream().map(User::getId).collect(Collectors.toList()));
+				return saved;
+			});
+		} catch (RuntimeException | CouldNotSendMessageBusMessage e) {
+			final Throwable cause = NestedExceptionUtils.getMostSpecificCause(e);
+			LOGGER.warn("createUsers() chunk of " + users.size() + " users starting at index " + indexes.get(0)
+					+ " could not be created", e);
+			for (Integer index : indexes) {
+				results[index] = UserCreationResult.failed(index,
+						"user could not be created with its chunk: " + cause.getMessage());
+			}
+			return;
+		}
+		for (int i = 0; i < indexes.size(); i++) {
+			final User createdUser = createdUsers.get(i);
+			results[indexes.get(i)] = UserCreationResult.created(indexes.get(i), createdUser);
+			// Users are not needed anymore by the persistence context, which may live
+			// as long as the whole request
+			repository.detach(createdUser);
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("createUsers() chunk of " + createdUsers.size() + " users created");
+		}
+	}
+
+	/**
+	 * Delete the users having given ids, by chunks of
+	 * {@link ConfigurationBean#getBulkChunkSize()} ids. Each chunk is deleted by a
+	 * single statement in its own transaction, and a
+	 * {@link Message.Type#USER_DELETED} message is sent for each deleted
+	 * user.<BR/>
+	 * WARNING : when an exception is thrown, the chunks before the failing one
+	 * stay deleted. As already deleted users are reported as missing, the
+	 * operation can simply be run again
+	 * 
+	 * @param ids ids of the users to be deleted, duplicates are ignored
+	 * @return the deleted ids and the ids of users which did not exist
+	 * @throws CouldNotSendMessageBusMessage when a message could not be sent to
+	 *                                       the message bus
+	 */
+	@Timed(TIMER_NAME)
+	public BulkOperationResult deleteUsers(final Collection<Long> ids) throws CouldNotSendMessageBusMessage {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("deleteUsers (" + ids.size() + " ids)");
+		}
+		return applyByChunks(ids, chunk -> {
+			repository.deleteByIds(chunk);
+			firstNameIndex.remove(chunk);
+			emailFilter.markStale(chunk.size());
+		}, Message.Type.USER_DELETED);
+	}
+
+	/**
+	 * Set the same first name and/or password to the users having given ids, by
+	 * chunks of {@link ConfigurationBean#getBulkChunkSize()} ids. Each chunk is
+	 * updated by a single statement in its own transaction, and a
+	 * {@link Message.Type#USER_UPDATED} message is sent for each updated
+	 * user.<BR/>
+	 * The email cannot be updated this way as it identifies a single user<BR/>
+	 * WARNING : when an exception is thrown, the chunks before the failing one
+	 * stay updated
+	 * 
+	 * @param ids       ids of the users to be updated, duplicates are ignored
+	 * @param firstName new first name, <code>null</code> means unchanged
+	 * @param password  new password, <code>null</code> means unchanged
+	 * @return the updated ids and the ids of users which did not exist
+	 * @throws ConstraintViolationException  when a new value is not valid
+	 * @throws IllegalArgumentException      when there is no new value at all
+	 * @throws CouldNotSendMessageBusMessage when a message could not be sent to
+	 *                                       the message bus
+	 */
+	@Timed(TIMER_NAME)
+	public BulkOperationResult updateUsers(final Collection<Long> ids, final String firstName, final String password)
+			throws CouldNotSendMessageBusMessage {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("updateUsers (" + ids.size() + " ids, firstName:" + firstName + ")");
+		}
+		if (null == firstName && null == password) {
+			throw new IllegalArgumentException("At least one of firstName and password must be updated");
+		}
+		final Set<ConstraintViolation<User>> violations = new HashSet<>();
+		if (null != firstName) {
+			violations.addAll(validator.validateValue(User.class, "firstName", firstName));
+		}
+		if (null != password) {
+			violations.addAll(validator.validateValue(User.class, "password", password));
+		}
+		if (!violations.isEmpty()) {
+			throw new ConstraintViolationException(violations);
+		}
+		return applyByChunks(ids, chunk -> {
+			repository.updateByIds(chunk, firstName, password);
+			if (null != firstName) {
+				firstNameIndex.put(chunk, firstName);
+			}
+		}, Message.Type.USER_UPDATED);
+	}
+
+	/**
+	 * Apply a set-based statement to the existing users among given ids, one chunk
+	 * of ids per transaction, and send a message for each affected user
+	 * 
+	 * @param ids         ids of the users, duplicates and <code>null</code> are
+	 *                    ignored
+	 * @param statement   runs the statement on a list of existing ids
+	 * @param messageType type of the message sent for each affected user
+	 */
+	private BulkOperationResult applyByChunks(final Collection<Long> ids, final Consumer<List<Long>> statement,
+			final Message.Type messageType) throws CouldNotSendMessageBusMessage {
+		final Set<Long> distinctIds = new LinkedHashSet<>(ids);
+		distinctIds.remove(null);
+		final List<Long> requestedIds = new ArrayList<>(distinctIds);
+		final List<Long> affectedIds = new ArrayList<>();
+		final List<Long> missingIds = new ArrayList<>();
+		for (int from = 0; from < requestedIds.size(); from += bulkChunkSize) {
+			final List<Long> chunk = requestedIds.subList(from, Math.min(requestedIds.size(), from + bulkChunkSize));
+			final Set<Long> existingIds = executeChunk(() -> {
+				// Existing users are locked so each of them gets exactly one message
+				final Set<Long> lockedIds = new HashSet<>(repository.lockExistingIds(chunk));
+				if (!lockedIds.isEmpty()) {
+					statement.accept(new ArrayList<>(lockedIds));
+					userCache.invalidate(lockedIds);
+					changeCounter.increment();
+					for (Long id : lockedIds) {
+						messageService.sendMessage(messageType, id);
+					}
+				}
+				return lockedIds;
+			});
+			for (Long id : chunk) {
+				(existingIds.contains(id) ? affectedIds : missingIds).add(id);
+			}
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("applyByChunks() " + messageType + " affected " + affectedIds.size() + " users, "
+					+ missingIds.size() + " missing");
+		}
+		return new BulkOperationResult(affectedIds, missingIds);
+	}
+
+	/**
+	 * Run the work of a chunk, or of an asynchronous creation, in its own
+	 * transaction, which is rolled back when the work throws an exception
+	 * 
+	 * @param <T>  type of the result of the work
+	 * @param work the work to be run
+	 * @return the result of the work
+	 * @throws CouldNotSendMessageBusMessage when thrown by the work
+	 */
+	private <T> T executeChunk(final ChunkWork<T> work) throws CouldNotSendMessageBusMessage {
+		try {
+			return transactionOperations.execute(status -> {
+				try {
+					return work.run();
+				} catch (CouldNotSendMessageBusMessage e) {
+					// Carry the checked exception out of the transaction, rolling it back
+					throw new ChunkFailedException(e);
+				}
+			});
+		} catch (ChunkFailedException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * The work on a chunk of users, run in a transaction
+	 */
+	@FunctionalInterface
+	private static interface ChunkWork<T> {
+		T run() throws CouldNotSendMessageBusMessage;
+	}
+
+	/**
+	 * Carries a checked exception out of a chunk transaction, so the transaction
+	 * is rolled back
+	 */
+	private static class ChunkFailedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ChunkFailedException(final CouldNotSendMessageBusMessage cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized CouldNotSendMessageBusMessage getCause() {
+			return (CouldNotSendMessageBusMessage) super.getCause();
+		}
+	}
+
 	/**
 	 * Fully update an existing user : all fields are updated (except the user id).
 	 * When user is not found by its id, an exception is thrown<BR/>
+	 * The user is updated by a single statement, without being loaded first. When
+	 * the user holds a version, it is only updated if it still has this version in
+	 * database, otherwise the update is applied whatever the version<BR/>
 	 * WARNING : the user id cannot be updated
 	 * 
 	 * @param user the user containing updated information
-	 * @return the updated user
+	 * @return the updated user. Its version is only known when the user held a
+	 *         version, otherwise it is <code>null</code>
+	 * @throws ConstraintViolationException  when a new value is not valid
 	 * @throws UserNotFoundException         when user could not be found
+	 * @throws UserVersionConflictException  when user does not have the version it
+	 *                                       holds anymore
 	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
 	 *                                       message bus
 	 */
+	@Timed(TIMER_NAME)
 	@Transactional
-	public User updateUser(final User user) throws UserNotFoundException, CouldNotSendMessageBusMessage {
+	public User updateUser(final User user)
+			throws UserNotFoundException, UserVersionConflictException, CouldNotSendMessageBusMessage {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("updateUser (" + user + ")");
 		}
-		final User existingUser = getUserById(user.getId());
+		// The entity is not loaded so it is not validated by the ORM
+		final Set<ConstraintViolation<User>> violations = validator.validate(user);
+		if (!violations.isEmpty()) {
+			throw new ConstraintViolationException(violations);
+		}
 
 		// Update fields EXCEPT the id
-		existingUser.setFirstName(user.getFirstName());
-		existingUser.setEmail(user.getEmail());
-		existingUser.setPassword(user.getPassword());
-
-		// Update user in database
-		final User updatedUser = repository.save(existingUser);
+		if (0 == repository.updateById(user.getId(), user.getFirstName(), user.getEmail(), user.getPassword(),
+				user.getVersion())) {
+			// Only a failed update reads the database again, to tell why it failed
+			if (null != user.getVersion() && repository.existsById(user.getId())) {
+				if (LOGGER.isInfoEnabled()) {
+					LOGGER.info("updateUser (" + user + ") version conflict");
+				}
+				throw new UserVersionConflictException("User with id [" + user.getId()
+						+ "] was updated meanwhile, its version is not [" + user.getVersion() + "] anymore");
+			}
+			throw new UserNotFoundException("No user found with id [" + user.getId() + "]");
+		}
+		final User updatedUser = new User(user.getId(), user.getFirstName(), user.getEmail(), user.getPassword(),
+				null == user.getVersion() ? null : user.getVersion() + 1);
+		userCache.invalidate(user.getId());
+		changeCounter.increment();
+		firstNameIndex.put(user.getId(), user.getFirstName());
+		if (emailFilter.add(user.getEmail())) {
+			// The email was not used, so the previous email of the user is not anymore
+			emailFilter.markStale(1);
+		}
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("updateUser (" + user + ") was updated to " + updatedUser.toString());
 		}
@@ -194,6 +772,138 @@ public class UserService {
 		return updatedUser;
 	}
 
+	/**
+	 * Partially update an existing user with a JSON Patch document (RFC 6902).<BR/>
+	 * The document is compiled into changes of the fields of the user (see
+	 * {@link UserPatchCompiler}) and applied to the user read from the
+	 * {@link UserCache} or from database. Then only the changed fields are written,
+	 * by a single statement which also checks that the user still has the version
+	 * which was read. When any version is accepted and the user was updated
+	 * meanwhile, the patch is applied once more to the user read again from the
+	 * database before reporting a conflict. When the patch does not change
+	 * anything, nothing is written and no message is sent<BR/>
+	 * WARNING : the user id cannot be updated
+	 * 
+	 * @param id              id of the user to be patched
+	 * @param patch           the JSON Patch document
+	 * @param expectedVersion version the user must have to be patched,
+	 *                        <code>null</code> means any version
+	 * @return the patched user
+	 * @throws InvalidPatchException         when the patch is malformed or not
+	 *                                       supported
+	 * @throws PatchTestFailedException      when a <code>test</code> operation of
+	 *                                       the patch fails
+	 * @throws ConstraintViolationException  when a new value is not valid
+	 * @throws UserNotFoundException         when user could not be found
+	 * @throws UserVersionConflictException  when user does not have the expected
+	 *                                       version, or was updated meanwhile
+	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
+	 *                                       message bus
+	 */
+	@Timed(TIMER_NAME)
+	@Transactional
+	public User patchUser(final Long id, final JsonNode patch, final Long expectedVersion)
+			throws InvalidPatchException, PatchTestFailedException, UserNotFoundException,
+			UserVersionConflictException, CouldNotSendMessageBusMessage {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("patchUser (" + id + ", expectedVersion:" + expectedVersion + ")");
+		}
+		final UserPatchPlan plan = patchCompiler.compile(patch);
+		User existingUser = getUserById(id);
+		if (null != expectedVersion && !expectedVersion.equals(existingUser.getVersion())) {
+			// The cached user may be older than the one the caller read
+			userCache.invalidate(id);
+			existingUser = getUserById(id);
+			if (!expectedVersion.equals(existingUser.getVersion())) {
+				throw new UserVersionConflictException("User with id [" + id + "] does not have version ["
+						+ expectedVersion + "] but [" + existingUser.getVersion() + "]");
+			}
+		}
+		User patchedUser;
+		Set<UserField> changedFields;
+		boolean retried = false;
+		while (true) {
+			patchedUser = new User(existingUser.getId(), existingUser.getFirstName(), existingUser.getEmail(),
+					existingUser.getPassword(), existingUser.getVersion());
+			plan.apply(patchedUser, patch);
+			changedFields = findChangedFields(plan, existingUser, patchedUser);
+			if (changedFields.isEmpty()) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("patchUser (" + id + ") nothing to update");
+				}
+				return existingUser;
+			}
+			if (0 != repository.updateFields(patchedUser, changedFields)) {
+				break;
+			}
+
+			// The user read, possibly from the cache, is not the current one anymore
+			userCache.invalidate(id);
+			if (null == expectedVersion && !retried) {
+				final Optional<User> currentUser = repository.findCurrentById(id);
+				if (currentUser.isPresent()) {
+					if (LOGGER.isDebugEnabled()) {
+						LOGGER.debug("patchUser (" + id + ") user was updated meanwhile, patching it again");
+					}
+					existingUser = currentUser.get();
+					retried = true;
+					continue;
+				}
+			} else if (repository.existsById(id)) {
+				if (LOGGER.isInfoEnabled()) {
+					LOGGER.info("patchUser (" + id + ") version conflict");
+				}
+				throw new UserVersionConflictException("User with id [" + id
+						+ "] was updated meanwhile, its version is not [" + existingUser.getVersion() + "] anymore");
+			}
+			throw new UserNotFoundException("No user found with id [" + id + "]");
+		}
+		patchedUser.setVersion(existingUser.getVersion() + 1);
+		userCache.invalidate(id);
+		changeCounter.increment();
+		if (changedFields.contains(UserField.FIRST_NAME)) {
+			firstNameIndex.put(id, patchedUser.getFirstName());
+		}
+		if (changedFields.contains(UserField.EMAIL)) {
+			emailFilter.add(patchedUser.getEmail());
+			emailFilter.markStale(1);
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("patchUser (" + id + ") updated " + changedFields + " to " + patchedUser);
+		}
+
+		// Notify any consumer in the service bus
+		messageService.sendMessage(Message.Type.USER_UPDATED, id);
+
+		return patchedUser;
+	}
+
+	/**
+	 * Find the fields written by a patch which it actually changed, and check
+	 * their new values
+	 * 
+	 * @param plan         the compiled patch
+	 * @param existingUser the user before the patch
+	 * @param patchedUser  the user once patched
+	 * @return the changed fields, may be empty
+	 * @throws ConstraintViolationException when a new value is not valid
+	 */
+	private Set<UserField> findChangedFields(final UserPatchPlan plan, final User existingUser,
+			final User patchedUser) {
+		final Set<UserField> changedFields = EnumSet.noneOf(UserField.class);
+		final Set<ConstraintViolation<User>> violations = new HashSet<>();
+		for (UserField field : plan.getWrittenFields()) {
+			if (!Objects.equals(field.get(existingUser), field.get(patchedUser))) {
+				changedFields.add(field);
+				violations.addAll(validator.validateValue(User.class, field.getName(), field.get(patchedUser)));
+			}
+		}
+		if (!violations.isEmpty()) {
+			throw new ConstraintViolationException(violations);
+		}
+		return changedFields;
+	}
+
 	/**
 	 * Delete an existing user. When user is not found by its id, a
 	 * {@link UserNotFoundException} is thrown
@@ -203,19 +913,66 @@ public class UserService {
 	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
 	 *                                       message bus
 	 */
+	@Timed(TIMER_NAME)
 	@Transactional
 	public void deleteUserById(final Long id) throws UserNotFoundException, CouldNotSendMessageBusMessage {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("deleteUserById (" + id + ")");
 		}
-		if (!repository.existsById(id)) {
+		// Actual delete : a single statement, which does not conflict with a
+		// concurrent update of the user
+		if (0 == repository.deleteOneById(id)) {
 			if (LOGGER.isInfoEnabled()) {
 				LOGGER.info("deleteUserById (" + id + ") user not found");
 			}
 			throw new UserNotFoundException("No user found with id [" + id + "]");
 		}
-		// Actual delete
-		repository.deleteById(id);
+		userDeleted(id);
+	}
+
+	/**
+	 * Delete an existing user, only if it has given version. The user is deleted
+	 * by a single statement, without being loaded first
+	 * 
+	 * @param id              id of the user to be deleted
+	 * @param expectedVersion version the user must have to be deleted,
+	 *                        <code>null</code> means any version
+	 * @throws UserNotFoundException         when user could not be found
+	 * @throws UserVersionConflictException  when user does not have the expected
+	 *                                       version
+	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
+	 *                                       message bus
+	 */
+	@Timed(TIMER_NAME)
+	@Transactional
+	public void deleteUserById(final Long id, final Long expectedVersion)
+			throws UserNotFoundException, UserVersionConflictException, CouldNotSendMessageBusMessage {
+		if (null == expectedVersion) {
+			deleteUserById(id);
+			return;
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("deleteUserById (" + id + ", expectedVersion:" + expectedVersion + ")");
+		}
+		if (0 == repository.deleteByIdAndVersion(id, expectedVersion)) {
+			// Only a failed delete reads the database again, to tell why it failed
+			if (repository.existsById(id)) {
+				throw new UserVersionConflictException(
+						"User with id [" + id + "] does not have version [" + expectedVersion + "]");
+			}
+			throw new UserNotFoundException("No user found with id [" + id + "]");
+		}
+		userDeleted(id);
+	}
+
+	/**
+	 * Forget a deleted user in memory and send its message
+	 */
+	private void userDeleted(final Long id) throws CouldNotSendMessageBusMessage {
+		userCache.invalidate(id);
+		changeCounter.increment();
+		firstNameIndex.remove(id);
+		emailFilter.markStale(1);
 
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("deleteUserById (" + id + ") user deleted");
@@ -0,0 +1,33 @@
+package com.sbr.userapi.service.user;
+
+/**
+ * A user whose first name matches an autocompletion prefix, see
+ * {@link FirstNameIndex}
+ * 
+ * @author sbrouet
+ * 
+ */
+public class UserSuggestion {
+
+	private final Long id;
+
+	private final String firstName;
+
+	public UserSuggestion(final Long id, final String firstName) {
+		this.id = id;
+		this.firstName = firstName;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	@Override
+	public String toString() {
+		return "UserSuggestion [id=" + id + ", firstName=" + firstName + "]";
+	}
+}
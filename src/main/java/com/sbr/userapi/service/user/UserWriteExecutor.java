@@ -0,0 +1,106 @@
+package com.sbr.userapi.service.user;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.configuration.VirtualThreads;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Runs the database transactions of the asynchronous operations on users, on a
+ * small pool of threads sized like the database connection pool. The request
+ * threads are released while the operations wait for a thread, and the
+ * operations waiting beyond {@link ConfigurationBean#getAsyncWriteQueueCapacity()}
+ * are rejected instead of piling up. The threads are virtual ones when they
+ * are enabled and supported.<BR/>
+ * NOTE : this is not an {@link java.util.concurrent.Executor} bean on purpose,
+ * so that it does not replace the default task executor of the application
+ * 
+ * @author sbrouet
+ *
+ */
+@Component
+public class UserWriteExecutor {
+
+	private final ThreadPoolExecutor executor;
+
+	@Autowired
+	public UserWriteExecutor(ConfigurationBean configurationBean, MeterRegistry meterRegistry) {
+		final int threads = configurationBean.getAsyncWriteThreads();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(configurationBean.getAsyncWriteQueueCapacity()),
+				createThreadFactory(configurationBean));
+
+		new ExecutorServiceMetrics(executor, "users.writer", Collections.emptyList()).bindTo(meterRegistry);
+	}
+
+	private static ThreadFactory createThreadFactory(final ConfigurationBean configurationBean) {
+		if (configurationBean.isVirtualThreadsEnabled() && VirtualThreads.isSupported()) {
+			return VirtualThreads.newThreadFactory("user-writer-");
+		}
+		final AtomicInteger threadCount = new AtomicInteger();
+		return runnable -> {
+			final Thread thread = new Thread(runnable, "user-writer-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Run a work on a thread of the pool
+	 * 
+	 * @param <T>  type of the result of the work
+	 * @param work the work to be run
+	 * @return a future completed with the result of the work, or exceptionally
+	 *         with the exception or error thrown by the work. It is completed
+	 *         exceptionally with a {@link RejectedExecutionException} when too
+	 *         many works are already waiting
+	 */
+	public <T> CompletableFuture<T> submit(final Callable<T> work) {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					result.complete(work.call());
+				} catch (Throwable e) {
+					// Errors too, otherwise the caller would wait forever
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(
+					new RejectedExecutionException("Too many operations on users are waiting, retry later", e));
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of works waiting for a thread
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Stop the threads once the works already submitted are done
+	 */
+	@PreDestroy
+	public void stop() {
+		executor.shutdown();
+	}
+}
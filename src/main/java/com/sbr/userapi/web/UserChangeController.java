@@ -0,0 +1,176 @@
+package com.sbr.userapi.web;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.sbr.userapi.dto.UserChangeFeedDTO;
+import com.sbr.userapi.service.user.UserChangeEvent;
+import com.sbr.userapi.service.user.UserChangeFeed;
+import com.sbr.userapi.service.user.UserChangeLog;
+import com.sbr.userapi.web.utils.ControllerUtils;
+
+/**
+ * A REST controller which lets clients follow the changes of users from any
+ * offset of the {@link UserChangeLog log of user changes}, by long polling or
+ * as a stream of Server-Sent Events, without attaching to the message bus
+ * 
+ * @author sbrouet
+ * 
+ */
+@RestController
+@RequestMapping(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_CHANGES)
+public class UserChangeController {
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserChangeController.class);
+
+	/** Name of the Server-Sent Event telling that changes were missed */
+	static final String EVENT_RESET = "RESET";
+
+	/** Separates the log id from the offset in the id of a Server-Sent Event */
+	private static final char EVENT_ID_SEPARATOR = ':';
+
+	private UserChangeLog changeLog;
+
+	@Autowired
+	public UserChangeController(UserChangeLog changeLog) {
+		this.changeLog = changeLog;
+	}
+
+	/**
+	 * Get the changes of users from given offset (long polling) : the response is
+	 * sent as soon as there are such changes, or with no change after
+	 * {@link UserChangeLog#getPollTimeout()}. The consumer then polls again from
+	 * the <code>nextOffset</code> of the response
+	 * 
+	 * @param from  offset of the first change to get
+	 * @param logId id of the log the offset comes from, as returned by a previous
+	 *              response. <code>null</code> means the current log
+	 * @param limit maximum number of changes in the response, bounded by
+	 *              {@link UserControllerConstants#MAX_PAGE_SIZE}
+	 * @return the response, set once changes are available
+	 */
+	@GetMapping
+	public DeferredResult<ResponseEntity<UserChangeFeedDTO>> pollChanges(
+			@RequestParam(name = UserControllerConstants.PARAM_FROM, defaultValue = "0") long from,
+			@RequestParam(name = UserControllerConstants.PARAM_LOG_ID, required = false) String logId,
+			@RequestParam(name = UserControllerConstants.PARAM_LIMIT, required = false) Integer limit) {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("pollChanges() from=" + from + ", logId=" + logId + ", limit=" + limit);
+		}
+		final long offset = changeLog.resolveOffset(logId, Math.max(0, from));
+		final DeferredResult<ResponseEntity<UserChangeFeedDTO>> result = new DeferredResult<>(
+				changeLog.getPollTimeout());
+		final UserChangeLog.Subscription subscription = changeLog.poll(offset,
+				UserController.computePageSize(limit),
+				feed -> result.setResult(ResponseEntity.ok(ControllerUtils.convertUserChangeFeedToDTO(feed))));
+		// No change meanwhile : the consumer polls again from the same offset
+		result.onTimeout(() -> result.setResult(ResponseEntity
+				.ok(new UserChangeFeedDTO(changeLog.getLogId(), false, offset, Collections.emptyList()))));
+		result.onCompletion(() -> changeLog.cancel(subscription));
+		return result;
+	}
+
+	/**
+	 * Stream the changes of users from given offset as Server-Sent Events, then
+	 * the following changes as they happen. Each event is named after the type
+	 * of change and identified by the log id and its offset, so that a
+	 * reconnecting <code>EventSource</code> goes on after the last event it
+	 * received (<code>Last-Event-ID</code> header). A <code>RESET</code> event
+	 * tells that changes were missed : users must be read again<BR/>
+	 * The stream is closed after {@link UserChangeLog#getStreamTimeout()}, or
+	 * when the consumer falls behind the changes, the consumer reconnects then
+	 * 
+	 * @param from        offset of the first change to stream, when not
+	 *                    reconnecting
+	 * @param logId       id of the log <code>from</code> comes from,
+	 *                    <code>null</code> means the current log
+	 * @param lastEventId id of the last event received before reconnecting
+	 * @return the stream of events
+	 */
+	@GetMapping(path = UserControllerConstants.PATH_STREAM, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamChanges(
+			@RequestParam(name = UserControllerConstants.PARAM_FROM, defaultValue = "0") long from,
+			@RequestParam(name = UserControllerConstants.PARAM_LOG_ID, required = false) String logId,
+			@RequestHeader(name = UserControllerConstants.HEADER_LAST_EVENT_ID, required = false) String lastEventId) {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("streamChanges() from=" + from + ", logId=" + logId + ", lastEventId=" + lastEventId);
+		}
+		final long offset = null == lastEventId ? changeLog.resolveOffset(logId, Math.max(0, from))
+				: resolveLastEventId(lastEventId);
+		final SseEmitter emitter = new SseEmitter(changeLog.getStreamTimeout());
+		final UserChangeLog.Subscription subscription = changeLog.follow(offset,
+				UserControllerConstants.DEFAULT_PAGE_SIZE, new UserChangeLog.Subscriber() {
+
+					@Override
+					public boolean accept(final UserChangeFeed feed) {
+						return send(emitter, feed);
+					}
+
+					@Override
+					public void disconnected() {
+						// The consumer reconnects after the last event it received
+						emitter.complete();
+					}
+				});
+		emitter.onCompletion(() -> changeLog.cancel(subscription));
+		emitter.onError(e -> changeLog.cancel(subscription));
+		return emitter;
+	}
+
+	/**
+	 * Get the offset following the one of a Server-Sent Event id
+	 * 
+	 * @param lastEventId id of an event, made of the log id and the offset
+	 * @return the offset following the event, beyond the end of the log when the
+	 *         id does not come from the current log
+	 */
+	long resolveLastEventId(final String lastEventId) {
+		final int separator = lastEventId.lastIndexOf(EVENT_ID_SEPARATOR);
+		try {
+			return changeLog.resolveOffset(lastEventId.substring(0, Math.max(0, separator)),
+					Long.parseLong(lastEventId.substring(separator + 1)) + 1);
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Send changes of users to a stream. Called by a sender thread of the
+	 * {@link UserChangeLog}, sending may block until the consumer reads the
+	 * previous events
+	 * 
+	 * @return whether the stream accepts more events
+	 */
+	private static boolean send(final SseEmitter emitter, final UserChangeFeed feed) {
+		try {
+			if (feed.isReset()) {
+				emitter.send(SseEmitter.event().name(EVENT_RESET).data(new UserChangeFeedDTO(feed.getLogId(), true,
+						feed.getNextOffset(), Collections.emptyList()), MediaType.APPLICATION_JSON));
+			}
+			for (UserChangeEvent event : feed.getEvents()) {
+				emitter.send(SseEmitter.event().id(feed.getLogId() + EVENT_ID_SEPARATOR + event.getOffset())
+						.name(event.getType().name())
+						.data(ControllerUtils.convertUserChangeEventToDTO(event), MediaType.APPLICATION_JSON));
+			}
+			return true;
+		} catch (IOException | IllegalStateException e) {
+			// The consumer went away or the stream timed out
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("send() stream closed : " + e.getMessage());
+			}
+			return false;
+		}
+	}
+}
@@ -1,14 +1,21 @@
 package com.sbr.userapi.web;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -17,21 +24,35 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.fge.jsonpatch.JsonPatch;
-import com.github.fge.jsonpatch.JsonPatchException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sbr.userapi.dto.BulkCreationResultDTO;
+import com.sbr.userapi.dto.BulkOperationResultDTO;
+import com.sbr.userapi.dto.BulkUpdateDTO;
 import com.sbr.userapi.dto.UserDTO;
+import com.sbr.userapi.dto.UserSuggestionDTO;
 import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.exception.InvalidPatchException;
+import com.sbr.userapi.exception.PatchTestFailedException;
+import com.sbr.userapi.exception.PreconditionFailedException;
 import com.sbr.userapi.exception.UserNotFoundException;
+import com.sbr.userapi.exception.UserVersionConflictException;
 import com.sbr.userapi.exception.location.CannotComputeLocationException;
 import com.sbr.userapi.exception.location.LocationNotAuthorizedException;
 import com.sbr.userapi.model.User;
+import com.sbr.userapi.service.user.UserCreationResult;
 import com.sbr.userapi.service.user.UserService;
 import com.sbr.userapi.web.utils.ControllerUtils;
 
@@ -58,35 +79,159 @@ public class UserController {
 	private final ObjectMapper objectMapper = new ObjectMapper();
 
 	/**
-	 * Find all existing users in database
+	 * Writer of users for the newline delimited JSON export. Does not flush after
+	 * each user to avoid sending a network packet per user
+	 */
+	private final ObjectWriter ndjsonUserWriter = objectMapper.writerFor(UserDTO.class)
+			.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+	/** Reader of the users of a bulk creation */
+	private final ObjectReader bulkUserReader = objectMapper.readerFor(UserDTO.class);
+
+	/**
+	 * Find a page of existing users in database, ordered by id.<BR/>
+	 * Pagination is based on a cursor (keyset pagination) : when the page is full,
+	 * the response contains a <code>Link</code> header with relation
+	 * <code>next</code> which holds the URL of the next page. The last page is
+	 * reached when there is no such header<BR/>
+	 * The response holds an <code>ETag</code> header built from the version of
+	 * the whole set of users : when the <code>If-None-Match</code> header of the
+	 * request holds it, users did not change and a
+	 * {@link HttpStatus#NOT_MODIFIED} response is sent without reading the
+	 * database
 	 * 
-	 * @return an HTTP response with a status, the list of users may be empty
+	 * @param after   id of the last user of the previous page. <code>null</code>
+	 *                means first page
+	 * @param limit   maximum number of users in the page, bounded by
+	 *                {@link UserControllerConstants#MAX_PAGE_SIZE}
+	 * @param request the request, to check its <code>If-None-Match</code> header
+	 * @return an HTTP response with a status, the list of users may be empty.
+	 *         <code>null</code> when users were not modified
 	 */
 	@GetMapping
-	public ResponseEntity<List<UserDTO>> findAllUsers() {
+	public ResponseEntity<List<UserDTO>> findAllUsers(
+			@RequestParam(name = UserControllerConstants.PARAM_AFTER, required = false) Long after,
+			@RequestParam(name = UserControllerConstants.PARAM_LIMIT, required = false) Integer limit,
+			WebRequest request) {
 		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("findAllUsers() called");
+			LOGGER.debug("findAllUsers() after=" + after + ", limit=" + limit);
+		}
+		// Version is read before the users so that a concurrent change is seen by
+		// the next request
+		if (request.checkNotModified(ControllerUtils.toETag(service.getUsersVersion()))) {
+			return null;
+		}
+		final int pageSize = computePageSize(limit);
+		final List<User> usersList = service.findPage(after, pageSize);
+
+		final HttpHeaders headers = new HttpHeaders();
+		if (usersList.size() == pageSize) {
+			// Page is full : there might be more users after the last one
+			final Long lastId = usersList.get(usersList.size() - 1).getId();
+			headers.add(HttpHeaders.LINK, buildNextPageLink(lastId, pageSize));
+		}
+		return new ResponseEntity<List<UserDTO>>(ControllerUtils.convertUserListToUserDTOList(usersList), headers,
+				HttpStatus.OK);
+	}
+
+	/**
+	 * Compute the actual size of a page from the size requested by client
+	 * 
+	 * @param limit requested page size, may be <code>null</code>
+	 * @return a page size between 1 and
+	 *         {@link UserControllerConstants#MAX_PAGE_SIZE}
+	 */
+	static int computePageSize(final Integer limit) {
+		if (null == limit) {
+			return UserControllerConstants.DEFAULT_PAGE_SIZE;
+		}
+		return Math.max(1, Math.min(limit, UserControllerConstants.MAX_PAGE_SIZE));
+	}
+
+	/**
+	 * Build the value of a <code>Link</code> header (RFC 8288) which points to the
+	 * next page of users
+	 * 
+	 * @param lastId   id of the last user of the current page
+	 * @param pageSize size of the current page
+	 * @return a link with relation <code>next</code>
+	 */
+	private static String buildNextPageLink(final Long lastId, final int pageSize) {
+		final String nextPageUrl = ServletUriComponentsBuilder.fromCurrentRequest()
+				.replaceQueryParam(UserControllerConstants.PARAM_AFTER, lastId)
+				.replaceQueryParam(UserControllerConstants.PARAM_LIMIT, pageSize).toUriString();
+		return "<" + nextPageUrl + ">; rel=\"next\"";
+	}
+
+	/**
+	 * Export all existing users in database as newline delimited JSON (one user
+	 * per line), ordered by id.<BR/>
+	 * Users are written to the response as soon as they are read from the
+	 * database, so neither the list of users nor the whole response body are held
+	 * in memory : memory usage stays flat whatever the number of users
+	 * 
+	 * @param response the response to write users to
+	 * @throws IOException when the response could not be written, e.g. when the
+	 *                     client disconnects
+	 */
+	@GetMapping(path = UserControllerConstants.PATH_EXPORT, produces = UserControllerConstants.MEDIA_TYPE_NDJSON)
+	public void exportAllUsers(final HttpServletResponse response) throws IOException {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("exportAllUsers() called");
+		}
+		response.setContentType(UserControllerConstants.MEDIA_TYPE_NDJSON);
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			// Users are separated by a new line instead of the default space
+			generator.setRootValueSeparator(null);
+			service.exportAll(user -> writeNdjsonLine(generator, ControllerUtils.convertUserEntityToDTO(user)));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Write a user as a line of newline delimited JSON. The generator is not
+	 * flushed, the underlying response buffer is sent to client when it is full
+	 * 
+	 * @param generator to write user to
+	 * @param userDTO   user to be written
+	 * @throws UncheckedIOException when user could not be written
+	 */
+	private void writeNdjsonLine(final JsonGenerator generator, final UserDTO userDTO) {
+		try {
+			ndjsonUserWriter.writeValue(generator, userDTO);
+			generator.writeRaw('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		final List<User> usersList = service.findAll();
-		return new ResponseEntity<List<UserDTO>>(ControllerUtils.convertUserListToUserDTOList(usersList),
-				new HttpHeaders(), HttpStatus.OK);
 	}
 
 	/**
 	 * Get user from database by its {@link User#getId()}. When user is not found,
-	 * an exception is thrown which is mapped to {@link HttpStatus#NOT_FOUND}
+	 * an exception is thrown which is mapped to {@link HttpStatus#NOT_FOUND}<BR/>
+	 * The response holds an <code>ETag</code> header built from the version of
+	 * the user : when the <code>If-None-Match</code> header of the request holds
+	 * it, a {@link HttpStatus#NOT_MODIFIED} response is sent without any body
 	 * 
-	 * @param id id of the requested user
-	 * @return a response with its body containing the found user
+	 * @param id      id of the requested user
+	 * @param request the request, to check its <code>If-None-Match</code> header
+	 * @return a response with its body containing the found user.
+	 *         <code>null</code> when user was not modified
 	 * @throws UserNotFoundException when user could not be found
 	 */
 	@GetMapping("/{id}")
-	public ResponseEntity<UserDTO> getUserById(@PathVariable("id") Long id) throws UserNotFoundException {
+	public ResponseEntity<UserDTO> getUserById(@PathVariable("id") Long id, WebRequest request)
+			throws UserNotFoundException {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("getUserById() id=" + id);
 		}
-		return new ResponseEntity<UserDTO>(ControllerUtils.convertUserEntityToDTO(service.getUserById(id)),
-				new HttpHeaders(), HttpStatus.OK);
+		final User user = service.getUserById(id);
+		if (request.checkNotModified(ControllerUtils.toETag(user.getVersion()))) {
+			return null;
+		}
+		return new ResponseEntity<UserDTO>(ControllerUtils.convertUserEntityToDTO(user), new HttpHeaders(),
+				HttpStatus.OK);
 	}
 
 	/**
@@ -114,6 +259,31 @@ public class UserController {
 				HttpStatus.OK);
 	}
 
+	/**
+	 * Suggest users whose first name starts with given prefix, ignoring case and
+	 * accents, for autocompletion (e.g. called on every keystroke). Users are read
+	 * from an in-memory index, the database is not accessed
+	 * 
+	 * @param prefix beginning of the first name
+	 * @param limit  maximum number of suggested users, bounded by
+	 *               {@link UserControllerConstants#MAX_SUGGESTION_COUNT}
+	 * @return a response with its body containing the suggested users ordered by
+	 *         first name, may be an empty list
+	 */
+	@GetMapping(UserControllerConstants.PATH_SUGGEST)
+	public ResponseEntity<List<UserSuggestionDTO>> suggestUsers(
+			@RequestParam(name = UserControllerConstants.PARAM_PREFIX) String prefix,
+			@RequestParam(name = UserControllerConstants.PARAM_LIMIT, required = false) Integer limit) {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("suggestUsers() prefix=" + prefix + ", limit=" + limit);
+		}
+		final int maxResults = null == limit ? UserControllerConstants.DEFAULT_SUGGESTION_COUNT
+				: Math.max(1, Math.min(limit, UserControllerConstants.MAX_SUGGESTION_COUNT));
+		return new ResponseEntity<List<UserSuggestionDTO>>(
+				ControllerUtils.convertUserSuggestionsToDTO(service.suggestUsers(prefix, maxResults)),
+				new HttpHeaders(), HttpStatus.OK);
+	}
+
 	/**
 	 * Create a new {@link User} with provided information from the request
 	 * body.<BR/>
@@ -124,24 +294,28 @@ public class UserController {
 	 * <LI>only callers with an IP address in Switzerland are authorized to create
 	 * new users, otherwise the request is rejected</LI>
 	 * </UL>
+	 * The request is processed asynchronously : the request thread is released
+	 * while the location of the caller is checked and while the user is inserted,
+	 * so slow answers of the external location service do not exhaust the request
+	 * threads. This is the only asynchronous endpoint : all the other endpoints of
+	 * this controller, bulk ones included, hold a request thread until they answer.
 	 * 
 	 * @param newUser the new user to be created. If an id is set on the user it
 	 *                will be ignored
-	 * @throws a {@link RuntimeException} or subclass is thrown when user could not
-	 *           be created
 	 * 
-	 * @return a response with its body containing the newly created {@link User}
-	 *         having an {@link User#getId()} set
-	 * @throws CannotComputeLocationException when the location of a client could
-	 *                                        not be computed
-	 * @throws LocationNotAuthorizedException when the location of the client is not
-	 *                                        authorized
-	 * @throws CouldNotSendMessageBusMessage  when message could not be sent to the
-	 *                                        message bus
+	 * @return a future completed with a response with its body containing the
+	 *         newly created {@link User} having an {@link User#getId()} set. It is
+	 *         completed exceptionally with a
+	 *         {@link CannotComputeLocationException} when the location of a client
+	 *         could not be computed, a {@link LocationNotAuthorizedException} when
+	 *         the location of the client is not authorized, a
+	 *         {@link CouldNotSendMessageBusMessage} when message could not be sent
+	 *         to the message bus, or a {@link RuntimeException} or subclass when
+	 *         user could not be created
 	 */
 	@PostMapping
-	public ResponseEntity<UserDTO> createUser(@RequestBody UserDTO newUser, HttpServletRequest request)
-			throws CannotComputeLocationException, LocationNotAuthorizedException, CouldNotSendMessageBusMessage {
+	public CompletableFuture<ResponseEntity<UserDTO>> createUser(@RequestBody UserDTO newUser,
+			HttpServletRequest request) {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("createUser() user firstName=" + newUser.getFirstName());
 		}
@@ -150,110 +324,211 @@ public class UserController {
 		final String callerIP = request.getRemoteAddr();
 		// final String callerIP = "195.186.208.154"; // wwww.swisscom.ch
 
-		return new ResponseEntity<UserDTO>(
-				ControllerUtils.convertUserEntityToDTO(
-						service.createUser(ControllerUtils.convertUserDTOToEntity(newUser), callerIP)),
-				new HttpHeaders(), HttpStatus.CREATED);
+		return service.createUserAsync(ControllerUtils.convertUserDTOToEntity(newUser), callerIP)
+				.thenApply(createdUser -> new ResponseEntity<UserDTO>(ControllerUtils.convertUserEntityToDTO(createdUser),
+						new HttpHeaders(), HttpStatus.CREATED));
+	}
+
+	/**
+	 * Create many new {@link User users} at once, typically for an import. The
+	 * request body is either a JSON array of users or newline delimited JSON (one
+	 * user per line).<BR/>
+	 * The whole body is read before any user is created, so a malformed body is
+	 * rejected with {@link HttpStatus#BAD_REQUEST} and no user created. Then each
+	 * user is created or rejected on its own : the response tells the outcome of
+	 * each user, in the order of the request.<BR/>
+	 * WARNINGS :
+	 * <UL>
+	 * <LI>this method is NOT idempotent</LI>
+	 * <LI>only callers with an IP address in Switzerland are authorized to create
+	 * new users, otherwise the whole request is rejected</LI>
+	 * </UL>
+	 * 
+	 * @param request the request whose body contains the new users. Ids set on
+	 *                the users are ignored
+	 * @return a response with its body containing the result of each user
+	 * @throws IOException                    when the body could not be read or
+	 *                                        is not valid JSON
+	 * @throws CannotComputeLocationException when the location of a client could
+	 *                                        not be computed
+	 * @throws LocationNotAuthorizedException when the location of the client is not
+	 *                                        authorized
+	 */
+	@PostMapping(path = UserControllerConstants.PATH_BULK, consumes = { MediaType.APPLICATION_JSON_VALUE,
+			UserControllerConstants.MEDIA_TYPE_NDJSON })
+	public ResponseEntity<BulkCreationResultDTO> createUsers(HttpServletRequest request)
+			throws IOException, CannotComputeLocationException, LocationNotAuthorizedException {
+		final List<User> newUsers;
+		// Reads the elements of a JSON array as well as a sequence of JSON documents
+		try (MappingIterator<UserDTO> userDTOs = bulkUserReader.readValues(request.getInputStream())) {
+			newUsers = userDTOs.readAll().stream().map(ControllerUtils::convertUserDTOToEntity)
+					.collect(Collectors.toList());
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("createUsers() " + newUsers.size() + " users");
+		}
+		final List<UserCreationResult> results = service.createUsers(newUsers, request.getRemoteAddr());
+		return new ResponseEntity<BulkCreationResultDTO>(ControllerUtils.convertUserCreationResultsToDTO(results),
+				new HttpHeaders(), HttpStatus.OK);
+	}
+
+	/**
+	 * Delete many users at once by their ids, e.g. for a purge. Users are deleted
+	 * by set-based statements, without being loaded
+	 * 
+	 * @param ids ids of the users to be deleted
+	 * @return a response with its body containing the number of deleted users and
+	 *         the ids for which no user exists
+	 * @throws CouldNotSendMessageBusMessage when a message could not be sent to
+	 *                                       the message bus
+	 */
+	@PostMapping(path = UserControllerConstants.PATH_BULK_DELETE)
+	public ResponseEntity<BulkOperationResultDTO> deleteUsers(@RequestBody List<Long> ids)
+			throws CouldNotSendMessageBusMessage {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("deleteUsers() " + ids.size() + " ids");
+		}
+		return ResponseEntity.ok(ControllerUtils.convertBulkOperationResultToDTO(service.deleteUsers(ids)));
+	}
+
+	/**
+	 * Set the same first name and/or password to many users at once. Users are
+	 * updated by set-based statements, without being loaded
+	 * 
+	 * @param bulkUpdate ids of the users to be updated and their new values. At
+	 *                   least one value is required
+	 * @return a response with its body containing the number of updated users and
+	 *         the ids for which no user exists, or {@link HttpStatus#BAD_REQUEST}
+	 *         when there is no value to update
+	 * @throws CouldNotSendMessageBusMessage when a message could not be sent to
+	 *                                       the message bus
+	 */
+	@PostMapping(path = UserControllerConstants.PATH_BULK_UPDATE)
+	public ResponseEntity<BulkOperationResultDTO> updateUsers(@RequestBody BulkUpdateDTO bulkUpdate)
+			throws CouldNotSendMessageBusMessage {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("updateUsers() " + bulkUpdate);
+		}
+		if (null == bulkUpdate.getIds() || null == bulkUpdate.getFirstName() && null == bulkUpdate.getPassword()) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok(ControllerUtils.convertBulkOperationResultToDTO(
+				service.updateUsers(bulkUpdate.getIds(), bulkUpdate.getFirstName(), bulkUpdate.getPassword())));
 	}
 
 	/**
 	 * Fully update an existing user : all fields are updated (except the user id).
 	 * When user is not found by its id, an exception is thrown<BR/>
+	 * When the <code>If-Match</code> header or else the body holds a version, the
+	 * user is only updated if it still has this version
 	 * 
-	 * @param id   id of the user to be updated
-	 * @param user the user containing updated information
-	 * @return a response with its body containing the updated user data
+	 * @param id      id of the user to be updated
+	 * @param user    the user containing updated information
+	 * @param ifMatch <code>If-Match</code> header, may be <code>null</code>
+	 * @return a response with its body containing the updated user data, and its
+	 *         <code>ETag</code> header when the new version is known
 	 * @throws UserNotFoundException         when user could not be found
+	 * @throws UserVersionConflictException  when user does not have the expected
+	 *                                       version anymore
+	 * @throws PreconditionFailedException   when the <code>If-Match</code> header
+	 *                                       cannot match any user
 	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
 	 *                                       message bus
 	 */
 	@PutMapping(path = "/{id}")
-	public ResponseEntity<UserDTO> updateExistingUser(@PathVariable final Long id, @RequestBody UserDTO userDTO)
-			throws UserNotFoundException, CouldNotSendMessageBusMessage {
+	public ResponseEntity<UserDTO> updateExistingUser(@PathVariable final Long id, @RequestBody UserDTO userDTO,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+			throws UserNotFoundException, UserVersionConflictException, PreconditionFailedException,
+			CouldNotSendMessageBusMessage {
 		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("updateExistingUser() user firstName=" + userDTO.getFirstName());
+			LOGGER.debug("updateExistingUser() user firstName=" + userDTO.getFirstName() + ", If-Match=" + ifMatch);
 		}
 		final User userEntity = ControllerUtils.convertUserDTOToEntity(userDTO);
 		// Ensure id in entity is consistent with the request
 		// parameter (avoid injection of a value in the id via the request body)
 		userEntity.setId(id);
+		final Long expectedVersion = ControllerUtils.parseIfMatch(ifMatch);
+		if (null != expectedVersion) {
+			userEntity.setVersion(expectedVersion);
+		}
 
 		final User updatedUser = service.updateUser(userEntity);
-		return new ResponseEntity<UserDTO>(ControllerUtils.convertUserEntityToDTO(updatedUser), new HttpHeaders(),
+		final HttpHeaders headers = new HttpHeaders();
+		if (null != updatedUser.getVersion()) {
+			// Version is unknown when any version was updated
+			headers.setETag(ControllerUtils.toETag(updatedUser.getVersion()));
+		}
+		return new ResponseEntity<UserDTO>(ControllerUtils.convertUserEntityToDTO(updatedUser), headers,
 				HttpStatus.OK);
 	}
 
 	/**
-	 * Partially update a {@link User} using the HTTP PATCH method
+	 * Partially update a {@link User} using the HTTP PATCH method, with a JSON
+	 * Patch document (RFC 6902). Only the fields changed by the patch are written,
+	 * see {@link UserService#patchUser(Long, JsonNode, Long)}
 	 * 
-	 * @param id id of the user to be patched
-	 * @return a response with status code {@link HttpStatus#OK} and its body
-	 *         containing the new user contents
+	 * @param id      id of the user to be patched
+	 * @param patch   the JSON Patch document
+	 * @param ifMatch <code>If-Match</code> header, may be <code>null</code>
+	 * @return a response with status code {@link HttpStatus#OK}, its body
+	 *         containing the new user contents and its <code>ETag</code> header
+	 * @throws InvalidPatchException         when the patch is malformed or not
+	 *                                       supported
+	 * @throws PatchTestFailedException      when a <code>test</code> operation of
+	 *                                       the patch fails
 	 * @throws UserNotFoundException         when user could not be found
+	 * @throws UserVersionConflictException  when user does not have the expected
+	 *                                       version or was updated meanwhile
+	 * @throws PreconditionFailedException   when the <code>If-Match</code> header
+	 *                                       cannot match any user
 	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
 	 *                                       message bus
 	 */
 	@PatchMapping(path = "/{id}", consumes = "application/json-patch+json")
-	public ResponseEntity<UserDTO> patchExistingUser(@PathVariable final Long id, @RequestBody JsonPatch patch)
-			throws UserNotFoundException, CouldNotSendMessageBusMessage {
+	public ResponseEntity<UserDTO> patchExistingUser(@PathVariable final Long id, @RequestBody JsonNode patch,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+			throws InvalidPatchException, PatchTestFailedException, UserNotFoundException,
+			UserVersionConflictException, PreconditionFailedException, CouldNotSendMessageBusMessage {
 		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("patchExistingUser() id=" + id);
-		}
-		try {
-			final User user = service.getUserById(id);
-			// Apply patch to user object
-			final User userPatched = applyPatchToUser(patch, user);
-			// Ensure id in entity is consistent with the request
-			// parameter (avoid injection of a value in the id via the request body)
-			userPatched.setId(id);
-			// Actual update of user via service
-			final User userUpdated = service.updateUser(userPatched);
-			return ResponseEntity.ok(ControllerUtils.convertUserEntityToDTO(userUpdated));
-		} catch (JsonPatchException | JsonProcessingException e) {
-			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-		} catch (UserNotFoundException e) {
-			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+			LOGGER.debug("patchExistingUser() id=" + id + ", If-Match=" + ifMatch);
 		}
-	}
-
-	/**
-	 * Compute the result of patching a {@link User} with given patch.<BR/>
-	 * WARNING : the user id cannot be patched, this rule is enforced here
-	 * 
-	 * @param patch        the patch to be applied
-	 * @param originalUser the user to be patched
-	 * @return
-	 * @throws JsonPatchException
-	 * @throws JsonProcessingException
-	 */
-	private User applyPatchToUser(JsonPatch patch, User originalUser)
-			throws JsonPatchException, JsonProcessingException {
-		JsonNode patched = patch.apply(objectMapper.convertValue(originalUser, JsonNode.class));
-		User patchedUser = objectMapper.treeToValue(patched, User.class);
-		// User id cannot be patched : force id back to its initial value in case the
-		// patch did attempt to modify its value
-		patchedUser.setId(originalUser.getId());
-		return patchedUser;
+		final User patchedUser = service.patchUser(id, patch, ControllerUtils.parseIfMatch(ifMatch));
+		return ResponseEntity.ok().eTag(ControllerUtils.toETag(patchedUser.getVersion()))
+				.body(ControllerUtils.convertUserEntityToDTO(patchedUser));
 	}
 
 	/**
 	 * Delete an existing user. When user is not found by its id, a
 	 * {@link UserNotFoundException} is thrown and a {@link HttpStatus#NOT_FOUND}
-	 * status is sent to caller
+	 * status is sent to caller<BR/>
+	 * When the <code>If-Match</code> header holds a version, the user is only
+	 * deleted if it still has this version
 	 * 
-	 * @param id id of the user to be deleted
+	 * @param id      id of the user to be deleted
+	 * @param ifMatch <code>If-Match</code> header, may be <code>null</code>
 	 * @return {@link HttpStatus#NO_CONTENT HttpStatus.NO_CONTENT (204)}
 	 * @throws UserNotFoundException         when user could not be found
+	 * @throws UserVersionConflictException  when user does not have the expected
+	 *                                       version
+	 * @throws PreconditionFailedException   when the <code>If-Match</code> header
+	 *                                       cannot match any user
 	 * @throws CouldNotSendMessageBusMessage when message could not be sent to the
 	 *                                       message bus
 	 */
 	@DeleteMapping("/{id}")
-	public ResponseEntity<Void> deleteUserById(@PathVariable("id") Long id)
-			throws UserNotFoundException, CouldNotSendMessageBusMessage {
+	public ResponseEntity<Void> deleteUserById(@PathVariable("id") Long id,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+			throws UserNotFoundException, UserVersionConflictException, PreconditionFailedException,
+			CouldNotSendMessageBusMessage {
 		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("deleteUserById() id=" + id);
+			LOGGER.debug("deleteUserById() id=" + id + ", If-Match=" + ifMatch);
+		}
+		final Long expectedVersion = ControllerUtils.parseIfMatch(ifMatch);
+		if (null == expectedVersion) {
+			service.deleteUserById(id);
+		} else {
+			service.deleteUserById(id, expectedVersion);
 		}
-		service.deleteUserById(id);
 		return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
 	}
 }
\ No newline at end of file
@@ -5,7 +5,56 @@ public final class UserControllerConstants {
 
 	public static final String PATH_FIND = "/find";
 
+	public static final String PATH_EXPORT = "/export";
+
+	public static final String PATH_SUGGEST = "/suggest";
+
+	public static final String PATH_BULK = "/bulk";
+
+	public static final String PATH_BULK_DELETE = "/bulk/delete";
+
+	public static final String PATH_BULK_UPDATE = "/bulk/update";
+
+	/** Log of user changes, relative to {@link #REST_API_ROOT_URL} */
+	public static final String PATH_CHANGES = "/changes";
+
+	/** Stream of user changes, relative to {@link #PATH_CHANGES} */
+	public static final String PATH_STREAM = "/stream";
+
+	/** Newline delimited JSON : one JSON document per line */
+	public static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+
 	public static final String PARAM_FIRST_NAME = "first-name";
 
 	public static final String PARAM_EMAIL = "email";
+
+	/** Autocompletion : beginning of the first name */
+	public static final String PARAM_PREFIX = "prefix";
+
+	/** Pagination cursor : id of the last user of the previous page */
+	public static final String PARAM_AFTER = "after";
+
+	/** Pagination : maximum number of users in a page */
+	public static final String PARAM_LIMIT = "limit";
+
+	/** Log of user changes : offset of the first change to read */
+	public static final String PARAM_FROM = "from";
+
+	/** Log of user changes : id of the log the offset comes from */
+	public static final String PARAM_LOG_ID = "log-id";
+
+	/** Server-Sent Events : id of the last event received before reconnecting */
+	public static final String HEADER_LAST_EVENT_ID = "Last-Event-ID";
+
+	/** Number of users in a page when not specified by the client */
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	/** Maximum number of users in a page, larger requested sizes are reduced */
+	public static final int MAX_PAGE_SIZE = 1000;
+
+	/** Number of suggested users when not specified by the client */
+	public static final int DEFAULT_SUGGESTION_COUNT = 10;
+
+	/** Maximum number of suggested users, larger requested numbers are reduced */
+	public static final int MAX_SUGGESTION_COUNT = 50;
 }
@@ -1,6 +1,7 @@
 package com.sbr.userapi.web.error;
 
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import javax.persistence.EntityNotFoundException;
@@ -9,6 +10,7 @@ import javax.validation.ConstraintViolationException;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.TransactionSystemException;
@@ -17,29 +19,117 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.exception.InvalidPatchException;
+import com.sbr.userapi.exception.PatchTestFailedException;
+import com.sbr.userapi.exception.PreconditionFailedException;
 import com.sbr.userapi.exception.UserNotFoundException;
+import com.sbr.userapi.exception.UserVersionConflictException;
 import com.sbr.userapi.exception.location.CannotComputeLocationException;
+import com.sbr.userapi.exception.location.LocationNotAuthorizedException;
 import com.sbr.userapi.service.time.TimeService;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 @ControllerAdvice
 public class RestResponseEntityExceptionHandler extends ResponseEntityExceptionHandler {
+
+	/**
+	 * Name of the counter of the requests refused because of the location of the
+	 * client or failed on the server side, tagged with the exception and the
+	 * status
+	 */
+	public static final String ERRORS_COUNTER_NAME = "users.api.errors";
+
 	private TimeService timeService;
 
+	private MeterRegistry meterRegistry;
+
 	@Autowired
-	public RestResponseEntityExceptionHandler(TimeService timeService) {
+	public RestResponseEntityExceptionHandler(TimeService timeService, MeterRegistry meterRegistry) {
 		super();
 		this.timeService = timeService;
+		this.meterRegistry = meterRegistry;
 	}
 
 	// 4xx
 
-	@ExceptionHandler(value = { EntityNotFoundException.class, UserNotFoundException.class,
-			DataIntegrityViolationException.class })
+	/**
+	 * Handle a request from a client whose location is not authorized
+	 */
+	@ExceptionHandler(value = { LocationNotAuthorizedException.class })
+	protected ResponseEntity<ErrorDetails> handleForbidden(final Exception exc, final WebRequest request) {
+		return countedResponse(exc, request, HttpStatus.FORBIDDEN);
+	}
+
+	@ExceptionHandler(value = { EntityNotFoundException.class, UserNotFoundException.class })
 	protected ResponseEntity<ErrorDetails> handleNotFound(final Exception exc, final WebRequest request) {
 		return new ResponseEntity<>(buildDefaultErrorDetails(exc, request), HttpStatus.NOT_FOUND);
 	}
 
+	/**
+	 * Handle an update based on wrong values of a user
+	 */
+	@ExceptionHandler(value = { PatchTestFailedException.class })
+	protected ResponseEntity<ErrorDetails> handleConflict(final Exception exc, final WebRequest request) {
+		return new ResponseEntity<>(buildDefaultErrorDetails(exc, request), HttpStatus.CONFLICT);
+	}
+
+	/**
+	 * Handle a request whose <code>If-Match</code> header cannot be met
+	 */
+	@ExceptionHandler(value = { PreconditionFailedException.class })
+	protected ResponseEntity<ErrorDetails> handlePreconditionFailed(final Exception exc, final WebRequest request) {
+		return new ResponseEntity<>(buildDefaultErrorDetails(exc, request), HttpStatus.PRECONDITION_FAILED);
+	}
+
+	/**
+	 * Handle an update or delete based on an outdated version of a user : when the
+	 * version came from the <code>If-Match</code> header, the precondition of the
+	 * request failed, otherwise the body of the request conflicts with the user
+	 */
+	@ExceptionHandler(value = { UserVersionConflictException.class })
+	protected ResponseEntity<ErrorDetails> handleVersionConflict(final UserVersionConflictException exc,
+			final WebRequest request) {
+		if (null != request.getHeader(HttpHeaders.IF_MATCH)) {
+			return handlePreconditionFailed(exc, request);
+		}
+		return handleConflict(exc, request);
+	}
+
+	/**
+	 * Handle a {@link DataIntegrityViolationException} : when a database
+	 * constraint such as the unique email is violated, the request conflicts with
+	 * existing data, otherwise data is considered not found
+	 * 
+	 * @param exc     the exception
+	 * @param request request that caused the issue
+	 * @return
+	 */
+	@ExceptionHandler(value = { DataIntegrityViolationException.class })
+	protected ResponseEntity<ErrorDetails> handleDataIntegrityViolation(final DataIntegrityViolationException exc,
+			final WebRequest request) {
+		if (exc.getCause() instanceof org.hibernate.exception.ConstraintViolationException) {
+			final String constraintName = ((org.hibernate.exception.ConstraintViolationException) exc.getCause())
+					.getConstraintName();
+			return new ResponseEntity<>(new ErrorDetails(timeService.getCurrentDateTimeTimestamp(),
+					"Data conflicts with existing data (constraint " + constraintName + ")", null,
+					request.getDescription(false)), HttpStatus.CONFLICT);
+		}
+		return handleNotFound(exc, request);
+	}
+
+	/**
+	 * Handle a request body which is not valid JSON or does not match the expected
+	 * data
+	 */
+	@ExceptionHandler(value = { JsonProcessingException.class, InvalidPatchException.class })
+	protected ResponseEntity<ErrorDetails> handleBadRequest(final Exception exc, final WebRequest request) {
+		return new ResponseEntity<>(buildDefaultErrorDetails(exc, request), HttpStatus.BAD_REQUEST);
+	}
+
 	@ExceptionHandler(value = { ConstraintViolationException.class })
 	protected ResponseEntity<ErrorDetails> handleConstraintViolationException(
 			final ConstraintViolationException violationExc, final WebRequest request) {
@@ -74,7 +164,28 @@ public class RestResponseEntityExceptionHandler extends ResponseEntityExceptionH
 	@ExceptionHandler({ CannotComputeLocationException.class, CouldNotSendMessageBusMessage.class,
 			NullPointerException.class, IllegalArgumentException.class, IllegalStateException.class })
 	protected ResponseEntity<ErrorDetails> handleOtherServerExceptions(final Exception exc, final WebRequest request) {
-		return new ResponseEntity<>(buildDefaultErrorDetails(exc, request), HttpStatus.INTERNAL_SERVER_ERROR);
+		return countedResponse(exc, request, HttpStatus.INTERNAL_SERVER_ERROR);
+	}
+
+	/**
+	 * Handle an asynchronous operation rejected because too many operations are
+	 * already waiting : the client may retry later
+	 */
+	@ExceptionHandler({ RejectedExecutionException.class })
+	protected ResponseEntity<ErrorDetails> handleServiceUnavailable(final Exception exc, final WebRequest request) {
+		return countedResponse(exc, request, HttpStatus.SERVICE_UNAVAILABLE);
+	}
+
+	/**
+	 * Build the response for given exception and count it in counter
+	 * {@link #ERRORS_COUNTER_NAME}
+	 */
+	private ResponseEntity<ErrorDetails> countedResponse(final Exception exc, final WebRequest request,
+			final HttpStatus status) {
+		Counter.builder(ERRORS_COUNTER_NAME).description("Requests refused or failed on the server side")
+				.tag("exception", exc.getClass().getSimpleName()).tag("status", String.valueOf(status.value()))
+				.register(meterRegistry).increment();
+		return new ResponseEntity<>(buildDefaultErrorDetails(exc, request), status);
 	}
 
 	private ErrorDetails buildDefaultErrorDetails(final Exception exc, final WebRequest request) {
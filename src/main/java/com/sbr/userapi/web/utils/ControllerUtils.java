@@ -1,12 +1,27 @@
 package com.sbr.userapi.web.utils;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.mapstruct.factory.Mappers;
 
+import com.sbr.userapi.dto.BulkCreationResultDTO;
+import com.sbr.userapi.dto.BulkOperationResultDTO;
+import com.sbr.userapi.dto.UserChangeEventDTO;
+import com.sbr.userapi.dto.UserChangeFeedDTO;
+import com.sbr.userapi.dto.UserCreationResultDTO;
 import com.sbr.userapi.dto.UserDTO;
+import com.sbr.userapi.dto.UserSuggestionDTO;
+import com.sbr.userapi.exception.PreconditionFailedException;
 import com.sbr.userapi.mapper.UserMapper;
 import com.sbr.userapi.model.User;
+import com.sbr.userapi.monitoring.RequestPhase;
+import com.sbr.userapi.monitoring.RequestPhaseEvent;
+import com.sbr.userapi.service.user.BulkOperationResult;
+import com.sbr.userapi.service.user.UserChangeEvent;
+import com.sbr.userapi.service.user.UserChangeFeed;
+import com.sbr.userapi.service.user.UserCreationResult;
+import com.sbr.userapi.service.user.UserSuggestion;
 
 /**
  * Utilities for the controller layer
@@ -19,15 +34,25 @@ public class ControllerUtils {
 	/** Mapper between {@link User} and {@link UserDTO} */
 	private static final UserMapper USER_MAPPER = Mappers.getMapper(UserMapper.class);
 
+	/** <code>If-Match</code> value matching any current representation */
+	private static final String IF_MATCH_ANY = "*";
+
 	/**
-	 * <B>Thread safe.</B> Convert a user entity to a DTO by copying all its fields
+	 * <B>Thread safe.</B> Convert a user entity to a DTO by copying all its
+	 * fields. Recorded as a {@link RequestPhaseEvent}, as are the other
+	 * conversions of users
 	 * 
 	 * @param user to be converted
 	 * @return <code>null</code> when <code>user</code> is <code>null</code>,
 	 *         otherwise a newly created {@link UserDTO} instance
 	 */
 	public static UserDTO convertUserEntityToDTO(final User user) {
-		return USER_MAPPER.userToUserDTO(user);
+		final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.MAPPING, "userToUserDTO");
+		try {
+			return USER_MAPPER.userToUserDTO(user);
+		} finally {
+			event.finish(null == user ? null : user.getId());
+		}
 	}
 
 	/**
@@ -38,7 +63,12 @@ public class ControllerUtils {
 	 *         otherwise a newly created {@link User} instance
 	 */
 	public static User convertUserDTOToEntity(final UserDTO userDTO) {
-		return USER_MAPPER.userDTOtoUser(userDTO);
+		final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.MAPPING, "userDTOtoUser");
+		try {
+			return USER_MAPPER.userDTOtoUser(userDTO);
+		} finally {
+			event.finish(null == userDTO ? null : userDTO.getId());
+		}
 	}
 
 	/**
@@ -49,6 +79,110 @@ public class ControllerUtils {
 	 *         otherwise a newly created list of {@link UserDTO}
 	 */
 	public static List<UserDTO> convertUserListToUserDTOList(final List<User> users) {
-		return USER_MAPPER.userListToUserDTOList(users);
+		final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.MAPPING, "userListToUserDTOList");
+		try {
+			return USER_MAPPER.userListToUserDTOList(users);
+		} finally {
+			event.finish(null);
+		}
+	}
+
+	/**
+	 * <B>Thread safe.</B> Convert the results of a bulk creation of users to a
+	 * DTO. Only the ids of the created users are kept
+	 * 
+	 * @param results to be converted, one per user
+	 * @return a newly created {@link BulkCreationResultDTO}
+	 */
+	public static BulkCreationResultDTO convertUserCreationResultsToDTO(final List<UserCreationResult> results) {
+		final List<UserCreationResultDTO> resultDTOs = results.stream()
+				.map(result -> new UserCreationResultDTO(result.getIndex(), result.getStatus().name(),
+						null == result.getUser() ? null : result.getUser().getId(), result.getErrors()))
+				.collect(Collectors.toList());
+		final int created = (int) results.stream()
+				.filter(result -> UserCreationResult.Status.CREATED == result.getStatus()).count();
+		return new BulkCreationResultDTO(created, results.size() - created, resultDTOs);
+	}
+
+	/**
+	 * <B>Thread safe.</B> Convert the result of a bulk delete or update of users to
+	 * a DTO
+	 * 
+	 * @param result to be converted
+	 * @return a newly created {@link BulkOperationResultDTO}
+	 */
+	public static BulkOperationResultDTO convertBulkOperationResultToDTO(final BulkOperationResult result) {
+		return new BulkOperationResultDTO(result.getAffectedIds().size(), result.getMissingIds());
+	}
+
+	/**
+	 * <B>Thread safe.</B> Convert a change of a user to a DTO
+	 * 
+	 * @param event to be converted
+	 * @return a newly created {@link UserChangeEventDTO}
+	 */
+	public static UserChangeEventDTO convertUserChangeEventToDTO(final UserChangeEvent event) {
+		return new UserChangeEventDTO(event.getOffset(), event.getTimeStamp(), event.getType().name(),
+				event.getUserId());
+	}
+
+	/**
+	 * <B>Thread safe.</B> Convert changes of users to a DTO
+	 * 
+	 * @param feed to be converted
+	 * @return a newly created {@link UserChangeFeedDTO}
+	 */
+	public static UserChangeFeedDTO convertUserChangeFeedToDTO(final UserChangeFeed feed) {
+		return new UserChangeFeedDTO(feed.getLogId(), feed.isReset(), feed.getNextOffset(), feed.getEvents().stream()
+				.map(ControllerUtils::convertUserChangeEventToDTO).collect(Collectors.toList()));
+	}
+
+	/**
+	 * <B>Thread safe.</B> Build the strong entity tag of a version
+	 * 
+	 * @param version version of a user or of the users, may be <code>null</code>
+	 * @return <code>null</code> when <code>version</code> is <code>null</code>,
+	 *         otherwise the quoted version
+	 */
+	public static String toETag(final Object version) {
+		return null == version ? null : "\"" + version + "\"";
+	}
+
+	/**
+	 * <B>Thread safe.</B> Parse the <code>If-Match</code> header of a request on a
+	 * user into the version the user must have. Only a single strong entity tag,
+	 * as built by {@link #toETag(Object)}, or <code>*</code> are supported
+	 * 
+	 * @param ifMatch value of the header, may be <code>null</code>
+	 * @return the expected version, <code>null</code> when any version matches
+	 * @throws PreconditionFailedException when the header holds a weak, a list of
+	 *                                     or an unknown entity tag : it cannot
+	 *                                     match the strong entity tag of the user
+	 */
+	public static Long parseIfMatch(final String ifMatch) throws PreconditionFailedException {
+		if (null == ifMatch || IF_MATCH_ANY.equals(ifMatch.trim())) {
+			return null;
+		}
+		final String eTag = ifMatch.trim();
+		if (eTag.length() > 2 && eTag.charAt(0) == '"' && eTag.charAt(eTag.length() - 1) == '"') {
+			try {
+				return Long.valueOf(eTag.substring(1, eTag.length() - 1));
+			} catch (NumberFormatException e) {
+				// Not an entity tag of a user
+			}
+		}
+		throw new PreconditionFailedException("If-Match [" + ifMatch + "] does not match the entity tag of the user");
+	}
+
+	/**
+	 * <B>Thread safe.</B> Convert suggested users to DTOs
+	 * 
+	 * @param suggestions to be converted
+	 * @return a newly created list of {@link UserSuggestionDTO}
+	 */
+	public static List<UserSuggestionDTO> convertUserSuggestionsToDTO(final List<UserSuggestion> suggestions) {
+		return suggestions.stream()
+				.map(suggestion -> new UserSuggestionDTO(suggestion.getId(), suggestion.getFirstName()))
+				.collect(Collectors.toList());
 	}
 }
@@ -12,7 +12,39 @@ CREATE TABLE USER (
 	id LONG PRIMARY KEY,
 	first_name VARCHAR(100) NOT NULL,
 	email VARCHAR(50) NOT NULL,
-	password VARCHAR(50) DEFAULT NULL
+	password VARCHAR(50) DEFAULT NULL,
+	version LONG DEFAULT 0 NOT NULL
 );
 
-CREATE SEQUENCE SEQ_USER_ID START WITH 10;
+/*
+  Indexes for the searches by first name and/or email (see UserRepository) :
+  a search by email, with or without first name, reads at most one row
+*/
+CREATE INDEX IDX_USER_FIRST_NAME ON USER (first_name);
+CREATE UNIQUE INDEX UK_USER_EMAIL ON USER (email);
+
+/*
+  Ids are reserved by blocks of 50 by each application instance :
+  INCREMENT BY MUST be equal to com.sbr.userapi.model.User.ID_ALLOCATION_SIZE
+*/
+CREATE SEQUENCE SEQ_USER_ID START WITH 10 INCREMENT BY 50;
+
+/*
+  Transactional outbox : messages waiting to be sent to the message bus
+*/
+DROP TABLE IF EXISTS OUTBOX_MESSAGE;
+
+CREATE TABLE OUTBOX_MESSAGE (
+	id LONG PRIMARY KEY,
+	time_stamp LONG NOT NULL,
+	user_id LONG,
+	user_ids CLOB,
+	type VARCHAR(20) NOT NULL
+);
+
+/*
+  Ids are NOT reserved by blocks : a later operation on a user always gets a greater id, whichever instance runs it,
+  so the messages of a user are sent in the order of its operations (see com.sbr.userapi.model.messaging.OutboxMessage.id).
+  Ids do NOT give the commit order of the messages of different users
+*/
+CREATE SEQUENCE SEQ_OUTBOX_MESSAGE_ID START WITH 1 INCREMENT BY 1;
@@ -1,11 +1,50 @@
 package com.sbr.userapi;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.sbr.userapi.exception.UserNotFoundException;
+import com.sbr.userapi.messaging.processor.MessageProcessor;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.repository.UserRepository;
+import com.sbr.userapi.service.user.EmailFilter;
+import com.sbr.userapi.service.user.UserCache;
+import com.sbr.userapi.service.user.UserService;
+import com.sbr.userapi.test.TestUtils;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 
 @SpringBootTest
 public class UserApiApplicationTest {
 
+	@Autowired
+	private MessageProcessor messageProcessor;
+
+	@Autowired
+	private UserCache userCache;
+
+	@Autowired
+	private EmailFilter emailFilter;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private UserService userService;
+
+	@Autowired
+	private PrometheusMeterRegistry prometheusMeterRegistry;
+
 	/**
 	 * Run a test that causes the Spring context to be loaded and initialize the
 	 * datasource, JPA, Hibernate and all other configured Spring beans/components.
@@ -16,4 +55,59 @@ public class UserApiApplicationTest {
 	void contextLoads() {
 	}
 
+	/**
+	 * A message received on the invalidation input channel removes the user it is
+	 * about from the cache of users
+	 */
+	@Test
+	void invalidationChannel_whenUserUpdatedMessageReceived_userIsRemovedFromCache() {
+		final AtomicInteger loads = new AtomicInteger();
+		final Function<Long, User> loader = id -> {
+			loads.incrementAndGet();
+			return TestUtils.createTestUserMichaelWithId();
+		};
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+
+		messageProcessor.invalidationChannel().send(MessageBuilder
+				.withPayload(new Message(1L, TestUtils.USER_MICHAEL_ID, Message.Type.USER_UPDATED)).build());
+
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		assertThat(loads.get()).isEqualTo(2);
+	}
+
+	/**
+	 * A message about users created by another application instance, received on
+	 * the same input channel, adds their emails to the filter of emails
+	 */
+	@Test
+	void invalidationChannel_whenUsersCreatedMessageReceived_emailsAreAddedToFilter() {
+		// Saved directly, as if by another instance
+		final User user = userRepository.save(TestUtils.createTestUserCharlesNoId());
+		try {
+			assertThat(emailFilter.mightContain(user.getEmail())).isFalse();
+
+			messageProcessor.invalidationChannel().send(MessageBuilder
+					.withPayload(new Message(1L, List.of(user.getId()), Message.Type.USERS_CREATED)).build());
+
+			assertThat(emailFilter.mightContain(user.getEmail())).isTrue();
+		} finally {
+			userRepository.delete(user);
+		}
+	}
+
+	/**
+	 * The operations of the user service are timed with a latency histogram, and
+	 * the connection pool gauges are exported too
+	 */
+	@Test
+	void prometheusMetrics_containUserServiceHistogramAndConnectionPoolGauges() {
+		assertThrows(UserNotFoundException.class, () -> userService.getUserById(Long.MAX_VALUE));
+
+		final String metrics = prometheusMeterRegistry.scrape();
+		assertThat(metrics)
+				.contains("users_service_seconds_bucket{class=\"" + UserService.class.getName()
+						+ "\",exception=\"UserNotFoundException\",method=\"getUserById\",le=")
+				.contains("hikaricp_connections_active{pool=");
+	}
+
 }
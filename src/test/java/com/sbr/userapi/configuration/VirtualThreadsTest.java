@@ -0,0 +1,39 @@
+package com.sbr.userapi.configuration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit test for {@link VirtualThreads}
+ * 
+ * @author sbrouet
+ *
+ */
+public class VirtualThreadsTest {
+
+	/**
+	 * Virtual threads are created on Java 21 and later, refused on older versions
+	 */
+	@Test
+	public void newThreadPerTaskExecutor_dependsOnTheJavaVersion() throws InterruptedException, ExecutionException {
+		final boolean supported = Runtime.version().feature() >= 21;
+		assertThat(VirtualThreads.isSupported()).isEqualTo(supported);
+		if (!supported) {
+			assertThrows(UnsupportedOperationException.class, () -> VirtualThreads.newThreadPerTaskExecutor("test-"));
+			return;
+		}
+
+		final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+		try {
+			assertThat(executor.submit(() -> Thread.currentThread().getName()).get()).isEqualTo("test-0");
+			assertThat(executor.submit(() -> Thread.currentThread().isDaemon()).get()).isTrue();
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.sbr.userapi.monitoring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.monitoring.HibernateStatisticsEndpoint.HibernateStatisticsDescriptor;
+import com.sbr.userapi.repository.UserRepository;
+import com.sbr.userapi.test.TestUtils;
+
+/**
+ * Test for {@link HibernateStatisticsEndpoint} on the application context
+ * 
+ * @author sbrouet
+ *
+ */
+@SpringBootTest
+public class HibernateStatisticsEndpointTest {
+
+	@Autowired
+	private HibernateStatisticsEndpoint endpoint;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private ConfigurationBean configurationBean;
+
+	/**
+	 * The application context is shared with other tests : statistics are
+	 * disabled again as at startup
+	 */
+	@AfterEach
+	public void disableStatistics() {
+		endpoint.configure(false, configurationBean.getSlowQueryThreshold());
+		endpoint.clear();
+	}
+
+	/**
+	 * Statistics are disabled at startup : nothing is collected
+	 */
+	@Test
+	public void statistics_whenDisabled_noQueryIsCounted() {
+		endpoint.clear();
+		userRepository.findByFirstName(TestUtils.USER_MICHAEL_FIRST_NAME);
+
+		final HibernateStatisticsDescriptor statistics = endpoint.statistics();
+		assertThat(statistics.isEnabled()).isFalse();
+		assertThat(statistics.getQueries()).isEmpty();
+		assertThat(statistics.getSlowQueries()).isEmpty();
+	}
+
+	/**
+	 * Once enabled at runtime, queries, entity operations and slow queries are
+	 * collected
+	 */
+	@Test
+	public void statistics_whenEnabledAtRuntime_queriesEntitiesAndSlowQueriesAreCollected() {
+		endpoint.clear();
+		endpoint.configure(true, 0L);
+
+		final User user = userRepository.save(TestUtils.createTestUserCharlesNoId());
+		try {
+			userRepository.findByFirstName(TestUtils.USER_MICHAEL_FIRST_NAME);
+			userRepository.findByFirstName(TestUtils.USER_MICHAEL_FIRST_NAME);
+
+			final HibernateStatisticsDescriptor statistics = endpoint.statistics();
+			assertThat(statistics.isEnabled()).isTrue();
+			assertThat(statistics.getQueries()).anySatisfy(query -> {
+				assertThat(query.getQuery()).contains("firstName");
+				assertThat(query.getExecutionCount()).isEqualTo(2);
+				assertThat(query.getMaxTime()).isGreaterThanOrEqualTo(0);
+			});
+			assertThat(statistics.getEntities()).anySatisfy(entity -> {
+				assertThat(entity.getEntity()).isEqualTo(User.class.getName());
+				assertThat(entity.getInsertCount()).isEqualTo(1);
+			});
+			assertThat(statistics.getSlowQueryThreshold()).isEqualTo(0);
+			// The outbox relay may run its own queries in the background meanwhile
+			assertThat(statistics.getSlowQueries()).filteredOn(slowQuery -> slowQuery.getQuery().contains("firstName"))
+					.hasSize(2);
+		} finally {
+			userRepository.delete(user);
+		}
+	}
+}
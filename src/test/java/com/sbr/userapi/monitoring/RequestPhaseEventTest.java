@@ -0,0 +1,77 @@
+package com.sbr.userapi.monitoring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.sbr.userapi.test.JfrUtils;
+
+import jdk.jfr.consumer.RecordedEvent;
+
+/**
+ * Unit test for {@link RequestPhaseEvent}
+ * 
+ * @author sbrouet
+ *
+ */
+public class RequestPhaseEventTest {
+
+	@AfterEach
+	public void unregister() {
+		RequestPhaseEvent.setRegistered(false);
+	}
+
+	/**
+	 * A registered event is recorded with its phase, operation, user id and
+	 * duration
+	 */
+	@Test
+	public void finish_whenRegistered_eventIsRecorded() throws IOException {
+		RequestPhaseEvent.setRegistered(true);
+
+		final List<RecordedEvent> events = JfrUtils.record(RequestPhaseEvent.NAME, () -> {
+			final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.MESSAGE_SEND, "USER_CREATED");
+			event.finish(42L);
+		});
+
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).getString("phase")).isEqualTo(RequestPhase.MESSAGE_SEND.name());
+		assertThat(events.get(0).getString("operation")).isEqualTo("USER_CREATED");
+		assertThat(events.get(0).getLong("userId")).isEqualTo(42L);
+		assertThat(events.get(0).getDuration().isNegative()).isFalse();
+	}
+
+	/**
+	 * A phase which is not about a single user is recorded with user id
+	 * {@link RequestPhaseEvent#NO_USER_ID}
+	 */
+	@Test
+	public void finish_whenNoUserId_eventIsRecordedWithNoUserId() throws IOException {
+		RequestPhaseEvent.setRegistered(true);
+
+		final List<RecordedEvent> events = JfrUtils.record(RequestPhaseEvent.NAME,
+				() -> RequestPhaseEvent.start(RequestPhase.MAPPING, "userListToUserDTOList").finish(null));
+
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).getLong("userId")).isEqualTo(RequestPhaseEvent.NO_USER_ID);
+	}
+
+	/**
+	 * When the events are disabled, nothing is recorded even while a recording is
+	 * running
+	 */
+	@Test
+	public void finish_whenNotRegistered_noEventIsRecorded() throws IOException {
+		final List<RecordedEvent> events = JfrUtils.record(RequestPhaseEvent.NAME, () -> {
+			final RequestPhaseEvent event = RequestPhaseEvent.start(RequestPhase.REPOSITORY, "UserRepository.findById");
+			assertThat(event.isEnabled()).isFalse();
+			event.finish(42L);
+		});
+
+		assertThat(events).isEmpty();
+	}
+}
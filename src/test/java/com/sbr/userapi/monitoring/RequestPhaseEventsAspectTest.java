@@ -0,0 +1,80 @@
+package com.sbr.userapi.monitoring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.repository.UserRepository;
+import com.sbr.userapi.test.JfrUtils;
+import com.sbr.userapi.test.TestUtils;
+
+import jdk.jfr.consumer.RecordedEvent;
+
+/**
+ * Unit test for {@link RequestPhaseEventsAspect}
+ * 
+ * @author sbrouet
+ *
+ */
+public class RequestPhaseEventsAspectTest {
+
+	private UserRepository userRepository;
+
+	@BeforeEach
+	public void createRepository() {
+		RequestPhaseEvent.setRegistered(true);
+		final UserRepository mockRepository = Mockito.mock(UserRepository.class);
+		Mockito.when(mockRepository.findById(TestUtils.USER_MICHAEL_ID))
+				.thenReturn(Optional.of(TestUtils.createTestUserMichaelWithId()));
+		Mockito.when(mockRepository.save(Mockito.any(User.class))).thenReturn(TestUtils.createTestUserMichaelWithId());
+
+		final AspectJProxyFactory proxyFactory = new AspectJProxyFactory(mockRepository);
+		proxyFactory.setInterfaces(UserRepository.class);
+		proxyFactory.addAspect(new RequestPhaseEventsAspect());
+		userRepository = proxyFactory.getProxy();
+	}
+
+	@AfterEach
+	public void unregister() {
+		RequestPhaseEvent.setRegistered(false);
+	}
+
+	/**
+	 * A call to a repository is recorded with the name of the repository of the
+	 * application, even for methods declared by Spring Data, and the id it was
+	 * given
+	 */
+	@Test
+	public void recordRepositoryPhase_whenFindById_eventHasRepositoryMethodAndUserId() throws IOException {
+		final List<RecordedEvent> events = JfrUtils.record(RequestPhaseEvent.NAME,
+				() -> assertThat(userRepository.findById(TestUtils.USER_MICHAEL_ID)).isPresent());
+
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).getString("phase")).isEqualTo(RequestPhase.REPOSITORY.name());
+		assertThat(events.get(0).getString("operation")).isEqualTo("UserRepository.findById");
+		assertThat(events.get(0).getLong("userId")).isEqualTo(TestUtils.USER_MICHAEL_ID);
+	}
+
+	/**
+	 * The id of a created user, unknown when the repository is called, is taken
+	 * from the saved user
+	 */
+	@Test
+	public void recordRepositoryPhase_whenSaveNewUser_eventHasIdOfSavedUser() throws IOException {
+		final List<RecordedEvent> events = JfrUtils.record(RequestPhaseEvent.NAME,
+				() -> userRepository.save(TestUtils.createTestUserCharlesNoId()));
+
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).getString("operation")).isEqualTo("UserRepository.save");
+		assertThat(events.get(0).getLong("userId")).isEqualTo(TestUtils.USER_MICHAEL_ID);
+	}
+}
@@ -0,0 +1,77 @@
+package com.sbr.userapi.monitoring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.service.time.TimeService;
+
+/**
+ * Unit test for {@link SlowQueryLog}
+ * 
+ * @author sbrouet
+ *
+ */
+public class SlowQueryLogTest {
+
+	private static final long TIME_STAMP = 1596256892335L;
+
+	private SlowQueryLog slowQueryLog;
+
+	@BeforeEach
+	public void createLog() {
+		final TimeService timeService = Mockito.mock(TimeService.class);
+		Mockito.when(timeService.getCurrentDateTimeTimestamp()).thenReturn(TIME_STAMP);
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setSlowQueryThreshold(100);
+		configurationBean.setSlowQueryLogSize(2);
+		slowQueryLog = new SlowQueryLog(timeService, configurationBean);
+	}
+
+	/**
+	 * Only the queries reaching the threshold are kept
+	 */
+	@Test
+	public void record_whenFasterThanThreshold_queryIsNotKept() {
+		slowQueryLog.record("select u from User u", 99, 10);
+		slowQueryLog.record("select u from User u where u.firstName=:firstName", 100, 1);
+
+		assertThat(slowQueryLog.getQueries()).hasSize(1);
+		final SlowQuery slowQuery = slowQueryLog.getQueries().get(0);
+		assertThat(slowQuery.getQuery()).isEqualTo("select u from User u where u.firstName=:firstName");
+		assertThat(slowQuery.getTime()).isEqualTo(100);
+		assertThat(slowQuery.getRows()).isEqualTo(1);
+		assertThat(slowQuery.getTimeStamp()).isEqualTo(TIME_STAMP);
+	}
+
+	/**
+	 * When the log is full, the oldest query is dropped, and the most recent
+	 * query comes first
+	 */
+	@Test
+	public void record_whenLogIsFull_oldestQueryIsDropped() {
+		slowQueryLog.record("query 1", 200, 0);
+		slowQueryLog.record("query 2", 200, 0);
+		slowQueryLog.record("query 3", 200, 0);
+
+		assertThat(slowQueryLog.getQueries()).extracting(SlowQuery::getQuery).containsExactly("query 3", "query 2");
+	}
+
+	/**
+	 * A threshold changed at runtime applies to the following queries
+	 */
+	@Test
+	public void setThreshold_appliesToFollowingQueries() {
+		slowQueryLog.setThreshold(500);
+		slowQueryLog.record("query 1", 200, 0);
+		slowQueryLog.setThreshold(0);
+		slowQueryLog.record("query 2", 0, 0);
+
+		assertThat(slowQueryLog.getQueries()).extracting(SlowQuery::getQuery).containsExactly("query 2");
+		slowQueryLog.clear();
+		assertThat(slowQueryLog.getQueries()).isEmpty();
+	}
+}
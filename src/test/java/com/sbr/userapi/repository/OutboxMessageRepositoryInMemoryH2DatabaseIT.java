@@ -0,0 +1,78 @@
+package com.sbr.userapi.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.sbr.userapi.TestConstants;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.model.messaging.OutboxMessage;
+
+/**
+ * Integration test for JPA repository {@link OutboxMessageRepository} that
+ * operates on an in-memory H2 database
+ * 
+ * @author sbrouet
+ *
+ */
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@ActiveProfiles(TestConstants.SPRING_PROFILE_IN_MEMORY_DATABASE_H2)
+public class OutboxMessageRepositoryInMemoryH2DatabaseIT {
+
+	@Autowired
+	private OutboxMessageRepository outboxMessageRepository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	/**
+	 * Test {@link OutboxMessageRepository#findOldestForUpdate(PageRequest)} : the
+	 * oldest messages are returned in id order, limited to the page size, and can
+	 * be deleted in batch
+	 */
+	@Test
+	public void findOldestForUpdate_returnsOldestMessagesInIdOrder() {
+		final OutboxMessage first = outboxMessageRepository.save(createOutboxMessage(1L));
+		final OutboxMessage second = outboxMessageRepository.save(createOutboxMessage(2L));
+		final OutboxMessage third = outboxMessageRepository.save(createOutboxMessage(3L));
+
+		final List<OutboxMessage> oldest = outboxMessageRepository.findOldestForUpdate(PageRequest.of(0, 2));
+		assertThat(oldest).extracting(OutboxMessage::getId).containsExactly(first.getId(), second.getId());
+		assertThat(oldest.get(0).toMessage().getType()).isEqualTo(Message.Type.USER_CREATED);
+
+		outboxMessageRepository.deleteInBatch(oldest);
+		assertThat(outboxMessageRepository.findOldestForUpdate(PageRequest.of(0, 2)))
+				.extracting(OutboxMessage::getId).containsExactly(third.getId());
+	}
+
+	/**
+	 * The user ids of a message about many users are stored in a single column and
+	 * read back in order
+	 */
+	@Test
+	public void save_whenMessageIsAboutManyUsers_userIdsAreReadBack() {
+		final OutboxMessage saved = outboxMessageRepository.save(new OutboxMessage(
+				new Message(System.currentTimeMillis(), List.of(5L, 3L, 8L), Message.Type.USERS_CREATED)));
+		entityManager.flush();
+		entityManager.clear();
+
+		final Message read = outboxMessageRepository.findById(saved.getId()).get().toMessage();
+		assertThat(read.getType()).isEqualTo(Message.Type.USERS_CREATED);
+		assertThat(read.getUserIds()).containsExactly(5L, 3L, 8L);
+		assertThat(read.getUserId()).isNull();
+	}
+
+	private static OutboxMessage createOutboxMessage(final Long userId) {
+		return new OutboxMessage(new Message(System.currentTimeMillis(), userId, Message.Type.USER_CREATED));
+	}
+}
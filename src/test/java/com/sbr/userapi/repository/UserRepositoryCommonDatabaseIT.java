@@ -3,16 +3,25 @@ package com.sbr.userapi.repository;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.context.transaction.TestTransaction;
 
 import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.UserField;
 import com.sbr.userapi.test.TestUtils;
 
 /**
@@ -30,6 +39,9 @@ public abstract class UserRepositoryCommonDatabaseIT {
 	@Autowired
 	private UserRepository userRepository;
 
+	@Autowired
+	private EntityManager entityManager;
+
 	/**
 	 * Test {@link UserRepository#findAll()}. Allows to check that context and
 	 * database are correctly loaded and that the repository is correctly working
@@ -104,4 +116,273 @@ public abstract class UserRepositoryCommonDatabaseIT {
 		TestUtils.assertEqualsUserMichaelNoId(foundUsers.get(0));
 	}
 
-}
+	/**
+	 * Test {@link UserRepository#findByEmail(String)} and
+	 * {@link UserRepository#findByFirstNameAndEmail(String, String)}
+	 */
+	@Test
+	public void findByEmail_whenUserInDbItCanBeFound() {
+		userRepository.save(TestUtils.createTestUserMichaelNoId());
+		userRepository.save(TestUtils.createTestUserMarieNoId());
+
+		TestUtils.assertEqualsUserMichaelNoId(userRepository.findByEmail(TestUtils.USER_MICHAEL_EMAIL).get());
+		TestUtils.assertEqualsUserMichaelNoId(userRepository
+				.findByFirstNameAndEmail(TestUtils.USER_MICHAEL_FIRST_NAME, TestUtils.USER_MICHAEL_EMAIL).get());
+		assertThat(userRepository.findByEmail(TestUtils.UNKNOWN_EMAIL)).isEmpty();
+		assertThat(userRepository.findByFirstNameAndEmail(TestUtils.USER_MARIE_FIRST_NAME,
+				TestUtils.USER_MICHAEL_EMAIL)).isEmpty();
+	}
+
+	/**
+	 * Email is unique : saving a second user with the same email fails on flush
+	 */
+	@Test
+	public void save_whenEmailAlreadyUsedThenAnExceptionIsThrown() {
+		userRepository.save(TestUtils.createTestUserMichaelNoId());
+		final User sameEmail = TestUtils.createTestUserMarieNoId();
+		sameEmail.setEmail(TestUtils.USER_MICHAEL_EMAIL);
+
+		assertThrows(DataIntegrityViolationException.class, () -> {
+			userRepository.save(sameEmail);
+			userRepository.flush();
+		});
+	}
+
+	/**
+	 * Test {@link UserRepository#findByIdGreaterThanOrderByIdAsc(Long, Pageable)}.
+	 * Check that pages are ordered by id, limited in size and start after the
+	 * cursor
+	 */
+	@Test
+	public void findByIdGreaterThanOrderByIdAsc_whenUsersInDbThenPagesAreReturnedInIdOrder() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		final User marie = userRepository.save(TestUtils.createTestUserMarieNoId());
+		final User charles = userRepository.save(TestUtils.createTestUserCharlesNoId());
+
+		final List<User> firstPage = userRepository.findByIdGreaterThanOrderByIdAsc(Long.MIN_VALUE,
+				PageRequest.of(0, 2));
+		assertThat(firstPage).containsExactly(michael, marie);
+
+		final List<User> secondPage = userRepository.findByIdGreaterThanOrderByIdAsc(marie.getId(),
+				PageRequest.of(0, 2));
+		assertThat(secondPage).containsExactly(charles);
+	}
+
+	/**
+	 * Test {@link UserRepository#streamAll()}. Check that all users are streamed in
+	 * id order
+	 */
+	@Test
+	public void streamAll_whenUsersInDbThenAllAreStreamedInIdOrder() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		final User marie = userRepository.save(TestUtils.createTestUserMarieNoId());
+
+		try (Stream<User> users = userRepository.streamAll()) {
+			assertThat(users.collect(Collectors.toList())).containsExactly(michael, marie);
+		}
+	}
+
+	/**
+	 * Test {@link UserRepository#lockExistingIds(java.util.Collection)}. Only ids
+	 * of existing users are returned
+	 */
+	@Test
+	public void lockExistingIds_whenSomeIdsDoNotExistThenOnlyExistingIdsAreReturned() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		final User marie = userRepository.save(TestUtils.createTestUserMarieNoId());
+
+		assertThat(userRepository.lockExistingIds(List.of(michael.getId(), TestUtils.UNKNOWN_USER_ID, marie.getId())))
+				.containsExactlyInAnyOrder(michael.getId(), marie.getId());
+	}
+
+	/**
+	 * Test {@link UserRepository#deleteByIds(java.util.Collection)}. Only the users
+	 * with given ids are deleted
+	 */
+	@Test
+	public void deleteByIds_whenUsersInDbThenOnlyGivenUsersAreDeleted() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		final User marie = userRepository.save(TestUtils.createTestUserMarieNoId());
+		final User charles = userRepository.save(TestUtils.createTestUserCharlesNoId());
+
+		assertThat(userRepository.deleteByIds(List.of(michael.getId(), charles.getId(), TestUtils.UNKNOWN_USER_ID)))
+				.isEqualTo(2);
+		assertThat(userRepository.findAll()).extracting(User::getId).containsExactly(marie.getId());
+	}
+
+	/**
+	 * Test {@link UserRepository#updateByIds(java.util.Collection, String, String)}.
+	 * Only given users are updated, and only the fields with a value
+	 */
+	@Test
+	public void updateByIds_whenOnlyFirstNameThenPasswordIsUnchanged() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		final User marie = userRepository.save(TestUtils.createTestUserMarieNoId());
+
+		assertThat(userRepository.updateByIds(List.of(michael.getId()), "Mike", null)).isEqualTo(1);
+
+		final User updated = userRepository.findById(michael.getId()).get();
+		assertThat(updated.getFirstName()).isEqualTo("Mike");
+		assertThat(updated.getPassword()).isEqualTo(TestUtils.USER_MICHAEL_PASSWORD);
+		TestUtils.assertEqualsUserMarieId(userRepository.findById(marie.getId()).get());
+	}
+
+	/**
+	 * Test {@link UserRepository#updateByIds(java.util.Collection, String, String)}.
+	 * The version of the updated users is incremented, so that their entity tags
+	 * change and an update based on the previous version is refused
+	 */
+	@Test
+	public void updateByIds_whenUsersUpdatedThenTheirVersionIsIncremented() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		final User marie = userRepository.save(TestUtils.createTestUserMarieNoId());
+		assertThat(michael.getVersion()).isEqualTo(0L);
+
+		assertThat(userRepository.updateByIds(List.of(michael.getId()), null, "newPassword1")).isEqualTo(1);
+
+		assertThat(userRepository.findById(michael.getId()).get().getVersion()).isEqualTo(1L);
+		assertThat(userRepository.findById(marie.getId()).get().getVersion()).isEqualTo(0L);
+		assertThat(userRepository.updateById(michael.getId(), "Mike", TestUtils.USER_MICHAEL_EMAIL,
+				TestUtils.USER_MICHAEL_PASSWORD, 0L)).isEqualTo(0);
+	}
+
+	/**
+	 * Test
+	 * {@link UserRepository#updateById(Long, String, String, String, Long)}. The
+	 * version is incremented by each update, and an update expecting an outdated
+	 * version does not update anything
+	 */
+	@Test
+	public void updateById_whenVersionIsOutdatedThenUserIsNotUpdated() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		assertThat(michael.getVersion()).isEqualTo(0L);
+
+		assertThat(userRepository.updateById(michael.getId(), "Mike", "mike@userapi.sbr",
+				TestUtils.USER_MICHAEL_PASSWORD, 0L)).isEqualTo(1);
+		assertThat(userRepository.updateById(michael.getId(), "Mick", "mick@userapi.sbr",
+				TestUtils.USER_MICHAEL_PASSWORD, 0L)).isEqualTo(0);
+		assertThat(userRepository.updateById(TestUtils.UNKNOWN_USER_ID, "Mick", "mick@userapi.sbr",
+				TestUtils.USER_MICHAEL_PASSWORD, null)).isEqualTo(0);
+
+		User updated = userRepository.findById(michael.getId()).get();
+		assertThat(updated.getFirstName()).isEqualTo("Mike");
+		assertThat(updated.getEmail()).isEqualTo("mike@userapi.sbr");
+		assertThat(updated.getVersion()).isEqualTo(1L);
+
+		// Without an expected version, the user is updated whatever its version
+		assertThat(userRepository.updateById(michael.getId(), "Mick", "mick@userapi.sbr",
+				TestUtils.USER_MICHAEL_PASSWORD, null)).isEqualTo(1);
+		updated = userRepository.findById(michael.getId()).get();
+		assertThat(updated.getFirstName()).isEqualTo("Mick");
+		assertThat(updated.getVersion()).isEqualTo(2L);
+	}
+
+	/**
+	 * Test {@link UserRepository#deleteOneById(Long)}. The user is deleted
+	 * whatever its version, and an unknown id deletes nothing
+	 */
+	@Test
+	public void deleteOneById_whenUserInDbThenItIsDeletedWhateverItsVersion() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		assertThat(userRepository.updateById(michael.getId(), "Mike", "mike@userapi.sbr",
+				TestUtils.USER_MICHAEL_PASSWORD, 0L)).isEqualTo(1);
+
+		assertThat(userRepository.deleteOneById(TestUtils.UNKNOWN_USER_ID)).isEqualTo(0);
+		assertThat(userRepository.deleteOneById(michael.getId())).isEqualTo(1);
+		assertThat(userRepository.existsById(michael.getId())).isFalse();
+		assertThat(userRepository.deleteOneById(michael.getId())).isEqualTo(0);
+	}
+
+	/**
+	 * Test {@link UserRepository#deleteByIdAndVersion(Long, Long)}. The user is
+	 * only deleted with its current version
+	 */
+	@Test
+	public void deleteByIdAndVersion_whenVersionIsOutdatedThenUserIsNotDeleted() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		assertThat(userRepository.updateById(michael.getId(), "Mike", "mike@userapi.sbr",
+				TestUtils.USER_MICHAEL_PASSWORD, 0L)).isEqualTo(1);
+
+		assertThat(userRepository.deleteByIdAndVersion(michael.getId(), 0L)).isEqualTo(0);
+		assertThat(userRepository.existsById(michael.getId())).isTrue();
+		assertThat(userRepository.deleteByIdAndVersion(michael.getId(), 1L)).isEqualTo(1);
+		assertThat(userRepository.existsById(michael.getId())).isFalse();
+	}
+
+	/**
+	 * Test {@link UserRepository#updateFields(User, java.util.Set)}. Only given
+	 * fields are written, and only when the user has the expected version
+	 */
+	@Test
+	public void updateFields_whenVersionIsCurrentThenOnlyGivenFieldsAreUpdated() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		final User patch = new User(michael.getId(), "Mike", "ignored@userapi.sbr", "ignoredPassword", 0L);
+
+		assertThat(userRepository.updateFields(patch, EnumSet.of(UserField.FIRST_NAME))).isEqualTo(1);
+		assertThat(userRepository.updateFields(patch, EnumSet.of(UserField.EMAIL, UserField.PASSWORD)))
+				.isEqualTo(0);
+
+		entityManager.clear();
+		final User updated = userRepository.findById(michael.getId()).get();
+		assertThat(updated.getFirstName()).isEqualTo("Mike");
+		assertThat(updated.getEmail()).isEqualTo(TestUtils.USER_MICHAEL_EMAIL);
+		assertThat(updated.getPassword()).isEqualTo(TestUtils.USER_MICHAEL_PASSWORD);
+		assertThat(updated.getVersion()).isEqualTo(1L);
+	}
+
+	/**
+	 * Test {@link UserRepository#findCurrentById(Long)}. The user is read from the
+	 * database even when the persistence context holds an outdated state
+	 */
+	@Test
+	public void findCurrentById_whenUserUpdatedByStatementThenCurrentStateIsRead() {
+		final User michael = userRepository.save(TestUtils.createTestUserMichaelNoId());
+		assertThat(userRepository.updateFields(new User(michael.getId(), "Mike", null, null, 0L),
+				EnumSet.of(UserField.FIRST_NAME))).isEqualTo(1);
+		assertThat(userRepository.findById(michael.getId()).get().getVersion()).isEqualTo(0L);
+
+		final User current = userRepository.findCurrentById(michael.getId()).get();
+		assertThat(current.getFirstName()).isEqualTo("Mike");
+		assertThat(current.getVersion()).isEqualTo(1L);
+		assertThat(entityManager.contains(current)).isFalse();
+		assertThat(userRepository.findCurrentById(TestUtils.UNKNOWN_USER_ID)).isEmpty();
+	}
+
+	/**
+	 * Test the allocation of user ids by blocks. Ids of users created by an
+	 * application instance are consecutive inside a block, and never collide with
+	 * the block reserved meanwhile by another application instance sharing the
+	 * same database sequence
+	 */
+	@Test
+	public void save_idsAreAllocatedByBlocksWhichAreNeverShared() {
+		final User first = userRepository.save(createTestUser(0));
+
+		// Another application instance reserves the next block of ids
+		final long otherInstanceBlockStart = ((Number) entityManager
+				.createNativeQuery("SELECT NEXT VALUE FOR SEQ_USER_ID").getSingleResult()).longValue();
+		assertThat(otherInstanceBlockStart).isGreaterThan(first.getId());
+
+		long previousId = first.getId();
+		for (int i = 1; i <= User.ID_ALLOCATION_SIZE; i++) {
+			final long id = userRepository.save(createTestUser(i)).getId();
+			assertThat(id < otherInstanceBlockStart || id >= otherInstanceBlockStart + User.ID_ALLOCATION_SIZE)
+					.as("id %d must be outside of the block of the other instance", id).isTrue();
+			if (id != previousId + 1) {
+				// Only a new block may break the sequence of ids
+				assertThat(id).isGreaterThanOrEqualTo(otherInstanceBlockStart + User.ID_ALLOCATION_SIZE);
+			}
+			previousId = id;
+		}
+	}
+
+	/**
+	 * @param index index of the user, makes its email unique
+	 * @return a new valid user without id
+	 */
+	private static User createTestUser(final int index) {
+		return new User(TestUtils.USER_MICHAEL_FIRST_NAME, "user" + index + "@userapi.sbr",
+				TestUtils.USER_MICHAEL_PASSWORD);
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.sbr.userapi.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Example;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.sbr.userapi.TestConstants;
+import com.sbr.userapi.model.User;
+
+/**
+ * Benchmark of the searches of users by first name and/or email on a table of
+ * {@link #ROW_COUNT} users, in an in-memory H2 database. Compares the average
+ * latency of the former Query-by-Example searches and of the derived queries of
+ * {@link UserRepository}, with and without the indexes on <code>first_name</code>
+ * and <code>email</code>.<BR/>
+ * Not run by default because loading the table takes time, run it with :<BR/>
+ * <code>mvn verify -Duserapi.benchmark=true -Dit.test=UserSearchBenchmarkIT</code>
+ * 
+ * @author sbrouet
+ *
+ */
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@ActiveProfiles(TestConstants.SPRING_PROFILE_IN_MEMORY_DATABASE_H2)
+@EnabledIfSystemProperty(named = "userapi.benchmark", matches = "true")
+// Each search runs in its own transaction, as in the application
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class UserSearchBenchmarkIT {
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserSearchBenchmarkIT.class);
+
+	private static final int ROW_COUNT = 1_000_000;
+
+	/** Number of distinct first names : each first name is shared by 1000 users */
+	private static final int FIRST_NAME_COUNT = 1000;
+
+	private static final int WARMUP_ITERATIONS = 5;
+
+	private static final int MEASURED_ITERATIONS = 20;
+
+	/**
+	 * Gap between the ids of the users searched by two successive iterations. Each
+	 * iteration searches another user, otherwise H2 would reuse the result of the
+	 * previous identical query
+	 */
+	private static final int SEARCHED_ID_STEP = 9973;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private DataSource dataSource;
+
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	public void loadUsers() {
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		final long start = System.nanoTime();
+		jdbcTemplate.update("INSERT INTO USER (id, first_name, email, password) SELECT X, 'First' || MOD(X, "
+				+ FIRST_NAME_COUNT + "), 'user' || X || '@userapi.sbr', 'password' || X FROM SYSTEM_RANGE(1, "
+				+ ROW_COUNT + ")");
+		LOGGER.info("Loaded " + ROW_COUNT + " users in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ "ms");
+	}
+
+	@AfterEach
+	public void deleteUsers() {
+		createIndexes();
+		jdbcTemplate.execute("TRUNCATE TABLE USER");
+	}
+
+	@Test
+	public void compareSearchLatencies() {
+		dropIndexes();
+		final double exampleFirstNameNoIndex = measure("Query-by-Example, first name, no index",
+				id -> userRepository.findAll(Example.of(new User(firstName(id), null, null))));
+		final double exampleEmailNoIndex = measure("Query-by-Example, email, no index",
+				id -> userRepository.findAll(Example.of(new User(null, email(id), null))));
+		final double exampleBothNoIndex = measure("Query-by-Example, first name and email, no index",
+				id -> userRepository.findAll(Example.of(new User(firstName(id), email(id), null))));
+
+		createIndexes();
+		final double derivedFirstName = measure("findByFirstName, indexed",
+				id -> userRepository.findByFirstName(firstName(id)));
+		final double derivedEmail = measure("findByEmail, indexed", id -> userRepository.findByEmail(email(id)));
+		final double derivedBoth = measure("findByFirstNameAndEmail, indexed",
+				id -> userRepository.findByFirstNameAndEmail(firstName(id), email(id)));
+
+		assertThat(userRepository.findByFirstName(firstName(1))).hasSize(ROW_COUNT / FIRST_NAME_COUNT);
+		assertThat(userRepository.findByFirstNameAndEmail(firstName(1), email(1))).isPresent();
+		// A unique index lookup must beat a full scan of a million rows by far
+		assertThat(derivedEmail).isLessThan(exampleEmailNoIndex);
+		assertThat(derivedBoth).isLessThan(exampleBothNoIndex);
+		assertThat(derivedFirstName).isLessThan(exampleFirstNameNoIndex);
+	}
+
+	/**
+	 * @param search search of the user having the id it receives
+	 * @return average latency of given search, in milliseconds
+	 */
+	private double measure(final String name, final LongFunction<?> search) {
+		long id = 1;
+		for (int i = 0; i < WARMUP_ITERATIONS; i++, id += SEARCHED_ID_STEP) {
+			search.apply(id);
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++, id += SEARCHED_ID_STEP) {
+			search.apply(id);
+		}
+		final double averageMillis = (System.nanoTime() - start) / 1_000_000.0 / MEASURED_ITERATIONS;
+		LOGGER.info(String.format("%-50s : %10.3f ms", name, averageMillis));
+		return averageMillis;
+	}
+
+	/** First name of the loaded user having given id */
+	private static String firstName(final long id) {
+		return "First" + id % FIRST_NAME_COUNT;
+	}
+
+	/** Email of the loaded user having given id */
+	private static String email(final long id) {
+		return "user" + id + "@userapi.sbr";
+	}
+
+	private void dropIndexes() {
+		jdbcTemplate.execute("DROP INDEX IF EXISTS IDX_USER_FIRST_NAME");
+		jdbcTemplate.execute("DROP INDEX IF EXISTS UK_USER_EMAIL");
+	}
+
+	private void createIndexes() {
+		jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS IDX_USER_FIRST_NAME ON USER (first_name)");
+		jdbcTemplate.execute("CREATE UNIQUE INDEX IF NOT EXISTS UK_USER_EMAIL ON USER (email)");
+	}
+}
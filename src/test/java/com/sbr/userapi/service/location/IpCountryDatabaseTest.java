@@ -0,0 +1,104 @@
+package com.sbr.userapi.service.location;
+
+import static com.sbr.userapi.service.location.LocationTestConstants.AN_FR_IP;
+import static com.sbr.userapi.service.location.LocationTestConstants.FRANCE_COUNTRY_CODE_ISO_3166_1;
+import static com.sbr.userapi.service.location.LocationTestConstants.SWISSCOM_CH_IP;
+import static com.sbr.userapi.service.location.LocationTestConstants.SWITZERLAND_COUNTRY_CODE_ISO_3166_1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit test for {@link IpCountryDatabase}
+ * 
+ * @author sbrouet
+ *
+ */
+public class IpCountryDatabaseTest {
+
+	private static IpCountryDatabase database;
+
+	@BeforeAll
+	public static void loadDatabase() throws IOException {
+		try (InputStream csv = IpCountryDatabaseTest.class.getResourceAsStream("/location/ip-country-test.csv")) {
+			database = IpCountryDatabase.load(csv);
+		}
+	}
+
+	/**
+	 * Ranges in integer and dotted notation are loaded, ranges of unknown
+	 * countries and IPv6 ranges are skipped
+	 */
+	@Test
+	public void load_onlyValidIPv4RangesWithKnownCountryAreLoaded() {
+		assertThat(database.size()).isEqualTo(4);
+	}
+
+	@Test
+	public void findCountryCode_whenIpIsInsideARange_thenCountryIsFound() {
+		assertThat(database.findCountryCode(SWISSCOM_CH_IP)).contains(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		assertThat(database.findCountryCode(AN_FR_IP)).contains(FRANCE_COUNTRY_CODE_ISO_3166_1);
+		assertThat(database.findCountryCode("1.0.0.128")).contains("AU");
+	}
+
+	@Test
+	public void findCountryCode_whenIpIsARangeBound_thenCountryIsFound() {
+		assertThat(database.findCountryCode("1.0.0.0")).contains("AU");
+		assertThat(database.findCountryCode("1.0.0.255")).contains("AU");
+		assertThat(database.findCountryCode("1.0.1.0")).contains("CN");
+		assertThat(database.findCountryCode("1.0.3.255")).contains("CN");
+	}
+
+	@Test
+	public void findCountryCode_whenIpIsOutsideAnyRange_thenNoCountryIsFound() {
+		assertThat(database.findCountryCode("0.255.255.255")).isEmpty();
+		assertThat(database.findCountryCode("1.0.4.0")).isEmpty();
+		assertThat(database.findCountryCode("10.1.2.3")).isEmpty();
+		assertThat(database.findCountryCode("255.255.255.255")).isEmpty();
+	}
+
+	@Test
+	public void findCountryCode_whenIpIsIPv4MappedIPv6_thenCountryIsFound() {
+		assertThat(database.findCountryCode("::ffff:" + SWISSCOM_CH_IP)).contains(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+	}
+
+	@Test
+	public void findCountryCode_whenIpIsNotAValidIPv4_thenNoCountryIsFound() {
+		assertThat(database.findCountryCode("A.B.C.D")).isEmpty();
+		assertThat(database.findCountryCode("195.186.208")).isEmpty();
+		assertThat(database.findCountryCode("195.186.208.256")).isEmpty();
+		assertThat(database.findCountryCode("0:0:0:0:0:0:0:1")).isEmpty();
+		assertThat(database.findCountryCode(null)).isEmpty();
+	}
+
+	/**
+	 * Ranges which are not sorted by first address in the file can be found
+	 */
+	@Test
+	public void load_whenRangesAreNotSorted_thenAllRangesCanBeFound() throws IOException {
+		final IpCountryDatabase unsorted = IpCountryDatabase.load(new ByteArrayInputStream(
+				"195.186.0.0,195.186.255.255,CH\n1.0.1.0,1.0.3.255,CN\n90.8.0.0,90.8.255.255,FR"
+						.getBytes(StandardCharsets.UTF_8)));
+		assertThat(unsorted.findCountryCode(SWISSCOM_CH_IP)).contains(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		assertThat(unsorted.findCountryCode("1.0.2.0")).contains("CN");
+		assertThat(unsorted.findCountryCode(AN_FR_IP)).contains(FRANCE_COUNTRY_CODE_ISO_3166_1);
+	}
+
+	@Test
+	public void load_whenLineIsInvalid_thenAnExceptionIsThrown() {
+		assertThrows(IllegalArgumentException.class, () -> IpCountryDatabase
+				.load(new ByteArrayInputStream("1.0.3.255,1.0.1.0,CN".getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void empty_neverFindsAnyCountry() {
+		assertThat(IpCountryDatabase.EMPTY.findCountryCode(SWISSCOM_CH_IP)).isEmpty();
+	}
+}
@@ -6,11 +6,33 @@ import static com.sbr.userapi.service.location.LocationTestConstants.SWISSCOM_CH
 import static com.sbr.userapi.service.location.LocationTestConstants.SWITZERLAND_COUNTRY_CODE_ISO_3166_1;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.times;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringBootConfiguration;
@@ -24,9 +46,14 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.web.client.RestTemplate;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.sbr.userapi.configuration.ConfigurationBean;
 import com.sbr.userapi.exception.location.CannotComputeLocationException;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 /**
  * Unit test for {@link LocationService}
  * 
@@ -58,20 +85,52 @@ public class LocationServiceTest {
 		 * Create a LocationService with mocked dependencies
 		 * 
 		 * @param restTemplate mock is automatically injected by Spring
+		 * @param httpClient   mock is automatically injected by Spring
 		 * @return an initialized {@link LocationService}
 		 */
 		@Bean
-		public LocationService locationService(RestTemplate restTemplate, ConfigurationBean configurationBean) {
-			return new LocationService(restTemplate, configurationBean);
+		public LocationService locationService(RestTemplate restTemplate, HttpClient httpClient,
+				ConfigurationBean configurationBean, MeterRegistry meterRegistry) throws IOException {
+			return new LocationService(restTemplate, httpClient, configurationBean, createLocalDatabase(),
+					LocationService.createExternalServiceCache(configurationBean), meterRegistry);
+		}
+
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
 		}
 	}
 
+	/**
+	 * An IP address which is known by the local database used in tests, from
+	 * documentation range TEST-NET-1
+	 */
+	private static final String LOCAL_DATABASE_CH_IP = "192.0.2.10";
+
 	@Autowired
 	private LocationService locationService;
 
+	@Autowired
+	private ConfigurationBean configurationBean;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
 	@MockBean
 	private RestTemplate restTemplate;
 
+	@MockBean
+	private HttpClient httpClient;
+
+	/**
+	 * The Spring context, and so the cache of the tested {@link LocationService},
+	 * is shared by all tests
+	 */
+	@BeforeEach
+	public void clearCache() {
+		locationService.clearCountryCodeCache();
+	}
+
 	/**
 	 * Test method
 	 * {@link LocationService#buildCountryCodeRestServiceURLForIP(String)}
@@ -161,6 +220,332 @@ public class LocationServiceTest {
 		Mockito.verify(restTemplate, times(1)).getForEntity(IP_API_SERVICE_URL_FOR_AN_CH_IP, String.class);
 	}
 
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIP(String)} : a country
+	 * code returned by the external service is cached, so the service is called
+	 * only once for the same IP address
+	 */
+	@Test
+	public void getCountryCodeForIP_whenCalledTwiceForSameIp_externalServiceIsCalledOnce()
+			throws CannotComputeLocationException {
+		mockExternalServiceResponse(IP_API_SERVICE_URL_FOR_AN_CH_IP, HttpStatus.OK,
+				SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		final CacheStats statsBefore = locationService.getCountryCodeCacheStats();
+
+		// Test
+		assertThat(locationService.getCountryCodeForIP(SWISSCOM_CH_IP)).isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		assertThat(locationService.getCountryCodeForIP(SWISSCOM_CH_IP)).isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		Mockito.verify(restTemplate, times(1)).getForEntity(IP_API_SERVICE_URL_FOR_AN_CH_IP, String.class);
+
+		final CacheStats stats = locationService.getCountryCodeCacheStats().minus(statsBefore);
+		assertThat(stats.missCount()).isEqualTo(1);
+		assertThat(stats.hitCount()).isEqualTo(1);
+		assertThat(stats.loadSuccessCount()).isEqualTo(1);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIP(String)} : an
+	 * "Undefined" answer from the external service is cached too, so the service
+	 * is called only once for the same IP address
+	 */
+	@Test
+	public void getCountryCodeForIP_whenExternalServiceAnswersUndefined_answerIsCached() {
+		mockExternalServiceResponse(IP_API_SERVICE_URL_FOR_AN_CH_IP, HttpStatus.OK,
+				LocationService.COUNTRY_UNDEFINED_RESPONSE_BODY);
+
+		// Test
+		assertThrows(CannotComputeLocationException.class, () -> {
+			locationService.getCountryCodeForIP(SWISSCOM_CH_IP);
+		});
+		assertThrows(CannotComputeLocationException.class, () -> {
+			locationService.getCountryCodeForIP(SWISSCOM_CH_IP);
+		});
+		Mockito.verify(restTemplate, times(1)).getForEntity(IP_API_SERVICE_URL_FOR_AN_CH_IP, String.class);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIP(String)} : a failure
+	 * of the external service is not cached, so the service is called again on
+	 * next lookup for the same IP address
+	 */
+	@Test
+	public void getCountryCodeForIP_whenExternalServiceFails_failureIsNotCached() {
+		mockExternalServiceResponse(IP_API_SERVICE_URL_FOR_AN_CH_IP, HttpStatus.INTERNAL_SERVER_ERROR, null);
+
+		// Test
+		assertThrows(CannotComputeLocationException.class, () -> {
+			locationService.getCountryCodeForIP(SWISSCOM_CH_IP);
+		});
+		assertThrows(CannotComputeLocationException.class, () -> {
+			locationService.getCountryCodeForIP(SWISSCOM_CH_IP);
+		});
+		Mockito.verify(restTemplate, times(2)).getForEntity(IP_API_SERVICE_URL_FOR_AN_CH_IP, String.class);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIP(String)} : an error
+	 * thrown by the call of the external service is not cached either, so next
+	 * lookups for the same IP address call the service again instead of waiting
+	 * forever
+	 */
+	@Test
+	public void getCountryCodeForIP_whenExternalServiceThrowsError_nextLookupCallsAgain()
+			throws CannotComputeLocationException {
+		ResponseEntity<String> mockResponse = Mockito.mock(ResponseEntity.class);
+		Mockito.when(mockResponse.getStatusCode()).thenReturn(HttpStatus.OK);
+		Mockito.when(mockResponse.getBody()).thenReturn(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		Mockito.when(restTemplate.getForEntity(IP_API_SERVICE_URL_FOR_AN_CH_IP, String.class))
+				.thenThrow(new StackOverflowError()).thenReturn(mockResponse);
+
+		assertThrows(StackOverflowError.class, () -> {
+			locationService.getCountryCodeForIP(SWISSCOM_CH_IP);
+		});
+		assertThat(locationService.getCountryCodeForIP(SWISSCOM_CH_IP)).isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIP(String)} : many
+	 * concurrent lookups for the same IP address which is not in cache wait for a
+	 * single call to the external service
+	 */
+	@Test
+	public void getCountryCodeForIP_whenConcurrentLookupsForSameIp_externalServiceIsCalledOnce()
+			throws InterruptedException, ExecutionException {
+		final int threadCount = 200;
+		final CountDownLatch externalServiceCalled = new CountDownLatch(1);
+		final CountDownLatch releaseExternalService = new CountDownLatch(1);
+		ResponseEntity<String> mockResponse = Mockito.mock(ResponseEntity.class);
+		Mockito.when(mockResponse.getStatusCode()).thenReturn(HttpStatus.OK);
+		Mockito.when(mockResponse.getBody()).thenReturn(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		Mockito.when(restTemplate.getForEntity(IP_API_SERVICE_URL_FOR_AN_CH_IP, String.class)).thenAnswer(invocation -> {
+			externalServiceCalled.countDown();
+			// Keep the call pending so that all other lookups arrive meanwhile
+			releaseExternalService.await(10, TimeUnit.SECONDS);
+			return mockResponse;
+		});
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			final CountDownLatch allThreadsReady = new CountDownLatch(threadCount);
+			final List<Future<String>> results = new ArrayList<>(threadCount);
+			for (int i = 0; i < threadCount; i++) {
+				results.add(executor.submit(() -> {
+					allThreadsReady.countDown();
+					allThreadsReady.await();
+					return locationService.getCountryCodeForIP(SWISSCOM_CH_IP);
+				}));
+			}
+			assertThat(externalServiceCalled.await(10, TimeUnit.SECONDS)).isTrue();
+			// Give other threads time to block on the pending call
+			Thread.sleep(200);
+			releaseExternalService.countDown();
+
+			// Test
+			for (Future<String> result : results) {
+				assertThat(result.get()).isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Mockito.verify(restTemplate, times(1)).getForEntity(IP_API_SERVICE_URL_FOR_AN_CH_IP, String.class);
+	}
+
+	/**
+	 * Mock the response of the external Ip Api service for given url
+	 */
+	private void mockExternalServiceResponse(final String url, final HttpStatus status, final String body) {
+		ResponseEntity<String> mockResponse = Mockito.mock(ResponseEntity.class);
+		Mockito.when(mockResponse.getStatusCode()).thenReturn(status);
+		Mockito.when(mockResponse.getBody()).thenReturn(body);
+		Mockito.when(restTemplate.getForEntity(url, String.class)).thenReturn(mockResponse);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIP(String)} for an IP
+	 * address known by the local database : the external service should not be
+	 * called
+	 */
+	@Test
+	public void getCountryCodeForIP_whenIpIsInLocalDatabase_externalServiceIsNotCalled()
+			throws CannotComputeLocationException {
+		assertThat(locationService.getCountryCodeForIP(LOCAL_DATABASE_CH_IP))
+				.isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		Mockito.verifyNoInteractions(restTemplate);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIP(String)} for an IP
+	 * address unknown by the local database when the external service fallback is
+	 * disabled : an exception should be raised without calling the external
+	 * service
+	 */
+	@Test
+	public void getCountryCodeForIP_whenIpIsNotInLocalDatabaseAndFallbackDisabled_ShouldRaiseException()
+			throws IOException {
+		final ConfigurationBean noFallbackConfiguration = new ConfigurationBean();
+		noFallbackConfiguration.setIpAPIUrlTemplate(configurationBean.getIpAPIUrlTemplate());
+		noFallbackConfiguration.setIpAPIFallbackEnabled(false);
+		final LocationService noFallbackLocationService = new LocationService(restTemplate, httpClient,
+				noFallbackConfiguration, createLocalDatabase(),
+				LocationService.createExternalServiceCache(configurationBean), meterRegistry);
+
+		assertThrows(CannotComputeLocationException.class, () -> {
+			noFallbackLocationService.getCountryCodeForIP(AN_FR_IP);
+		});
+		Mockito.verifyNoInteractions(restTemplate);
+	}
+
+	/**
+	 * Test method {@link LocationService#isCallerFromSwitzerlandAsync(String)} for
+	 * an IP address from Switzerland with a mocked response from the Ip Api
+	 * external service, requested with the non blocking client
+	 */
+	@Test
+	public void isCallerFromSwitzerlandAsync_whenExternalServiceAnswersSwitzerland_true() {
+		mockAsyncExternalServiceResponse(CompletableFuture
+				.completedFuture(mockHttpResponse(HttpStatus.OK, SWITZERLAND_COUNTRY_CODE_ISO_3166_1)));
+
+		// Test
+		assertThat(locationService.isCallerFromSwitzerlandAsync(SWISSCOM_CH_IP).join()).isTrue();
+		final ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+		Mockito.verify(httpClient, times(1)).sendAsync(request.capture(),
+				Mockito.<HttpResponse.BodyHandler<String>>any());
+		assertThat(request.getValue().uri()).isEqualTo(URI.create(IP_API_SERVICE_URL_FOR_AN_CH_IP));
+		Mockito.verifyNoInteractions(restTemplate);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIPAsync(String)} : the
+	 * lookups arriving while the external service call is pending share it, and
+	 * the answer is then cached for the synchronous lookups too
+	 */
+	@Test
+	public void getCountryCodeForIPAsync_whenConcurrentLookupsForSameIp_externalServiceIsCalledOnce()
+			throws CannotComputeLocationException {
+		final CompletableFuture<HttpResponse<String>> pendingResponse = new CompletableFuture<>();
+		mockAsyncExternalServiceResponse(pendingResponse);
+
+		final CompletableFuture<String> first = locationService.getCountryCodeForIPAsync(SWISSCOM_CH_IP);
+		final CompletableFuture<String> second = locationService.getCountryCodeForIPAsync(SWISSCOM_CH_IP);
+		assertThat(first).isNotDone();
+		pendingResponse.complete(mockHttpResponse(HttpStatus.OK, SWITZERLAND_COUNTRY_CODE_ISO_3166_1));
+
+		// Test
+		assertThat(first.join()).isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		assertThat(second.join()).isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		assertThat(locationService.getCountryCodeForIP(SWISSCOM_CH_IP)).isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		Mockito.verify(httpClient, times(1)).sendAsync(any(HttpRequest.class),
+				Mockito.<HttpResponse.BodyHandler<String>>any());
+		Mockito.verifyNoInteractions(restTemplate);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIPAsync(String)} : a
+	 * failure of the external service completes the lookup with a
+	 * {@link CannotComputeLocationException} and is not cached
+	 */
+	@Test
+	public void getCountryCodeForIPAsync_whenExternalServiceFails_failureIsNotCached() {
+		mockAsyncExternalServiceResponse(CompletableFuture.failedFuture(new HttpTimeoutException("request timed out")));
+
+		// Test
+		for (int i = 0; i < 2; i++) {
+			final CompletionException exception = assertThrows(CompletionException.class,
+					() -> locationService.getCountryCodeForIPAsync(SWISSCOM_CH_IP).join());
+			assertThat(exception.getCause()).isInstanceOf(CannotComputeLocationException.class)
+					.hasRootCauseInstanceOf(HttpTimeoutException.class);
+		}
+		Mockito.verify(httpClient, times(2)).sendAsync(any(HttpRequest.class),
+				Mockito.<HttpResponse.BodyHandler<String>>any());
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIPAsync(String)} for an
+	 * IP address known by the local database : the lookup is completed at once
+	 * without calling the external service
+	 */
+	@Test
+	public void getCountryCodeForIPAsync_whenIpIsInLocalDatabase_externalServiceIsNotCalled() {
+		final CompletableFuture<String> country = locationService.getCountryCodeForIPAsync(LOCAL_DATABASE_CH_IP);
+
+		// Test
+		assertThat(country).isCompletedWithValue(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		Mockito.verifyNoInteractions(httpClient, restTemplate);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIP(String)} : the lookup
+	 * and the call to the external service are timed, tagged with their outcome
+	 */
+	@Test
+	public void getCountryCodeForIP_whenExternalServiceFails_lookupAndCallAreTimedAsErrors() {
+		mockExternalServiceResponse(IP_API_SERVICE_URL_FOR_AN_CH_IP, HttpStatus.INTERNAL_SERVER_ERROR, null);
+		final long lookupsBefore = timerCount(LocationService.LOOKUP_TIMER_NAME, "sync", "error");
+		final long callsBefore = timerCount(LocationService.IP_API_TIMER_NAME, "sync", "error");
+
+		// Test
+		assertThrows(CannotComputeLocationException.class, () -> {
+			locationService.getCountryCodeForIP(SWISSCOM_CH_IP);
+		});
+		assertThat(timerCount(LocationService.LOOKUP_TIMER_NAME, "sync", "error")).isEqualTo(lookupsBefore + 1);
+		assertThat(timerCount(LocationService.IP_API_TIMER_NAME, "sync", "error")).isEqualTo(callsBefore + 1);
+	}
+
+	/**
+	 * Test method {@link LocationService#getCountryCodeForIPAsync(String)} : the
+	 * lookup is timed until its future is completed, and an IP address known by
+	 * the local database does not time any call to the external service
+	 */
+	@Test
+	public void getCountryCodeForIPAsync_whenIpIsInLocalDatabase_onlyLookupIsTimed() {
+		final long lookupsBefore = timerCount(LocationService.LOOKUP_TIMER_NAME, "async", "success");
+		final long callsBefore = timerCount(LocationService.IP_API_TIMER_NAME, "async", "success");
+
+		// Test
+		assertThat(locationService.getCountryCodeForIPAsync(LOCAL_DATABASE_CH_IP).join())
+				.isEqualTo(SWITZERLAND_COUNTRY_CODE_ISO_3166_1);
+		assertThat(timerCount(LocationService.LOOKUP_TIMER_NAME, "async", "success")).isEqualTo(lookupsBefore + 1);
+		assertThat(timerCount(LocationService.IP_API_TIMER_NAME, "async", "success")).isEqualTo(callsBefore);
+	}
+
+	/**
+	 * @return number of events recorded by the timer with given name and tags, 0
+	 *         when the timer is not registered yet
+	 */
+	private long timerCount(final String name, final String mode, final String outcome) {
+		final Timer timer = meterRegistry.find(name).tag("mode", mode)
+				.tag("outcome", outcome).timer();
+		return null == timer ? 0 : timer.count();
+	}
+
+	/**
+	 * Mock the answer of the Ip Api external service to the non blocking client
+	 */
+	private void mockAsyncExternalServiceResponse(final CompletableFuture<HttpResponse<String>> response) {
+		Mockito.when(httpClient.sendAsync(any(HttpRequest.class), Mockito.<HttpResponse.BodyHandler<String>>any()))
+				.thenReturn(response);
+	}
+
+	/**
+	 * @return a mocked response of the Ip Api external service to the non blocking
+	 *         client
+	 */
+	@SuppressWarnings("unchecked")
+	private static HttpResponse<String> mockHttpResponse(final HttpStatus status, final String body) {
+		final HttpResponse<String> response = Mockito.mock(HttpResponse.class);
+		Mockito.when(response.statusCode()).thenReturn(status.value());
+		Mockito.when(response.body()).thenReturn(body);
+		return response;
+	}
+
+	/**
+	 * @return a local database which only knows {@link #LOCAL_DATABASE_CH_IP}
+	 */
+	private static IpCountryDatabase createLocalDatabase() throws IOException {
+		return IpCountryDatabase
+				.load(new ByteArrayInputStream("192.0.2.0,192.0.2.255,CH".getBytes(StandardCharsets.UTF_8)));
+	}
+
 	/**
 	 * Test method {@link LocationService#isCallerFromSwitzerland(String)} : IP
 	 * address is expected to be detected as from Switzerland
@@ -0,0 +1,312 @@
+package com.sbr.userapi.service.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.messaging.processor.MessageProcessor;
+import com.sbr.userapi.model.messaging.Message;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Unit test for {@link AsyncMessagePublisher}
+ * 
+ * @author sbrouet
+ *
+ */
+public class AsyncMessagePublisherTest {
+
+	private static final int QUEUE_CAPACITY = 2;
+
+	private MessageProcessor messageProcessor;
+
+	private MessageChannel mockMessageChannel;
+
+	/** User ids of the messages sent to the message channel, in order */
+	private List<Long> sentUserIds;
+
+	private MeterRegistry meterRegistry;
+
+	private AsyncMessagePublisher publisher;
+
+	@BeforeEach
+	public void setUp() {
+		sentUserIds = new CopyOnWriteArrayList<>();
+		mockMessageChannel = Mockito.mock(MessageChannel.class);
+		Mockito.when(mockMessageChannel.send(any(org.springframework.messaging.Message.class), anyLong()))
+				.then(invocation -> {
+					final org.springframework.messaging.Message<Message> sent = invocation.getArgument(0);
+					sentUserIds.add(sent.getPayload().getUserId());
+					return true;
+				});
+		messageProcessor = Mockito.mock(MessageProcessor.class);
+		Mockito.when(messageProcessor.mainChannel()).thenReturn(mockMessageChannel);
+		meterRegistry = new SimpleMeterRegistry();
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		if (null != publisher) {
+			publisher.stop();
+		}
+	}
+
+	/**
+	 * Messages are sent in order once the publisher runs, and the flush latency is
+	 * recorded
+	 */
+	@Test
+	public void enqueue_whenPublisherIsStarted_messagesAreSentInOrder()
+			throws CouldNotSendMessageBusMessage, InterruptedException {
+		final CountDownLatch allSent = new CountDownLatch(5);
+		Mockito.when(mockMessageChannel.send(any(org.springframework.messaging.Message.class), anyLong()))
+				.then(invocation -> {
+					final org.springframework.messaging.Message<Message> sent = invocation.getArgument(0);
+					sentUserIds.add(sent.getPayload().getUserId());
+					allSent.countDown();
+					return true;
+				});
+		// More messages than the queue capacity : callers wait for the publisher
+		publisher = createPublisher(BackpressurePolicy.BLOCK, 10, 5000);
+		publisher.start();
+
+		for (long userId = 1; userId <= 5; userId++) {
+			publisher.enqueue(createMessage(userId));
+		}
+
+		assertThat(allSent.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(sentUserIds).containsExactly(1L, 2L, 3L, 4L, 5L);
+		assertThat(meterRegistry.get("messaging.async.flush").timer().count()).isPositive();
+	}
+
+	/**
+	 * Messages still in the queue are sent when the publisher is stopped
+	 */
+	@Test
+	public void stop_messagesInQueueAreSent() throws CouldNotSendMessageBusMessage, InterruptedException {
+		publisher = createPublisher(BackpressurePolicy.FAIL_FAST, 10);
+		publisher.start();
+		publisher.enqueue(createMessage(1L));
+		publisher.enqueue(createMessage(2L));
+
+		publisher.stop();
+
+		assertThat(sentUserIds).containsExactly(1L, 2L);
+		assertThat(publisher.getQueueDepth()).isEqualTo(0);
+	}
+
+	@Test
+	public void enqueue_whenQueueIsFullAndFailFast_messageIsRejected() throws CouldNotSendMessageBusMessage {
+		publisher = createPublisher(BackpressurePolicy.FAIL_FAST, 10);
+		fillQueue();
+
+		assertThrows(CouldNotSendMessageBusMessage.class, () -> publisher.enqueue(createMessage(3L)));
+		assertThat(publisher.getQueueDepth()).isEqualTo(QUEUE_CAPACITY);
+		assertThat(meterRegistry.get("messaging.async.queue.depth").gauge().value()).isEqualTo(QUEUE_CAPACITY);
+	}
+
+	@Test
+	public void enqueue_whenQueueIsFullAndBlock_messageIsRejectedAfterTimeout() throws CouldNotSendMessageBusMessage {
+		publisher = createPublisher(BackpressurePolicy.BLOCK, 10);
+		fillQueue();
+
+		final long start = System.nanoTime();
+		assertThrows(CouldNotSendMessageBusMessage.class, () -> publisher.enqueue(createMessage(3L)));
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(50);
+		assertThat(publisher.getQueueDepth()).isEqualTo(QUEUE_CAPACITY);
+	}
+
+	/**
+	 * With the drop oldest policy, the oldest message is replaced by the new one
+	 * and the number of dropped messages is recorded
+	 */
+	@Test
+	public void enqueue_whenQueueIsFullAndDropOldest_oldestMessageIsDropped()
+			throws CouldNotSendMessageBusMessage, InterruptedException {
+		publisher = createPublisher(BackpressurePolicy.DROP_OLDEST, 10);
+		fillQueue();
+
+		publisher.enqueue(createMessage(3L));
+		assertThat(publisher.getQueueDepth()).isEqualTo(QUEUE_CAPACITY);
+		assertThat(meterRegistry.get("messaging.async.dropped").counter().count()).isEqualTo(1);
+
+		publisher.start();
+		publisher.stop();
+		assertThat(sentUserIds).containsExactly(2L, 3L);
+	}
+
+	/**
+	 * In a transaction, a message takes its slot at once but is only queued once
+	 * the transaction is committed
+	 */
+	@Test
+	public void enqueue_whenInTransaction_messageIsQueuedAfterCommit()
+			throws CouldNotSendMessageBusMessage, InterruptedException {
+		publisher = createPublisher(BackpressurePolicy.FAIL_FAST, 10);
+		TransactionSynchronizationManager.initSynchronization();
+		publisher.enqueue(createMessage(1L));
+		publisher.enqueue(createMessage(2L));
+
+		assertThat(publisher.getQueueDepth()).isZero();
+		// The slots are taken : the backpressure policy applies inside the transaction
+		assertThrows(CouldNotSendMessageBusMessage.class, () -> publisher.enqueue(createMessage(3L)));
+
+		TransactionSynchronizationManager.getSynchronizations().forEach(
+				synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		assertThat(publisher.getQueueDepth()).isEqualTo(QUEUE_CAPACITY);
+		publisher.start();
+		publisher.stop();
+		assertThat(sentUserIds).containsExactly(1L, 2L);
+	}
+
+	/**
+	 * The message of a rolled back transaction is never sent, and its slot is
+	 * freed
+	 */
+	@Test
+	public void enqueue_whenTransactionIsRolledBack_messageIsNotSent()
+			throws CouldNotSendMessageBusMessage, InterruptedException {
+		publisher = createPublisher(BackpressurePolicy.FAIL_FAST, 10);
+		TransactionSynchronizationManager.initSynchronization();
+		publisher.enqueue(createMessage(1L));
+		TransactionSynchronizationManager.getSynchronizations().forEach(
+				synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+		TransactionSynchronizationManager.clearSynchronization();
+
+		fillQueue();
+		publisher.start();
+		publisher.stop();
+		assertThat(sentUserIds).containsExactly(1L, 2L);
+	}
+
+	/**
+	 * With the drop oldest policy, when all the slots are taken by transactions not
+	 * committed yet, there is no message to drop : the caller waits for a slot
+	 */
+	@Test
+	public void enqueue_whenSlotsTakenByTransactionsAndDropOldest_messageIsRejectedAfterTimeout()
+			throws CouldNotSendMessageBusMessage {
+		publisher = createPublisher(BackpressurePolicy.DROP_OLDEST, 10);
+		TransactionSynchronizationManager.initSynchronization();
+		fillQueue();
+		TransactionSynchronizationManager.clearSynchronization();
+
+		assertThrows(CouldNotSendMessageBusMessage.class, () -> publisher.enqueue(createMessage(3L)));
+		assertThat(meterRegistry.get("messaging.async.dropped").counter().count()).isZero();
+	}
+
+	/**
+	 * The depth of the queue never goes below zero while messages are queued and
+	 * sent concurrently
+	 */
+	@Test
+	public void enqueue_whenQueuedAndSentConcurrently_depthIsNeverNegative() throws InterruptedException {
+		publisher = createPublisher(BackpressurePolicy.BLOCK, 1, 5000);
+		publisher.start();
+		final AtomicBoolean enqueueing = new AtomicBoolean(true);
+		final AtomicInteger minDepth = new AtomicInteger();
+		final Thread sampler = new Thread(() -> {
+			while (enqueueing.get()) {
+				minDepth.accumulateAndGet(publisher.getQueueDepth(), Math::min);
+			}
+		});
+		sampler.start();
+		final Thread[] producers = new Thread[4];
+		for (int i = 0; i < producers.length; i++) {
+			producers[i] = new Thread(() -> {
+				for (long userId = 1; userId <= 2000; userId++) {
+					try {
+						publisher.enqueue(createMessage(userId));
+					} catch (CouldNotSendMessageBusMessage e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			producers[i].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		publisher.stop();
+		enqueueing.set(false);
+		sampler.join();
+
+		assertThat(minDepth.get()).isZero();
+		assertThat(sentUserIds).hasSize(producers.length * 2000);
+		assertThat(publisher.getQueueDepth()).isZero();
+	}
+
+	/**
+	 * A message which could not be sent is counted and does not stop the
+	 * publisher
+	 */
+	@Test
+	public void flush_whenMessageBusFails_failureIsCountedAndNextMessagesAreSent()
+			throws CouldNotSendMessageBusMessage, InterruptedException {
+		Mockito.when(mockMessageChannel.send(any(org.springframework.messaging.Message.class), anyLong()))
+				.thenReturn(false).then(invocation -> {
+					final org.springframework.messaging.Message<Message> sent = invocation.getArgument(0);
+					sentUserIds.add(sent.getPayload().getUserId());
+					return true;
+				});
+		publisher = createPublisher(BackpressurePolicy.FAIL_FAST, 10);
+		fillQueue();
+
+		publisher.start();
+		publisher.stop();
+		assertThat(sentUserIds).containsExactly(2L);
+		assertThat(meterRegistry.get("messaging.async.failed").counter().count()).isEqualTo(1);
+	}
+
+	/**
+	 * Put {@link #QUEUE_CAPACITY} messages in the queue, about users 1, 2...
+	 */
+	private void fillQueue() throws CouldNotSendMessageBusMessage {
+		for (long userId = 1; userId <= QUEUE_CAPACITY; userId++) {
+			publisher.enqueue(createMessage(userId));
+		}
+	}
+
+	private AsyncMessagePublisher createPublisher(final BackpressurePolicy backpressurePolicy, final long linger) {
+		return createPublisher(backpressurePolicy, linger, 50);
+	}
+
+	private AsyncMessagePublisher createPublisher(final BackpressurePolicy backpressurePolicy, final long linger,
+			final long blockTimeout) {
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setMessageDeliveryMode(MessageDeliveryMode.ASYNC);
+		configurationBean.setAsyncQueueCapacity(QUEUE_CAPACITY);
+		configurationBean.setAsyncBatchSize(QUEUE_CAPACITY);
+		configurationBean.setAsyncLinger(linger);
+		configurationBean.setAsyncBackpressurePolicy(backpressurePolicy);
+		configurationBean.setAsyncBlockTimeout(blockTimeout);
+		return new AsyncMessagePublisher(messageProcessor, configurationBean, meterRegistry);
+	}
+
+	private static Message createMessage(final Long userId) {
+		return new Message(System.currentTimeMillis(), userId, Message.Type.USER_CREATED);
+	}
+}
@@ -6,6 +6,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.times;
 
+import java.util.List;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -19,10 +21,13 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.sbr.userapi.configuration.ConfigurationBean;
 import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
 import com.sbr.userapi.exception.location.CannotComputeLocationException;
 import com.sbr.userapi.messaging.processor.MessageProcessor;
 import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.model.messaging.OutboxMessage;
+import com.sbr.userapi.repository.OutboxMessageRepository;
 
 /**
  * Unit test for {@link MessageService}
@@ -46,17 +51,28 @@ public class MessageServiceTest {
 	@MockBean
 	private MessageProcessor messageProcessor;
 
+	@MockBean
+	private OutboxMessageRepository outboxMessageRepository;
+
+	@MockBean
+	private AsyncMessagePublisher asyncMessagePublisher;
+
 	@TestConfiguration
 	static class MessageServiceTestContextConfiguration {
 		/**
-		 * Create a MessageService with mocked dependencies
+		 * Create a MessageService with mocked dependencies, which sends messages
+		 * directly to the message bus
 		 * 
-		 * @param messageProcessor mock is automatically injected by Spring
+		 * @param messageProcessor        mock is automatically injected by Spring
+		 * @param outboxMessageRepository mock is automatically injected by Spring
+		 * @param asyncMessagePublisher   mock is automatically injected by Spring
 		 * @return an initialized {@link MessageService}
 		 */
 		@Bean
-		public MessageService messageService(MessageProcessor messageProcessor) {
-			return new MessageService(messageProcessor);
+		public MessageService messageService(MessageProcessor messageProcessor,
+				OutboxMessageRepository outboxMessageRepository, AsyncMessagePublisher asyncMessagePublisher) {
+			return new MessageService(messageProcessor, outboxMessageRepository, asyncMessagePublisher,
+					createConfiguration(MessageDeliveryMode.SYNC));
 		}
 	}
 
@@ -106,6 +122,80 @@ public class MessageServiceTest {
 		assertMessageBusWasCalled(messageType, userId);
 	}
 
+	@Test
+	public void sendMessage_whenDeliveryModeIsOutbox_messageIsStoredInOutboxAndNotSent()
+			throws CouldNotSendMessageBusMessage {
+		final MessageService outboxMessageService = new MessageService(messageProcessor, outboxMessageRepository,
+				asyncMessagePublisher, createConfiguration(MessageDeliveryMode.OUTBOX));
+		Mockito.when(outboxMessageRepository.save(any(OutboxMessage.class)))
+				.then(invocation -> invocation.getArgument(0));
+
+		outboxMessageService.sendMessage(Message.Type.USER_DELETED, 99L);
+
+		final ArgumentCaptor<OutboxMessage> argument = ArgumentCaptor.forClass(OutboxMessage.class);
+		Mockito.verify(outboxMessageRepository, times(1)).save(argument.capture());
+		assertThat(argument.getValue().getType()).isEqualTo(Message.Type.USER_DELETED);
+		assertThat(argument.getValue().getUserId()).isEqualTo(99L);
+		assertThat(argument.getValue().getTimeStamp()).isPositive();
+		Mockito.verifyNoInteractions(mockMessageChannel);
+	}
+
+	@Test
+	public void sendMessage_whenManyUsersAndDeliveryModeIsOutbox_oneMessageWithAllUserIdsIsStored()
+			throws CouldNotSendMessageBusMessage {
+		final MessageService outboxMessageService = new MessageService(messageProcessor, outboxMessageRepository,
+				asyncMessagePublisher, createConfiguration(MessageDeliveryMode.OUTBOX));
+		Mockito.when(outboxMessageRepository.save(any(OutboxMessage.class)))
+				.then(invocation -> invocation.getArgument(0));
+
+		outboxMessageService.sendMessage(Message.Type.USERS_CREATED, List.of(97L, 98L, 99L));
+
+		final ArgumentCaptor<OutboxMessage> argument = ArgumentCaptor.forClass(OutboxMessage.class);
+		Mockito.verify(outboxMessageRepository, times(1)).save(argument.capture());
+		final Message stored = argument.getValue().toMessage();
+		assertThat(stored.getType()).isEqualTo(Message.Type.USERS_CREATED);
+		assertThat(stored.getUserIds()).containsExactly(97L, 98L, 99L);
+		assertThat(stored.getUserId()).isNull();
+		Mockito.verifyNoInteractions(mockMessageChannel);
+	}
+
+	@Test
+	public void sendMessage_whenDeliveryModeIsAsync_messageIsQueuedAndNotSent() throws CouldNotSendMessageBusMessage {
+		final MessageService asyncMessageService = new MessageService(messageProcessor, outboxMessageRepository,
+				asyncMessagePublisher, createConfiguration(MessageDeliveryMode.ASYNC));
+
+		asyncMessageService.sendMessage(Message.Type.USER_CREATED, 99L);
+
+		final ArgumentCaptor<Message> argument = ArgumentCaptor.forClass(Message.class);
+		Mockito.verify(asyncMessagePublisher, times(1)).enqueue(argument.capture());
+		assertThat(argument.getValue().getType()).isEqualTo(Message.Type.USER_CREATED);
+		assertThat(argument.getValue().getUserId()).isEqualTo(99L);
+		Mockito.verifyNoInteractions(mockMessageChannel, outboxMessageRepository);
+	}
+
+	@Test
+	public void publishMessage_whenToMainChannelIsWorking_messageIsSentWhateverTheDeliveryMode()
+			throws CouldNotSendMessageBusMessage {
+		final MessageService outboxMessageService = new MessageService(messageProcessor, outboxMessageRepository,
+				asyncMessagePublisher, createConfiguration(MessageDeliveryMode.OUTBOX));
+		Mockito.when(mockMessageChannel.send(any(org.springframework.messaging.Message.class), anyLong()))
+				.thenReturn(true);
+
+		outboxMessageService.publishMessage(new Message(1L, 99L, Message.Type.USER_UPDATED));
+		assertMessageBusWasCalled(Message.Type.USER_UPDATED, 99L);
+		Mockito.verifyNoInteractions(outboxMessageRepository);
+	}
+
+	/**
+	 * @param deliveryMode the message delivery mode
+	 * @return a configuration with given message delivery mode
+	 */
+	private static ConfigurationBean createConfiguration(final MessageDeliveryMode deliveryMode) {
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setMessageDeliveryMode(deliveryMode);
+		return configurationBean;
+	}
+
 	/**
 	 * Assert that a {@link Message} has been sent to the message bus with expected
 	 * contents
@@ -0,0 +1,115 @@
+package com.sbr.userapi.service.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.model.messaging.OutboxMessage;
+import com.sbr.userapi.repository.OutboxMessageRepository;
+
+/**
+ * Unit test for {@link OutboxRelay}
+ * 
+ * @author sbrouet
+ *
+ */
+public class OutboxRelayTest {
+
+	private static final int BATCH_SIZE = 2;
+
+	private OutboxMessageRepository outboxMessageRepository;
+
+	private MessageService messageService;
+
+	private OutboxRelay outboxRelay;
+
+	@BeforeEach
+	public void setUp() {
+		outboxMessageRepository = Mockito.mock(OutboxMessageRepository.class);
+		messageService = Mockito.mock(MessageService.class);
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setOutboxRelayBatchSize(BATCH_SIZE);
+		outboxRelay = new OutboxRelay(outboxMessageRepository, messageService,
+				TransactionOperations.withoutTransaction(), configurationBean);
+	}
+
+	@Test
+	public void relayPendingMessages_whenOutboxIsEmpty_nothingIsSent() throws CouldNotSendMessageBusMessage {
+		Mockito.when(outboxMessageRepository.findOldestForUpdate(any(Pageable.class)))
+				.thenReturn(Collections.emptyList());
+
+		assertThat(outboxRelay.relayPendingMessages()).isEqualTo(0);
+		Mockito.verify(messageService, Mockito.never()).publishMessage(any(Message.class));
+		Mockito.verify(outboxMessageRepository, Mockito.never()).deleteInBatch(any());
+	}
+
+	/**
+	 * All batches are sent in order and each batch is deleted once sent, until a
+	 * batch is not full
+	 */
+	@Test
+	public void relayPendingMessages_whenMessageBusIsWorking_allBatchesAreSentInOrderAndDeleted()
+			throws CouldNotSendMessageBusMessage {
+		final List<OutboxMessage> firstBatch = List.of(createOutboxMessage(1L), createOutboxMessage(2L));
+		final List<OutboxMessage> secondBatch = List.of(createOutboxMessage(3L));
+		Mockito.when(outboxMessageRepository.findOldestForUpdate(any(Pageable.class))).thenReturn(firstBatch,
+				secondBatch);
+
+		assertThat(outboxRelay.relayPendingMessages()).isEqualTo(3);
+
+		final ArgumentCaptor<Message> sent = ArgumentCaptor.forClass(Message.class);
+		Mockito.verify(messageService, times(3)).publishMessage(sent.capture());
+		assertThat(sent.getAllValues()).extracting(Message::getUserId).containsExactly(1L, 2L, 3L);
+		final InOrder inOrder = Mockito.inOrder(outboxMessageRepository);
+		inOrder.verify(outboxMessageRepository).deleteInBatch(firstBatch);
+		inOrder.verify(outboxMessageRepository).deleteInBatch(secondBatch);
+		Mockito.verify(outboxMessageRepository, times(2)).findOldestForUpdate(any(Pageable.class));
+	}
+
+	/**
+	 * When the message bus fails, only the messages sent before are deleted and the
+	 * relay stops
+	 */
+	@Test
+	public void relayPendingMessages_whenMessageBusFails_onlySentMessagesAreDeletedAndRelayStops()
+			throws CouldNotSendMessageBusMessage {
+		final OutboxMessage first = createOutboxMessage(1L);
+		final OutboxMessage second = createOutboxMessage(2L);
+		Mockito.when(outboxMessageRepository.findOldestForUpdate(any(Pageable.class)))
+				.thenReturn(List.of(first, second));
+		Mockito.doNothing().doThrow(new CouldNotSendMessageBusMessage("bus down")).when(messageService)
+				.publishMessage(any(Message.class));
+
+		assertThat(outboxRelay.relayPendingMessages()).isEqualTo(1);
+
+		final ArgumentCaptor<Iterable<OutboxMessage>> deleted = ArgumentCaptor.forClass(Iterable.class);
+		Mockito.verify(outboxMessageRepository, times(1)).deleteInBatch(deleted.capture());
+		final List<OutboxMessage> deletedMessages = new ArrayList<>();
+		deleted.getValue().forEach(deletedMessages::add);
+		assertThat(deletedMessages).containsExactly(first);
+		Mockito.verify(outboxMessageRepository, times(1)).findOldestForUpdate(any(Pageable.class));
+	}
+
+	/**
+	 * @param userId id of the user the message is about
+	 * @return a new outbox message about a created user
+	 */
+	private static OutboxMessage createOutboxMessage(final Long userId) {
+		return new OutboxMessage(new Message(System.currentTimeMillis(), userId, Message.Type.USER_CREATED));
+	}
+}
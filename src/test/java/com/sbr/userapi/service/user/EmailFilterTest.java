@@ -0,0 +1,199 @@
+package com.sbr.userapi.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.amqp.rabbit.listener.ConsumeOkEvent;
+import org.springframework.amqp.rabbit.listener.ListenerContainerConsumerFailedEvent;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.repository.UserRepository;
+import com.sbr.userapi.service.message.MessageDeliveryMode;
+import com.sbr.userapi.test.TestUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Unit test for {@link EmailFilter}
+ * 
+ * @author sbrouet
+ *
+ */
+public class EmailFilterTest {
+
+	private static final int EXPECTED_INSERTIONS = 1000;
+
+	private static final double FPP = 0.01;
+
+	private UserRepository userRepository;
+
+	private MeterRegistry meterRegistry;
+
+	private EmailFilter emailFilter;
+
+	@BeforeEach
+	public void setUp() {
+		userRepository = Mockito.mock(UserRepository.class);
+		Mockito.when(userRepository.streamAll())
+				.thenReturn(Stream.of(TestUtils.createTestUserMichaelWithId(), TestUtils.createTestUserMarieWithId()));
+		emailFilter = createEmailFilter(MessageDeliveryMode.OUTBOX);
+	}
+
+	private EmailFilter createEmailFilter(final MessageDeliveryMode deliveryMode) {
+		meterRegistry = new SimpleMeterRegistry();
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setEmailFilterExpectedInsertions(EXPECTED_INSERTIONS);
+		configurationBean.setEmailFilterFpp(FPP);
+		configurationBean.setMessageDeliveryMode(deliveryMode);
+		final EmailFilter filter = new EmailFilter(userRepository, TransactionOperations.withoutTransaction(),
+				configurationBean, meterRegistry);
+		filter.load();
+		return filter;
+	}
+
+	/**
+	 * Emails of the loaded users are found whatever their case, and the lookups
+	 * are counted by answer
+	 */
+	@Test
+	public void mightContain_whenEmailWasLoadedThenItIsFound() {
+		assertThat(emailFilter.getEntries()).isEqualTo(2);
+		assertThat(emailFilter.mightContain(TestUtils.USER_MICHAEL_EMAIL)).isTrue();
+		assertThat(emailFilter.mightContain(TestUtils.USER_MARIE_EMAIL.toUpperCase())).isTrue();
+		assertThat(emailFilter.mightContain(TestUtils.UNKNOWN_EMAIL)).isFalse();
+		emailFilter.recordPositiveLookup(false);
+
+		assertThat(meterRegistry.get("users.email.filter.lookups").tag("result", "negative").counter().count())
+				.isEqualTo(1);
+		assertThat(meterRegistry.get("users.email.filter.lookups").tag("result", "false_positive").counter().count())
+				.isEqualTo(1);
+		assertThat(meterRegistry.get("users.email.filter.memory").gauge().value()).isPositive();
+		Mockito.verify(userRepository, Mockito.times(2)).detach(Mockito.any(User.class));
+	}
+
+	/**
+	 * Beyond its expected number of emails, the filter adds layers : all emails
+	 * are still found and the false positive rate stays below the configured one
+	 */
+	@Test
+	public void add_whenMoreEmailsThanExpectedThenFalsePositiveRateStaysBounded() {
+		final int added = EXPECTED_INSERTIONS * 10;
+		for (int i = 0; i < added; i++) {
+			emailFilter.add("user" + i + "@userapi.sbr");
+		}
+		assertThat(emailFilter.getLayerCount()).isGreaterThan(1);
+		for (int i = 0; i < added; i++) {
+			assertThat(emailFilter.mightContain("user" + i + "@userapi.sbr")).isTrue();
+		}
+
+		int falsePositives = 0;
+		final int lookups = 100_000;
+		for (int i = 0; i < lookups; i++) {
+			if (emailFilter.mightContain("unused" + i + "@userapi.sbr")) {
+				falsePositives++;
+			}
+		}
+		assertThat((double) falsePositives / lookups).isLessThan(FPP);
+		assertThat(emailFilter.getEstimatedFpp()).isLessThan(FPP);
+		assertThat(meterRegistry.get("users.email.filter.fpp").gauge().value()).isEqualTo(emailFilter.getEstimatedFpp());
+	}
+
+	/**
+	 * The emails of the users created or updated by other application instances
+	 * are added when their message is received
+	 */
+	@Test
+	public void onUserMessage_whenUsersCreatedThenTheirEmailsAreAdded() {
+		final User charles = TestUtils.createTestUserCharlesWithId();
+		Mockito.when(userRepository.findAllById(List.of(TestUtils.USER_CHARLES_ID))).thenReturn(List.of(charles));
+		assertThat(emailFilter.mightContain(charles.getEmail())).isFalse();
+
+		emailFilter.onUserMessage(new Message(1L, TestUtils.USER_MICHAEL_ID, Message.Type.USER_DELETED));
+		emailFilter.onUserMessage(new Message(1L, List.of(TestUtils.USER_CHARLES_ID), Message.Type.USERS_CREATED));
+
+		assertThat(emailFilter.mightContain(charles.getEmail())).isTrue();
+		Mockito.verify(userRepository, Mockito.times(1)).findAllById(Mockito.any());
+	}
+
+	/**
+	 * Before the emails of all users are loaded, the filter is not trusted and any
+	 * email might be used
+	 */
+	@Test
+	public void mightContain_whenNotLoadedThenAnyEmailMightBeUsed() {
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setEmailFilterExpectedInsertions(EXPECTED_INSERTIONS);
+		configurationBean.setEmailFilterFpp(FPP);
+		configurationBean.setMessageDeliveryMode(MessageDeliveryMode.OUTBOX);
+		final EmailFilter filter = new EmailFilter(userRepository, TransactionOperations.withoutTransaction(),
+				configurationBean, new SimpleMeterRegistry());
+
+		assertThat(filter.isTrusted()).isFalse();
+		assertThat(filter.mightContain(TestUtils.UNKNOWN_EMAIL)).isTrue();
+		Mockito.when(userRepository.streamAll()).thenReturn(Stream.of(TestUtils.createTestUserMichaelWithId()));
+		filter.onApplicationReady();
+		assertThat(filter.isTrusted()).isTrue();
+		assertThat(filter.mightContain(TestUtils.UNKNOWN_EMAIL)).isFalse();
+	}
+
+	/**
+	 * While the consumer of the user messages is disconnected, the messages of
+	 * other instances are lost : the filter is not trusted until it is connected
+	 * back and the emails of all users, including those written meanwhile, are
+	 * loaded again
+	 */
+	@Test
+	public void onConsumerStarted_whenConsumerWasDisconnectedThenEmailsAreLoadedAgain() throws InterruptedException {
+		final User charles = TestUtils.createTestUserCharlesWithId();
+		emailFilter.onConsumerFailed(new ListenerContainerConsumerFailedEvent(this, "connection lost", null, false));
+		assertThat(emailFilter.isTrusted()).isFalse();
+		assertThat(emailFilter.mightContain(charles.getEmail())).isTrue();
+		// A load while still disconnected does not make the filter trusted
+		Mockito.when(userRepository.streamAll()).thenReturn(Stream.empty());
+		emailFilter.load();
+		assertThat(emailFilter.isTrusted()).isFalse();
+
+		Mockito.when(userRepository.streamAll()).thenReturn(Stream.of(charles));
+		emailFilter.onConsumerStarted(new ConsumeOkEvent(this, "invalidation", "consumer"));
+
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (!emailFilter.isTrusted() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(emailFilter.isTrusted()).isTrue();
+		assertThat(emailFilter.mightContain(charles.getEmail())).isTrue();
+		assertThat(emailFilter.mightContain(TestUtils.USER_MICHAEL_EMAIL)).isTrue();
+		assertThat(emailFilter.mightContain(TestUtils.UNKNOWN_EMAIL)).isFalse();
+		emailFilter.stop();
+	}
+
+	/**
+	 * Without the outbox, the messages of other application instances may arrive
+	 * before their emails are committed or be dropped : the filter is not trusted
+	 * and any email might be used
+	 */
+	@Test
+	public void mightContain_whenDeliveryModeIsNotOutboxThenAnyEmailMightBeUsed() {
+		for (MessageDeliveryMode deliveryMode : List.of(MessageDeliveryMode.SYNC, MessageDeliveryMode.ASYNC)) {
+			Mockito.when(userRepository.streamAll()).thenReturn(Stream.of(TestUtils.createTestUserMichaelWithId()));
+			final EmailFilter filter = createEmailFilter(deliveryMode);
+
+			assertThat(filter.mightContain(TestUtils.USER_MICHAEL_EMAIL)).isTrue();
+			assertThat(filter.mightContain(TestUtils.UNKNOWN_EMAIL)).isTrue();
+			filter.recordPositiveLookup(false);
+			assertThat(meterRegistry.get("users.email.filter.lookups").tag("result", "negative").counter().count())
+					.isZero();
+			assertThat(meterRegistry.get("users.email.filter.lookups").tag("result", "false_positive").counter()
+					.count()).isZero();
+		}
+	}
+}
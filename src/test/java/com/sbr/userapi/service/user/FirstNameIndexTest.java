@@ -0,0 +1,191 @@
+package com.sbr.userapi.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.repository.UserRepository;
+import com.sbr.userapi.service.message.MessageDeliveryMode;
+import com.sbr.userapi.test.TestUtils;
+
+/**
+ * Unit test for {@link FirstNameIndex}
+ * 
+ * @author sbrouet
+ * 
+ */
+public class FirstNameIndexTest {
+
+	private UserRepository userRepository;
+
+	private FirstNameIndex firstNameIndex;
+
+	@BeforeEach
+	public void setUp() {
+		userRepository = Mockito.mock(UserRepository.class);
+		Mockito.when(userRepository.streamAll())
+				.thenReturn(Stream.of(TestUtils.createTestUserMichaelWithId(), TestUtils.createTestUserMarieWithId(),
+						new User(10L, "Émile", "emile@userapi.sbr", "password"),
+						new User(11L, "Emma", "emma@userapi.sbr", "password")));
+		firstNameIndex = createFirstNameIndex(MessageDeliveryMode.OUTBOX);
+		firstNameIndex.load();
+	}
+
+	private FirstNameIndex createFirstNameIndex(final MessageDeliveryMode deliveryMode) {
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setMessageDeliveryMode(deliveryMode);
+		return new FirstNameIndex(userRepository, TransactionOperations.withoutTransaction(), configurationBean);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	/**
+	 * Loading reads all users once and detaches them from the persistence context
+	 */
+	@Test
+	public void load_allUsersAreIndexed() {
+		assertThat(firstNameIndex.size()).isEqualTo(4);
+		Mockito.verify(userRepository, Mockito.times(4)).detach(Mockito.any(User.class));
+	}
+
+	/**
+	 * Prefixes match regardless of case and accents, suggestions are ordered by
+	 * normalized first name then id
+	 */
+	@Test
+	public void findByPrefix_ignoresCaseAndAccents() {
+		assertThat(firstNameIndex.findByPrefix("EM", 10)).extracting(UserSuggestion::getId).containsExactly(10L,
+				11L);
+		assertThat(firstNameIndex.findByPrefix("émi", 10)).extracting(UserSuggestion::getFirstName)
+				.containsExactly("Émile");
+		assertThat(firstNameIndex.findByPrefix("mar", 10)).extracting(UserSuggestion::getId)
+				.containsExactly(TestUtils.USER_MARIE_ID);
+		assertThat(firstNameIndex.findByPrefix("x", 10)).isEmpty();
+	}
+
+	@Test
+	public void findByPrefix_isLimitedToMaxResults() {
+		assertThat(firstNameIndex.findByPrefix("e", 1)).extracting(UserSuggestion::getId).containsExactly(10L);
+		assertThat(firstNameIndex.findByPrefix("", 10)).hasSize(4);
+	}
+
+	/**
+	 * A new first name replaces the previous one of the user, a removed user is not
+	 * suggested anymore
+	 */
+	@Test
+	public void putAndRemove_whenNoTransaction_indexIsUpdatedAtOnce() {
+		firstNameIndex.put(11L, "Marcel");
+		assertThat(firstNameIndex.findByPrefix("emm", 10)).isEmpty();
+		assertThat(firstNameIndex.findByPrefix("mar", 10)).extracting(UserSuggestion::getId)
+				.containsExactly(11L, TestUtils.USER_MARIE_ID);
+
+		firstNameIndex.remove(List.of(11L, TestUtils.USER_MARIE_ID));
+		assertThat(firstNameIndex.findByPrefix("mar", 10)).isEmpty();
+		assertThat(firstNameIndex.size()).isEqualTo(2);
+	}
+
+	/**
+	 * The users created, updated or deleted by other application instances are
+	 * indexed when their message is received, with the first names read from the
+	 * database
+	 */
+	@Test
+	public void onUserMessage_whenUsersChangedByAnotherInstanceThenIndexIsUpdated() {
+		Mockito.when(userRepository.findAllById(List.of(20L, 21L)))
+				.thenReturn(List.of(new User(20L, "Marcel", "marcel@userapi.sbr", "password")));
+		Mockito.when(userRepository.findAllById(List.of(11L)))
+				.thenReturn(List.of(new User(11L, "Martine", "emma@userapi.sbr", "password")));
+
+		// User 21 was deleted before the message was received
+		firstNameIndex.onUserMessage(new Message(1L, List.of(20L, 21L), Message.Type.USERS_CREATED));
+		firstNameIndex.onUserMessage(new Message(1L, 11L, Message.Type.USER_UPDATED));
+		firstNameIndex.onUserMessage(new Message(1L, TestUtils.USER_MARIE_ID, Message.Type.USER_DELETED));
+
+		assertThat(firstNameIndex.findByPrefix("mar", 10)).extracting(UserSuggestion::getId).containsExactly(20L,
+				11L);
+		assertThat(firstNameIndex.findByPrefix("emm", 10)).isEmpty();
+		assertThat(firstNameIndex.size()).isEqualTo(4);
+		Mockito.verify(userRepository, Mockito.times(2)).findAllById(Mockito.any());
+	}
+
+	/**
+	 * Without the outbox, a message may be received before its operation is
+	 * committed or rolled back : it is ignored, the operation is indexed by the
+	 * next rebuild
+	 */
+	@Test
+	public void onUserMessage_whenDeliveryModeIsNotOutboxThenMessageIsIgnored() {
+		for (MessageDeliveryMode deliveryMode : List.of(MessageDeliveryMode.SYNC, MessageDeliveryMode.ASYNC)) {
+			Mockito.when(userRepository.streamAll()).thenReturn(Stream.of(TestUtils.createTestUserMichaelWithId()));
+			final FirstNameIndex index = createFirstNameIndex(deliveryMode);
+			index.load();
+
+			index.onUserMessage(new Message(1L, TestUtils.USER_MICHAEL_ID, Message.Type.USER_DELETED));
+			index.onUserMessage(new Message(1L, List.of(20L), Message.Type.USERS_CREATED));
+
+			assertThat(index.size()).isEqualTo(1);
+		}
+		Mockito.verify(userRepository, Mockito.never()).findAllById(Mockito.any());
+	}
+
+	/**
+	 * A rebuild indexes the users whose message was missed and drops the deleted
+	 * ones, while keeping the updates made during the rebuild
+	 */
+	@Test
+	public void load_whenUsersUpdatedDuringRebuildThenUpdatesAreKept() {
+		// The database does not know yet the users updated after it was read
+		final Stream<User> users = Stream.of(TestUtils.createTestUserMichaelWithId(),
+				new User(11L, "Emma", "emma@userapi.sbr", "password"),
+				new User(20L, "Marcel", "marcel@userapi.sbr", "password"));
+		Mockito.when(userRepository.streamAll()).thenReturn(users.peek(user -> {
+			if (20L == user.getId()) {
+				firstNameIndex.put(11L, "Martine");
+				firstNameIndex.put(30L, "Zoe");
+				firstNameIndex.remove(TestUtils.USER_MICHAEL_ID);
+			}
+		}));
+
+		firstNameIndex.load();
+
+		assertThat(firstNameIndex.findByPrefix("", 10)).extracting(UserSuggestion::getFirstName)
+				.containsExactly("Marcel", "Martine", "Zoe");
+		// Updates after the rebuild apply to the rebuilt index
+		firstNameIndex.put(20L, "Emile");
+		assertThat(firstNameIndex.findByPrefix("", 10)).extracting(UserSuggestion::getFirstName)
+				.containsExactly("Emile", "Martine", "Zoe");
+	}
+
+	/**
+	 * In a transaction, the index is only updated once the transaction is
+	 * committed
+	 */
+	@Test
+	public void put_whenInTransaction_indexIsUpdatedAfterCommit() {
+		TransactionSynchronizationManager.initSynchronization();
+		firstNameIndex.put(List.of(10L, 11L), "Zoe");
+		assertThat(firstNameIndex.findByPrefix("zo", 10)).isEmpty();
+
+		TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+		assertThat(firstNameIndex.findByPrefix("zo", 10)).extracting(UserSuggestion::getId).containsExactly(10L,
+				11L);
+	}
+}
@@ -0,0 +1,185 @@
+package com.sbr.userapi.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.test.TestUtils;
+
+/**
+ * Unit test for {@link UserCache}
+ * 
+ * @author sbrouet
+ *
+ */
+public class UserCacheTest {
+
+	private UserCache userCache;
+
+	/** Number of calls to {@link #loader} */
+	private AtomicInteger loads;
+
+	/** Loads user Michael, counting the calls */
+	private Function<Long, User> loader;
+
+	@BeforeEach
+	public void setUp() {
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setUserCacheSize(100);
+		configurationBean.setUserCacheTtl(60);
+		userCache = new UserCache(UserCache.createCache(configurationBean));
+		loads = new AtomicInteger();
+		loader = id -> {
+			loads.incrementAndGet();
+			return TestUtils.createTestUserMichaelWithId();
+		};
+	}
+
+	@AfterEach
+	public void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	/**
+	 * Modifying a user returned by the cache does not modify the cached user
+	 */
+	@Test
+	public void get_returnsCopiesOfTheCachedUser() {
+		final User first = userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		first.setFirstName("Modified");
+
+		final User second = userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		assertThat(second.getFirstName()).isEqualTo(TestUtils.USER_MICHAEL_FIRST_NAME);
+		assertThat(loads.get()).isEqualTo(1);
+	}
+
+	/**
+	 * A user which does not exist is not cached
+	 */
+	@Test
+	public void get_whenUserDoesNotExist_nothingIsCached() {
+		assertThat(userCache.get(TestUtils.UNKNOWN_USER_ID, id -> {
+			loads.incrementAndGet();
+			return null;
+		})).isNull();
+		userCache.get(TestUtils.UNKNOWN_USER_ID, loader);
+		assertThat(loads.get()).isEqualTo(2);
+	}
+
+	/**
+	 * An error thrown by the loader is not cached : the next call for the user
+	 * loads it again instead of waiting forever
+	 */
+	@Test
+	public void get_whenLoaderThrowsError_nextCallLoadsAgain() {
+		assertThrows(StackOverflowError.class, () -> userCache.get(TestUtils.USER_MICHAEL_ID, id -> {
+			throw new StackOverflowError();
+		}));
+		assertThat(userCache.get(TestUtils.USER_MICHAEL_ID, loader)).isNotNull();
+		assertThat(loads.get()).isEqualTo(1);
+	}
+
+	/**
+	 * The loader runs outside of the locks of the cache : while a user is loaded,
+	 * other users are loaded at once, and concurrent calls for the loaded user
+	 * wait for the pending load
+	 */
+	@Test
+	public void get_whenLoadIsPending_otherUsersAreLoadedAndSameUserWaits() throws InterruptedException {
+		final CountDownLatch loadStarted = new CountDownLatch(1);
+		final CountDownLatch releaseLoad = new CountDownLatch(1);
+		final Function<Long, User> slowLoader = id -> {
+			loadStarted.countDown();
+			try {
+				releaseLoad.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return loader.apply(id);
+		};
+		final CompletableFuture<User> pending = CompletableFuture
+				.supplyAsync(() -> userCache.get(TestUtils.USER_MICHAEL_ID, slowLoader));
+		assertThat(loadStarted.await(10, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(userCache.get(TestUtils.USER_MARIE_ID, id -> TestUtils.createTestUserMarieWithId()).getId())
+				.isEqualTo(TestUtils.USER_MARIE_ID);
+		final CompletableFuture<User> waiting = CompletableFuture
+				.supplyAsync(() -> userCache.get(TestUtils.USER_MICHAEL_ID, loader));
+		releaseLoad.countDown();
+
+		assertThat(pending.join().getId()).isEqualTo(TestUtils.USER_MICHAEL_ID);
+		assertThat(waiting.join().getId()).isEqualTo(TestUtils.USER_MICHAEL_ID);
+		assertThat(loads.get()).isEqualTo(1);
+	}
+
+	/**
+	 * A user invalidated while it is loaded is not cached, as it may be the
+	 * previous version of the user
+	 */
+	@Test
+	public void get_whenInvalidatedDuringLoad_userIsNotCached() {
+		userCache.get(TestUtils.USER_MICHAEL_ID, id -> {
+			userCache.invalidate(id);
+			return loader.apply(id);
+		});
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		assertThat(loads.get()).isEqualTo(2);
+	}
+
+	/**
+	 * Messages about updated or deleted users, possibly sent by other application
+	 * instances, remove the users from the cache. Other messages are ignored
+	 */
+	@Test
+	public void onUserMessage_whenUserUpdatedOrDeleted_userIsRemovedFromCache() {
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+
+		userCache.onUserMessage(new Message(1L, TestUtils.USER_MICHAEL_ID, Message.Type.USER_CREATED));
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		assertThat(loads.get()).isEqualTo(1);
+
+		userCache.onUserMessage(new Message(1L, TestUtils.USER_MICHAEL_ID, Message.Type.USER_UPDATED));
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		assertThat(loads.get()).isEqualTo(2);
+
+		userCache.onUserMessage(new Message(1L, TestUtils.USER_MICHAEL_ID, Message.Type.USER_DELETED));
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		assertThat(loads.get()).isEqualTo(3);
+	}
+
+	/**
+	 * A user read again during the transaction which modifies it is removed once
+	 * more when the transaction completes
+	 */
+	@Test
+	public void invalidate_whenInTransaction_userIsRemovedAgainAfterCompletion() {
+		TransactionSynchronizationManager.initSynchronization();
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+
+		userCache.invalidate(TestUtils.USER_MICHAEL_ID);
+		// Concurrent read before the commit : previous version is cached again
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		assertThat(loads.get()).isEqualTo(2);
+
+		TransactionSynchronizationManager.getSynchronizations()
+				.forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		userCache.get(TestUtils.USER_MICHAEL_ID, loader);
+		assertThat(loads.get()).isEqualTo(3);
+	}
+}
@@ -0,0 +1,70 @@
+package com.sbr.userapi.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.test.TestUtils;
+
+/**
+ * Unit test for {@link UserChangeCounter}
+ * 
+ * @author sbrouet
+ * 
+ */
+public class UserChangeCounterTest {
+
+	private final UserChangeCounter changeCounter = new UserChangeCounter();
+
+	@AfterEach
+	public void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	/**
+	 * Without a transaction, the value changes at once, and with each message
+	 * received from the message bus
+	 */
+	@Test
+	public void increment_whenNoTransaction_valueChangesAtOnce() {
+		final String initial = changeCounter.getValue();
+		assertThat(changeCounter.getValue()).isEqualTo(initial);
+
+		changeCounter.increment();
+		final String incremented = changeCounter.getValue();
+		assertThat(incremented).isNotEqualTo(initial);
+
+		changeCounter.onUserMessage(new Message(1L, TestUtils.USER_MICHAEL_ID, Message.Type.USER_DELETED));
+		assertThat(changeCounter.getValue()).isNotEqualTo(incremented);
+	}
+
+	/**
+	 * In a transaction, the value only changes once the transaction is completed
+	 */
+	@Test
+	public void increment_whenInTransaction_valueChangesAfterCompletion() {
+		final String initial = changeCounter.getValue();
+		TransactionSynchronizationManager.initSynchronization();
+		changeCounter.increment();
+		assertThat(changeCounter.getValue()).isEqualTo(initial);
+
+		TransactionSynchronizationManager.getSynchronizations()
+				.forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		assertThat(changeCounter.getValue()).isNotEqualTo(initial);
+	}
+
+	/**
+	 * Application instances have distinct values even with the same number of
+	 * changes
+	 */
+	@Test
+	public void getValue_differsBetweenInstances() {
+		assertThat(changeCounter.getValue()).isNotEqualTo(new UserChangeCounter().getValue());
+	}
+}
@@ -0,0 +1,200 @@
+package com.sbr.userapi.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.service.time.TimeService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Unit test for {@link UserChangeLog}
+ * 
+ * @author sbrouet
+ * 
+ */
+public class UserChangeLogTest {
+
+	private static final int MAX_EVENTS = 5;
+
+	private static final long NOW = 1_000_000L;
+
+	private TimeService timeService;
+
+	private MeterRegistry meterRegistry;
+
+	private UserChangeLog changeLog;
+
+	@BeforeEach
+	public void setUp() {
+		timeService = Mockito.mock(TimeService.class);
+		Mockito.when(timeService.getCurrentDateTimeTimestamp()).thenReturn(NOW);
+		changeLog = createChangeLog(10);
+	}
+
+	private UserChangeLog createChangeLog(final int subscriberBuffer) {
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setChangeLogMaxEvents(MAX_EVENTS);
+		configurationBean.setChangeLogRetention(60);
+		configurationBean.setChangeLogSubscriberBuffer(subscriberBuffer);
+		meterRegistry = new SimpleMeterRegistry();
+		return new UserChangeLog(timeService, configurationBean, meterRegistry);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		changeLog.stop();
+	}
+
+	/**
+	 * A message about many users gives one event per user, and only the latest
+	 * event of a user is kept
+	 */
+	@Test
+	public void append_eventsAreSplitByUserAndCompacted() {
+		changeLog.append(new Message(NOW, List.of(1L, 2L, 3L), Message.Type.USERS_CREATED));
+		changeLog.append(new Message(NOW, 2L, Message.Type.USER_UPDATED));
+		changeLog.append(new Message(NOW, 1L, Message.Type.USER_DELETED));
+
+		final UserChangeFeed feed = changeLog.read(0, 10);
+		assertThat(feed.isReset()).isFalse();
+		assertThat(feed.getNextOffset()).isEqualTo(5);
+		assertThat(feed.getEvents()).extracting(UserChangeEvent::getOffset).containsExactly(2L, 3L, 4L);
+		assertThat(feed.getEvents()).extracting(UserChangeEvent::getUserId).containsExactly(3L, 2L, 1L);
+		assertThat(feed.getEvents()).extracting(UserChangeEvent::getType).containsExactly(Message.Type.USER_CREATED,
+				Message.Type.USER_UPDATED, Message.Type.USER_DELETED);
+
+		// A page stops at its last event, the compacted offsets are skipped at the end
+		assertThat(changeLog.read(0, 1).getNextOffset()).isEqualTo(3);
+		assertThat(changeLog.read(5, 10).getEvents()).isEmpty();
+		assertThat(changeLog.read(5, 10).hasNews()).isFalse();
+		assertThat(meterRegistry.get("users.change.log.events").gauge().value()).isEqualTo(3);
+	}
+
+	/**
+	 * Reading events dropped by retention, or from an offset of another log, is a
+	 * reset
+	 */
+	@Test
+	public void read_whenEventsWereDroppedThenItIsAReset() {
+		for (long userId = 0; userId < MAX_EVENTS + 2; userId++) {
+			changeLog.append(new Message(NOW, userId, Message.Type.USER_CREATED));
+		}
+		final UserChangeFeed dropped = changeLog.read(0, 10);
+		assertThat(dropped.isReset()).isTrue();
+		assertThat(dropped.getEvents()).extracting(UserChangeEvent::getOffset).containsExactly(2L, 3L, 4L, 5L, 6L);
+		assertThat(changeLog.read(2, 10).isReset()).isFalse();
+
+		// Events older than the retention time are dropped
+		Mockito.when(timeService.getCurrentDateTimeTimestamp()).thenReturn(NOW + 61_000);
+		assertThat(changeLog.read(2, 10).getEvents()).isEmpty();
+		assertThat(changeLog.read(2, 10).isReset()).isTrue();
+		assertThat(changeLog.read(7, 10).isReset()).isFalse();
+
+		final UserChangeFeed otherLog = changeLog.read(changeLog.resolveOffset("other", 3), 10);
+		assertThat(otherLog.isReset()).isTrue();
+		assertThat(otherLog.getNextOffset()).isEqualTo(7);
+		assertThat(changeLog.resolveOffset(changeLog.getLogId(), 3)).isEqualTo(3);
+	}
+
+	/**
+	 * A polling subscriber waits for the next event, a following subscriber
+	 * receives every event once and in order
+	 */
+	@Test
+	public void pollAndFollow_subscribersReceiveNewEvents() throws InterruptedException {
+		changeLog.append(new Message(NOW, 1L, Message.Type.USER_CREATED));
+
+		final BlockingQueue<UserChangeFeed> polled = new LinkedBlockingQueue<>();
+		changeLog.poll(1, 10, polled::add);
+		final BlockingQueue<UserChangeEvent> followed = new LinkedBlockingQueue<>();
+		final UserChangeLog.Subscription subscription = changeLog.follow(0, 2,
+				feed -> followed.addAll(feed.getEvents()));
+		assertThat(followed.poll(5, TimeUnit.SECONDS).getOffset()).isEqualTo(0);
+		assertThat(polled.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+		for (long userId = 2; userId <= 6; userId++) {
+			changeLog.append(new Message(NOW, userId, Message.Type.USER_CREATED));
+		}
+		final UserChangeFeed feed = polled.poll(5, TimeUnit.SECONDS);
+		assertThat(feed.getEvents()).isNotEmpty();
+		assertThat(feed.getEvents().get(0).getOffset()).isEqualTo(1);
+		for (long offset = 1; offset <= 5; offset++) {
+			assertThat(followed.poll(5, TimeUnit.SECONDS).getOffset()).isEqualTo(offset);
+		}
+
+		changeLog.cancel(subscription);
+		changeLog.append(new Message(NOW, 7L, Message.Type.USER_CREATED));
+		assertThat(followed.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		assertThat(polled).isEmpty();
+		assertThat(meterRegistry.get("users.change.log.subscriptions").gauge().value()).isEqualTo(0);
+	}
+
+	/**
+	 * A subscriber which does not handle its events does not delay the other
+	 * subscribers, and is disconnected once its buffer is full
+	 */
+	@Test
+	public void follow_whenSubscriberIsSlowThenOthersAreNotDelayedAndItIsDisconnected()
+			throws InterruptedException {
+		changeLog.stop();
+		changeLog = createChangeLog(2);
+		final BlockingQueue<UserChangeFeed> slowFeeds = new LinkedBlockingQueue<>();
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch disconnected = new CountDownLatch(1);
+		changeLog.follow(0, 1, new UserChangeLog.Subscriber() {
+
+			@Override
+			public boolean accept(final UserChangeFeed feed) {
+				slowFeeds.add(feed);
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}
+
+			@Override
+			public void disconnected() {
+				disconnected.countDown();
+			}
+		});
+		final BlockingQueue<UserChangeEvent> followed = new LinkedBlockingQueue<>();
+		changeLog.follow(0, 1, feed -> followed.addAll(feed.getEvents()));
+
+		changeLog.append(new Message(NOW, 1L, Message.Type.USER_CREATED));
+		assertThat(slowFeeds.poll(5, TimeUnit.SECONDS)).isNotNull();
+		assertThat(followed.poll(5, TimeUnit.SECONDS).getOffset()).isEqualTo(0);
+		// The slow subscriber is busy : 2 events fill its buffer, the third overflows
+		for (long userId = 2; userId <= 4; userId++) {
+			changeLog.append(new Message(NOW, userId, Message.Type.USER_CREATED));
+			assertThat(followed.poll(5, TimeUnit.SECONDS).getOffset()).isEqualTo(userId - 1);
+		}
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (meterRegistry.get("users.change.log.disconnections").counter().count() == 0
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(meterRegistry.get("users.change.log.disconnections").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("users.change.log.subscriptions").gauge().value()).isEqualTo(1);
+
+		// The buffered events are dropped, the subscriber is told instead
+		release.countDown();
+		assertThat(disconnected.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(slowFeeds).isEmpty();
+	}
+}
@@ -0,0 +1,124 @@
+package com.sbr.userapi.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sbr.userapi.exception.InvalidPatchException;
+import com.sbr.userapi.exception.PatchTestFailedException;
+import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.UserField;
+import com.sbr.userapi.test.TestUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Unit test for {@link UserPatchCompiler} and {@link UserPatchPlan}
+ * 
+ * @author sbrouet
+ * 
+ */
+public class UserPatchCompilerTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private MeterRegistry meterRegistry;
+
+	private UserPatchCompiler compiler;
+
+	private User user;
+
+	@BeforeEach
+	public void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		compiler = new UserPatchCompiler(meterRegistry);
+		user = TestUtils.createTestUserMichaelWithId();
+		user.setVersion(7L);
+	}
+
+	/**
+	 * Operations are applied in order to the fields of the user, and only the
+	 * written fields are reported
+	 */
+	@Test
+	public void apply_whenSupportedOperationsThenFieldsAreChanged() throws Exception {
+		final JsonNode patch = toJson("[{\"op\":\"test\",\"path\":\"/id\",\"value\":1},"
+				+ "{\"op\":\"test\",\"path\":\"/version\",\"value\":7},"
+				+ "{\"op\":\"replace\",\"path\":\"/email\",\"value\":\"mike@userapi.sbr\"},"
+				+ "{\"op\":\"test\",\"path\":\"/email\",\"value\":\"mike@userapi.sbr\"},"
+				+ "{\"op\":\"copy\",\"from\":\"/email\",\"path\":\"/password\"},"
+				+ "{\"op\":\"move\",\"from\":\"/firstName\",\"path\":\"/firstName\"}]");
+		final UserPatchPlan plan = compiler.compile(patch);
+		plan.apply(user, patch);
+
+		assertThat(plan.getWrittenFields()).containsExactly(UserField.EMAIL, UserField.PASSWORD);
+		assertThat(user.getFirstName()).isEqualTo(TestUtils.USER_MICHAEL_FIRST_NAME);
+		assertThat(user.getEmail()).isEqualTo("mike@userapi.sbr");
+		assertThat(user.getPassword()).isEqualTo("mike@userapi.sbr");
+		assertThat(user.getVersion()).isEqualTo(7L);
+	}
+
+	/**
+	 * Documents with the same operations and paths share a plan, whatever their
+	 * values
+	 */
+	@Test
+	public void compile_whenSameShapeThenPlanIsCompiledOnce() throws Exception {
+		final JsonNode patch = toJson("[{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Mike\"}]");
+		final JsonNode otherValue = toJson("[{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Mick\"}]");
+		final JsonNode otherPath = toJson("[{\"op\":\"replace\",\"path\":\"/password\",\"value\":\"Mick\"}]");
+
+		final UserPatchPlan plan = compiler.compile(patch);
+		assertThat(compiler.compile(otherValue)).isSameAs(plan);
+		assertThat(compiler.compile(otherPath)).isNotSameAs(plan);
+
+		compiler.compile(otherValue).apply(user, otherValue);
+		assertThat(user.getFirstName()).isEqualTo("Mick");
+		assertThat(meterRegistry.get("cache.gets").tag("cache", UserPatchCompiler.CACHE_NAME).tag("result", "hit")
+				.functionCounter().count()).isEqualTo(2);
+	}
+
+	/**
+	 * Operations which would remove a mandatory field, modify the id or the
+	 * version, or use an unknown path are rejected when compiled. Values of a
+	 * wrong type are rejected when applied
+	 */
+	@Test
+	public void compile_whenUnsupportedOperationThenAnExceptionIsThrown() throws Exception {
+		assertThrows(InvalidPatchException.class,
+				() -> compiler.compile(toJson("{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Mike\"}")));
+		assertThrows(InvalidPatchException.class,
+				() -> compiler.compile(toJson("[{\"op\":\"remove\",\"path\":\"/password\"}]")));
+		assertThrows(InvalidPatchException.class,
+				() -> compiler.compile(toJson("[{\"op\":\"replace\",\"path\":\"/id\",\"value\":2}]")));
+		assertThrows(InvalidPatchException.class,
+				() -> compiler.compile(toJson("[{\"op\":\"add\",\"path\":\"/nickName\",\"value\":\"Mike\"}]")));
+		assertThrows(InvalidPatchException.class,
+				() -> compiler.compile(toJson("[{\"op\":\"move\",\"from\":\"/email\",\"path\":\"/password\"}]")));
+		assertThrows(InvalidPatchException.class, () -> compiler.compile(toJson("[{\"path\":\"/email\"}]")));
+
+		final JsonNode wrongType = toJson("[{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":12}]");
+		assertThrows(InvalidPatchException.class, () -> compiler.compile(wrongType).apply(user, wrongType));
+	}
+
+	/**
+	 * A failed test is reported as such, whatever the tested field
+	 */
+	@Test
+	public void apply_whenTestFailsThenAnExceptionIsThrown() throws Exception {
+		final JsonNode version = toJson("[{\"op\":\"test\",\"path\":\"/version\",\"value\":6}]");
+		assertThrows(PatchTestFailedException.class, () -> compiler.compile(version).apply(user, version));
+
+		final JsonNode email = toJson("[{\"op\":\"test\",\"path\":\"/email\",\"value\":\"mike@userapi.sbr\"}]");
+		assertThrows(PatchTestFailedException.class, () -> compiler.compile(email).apply(user, email));
+	}
+
+	private JsonNode toJson(final String json) throws Exception {
+		return objectMapper.readTree(json);
+	}
+}
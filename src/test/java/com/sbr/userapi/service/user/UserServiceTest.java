@@ -4,39 +4,63 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
-import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.times;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validation;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Bean;
-import org.springframework.data.domain.Example;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionOperations;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sbr.userapi.configuration.ConfigurationBean;
 import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+import com.sbr.userapi.exception.InvalidPatchException;
+import com.sbr.userapi.exception.PatchTestFailedException;
 import com.sbr.userapi.exception.UserNotFoundException;
+import com.sbr.userapi.exception.UserVersionConflictException;
 import com.sbr.userapi.exception.location.CannotComputeLocationException;
 import com.sbr.userapi.exception.location.LocationNotAuthorizedException;
 import com.sbr.userapi.model.User;
+import com.sbr.userapi.model.UserField;
 import com.sbr.userapi.model.messaging.Message;
 import com.sbr.userapi.repository.UserRepository;
 import com.sbr.userapi.service.location.LocationService;
 import com.sbr.userapi.service.location.LocationTestConstants;
+import com.sbr.userapi.service.message.MessageDeliveryMode;
 import com.sbr.userapi.service.message.MessageService;
 import com.sbr.userapi.test.TestUtils;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @ExtendWith(SpringExtension.class)
 public class UserServiceTest {
 
@@ -45,6 +69,9 @@ public class UserServiceTest {
 	/** An IP address outside of Switzerland */
 	private static final String NOT_IN_SWITZERLAND_IP = "1.1.1.1";
 
+	/** Number of users inserted in one transaction by a bulk creation */
+	private static final int BULK_CHUNK_SIZE = 2;
+
 	@TestConfiguration
 	static class UserServiceTestContextConfiguration {
 		/**
@@ -57,14 +84,70 @@ public class UserServiceTest {
 		 */
 		@Bean
 		public UserService userService(UserRepository userRepository, LocationService locationService,
-				MessageService messageService) {
-			return new UserService(userRepository, locationService, messageService);
+				MessageService messageService, UserCache userCache, FirstNameIndex firstNameIndex,
+				EmailFilter emailFilter, UserChangeCounter changeCounter, UserWriteExecutor writeExecutor) {
+			final ConfigurationBean configurationBean = new ConfigurationBean();
+			configurationBean.setBulkChunkSize(BULK_CHUNK_SIZE);
+			return new UserService(userRepository, locationService, messageService,
+					Validation.buildDefaultValidatorFactory().getValidator(), TransactionOperations.withoutTransaction(),
+					TransactionOperations.withoutTransaction(), configurationBean, userCache, firstNameIndex, emailFilter,
+					new UserPatchCompiler(new SimpleMeterRegistry()), changeCounter, writeExecutor);
+		}
+
+		@Bean
+		public UserWriteExecutor writeExecutor() {
+			final ConfigurationBean configurationBean = new ConfigurationBean();
+			configurationBean.setAsyncWriteThreads(1);
+			configurationBean.setAsyncWriteQueueCapacity(10);
+			return new UserWriteExecutor(configurationBean, new SimpleMeterRegistry());
+		}
+
+		@Bean
+		public UserChangeCounter changeCounter() {
+			return new UserChangeCounter();
+		}
+
+		@Bean
+		public EmailFilter emailFilter(UserRepository userRepository) {
+			final ConfigurationBean configurationBean = new ConfigurationBean();
+			configurationBean.setEmailFilterExpectedInsertions(100);
+			configurationBean.setEmailFilterFpp(0.01);
+			configurationBean.setMessageDeliveryMode(MessageDeliveryMode.OUTBOX);
+			final EmailFilter emailFilter = new EmailFilter(userRepository, TransactionOperations.withoutTransaction(),
+					configurationBean, new SimpleMeterRegistry());
+			// No users yet, they are added by each test
+			emailFilter.load();
+			return emailFilter;
+		}
+
+		@Bean
+		public FirstNameIndex firstNameIndex(UserRepository userRepository) {
+			final ConfigurationBean configurationBean = new ConfigurationBean();
+			configurationBean.setMessageDeliveryMode(MessageDeliveryMode.OUTBOX);
+			return new FirstNameIndex(userRepository, TransactionOperations.withoutTransaction(), configurationBean);
+		}
+
+		@Bean
+		public UserCache userCache() {
+			final ConfigurationBean configurationBean = new ConfigurationBean();
+			configurationBean.setUserCacheSize(100);
+			configurationBean.setUserCacheTtl(60);
+			return new UserCache(UserCache.createCache(configurationBean));
 		}
 	}
 
 	@Autowired
 	private UserService userService;
 
+	@Autowired
+	private UserCache userCache;
+
+	@Autowired
+	private FirstNameIndex firstNameIndex;
+
+	@Autowired
+	private EmailFilter emailFilter;
+
 	@MockBean
 	private UserRepository userRepository;
 
@@ -85,6 +168,10 @@ public class UserServiceTest {
 	 */
 	@BeforeEach
 	public void setUp() throws CannotComputeLocationException, CouldNotSendMessageBusMessage {
+		// The cache is shared by all tests
+		userCache.invalidateAll();
+		firstNameIndex.clear();
+
 		// Create test users. Force Id as the database calls are mocked so the id will
 		// not be automatically set (the objects returned by the repository are the ones
 		// prepared here instead of the actual ORM system returned ones)
@@ -93,6 +180,8 @@ public class UserServiceTest {
 		final User userCharles = TestUtils.createTestUserCharlesWithId();
 
 		final List<User> allUsers = List.of(userMichael, userMarie);
+		// The filter of emails is shared by all tests and may contain other emails
+		allUsers.forEach(user -> emailFilter.add(user.getEmail()));
 
 		// Mock methods on userRepository
 		Mockito.when(userRepository.findAll()).thenReturn(allUsers);
@@ -105,33 +194,36 @@ public class UserServiceTest {
 
 		Mockito.when(userRepository.save(any(User.class))).thenReturn(userCharles);
 
-		// Mock result of finAll() when called with only first name
-		final User exampleUserSearchByFirstNameOnly = new User();
-		exampleUserSearchByFirstNameOnly.setFirstName(userMichael.getFirstName());
-		final Example<User> exampleSearchByFirstNameOnly = Example.of(exampleUserSearchByFirstNameOnly);
-		Mockito.when(userRepository.findAll(argThat(new ExampleMatcher(exampleSearchByFirstNameOnly))))
-				.thenReturn(List.of(userMichael));
-
-		// Mock result of finAll() when called with first name AND email
-		final User exampleUserSearchByFirstNameAndEmail = new User();
-		exampleUserSearchByFirstNameAndEmail.setFirstName(userMarie.getFirstName());
-		exampleUserSearchByFirstNameAndEmail.setEmail(userMarie.getEmail());
-		final Example<User> exampleSearchByFirstNameAndEmail = Example.of(exampleUserSearchByFirstNameAndEmail);
-		Mockito.when(userRepository.findAll(argThat(new ExampleMatcher(exampleSearchByFirstNameAndEmail))))
-				.thenReturn(List.of(userMarie));
+		// Mock the searches by email, with and without first name. Other
+		// combinations return an empty Optional
+		Mockito.when(userRepository.findByEmail(userMarie.getEmail())).thenReturn(Optional.of(userMarie));
+		Mockito.when(userRepository.findByFirstNameAndEmail(userMarie.getFirstName(), userMarie.getEmail()))
+				.thenReturn(Optional.of(userMarie));
 
 		// Mock the responses of locationService
 		Mockito.when(locationService.isCallerFromSwitzerland(LocationTestConstants.SWISSCOM_CH_IP)).thenReturn(true);
 		Mockito.when(locationService.isCallerFromSwitzerland(NOT_IN_SWITZERLAND_IP)).thenReturn(false);
+		Mockito.when(locationService.isCallerFromSwitzerlandAsync(LocationTestConstants.SWISSCOM_CH_IP))
+				.thenReturn(CompletableFuture.completedFuture(true));
+		Mockito.when(locationService.isCallerFromSwitzerlandAsync(NOT_IN_SWITZERLAND_IP))
+				.thenReturn(CompletableFuture.completedFuture(false));
 
 		// Mock the message service
 		Mockito.doNothing().when(messageService).sendMessage(any(Message.Type.class), anyLong());
 
 		// Mock findById and existsById
 		Mockito.when(userRepository.findById(userMichael.getId())).thenReturn(Optional.of(userMichael));
+		Mockito.when(userRepository.findCurrentById(userMichael.getId())).thenReturn(Optional.of(userMichael));
 		Mockito.when(userRepository.existsById(userMichael.getId())).thenReturn(true);
 		Mockito.when(userRepository.existsById(TestUtils.UNKNOWN_USER_ID)).thenReturn(false);
 
+		// Mock the delete of a single user : only Michael exists
+		Mockito.when(userRepository.deleteOneById(userMichael.getId())).thenReturn(1);
+
+		// Mock the update of a single user : only Michael exists, with version 3
+		Mockito.when(userRepository.updateById(eq(userMichael.getId()), any(), any(), any(), isNull())).thenReturn(1);
+		Mockito.when(userRepository.updateById(eq(userMichael.getId()), any(), any(), any(), eq(3L))).thenReturn(1);
+
 	}
 
 	@Test
@@ -145,6 +237,303 @@ public class UserServiceTest {
 		assertThrows(UserNotFoundException.class, () -> userService.getUserById(TestUtils.UNKNOWN_USER_ID));
 	}
 
+	/**
+	 * Test method {@link UserService#getUserById(Long)} : once a user was read, it
+	 * should come from the cache, as a new copy each time
+	 */
+	@Test
+	public void getUserById_whenCalledTwiceThenDatabaseIsReadOnce() throws UserNotFoundException {
+		final User first = userService.getUserById(TestUtils.USER_MICHAEL_ID);
+		final User second = userService.getUserById(TestUtils.USER_MICHAEL_ID);
+
+		Mockito.verify(userRepository, times(1)).findById(TestUtils.USER_MICHAEL_ID);
+		assertThat(second).isNotSameAs(first).isNotSameAs(userMichael).isEqualTo(first);
+		TestUtils.assertEqualsUserMichaelNoId(second);
+	}
+
+	/**
+	 * Test method {@link UserService#updateUser(User)} : the updated user should be
+	 * removed from the cache
+	 */
+	@Test
+	public void updateUser_whenUserIsCachedThenItIsReadAgainFromDatabase()
+			throws UserNotFoundException, UserVersionConflictException, CouldNotSendMessageBusMessage {
+		userService.getUserById(TestUtils.USER_MICHAEL_ID);
+		final User update = TestUtils.createTestUserMichaelWithId();
+		update.setFirstName("Mike");
+
+		userService.updateUser(update);
+		userService.getUserById(TestUtils.USER_MICHAEL_ID);
+
+		// Once for the first read, once after the update : the update does not read
+		Mockito.verify(userRepository, times(2)).findById(TestUtils.USER_MICHAEL_ID);
+		assertMessageWasSent(Message.Type.USER_UPDATED, TestUtils.USER_MICHAEL_ID);
+	}
+
+	/**
+	 * Test method {@link UserService#updateUser(User)} : the user should be
+	 * updated by a single statement, without being loaded nor saved, and its new
+	 * version should be returned
+	 */
+	@Test
+	public void updateUser_whenVersionIsCurrentThenUserIsUpdatedBySingleStatement()
+			throws UserNotFoundException, UserVersionConflictException, CouldNotSendMessageBusMessage {
+		final User update = TestUtils.createTestUserMichaelWithId();
+		update.setEmail("mike@userapi.sbr");
+		update.setVersion(3L);
+
+		final User updatedUser = userService.updateUser(update);
+
+		assertThat(updatedUser.getVersion()).isEqualTo(4L);
+		assertThat(updatedUser.getEmail()).isEqualTo("mike@userapi.sbr");
+		Mockito.verify(userRepository, times(1)).updateById(TestUtils.USER_MICHAEL_ID,
+				TestUtils.USER_MICHAEL_FIRST_NAME, "mike@userapi.sbr", TestUtils.USER_MICHAEL_PASSWORD, 3L);
+		Mockito.verify(userRepository, times(0)).findById(any());
+		Mockito.verify(userRepository, times(0)).existsById(any());
+		Mockito.verify(userRepository, times(0)).save(any());
+		assertThat(emailFilter.mightContain("mike@userapi.sbr")).isTrue();
+	}
+
+	/**
+	 * Test method {@link UserService#updateUser(User)} : when the user has another
+	 * version, the update should be rejected as a conflict and no message sent
+	 */
+	@Test
+	public void updateUser_whenVersionIsOutdatedThenAnExceptionIsThrown() throws CouldNotSendMessageBusMessage {
+		final User update = TestUtils.createTestUserMichaelWithId();
+		update.setVersion(2L);
+
+		assertThrows(UserVersionConflictException.class, () -> userService.updateUser(update));
+		Mockito.verify(messageService, times(0)).sendMessage(any(Message.Type.class), anyLong());
+	}
+
+	/**
+	 * Test method {@link UserService#updateUser(User)} : an unknown user should be
+	 * reported as not found, whether a version is given or not
+	 */
+	@Test
+	public void updateUser_whenUnknownUserThenAnExceptionIsThrown() {
+		final User update = TestUtils.createTestUserMichaelWithId();
+		update.setId(TestUtils.UNKNOWN_USER_ID);
+		assertThrows(UserNotFoundException.class, () -> userService.updateUser(update));
+
+		update.setVersion(3L);
+		assertThrows(UserNotFoundException.class, () -> userService.updateUser(update));
+	}
+
+	/**
+	 * Test method {@link UserService#updateUser(User)} : an invalid user should be
+	 * rejected before the database is accessed
+	 */
+	@Test
+	public void updateUser_whenInvalidEmailThenAnExceptionIsThrown() {
+		final User update = TestUtils.createTestUserMichaelWithId();
+		update.setEmail("wrong");
+
+		assertThrows(ConstraintViolationException.class, () -> userService.updateUser(update));
+		Mockito.verify(userRepository, times(0)).updateById(any(), any(), any(), any(), any());
+	}
+
+	/**
+	 * Test method {@link UserService#patchUser(Long, JsonNode, Long)} : only the changed
+	 * fields should be written, guarded by the version which was read, and a
+	 * single message sent
+	 */
+	@Test
+	public void patchUser_whenFirstNameReplacedThenOnlyFirstNameIsWritten() throws Exception {
+		userMichael.setVersion(3L);
+		// Only the version which was read is expected by the update
+		Mockito.when(userRepository.updateFields(Mockito.argThat(user -> Long.valueOf(3L).equals(user.getVersion())),
+				any())).thenReturn(1);
+
+		final User patchedUser = userService.patchUser(TestUtils.USER_MICHAEL_ID,
+				toJson("[{\"op\":\"test\",\"path\":\"/version\",\"value\":3},"
+						+ "{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Mike\"},"
+						+ "{\"op\":\"replace\",\"path\":\"/password\",\"value\":\"" + TestUtils.USER_MICHAEL_PASSWORD
+						+ "\"}]"),
+				null);
+
+		assertThat(patchedUser.getFirstName()).isEqualTo("Mike");
+		assertThat(patchedUser.getEmail()).isEqualTo(TestUtils.USER_MICHAEL_EMAIL);
+		assertThat(patchedUser.getVersion()).isEqualTo(4L);
+		Mockito.verify(userRepository, times(1)).updateFields(any(), eq(EnumSet.of(UserField.FIRST_NAME)));
+		Mockito.verify(userRepository, times(0)).updateById(any(), any(), any(), any(), any());
+		Mockito.verify(userRepository, times(0)).save(any());
+		assertMessageWasSent(Message.Type.USER_UPDATED, TestUtils.USER_MICHAEL_ID);
+		assertThat(userService.suggestUsers("mik", 10)).extracting(UserSuggestion::getId)
+				.containsExactly(TestUtils.USER_MICHAEL_ID);
+	}
+
+	/**
+	 * Test method {@link UserService#patchUser(Long, JsonNode, Long)} : a patch which does
+	 * not change anything should neither write nor send a message
+	 */
+	@Test
+	public void patchUser_whenNothingChangesThenNothingIsWritten() throws Exception {
+		userService.patchUser(TestUtils.USER_MICHAEL_ID, toJson("[{\"op\":\"copy\",\"from\":\"/firstName\","
+				+ "\"path\":\"/firstName\"},{\"op\":\"move\",\"from\":\"/email\",\"path\":\"/email\"}]"), null);
+
+		Mockito.verify(userRepository, times(0)).updateFields(any(), any());
+		Mockito.verify(messageService, times(0)).sendMessage(any(Message.Type.class), anyLong());
+	}
+
+	/**
+	 * Test method {@link UserService#patchUser(Long, JsonNode, Long)} : failed tests,
+	 * invalid values and concurrent updates should be rejected without any
+	 * message
+	 */
+	@Test
+	public void patchUser_whenPatchCannotBeAppliedThenAnExceptionIsThrown() throws Exception {
+		assertThrows(PatchTestFailedException.class, () -> userService.patchUser(TestUtils.USER_MICHAEL_ID,
+				toJson("[{\"op\":\"test\",\"path\":\"/firstName\",\"value\":\"Mike\"}]"), null));
+		assertThrows(InvalidPatchException.class, () -> userService.patchUser(TestUtils.USER_MICHAEL_ID,
+				toJson("[{\"op\":\"remove\",\"path\":\"/email\"}]"), null));
+		assertThrows(ConstraintViolationException.class, () -> userService.patchUser(TestUtils.USER_MICHAEL_ID,
+				toJson("[{\"op\":\"replace\",\"path\":\"/email\",\"value\":\"wrong\"}]"), null));
+		Mockito.verify(userRepository, times(0)).updateFields(any(), any());
+
+		// Updated by another writer since it was read, even once read again
+		Mockito.when(userRepository.updateFields(any(), any())).thenReturn(0);
+		assertThrows(UserVersionConflictException.class, () -> userService.patchUser(TestUtils.USER_MICHAEL_ID,
+				toJson("[{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Mike\"}]"), null));
+		Mockito.verify(userRepository, times(2)).updateFields(any(), any());
+		Mockito.verify(messageService, times(0)).sendMessage(any(Message.Type.class), anyLong());
+	}
+
+	/**
+	 * Test method {@link UserService#patchUser(Long, JsonNode, Long)} : when any
+	 * version is accepted and the user read from the cache is outdated, the patch
+	 * should be applied again to the user read from the database
+	 */
+	@Test
+	public void patchUser_whenCachedUserIsOutdatedThenPatchIsAppliedToCurrentUser() throws Exception {
+		userMichael.setVersion(3L);
+		final User currentMichael = TestUtils.createTestUserMichaelWithId();
+		currentMichael.setEmail("mike@userapi.sbr");
+		currentMichael.setVersion(5L);
+		Mockito.when(userRepository.findCurrentById(TestUtils.USER_MICHAEL_ID))
+				.thenReturn(Optional.of(currentMichael));
+		Mockito.when(userRepository.updateFields(Mockito.argThat(user -> Long.valueOf(5L).equals(user.getVersion())),
+				any())).thenReturn(1);
+
+		final User patchedUser = userService.patchUser(TestUtils.USER_MICHAEL_ID,
+				toJson("[{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Mike\"}]"), null);
+
+		assertThat(patchedUser.getFirstName()).isEqualTo("Mike");
+		assertThat(patchedUser.getEmail()).isEqualTo("mike@userapi.sbr");
+		assertThat(patchedUser.getVersion()).isEqualTo(6L);
+		Mockito.verify(userRepository, times(2)).updateFields(any(), eq(EnumSet.of(UserField.FIRST_NAME)));
+		assertMessageWasSent(Message.Type.USER_UPDATED, TestUtils.USER_MICHAEL_ID);
+	}
+
+	/**
+	 * Test method {@link UserService#patchUser(Long, JsonNode, Long)} : when the
+	 * user does not have the expected version, even once read again from the
+	 * database, nothing should be written
+	 */
+	@Test
+	public void patchUser_whenExpectedVersionDoesNotMatchThenAnExceptionIsThrown() throws Exception {
+		userMichael.setVersion(3L);
+		final String usersVersion = userService.getUsersVersion();
+
+		assertThrows(UserVersionConflictException.class, () -> userService.patchUser(TestUtils.USER_MICHAEL_ID,
+				toJson("[{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Mike\"}]"), 2L));
+
+		// User was read again from the database in case the cached one is outdated
+		Mockito.verify(userRepository, times(2)).findById(TestUtils.USER_MICHAEL_ID);
+		Mockito.verify(userRepository, times(0)).updateFields(any(), any());
+		assertThat(userService.getUsersVersion()).isEqualTo(usersVersion);
+	}
+
+	private static JsonNode toJson(final String json) throws Exception {
+		return new ObjectMapper().readTree(json);
+	}
+
+	/**
+	 * Test method {@link UserService#deleteUserById(Long)} : the deleted user should
+	 * be removed from the cache
+	 */
+	@Test
+	public void deleteUser_whenUserIsCachedThenItIsRemovedFromCache()
+			throws UserNotFoundException, CouldNotSendMessageBusMessage {
+		userService.getUserById(TestUtils.USER_MICHAEL_ID);
+		userService.deleteUserById(TestUtils.USER_MICHAEL_ID);
+		Mockito.when(userRepository.findById(TestUtils.USER_MICHAEL_ID)).thenReturn(Optional.empty());
+
+		assertThrows(UserNotFoundException.class, () -> userService.getUserById(TestUtils.USER_MICHAEL_ID));
+	}
+
+	/**
+	 * Test method {@link UserService#suggestUsers(String, int)} : created, updated
+	 * and deleted users are reflected in the suggestions without reading the
+	 * database
+	 */
+	@Test
+	public void suggestUsers_whenUsersAreCreatedUpdatedOrDeletedThenSuggestionsAreUpdated()
+			throws CannotComputeLocationException, LocationNotAuthorizedException, CouldNotSendMessageBusMessage,
+			UserNotFoundException, UserVersionConflictException {
+		userService.createUser(TestUtils.createTestUserCharlesNoId(), LocationTestConstants.SWISSCOM_CH_IP);
+		assertThat(userService.suggestUsers("charles", 10)).extracting(UserSuggestion::getId)
+				.containsExactly(TestUtils.USER_CHARLES_ID);
+
+		final User update = TestUtils.createTestUserMichaelWithId();
+		update.setFirstName("Chloé");
+		userService.updateUser(update);
+		assertThat(userService.suggestUsers("CH", 10)).extracting(UserSuggestion::getFirstName)
+				.containsExactly("Charles-Edouard", "Chloé");
+		assertThat(userService.suggestUsers("CH", 1)).hasSize(1);
+
+		userService.deleteUserById(TestUtils.USER_MICHAEL_ID);
+		assertThat(userService.suggestUsers("chl", 10)).isEmpty();
+		Mockito.verify(userRepository, times(0)).findAll();
+		Mockito.verify(userRepository, times(0)).findByFirstName(any());
+	}
+
+	/**
+	 * Test method {@link UserService#findPage(Long, int)} : the first page should
+	 * be requested to the repository with a cursor lower than any id and the
+	 * requested page size
+	 */
+	@Test
+	public void findPage_whenFirstPageThenRepositoryIsCalledWithLowestCursor() {
+		Mockito.when(userRepository.findByIdGreaterThanOrderByIdAsc(Long.MIN_VALUE, PageRequest.of(0, 2)))
+				.thenReturn(List.of(userMichael));
+
+		final List<User> found = userService.findPage(null, 2);
+		assertThat(found).containsExactly(userMichael);
+	}
+
+	/**
+	 * Test method {@link UserService#findPage(Long, int)} : next pages should be
+	 * requested to the repository with the given cursor
+	 */
+	@Test
+	public void findPage_whenNextPageThenRepositoryIsCalledWithCursor() {
+		final List<User> found = userService.findPage(TestUtils.USER_MICHAEL_ID, 2);
+		assertThat(found).isEmpty();
+		Mockito.verify(userRepository, times(1)).findByIdGreaterThanOrderByIdAsc(TestUtils.USER_MICHAEL_ID,
+				PageRequest.of(0, 2));
+	}
+
+	/**
+	 * Test method {@link UserService#exportAll(java.util.function.Consumer)} : each
+	 * streamed user should be handed to the consumer in order then detached
+	 */
+	@Test
+	public void exportAll_whenUsersExistThenEachUserIsConsumedThenDetached() {
+		final User userMarie = TestUtils.createTestUserMarieWithId();
+		Mockito.when(userRepository.streamAll()).thenReturn(Stream.of(userMichael, userMarie));
+
+		final List<User> consumed = new ArrayList<>();
+		final long count = userService.exportAll(consumed::add);
+
+		assertThat(count).isEqualTo(2);
+		assertThat(consumed).containsExactly(userMichael, userMarie);
+		final InOrder inOrder = Mockito.inOrder(userRepository);
+		inOrder.verify(userRepository).detach(userMichael);
+		inOrder.verify(userRepository).detach(userMarie);
+	}
+
 	@Test
 	public void findUser_whenValidFirstNameThenUserShouldBeFound() {
 		final List<User> found = userService.findUser(TestUtils.USER_MICHAEL_FIRST_NAME, NO_SEARCH_CRITERIA);
@@ -171,6 +560,39 @@ public class UserServiceTest {
 		TestUtils.assertEqualsUserMarieId(foundUser);
 	}
 
+	@Test
+	public void findUser_whenValidEmailOnlyThenUserShouldBeFound() {
+		final List<User> found = userService.findUser(NO_SEARCH_CRITERIA, TestUtils.USER_MARIE_EMAIL);
+		assertThat(found.size()).isEqualTo(1);
+		TestUtils.assertEqualsUserMarieId(found.get(0));
+		Mockito.verify(userRepository, times(0)).findAll();
+	}
+
+	/**
+	 * An email which was never used is rejected by the {@link EmailFilter} : the
+	 * database is not searched
+	 */
+	@Test
+	public void findUser_whenEmailIsUnusedThenDatabaseIsNotSearched() {
+		assertThat(userService.findUser(NO_SEARCH_CRITERIA, TestUtils.UNKNOWN_EMAIL)).isEmpty();
+		assertThat(userService.findUser(TestUtils.USER_MARIE_FIRST_NAME, TestUtils.UNKNOWN_EMAIL)).isEmpty();
+		Mockito.verify(userRepository, times(0)).findByEmail(any());
+		Mockito.verify(userRepository, times(0)).findByFirstNameAndEmail(any(), any());
+	}
+
+	/**
+	 * The email of a created user passes the {@link EmailFilter}
+	 */
+	@Test
+	public void findUser_whenUserWasCreatedThenItsEmailIsSearchedInDatabase()
+			throws CannotComputeLocationException, LocationNotAuthorizedException, CouldNotSendMessageBusMessage {
+		final User created = userService.createUser(TestUtils.createTestUserCharlesNoId(),
+				LocationTestConstants.SWISSCOM_CH_IP);
+		Mockito.when(userRepository.findByEmail(created.getEmail())).thenReturn(Optional.of(created));
+
+		assertThat(userService.findUser(NO_SEARCH_CRITERIA, created.getEmail())).containsExactly(created);
+	}
+
 	@Test
 	public void findUser_whenValidFirstNameAndInvalidEmailThenUserShouldNotBeFound() {
 		final List<User> found = userService.findUser(TestUtils.USER_MARIE_FIRST_NAME, TestUtils.UNKNOWN_EMAIL);
@@ -244,6 +666,322 @@ public class UserServiceTest {
 				() -> userService.createUser(TestUtils.createTestUserCharlesNoId(), LocationTestConstants.SWISSCOM_CH_IP));
 	}
 
+	/**
+	 * Test method {@link UserService#createUserAsync(User, String)} called from an
+	 * IP address from Switzerland : user should be created and a message should be
+	 * sent to the message bus
+	 */
+	@Test
+	public void createUserAsync_whenValidUserAndClientRequestFromSwitzerland_userShouldBeCreated()
+			throws CouldNotSendMessageBusMessage {
+		final User user = userService
+				.createUserAsync(TestUtils.createTestUserCharlesNoId(), LocationTestConstants.SWISSCOM_CH_IP).join();
+
+		assertThat(user.getId()).isEqualTo(TestUtils.USER_CHARLES_ID);
+		TestUtils.assertEqualsUserCharles(user);
+		assertMessageWasSent(Message.Type.USER_CREATED, user.getId());
+	}
+
+	/**
+	 * Test method {@link UserService#createUser(User, String)} with an invalid
+	 * user : the user should be rejected before any database access, while the
+	 * location of the caller was looked up meanwhile
+	 */
+	@Test
+	public void createUser_whenUserIsInvalid_anExceptionShouldBeRaisedBeforeAnyDatabaseAccess()
+			throws CouldNotSendMessageBusMessage {
+		final User invalidUser = new User(null, "Charles", "wrong", TestUtils.USER_CHARLES_PASSWORD);
+
+		final ConstraintViolationException exception = assertThrows(ConstraintViolationException.class,
+				() -> userService.createUser(invalidUser, LocationTestConstants.SWISSCOM_CH_IP));
+		assertThat(exception.getConstraintViolations()).extracting(violation -> violation.getPropertyPath().toString())
+				.containsOnly("email");
+		Mockito.verify(locationService, times(1)).isCallerFromSwitzerlandAsync(LocationTestConstants.SWISSCOM_CH_IP);
+		Mockito.verifyNoInteractions(userRepository);
+		assertNoMessageWasSentToBus();
+	}
+
+	/**
+	 * Test method {@link UserService#createUserAsync(User, String)} : while the
+	 * location of the caller is looked up, the user is validated but not inserted
+	 */
+	@Test
+	public void createUserAsync_whenLocationIsPending_userShouldBeInsertedOnceLocationIsAuthorized() {
+		final CompletableFuture<Boolean> pendingLocation = new CompletableFuture<>();
+		Mockito.when(locationService.isCallerFromSwitzerlandAsync(LocationTestConstants.SWISSCOM_CH_IP))
+				.thenReturn(pendingLocation);
+
+		final CompletableFuture<User> result = userService.createUserAsync(TestUtils.createTestUserCharlesNoId(),
+				LocationTestConstants.SWISSCOM_CH_IP);
+		assertThat(result).isNotDone();
+		Mockito.verifyNoInteractions(userRepository);
+
+		pendingLocation.complete(true);
+		assertThat(result.join().getId()).isEqualTo(TestUtils.USER_CHARLES_ID);
+		Mockito.verify(userRepository, times(1)).save(any(User.class));
+	}
+
+	/**
+	 * Test method {@link UserService#createUserAsync(User, String)} with an
+	 * invalid user : the future should fail at once
+	 */
+	@Test
+	public void createUserAsync_whenUserIsInvalid_futureShouldFail() {
+		final CompletableFuture<User> result = userService.createUserAsync(new User(null, "", "wrong", "password"),
+				LocationTestConstants.SWISSCOM_CH_IP);
+
+		final CompletionException exception = assertThrows(CompletionException.class, result::join);
+		assertThat(exception.getCause()).isInstanceOf(ConstraintViolationException.class);
+		Mockito.verifyNoInteractions(userRepository);
+	}
+
+	/**
+	 * Test method {@link UserService#createUserAsync(User, String)} called from an
+	 * IP address not from Switzerland : the future should fail and the user should
+	 * not be saved
+	 */
+	@Test
+	public void createUserAsync_whenClientRequestNotFromSwitzerland_futureShouldFail()
+			throws CouldNotSendMessageBusMessage {
+		final CompletableFuture<User> result = userService.createUserAsync(TestUtils.createTestUserCharlesNoId(),
+				NOT_IN_SWITZERLAND_IP);
+
+		final CompletionException exception = assertThrows(CompletionException.class, result::join);
+		assertThat(exception.getCause()).isInstanceOf(LocationNotAuthorizedException.class);
+		Mockito.verify(userRepository, times(0)).save(any(User.class));
+		assertNoMessageWasSentToBus();
+	}
+
+	/**
+	 * Test method {@link UserService#createUserAsync(User, String)} : when the
+	 * messaging service fails, the future should fail with its exception
+	 */
+	@Test
+	public void createUserAsync_whenMessageCouldNotBeSentToServiceBus_futureShouldFail()
+			throws CouldNotSendMessageBusMessage {
+		Mockito.doThrow(CouldNotSendMessageBusMessage.class).when(messageService).sendMessage(any(Message.Type.class),
+				anyLong());
+
+		final CompletableFuture<User> result = userService.createUserAsync(TestUtils.createTestUserCharlesNoId(),
+				LocationTestConstants.SWISSCOM_CH_IP);
+
+		final CompletionException exception = assertThrows(CompletionException.class, result::join);
+		assertThat(exception.getCause()).isInstanceOf(CouldNotSendMessageBusMessage.class);
+	}
+
+	/**
+	 * Test method {@link UserService#createUsers(List, String)} : invalid users
+	 * should be reported, valid users should be saved by chunks with one message
+	 * per chunk
+	 */
+	@Test
+	public void createUsers_whenSomeUsersAreInvalid_validUsersShouldBeCreatedByChunks()
+			throws CannotComputeLocationException, LocationNotAuthorizedException, CouldNotSendMessageBusMessage {
+		mockSaveAllSetsIds();
+		final User invalidEmail = createBulkTestUser(1);
+		invalidEmail.setEmail("not an email");
+		final List<User> newUsers = new ArrayList<>(
+				List.of(createBulkTestUser(0), invalidEmail, createBulkTestUser(2), createBulkTestUser(3)));
+		newUsers.add(null);
+
+		final List<UserCreationResult> results = userService.createUsers(newUsers,
+				LocationTestConstants.SWISSCOM_CH_IP);
+
+		assertThat(results).extracting(UserCreationResult::getStatus).containsExactly(
+				UserCreationResult.Status.CREATED, UserCreationResult.Status.INVALID,
+				UserCreationResult.Status.CREATED, UserCreationResult.Status.CREATED,
+				UserCreationResult.Status.INVALID);
+		assertThat(results).extracting(UserCreationResult::getIndex).containsExactly(0, 1, 2, 3, 4);
+		assertThat(results.get(0).getUser().getId()).isEqualTo(100L);
+		assertThat(results.get(1).getErrors()).containsExactly("email: Email should be valid");
+		assertThat(results.get(4).getErrors()).containsExactly("user cannot be null");
+
+		// Chunks of BULK_CHUNK_SIZE valid users : [0, 2] then [3]
+		Mockito.verify(userRepository, times(2)).saveAll(any());
+		Mockito.verify(userRepository, times(2)).flush();
+		Mockito.verify(userRepository, times(3)).detach(any(User.class));
+		final InOrder inOrder = Mockito.inOrder(messageService);
+		inOrder.verify(messageService).sendMessage(Message.Type.USERS_CREATED, List.of(100L, 101L));
+		inOrder.verify(messageService).sendMessage(Message.Type.USERS_CREATED, List.of(102L));
+		Mockito.verifyNoMoreInteractions(messageService);
+	}
+
+	/**
+	 * Test method {@link UserService#createUsers(List, String)} : when a chunk
+	 * cannot be saved, its users should be reported as failed and the next chunks
+	 * should still be created
+	 */
+	@Test
+	public void createUsers_whenChunkCouldNotBeSaved_itsUsersShouldFailAndNextChunksShouldBeCreated()
+			throws CannotComputeLocationException, LocationNotAuthorizedException, CouldNotSendMessageBusMessage {
+		mockSaveAllSetsIds();
+		Mockito.doThrow(new DataIntegrityViolationException("duplicate")).doNothing().when(userRepository)
+				.flush();
+
+		final List<UserCreationResult> results = userService.createUsers(
+				List.of(createBulkTestUser(0), createBulkTestUser(1), createBulkTestUser(2)),
+				LocationTestConstants.SWISSCOM_CH_IP);
+
+		assertThat(results).extracting(UserCreationResult::getStatus).containsExactly(
+				UserCreationResult.Status.FAILED, UserCreationResult.Status.FAILED,
+				UserCreationResult.Status.CREATED);
+		assertThat(results.get(0).getErrors()).hasSize(1).allMatch(error -> error.contains("duplicate"));
+		Mockito.verify(messageService, times(1)).sendMessage(Message.Type.USERS_CREATED, List.of(102L));
+		Mockito.verifyNoMoreInteractions(messageService);
+	}
+
+	/**
+	 * Test method {@link UserService#createUsers(List, String)} : when the message
+	 * of a chunk cannot be sent, its users should be reported as failed
+	 */
+	@Test
+	public void createUsers_whenMessageCouldNotBeSentToServiceBus_usersOfTheChunkShouldFail()
+			throws CannotComputeLocationException, LocationNotAuthorizedException, CouldNotSendMessageBusMessage {
+		mockSaveAllSetsIds();
+		Mockito.doThrow(new CouldNotSendMessageBusMessage("bus down")).when(messageService)
+				.sendMessage(any(Message.Type.class), Mockito.<List<Long>>any());
+
+		final List<UserCreationResult> results = userService.createUsers(List.of(createBulkTestUser(0)),
+				LocationTestConstants.SWISSCOM_CH_IP);
+
+		assertThat(results).hasSize(1);
+		assertThat(results.get(0).getStatus()).isEqualTo(UserCreationResult.Status.FAILED);
+		assertThat(results.get(0).getErrors()).allMatch(error -> error.contains("bus down"));
+		Mockito.verify(userRepository, times(0)).detach(any(User.class));
+	}
+
+	/**
+	 * Test method {@link UserService#createUsers(List, String)} called from an IP
+	 * address outside of Switzerland : no user should be validated nor saved
+	 */
+	@Test
+	public void createUsers_whenClientRequestNotFromSwitzerland_anExceptionShouldBeRaised()
+			throws CannotComputeLocationException, CouldNotSendMessageBusMessage {
+		assertThrows(LocationNotAuthorizedException.class,
+				() -> userService.createUsers(List.of(createBulkTestUser(0)), NOT_IN_SWITZERLAND_IP));
+		Mockito.verify(userRepository, times(0)).saveAll(any());
+		Mockito.verifyNoInteractions(messageService);
+	}
+
+	/**
+	 * Test method {@link UserService#deleteUsers(java.util.Collection)} : existing
+	 * users should be deleted by chunks, each deleted user should get a message
+	 * and missing ids should be reported
+	 */
+	@Test
+	public void deleteUsers_whenSomeIdsAreMissing_existingUsersShouldBeDeletedByChunks()
+			throws CouldNotSendMessageBusMessage {
+		mockLockExistingIds(1L, 2L, 3L);
+
+		final BulkOperationResult result = userService.deleteUsers(Arrays.asList(1L, 99L, 2L, 1L, null, 3L));
+
+		assertThat(result.getAffectedIds()).containsExactly(1L, 2L, 3L);
+		assertThat(result.getMissingIds()).containsExactly(99L);
+		// Chunks of BULK_CHUNK_SIZE distinct ids : [1, 99] then [2, 3]
+		@SuppressWarnings("unchecked")
+		final ArgumentCaptor<List<Long>> idsCaptor = ArgumentCaptor.forClass(List.class);
+		Mockito.verify(userRepository, times(2)).deleteByIds(idsCaptor.capture());
+		final List<List<Long>> deletedChunks = idsCaptor.getAllValues();
+		assertThat(deletedChunks.get(0)).containsExactly(1L);
+		assertThat(deletedChunks.get(1)).containsExactlyInAnyOrder(2L, 3L);
+		for (long id = 1; id <= 3; id++) {
+			Mockito.verify(messageService, times(1)).sendMessage(Message.Type.USER_DELETED, id);
+		}
+		Mockito.verifyNoMoreInteractions(messageService);
+	}
+
+	/**
+	 * Test method {@link UserService#deleteUsers(java.util.Collection)} : when
+	 * none of the ids exists, nothing should be deleted
+	 */
+	@Test
+	public void deleteUsers_whenNoIdExists_nothingShouldBeDeleted() throws CouldNotSendMessageBusMessage {
+		mockLockExistingIds();
+
+		final BulkOperationResult result = userService.deleteUsers(List.of(98L, 99L));
+
+		assertThat(result.getAffectedIds()).isEmpty();
+		assertThat(result.getMissingIds()).containsExactly(98L, 99L);
+		Mockito.verify(userRepository, times(0)).deleteByIds(any());
+		assertNoMessageWasSentToBus();
+	}
+
+	/**
+	 * Test method {@link UserService#deleteUsers(java.util.Collection)} : when a
+	 * message cannot be sent, the exception should be thrown back
+	 */
+	@Test
+	public void deleteUsers_whenMessageCouldNotBeSentToServiceBus_anExceptionShouldBeRaised()
+			throws CouldNotSendMessageBusMessage {
+		mockLockExistingIds(1L);
+		Mockito.doThrow(CouldNotSendMessageBusMessage.class).when(messageService).sendMessage(any(Message.Type.class),
+				anyLong());
+
+		assertThrows(CouldNotSendMessageBusMessage.class, () -> userService.deleteUsers(List.of(1L)));
+	}
+
+	/**
+	 * Test method {@link UserService#updateUsers(java.util.Collection, String, String)}
+	 * : existing users should be updated with the new value and each updated user
+	 * should get a message
+	 */
+	@Test
+	public void updateUsers_whenValidFirstName_existingUsersShouldBeUpdated() throws CouldNotSendMessageBusMessage {
+		mockLockExistingIds(1L);
+
+		final BulkOperationResult result = userService.updateUsers(List.of(1L, 99L), "Mike", null);
+
+		assertThat(result.getAffectedIds()).containsExactly(1L);
+		assertThat(result.getMissingIds()).containsExactly(99L);
+		Mockito.verify(userRepository, times(1)).updateByIds(List.of(1L), "Mike", null);
+		assertMessageWasSent(Message.Type.USER_UPDATED, 1L);
+	}
+
+	/**
+	 * Test method {@link UserService#updateUsers(java.util.Collection, String, String)}
+	 * : an invalid value should be rejected before any user is updated
+	 */
+	@Test
+	public void updateUsers_whenInvalidPassword_anExceptionShouldBeRaised() throws CouldNotSendMessageBusMessage {
+		assertThrows(ConstraintViolationException.class,
+				() -> userService.updateUsers(List.of(1L), null, "tooShort"));
+		assertThrows(IllegalArgumentException.class, () -> userService.updateUsers(List.of(1L), null, null));
+		Mockito.verify(userRepository, times(0)).lockExistingIds(any());
+		assertNoMessageWasSentToBus();
+	}
+
+	/**
+	 * Mock {@link UserRepository#lockExistingIds(java.util.Collection)} so that
+	 * only given ids exist
+	 */
+	private void mockLockExistingIds(final Long... existingIds) {
+		final List<Long> existing = List.of(existingIds);
+		Mockito.when(userRepository.lockExistingIds(any())).then(invocation -> {
+			final Collection<Long> ids = invocation.getArgument(0);
+			return ids.stream().filter(existing::contains).collect(Collectors.toList());
+		});
+	}
+
+	/**
+	 * Mock {@link UserRepository#saveAll(Iterable)} so that it sets ids 100, 101...
+	 * on the saved users and returns them
+	 */
+	private void mockSaveAllSetsIds() {
+		final AtomicLong nextId = new AtomicLong(100);
+		Mockito.when(userRepository.saveAll(Mockito.<List<User>>any())).then(invocation -> {
+			final List<User> users = invocation.getArgument(0);
+			users.forEach(user -> user.setId(nextId.getAndIncrement()));
+			return users;
+		});
+	}
+
+	/**
+	 * Create a valid user without id for the bulk creation tests
+	 */
+	private static User createBulkTestUser(final int index) {
+		return new User("Bulk" + index, "bulk" + index + "@userapi.sbr", "dummyTestPwd" + index);
+	}
+
 	/**
 	 * Test method {@link UserService#deleteUserById(Long)} with an existing user
 	 * 
@@ -253,19 +991,39 @@ public class UserServiceTest {
 	@Test
 	public void deleteUser_whenValidUserItShouldBeDeleted()
 			throws UserNotFoundException, CouldNotSendMessageBusMessage {
-		Mockito.doNothing().when(userRepository).deleteById(anyLong());
-
 		// Delete user
 		userService.deleteUserById(userMichael.getId());
 
 		// Check the delete has actually been called on the repository with the correct
 		// user id
-		Mockito.verify(userRepository, times(1)).deleteById(userMichael.getId());
+		Mockito.verify(userRepository, times(1)).deleteOneById(userMichael.getId());
+		Mockito.verify(userRepository, times(0)).deleteById(any());
 
 		// Verify the contents of message send to the message bus
 		assertMessageWasSent(Message.Type.USER_DELETED, userMichael.getId());
 	}
 
+	/**
+	 * Test method {@link UserService#deleteUserById(Long, Long)} : the user is
+	 * deleted only when it has the expected version, which changes the version of
+	 * the users
+	 */
+	@Test
+	public void deleteUser_whenExpectedVersionThenUserIsDeletedOnlyWithThisVersion() throws Exception {
+		Mockito.when(userRepository.deleteByIdAndVersion(userMichael.getId(), 3L)).thenReturn(1);
+		final String usersVersion = userService.getUsersVersion();
+
+		assertThrows(UserVersionConflictException.class, () -> userService.deleteUserById(userMichael.getId(), 2L));
+		assertThrows(UserNotFoundException.class, () -> userService.deleteUserById(TestUtils.UNKNOWN_USER_ID, 2L));
+		assertNoMessageWasSentToBus();
+		assertThat(userService.getUsersVersion()).isEqualTo(usersVersion);
+
+		userService.deleteUserById(userMichael.getId(), 3L);
+		Mockito.verify(userRepository, times(0)).deleteOneById(any());
+		assertMessageWasSent(Message.Type.USER_DELETED, userMichael.getId());
+		assertThat(userService.getUsersVersion()).isNotEqualTo(usersVersion);
+	}
+
 	/**
 	 * Test method {@link UserService#deleteUserById(Long)} with a NON existing user
 	 * : method should raise an exception and no message should be sent to the
@@ -325,38 +1083,4 @@ public class UserServiceTest {
 		Mockito.verify(messageService, times(0)).sendMessage(any(Message.Type.class), anyLong());
 		Mockito.verifyNoMoreInteractions(messageService);
 	}
-
-	/**
-	 * Matcher used to compare two {@link Example<User>} in order for mock to return
-	 * a different value depending on the argument received by a method
-	 * 
-	 * @author sbrouet
-	 *
-	 */
-	public static class ExampleMatcher implements ArgumentMatcher<Example<User>> {
-
-		private Example<User> expected;
-
-		public ExampleMatcher(Example<User> expected) {
-			this.expected = expected;
-		}
-
-		@Override
-		public boolean matches(final Example<User> right) {
-			if (null == expected && null == right) {
-				return true;
-			} else if (null != expected && null == right || null == expected && null != right) {
-				return false;
-			}
-
-			final User leftUser = expected.getProbe();
-			final User rightUser = right.getProbe();
-
-			return Objects.equals(leftUser.getId(), rightUser.getId())
-					&& Objects.equals(leftUser.getFirstName(), rightUser.getFirstName())
-					&& Objects.equals(leftUser.getEmail(), rightUser.getEmail())
-					&& Objects.equals(leftUser.getPassword(), rightUser.getPassword());
-		}
-	}
-
 }
@@ -0,0 +1,99 @@
+package com.sbr.userapi.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.exception.CouldNotSendMessageBusMessage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Unit test for {@link UserWriteExecutor}
+ * 
+ * @author sbrouet
+ *
+ */
+public class UserWriteExecutorTest {
+
+	private static final int QUEUE_CAPACITY = 2;
+
+	private MeterRegistry meterRegistry;
+
+	private UserWriteExecutor writeExecutor;
+
+	@BeforeEach
+	public void setUp() {
+		final ConfigurationBean configurationBean = new ConfigurationBean();
+		configurationBean.setAsyncWriteThreads(1);
+		configurationBean.setAsyncWriteQueueCapacity(QUEUE_CAPACITY);
+		meterRegistry = new SimpleMeterRegistry();
+		writeExecutor = new UserWriteExecutor(configurationBean, meterRegistry);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		writeExecutor.stop();
+	}
+
+	/**
+	 * The future is completed with the result of the work, or with the checked
+	 * exception or the error it threw
+	 */
+	@Test
+	public void submit_futureIsCompletedWithResultOrException() {
+		assertThat(writeExecutor.submit(() -> "done").join()).isEqualTo("done");
+
+		final CompletableFuture<Object> failed = writeExecutor.submit(() -> {
+			throw new CouldNotSendMessageBusMessage("bus is down");
+		});
+		final CompletionException exception = assertThrows(CompletionException.class, failed::join);
+		assertThat(exception.getCause()).isInstanceOf(CouldNotSendMessageBusMessage.class);
+
+		final CompletableFuture<Object> crashed = writeExecutor.submit(() -> {
+			throw new StackOverflowError();
+		});
+		assertThat(assertThrows(CompletionException.class, crashed::join).getCause())
+				.isInstanceOf(StackOverflowError.class);
+	}
+
+	/**
+	 * When the thread is busy and the queue is full, further works are rejected
+	 * at once instead of waiting
+	 */
+	@Test
+	public void submit_whenQueueIsFull_workIsRejected() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CompletableFuture<Boolean> busy = writeExecutor.submit(() -> {
+			started.countDown();
+			return release.await(10, TimeUnit.SECONDS);
+		});
+		assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+		for (int i = 0; i < QUEUE_CAPACITY; i++) {
+			writeExecutor.submit(() -> null);
+		}
+		assertThat(writeExecutor.getQueueSize()).isEqualTo(QUEUE_CAPACITY);
+		assertThat(meterRegistry.get("executor.queued").tag("name", "users.writer").gauge().value())
+				.isEqualTo(QUEUE_CAPACITY);
+
+		// Test
+		final CompletableFuture<Object> rejected = writeExecutor.submit(() -> null);
+		final CompletionException exception = assertThrows(CompletionException.class, rejected::join);
+		assertThat(exception.getCause()).isInstanceOf(RejectedExecutionException.class);
+
+		release.countDown();
+		assertThat(busy.join()).isTrue();
+	}
+}
@@ -0,0 +1,44 @@
+package com.sbr.userapi.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Utilities to check the Java Flight Recorder events emitted by the tested code
+ * 
+ * @author sbrouet
+ *
+ */
+public class JfrUtils {
+
+	/**
+	 * Run given code while a recording of given event is running
+	 * 
+	 * @param eventName name of the recorded event, recorded whatever its duration
+	 * @param code      code to be run
+	 * @return the events recorded while the code was running
+	 * @throws IOException when the recording could not be written or read
+	 */
+	public static List<RecordedEvent> record(final String eventName, final Runnable code) throws IOException {
+		final Path file = Files.createTempFile("userapi-test-", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(eventName).withThreshold(Duration.ZERO);
+			recording.start();
+			code.run();
+			recording.stop();
+			recording.dump(file);
+			return RecordingFile.readAllEvents(file).stream()
+					.filter(event -> eventName.equals(event.getEventType().getName())).collect(Collectors.toList());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
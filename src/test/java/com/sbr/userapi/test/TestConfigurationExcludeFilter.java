@@ -0,0 +1,35 @@
+package com.sbr.userapi.test;
+
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+
+/**
+ * Excludes the configurations of the unit tests from the scan of the
+ * components, when the application is started outside of a Spring test on the
+ * test classpath (benchmarks, load test)
+ * 
+ * @author sbrouet
+ *
+ */
+public class TestConfigurationExcludeFilter extends TypeExcludeFilter {
+
+	/**
+	 * Register the filter in the context of an application before it is
+	 * refreshed, typically as an initializer of
+	 * {@link org.springframework.boot.builder.SpringApplicationBuilder}
+	 * 
+	 * @param applicationContext context of the application
+	 */
+	public static void register(final ConfigurableApplicationContext applicationContext) {
+		applicationContext.getBeanFactory().registerSingleton("testConfigurationExcludeFilter",
+				new TestConfigurationExcludeFilter());
+	}
+
+	@Override
+	public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+		return metadataReader.getAnnotationMetadata().hasAnnotation(TestConfiguration.class.getName());
+	}
+}
@@ -61,11 +61,11 @@ public class TestUtils {
 	}
 
 	public static UserDTO createTestUserDTOMichaelNoId() {
-		return new UserDTO(null, USER_MICHAEL_FIRST_NAME, USER_MICHAEL_EMAIL, USER_MICHAEL_PASSWORD);
+		return new UserDTO(null, USER_MICHAEL_FIRST_NAME, USER_MICHAEL_EMAIL, USER_MICHAEL_PASSWORD, null);
 	}
 
 	public static UserDTO createTestUserDTOMichaelWithId() {
-		return new UserDTO(USER_MICHAEL_ID, USER_MICHAEL_FIRST_NAME, USER_MICHAEL_EMAIL, USER_MICHAEL_PASSWORD);
+		return new UserDTO(USER_MICHAEL_ID, USER_MICHAEL_FIRST_NAME, USER_MICHAEL_EMAIL, USER_MICHAEL_PASSWORD, null);
 	}
 
 	public static User createTestUserMarieNoId() {
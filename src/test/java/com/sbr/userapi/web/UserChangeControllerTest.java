@@ -0,0 +1,153 @@
+package com.sbr.userapi.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.CoreMatchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.sbr.userapi.configuration.ConfigurationBean;
+import com.sbr.userapi.model.messaging.Message;
+import com.sbr.userapi.service.time.TimeService;
+import com.sbr.userapi.service.user.UserChangeLog;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Unit test for {@link UserChangeController}
+ * 
+ * @author sbrouet
+ * 
+ */
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(UserChangeController.class)
+public class UserChangeControllerTest {
+
+	@TestConfiguration
+	static class UserChangeControllerTestContextConfiguration {
+
+		/**
+		 * Registry of the metrics, also needed by the exception handler of the
+		 * controllers
+		 */
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+		@Bean
+		public UserChangeLog userChangeLog(TimeService timeService, MeterRegistry meterRegistry) {
+			final ConfigurationBean configurationBean = new ConfigurationBean();
+			configurationBean.setChangeLogMaxEvents(100);
+			configurationBean.setChangeLogRetention(60);
+			configurationBean.setChangeLogPollTimeout(5000);
+			configurationBean.setChangeLogStreamTimeout(5000);
+			configurationBean.setChangeLogSubscriberBuffer(16);
+			return new UserChangeLog(timeService, configurationBean, meterRegistry);
+		}
+	}
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private UserChangeLog changeLog;
+
+	@MockBean
+	private TimeService timeService;
+
+	/**
+	 * Test method {@link UserChangeController#pollChanges(long, String, Integer)}
+	 * : the response is sent once a change follows the requested offset
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void pollChanges_whenChangeHappens_thenResponseHoldsIt() throws Exception {
+		final long from = changeLog.read(0, Integer.MAX_VALUE).getNextOffset();
+		final MvcResult result = mvc
+				.perform(get(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_CHANGES)
+						.param(UserControllerConstants.PARAM_FROM, String.valueOf(from))
+						.param(UserControllerConstants.PARAM_LOG_ID, changeLog.getLogId()))
+				.andExpect(request().asyncStarted()).andReturn();
+
+		changeLog.onUserMessage(new Message(System.currentTimeMillis(), List.of(41L, 42L), Message.Type.USERS_CREATED));
+
+		mvc.perform(asyncDispatch(result)).andDo(print()).andExpect(status().isOk())
+				.andExpect(jsonPath("$.logId", is(changeLog.getLogId()))).andExpect(jsonPath("$.reset", is(false)))
+				.andExpect(jsonPath("$.nextOffset", is((int) from + 2)))
+				.andExpect(jsonPath("$.events[0].offset", is((int) from)))
+				.andExpect(jsonPath("$.events[0].type", is("USER_CREATED")))
+				.andExpect(jsonPath("$.events[1].userId", is(42)));
+	}
+
+	/**
+	 * Test method {@link UserChangeController#pollChanges(long, String, Integer)}
+	 * : an offset of another log is answered at once with a reset
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void pollChanges_whenOffsetOfAnotherLog_thenResponseIsAReset() throws Exception {
+		final MvcResult result = mvc
+				.perform(get(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_CHANGES)
+						.param(UserControllerConstants.PARAM_FROM, "0")
+						.param(UserControllerConstants.PARAM_LOG_ID, "another-log"))
+				.andExpect(request().asyncStarted()).andReturn();
+
+		mvc.perform(asyncDispatch(result)).andDo(print()).andExpect(status().isOk())
+				.andExpect(jsonPath("$.reset", is(true)));
+	}
+
+	/**
+	 * Test method
+	 * {@link UserChangeController#streamChanges(long, String, String)} : a
+	 * reconnecting consumer receives the changes following its last event, as
+	 * Server-Sent Events named after the type of change
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void streamChanges_whenReconnecting_thenChangesAfterLastEventAreStreamed() throws Exception {
+		final long from = changeLog.read(0, Integer.MAX_VALUE).getNextOffset();
+		changeLog.onUserMessage(new Message(System.currentTimeMillis(), 51L, Message.Type.USER_CREATED));
+		changeLog.onUserMessage(new Message(System.currentTimeMillis(), 52L, Message.Type.USER_CREATED));
+
+		final MvcResult result = mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL
+				+ UserControllerConstants.PATH_CHANGES + UserControllerConstants.PATH_STREAM)
+						.accept(MediaType.TEXT_EVENT_STREAM)
+						.header(UserControllerConstants.HEADER_LAST_EVENT_ID, changeLog.getLogId() + ":" + from))
+				.andExpect(request().asyncStarted()).andReturn();
+		changeLog.onUserMessage(new Message(System.currentTimeMillis(), 51L, Message.Type.USER_DELETED));
+
+		final String secondEventId = "id:" + changeLog.getLogId() + ":" + (from + 1);
+		final String thirdEventId = "id:" + changeLog.getLogId() + ":" + (from + 2);
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (!result.getResponse().getContentAsString().contains(thirdEventId)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		final String content = result.getResponse().getContentAsString();
+		assertThat(content).doesNotContain("id:" + changeLog.getLogId() + ":" + from + "\n");
+		assertThat(content).contains(secondEventId + "\nevent:USER_CREATED\ndata:{\"offset\":" + (from + 1));
+		assertThat(content).contains(thirdEventId + "\nevent:USER_DELETED\n");
+	}
+}
@@ -1,49 +1,81 @@
 package com.sbr.userapi.web;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 
 import org.hibernate.validator.internal.engine.path.PathImpl;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.internal.verification.VerificationModeFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.web.context.request.WebRequest;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sbr.userapi.dto.BulkUpdateDTO;
 import com.sbr.userapi.dto.UserDTO;
+import com.sbr.userapi.exception.InvalidPatchException;
 import com.sbr.userapi.exception.UserNotFoundException;
+import com.sbr.userapi.exception.UserVersionConflictException;
+import com.sbr.userapi.exception.location.LocationNotAuthorizedException;
 import com.sbr.userapi.model.User;
 import com.sbr.userapi.service.time.TimeService;
+import com.sbr.userapi.service.user.BulkOperationResult;
+import com.sbr.userapi.service.user.UserCreationResult;
 import com.sbr.userapi.service.user.UserService;
+import com.sbr.userapi.service.user.UserSuggestion;
 import com.sbr.userapi.test.JsonUtils;
 import com.sbr.userapi.test.TestUtils;
+import com.sbr.userapi.web.error.RestResponseEntityExceptionHandler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(UserController.class)
@@ -54,9 +86,25 @@ public class UserControllerTest {
 	private static final String EXCEPTION_URL_USER_NOT_FOUND_ID_1 = "uri=/users/1";
 	private static List<String> NO_DETAILS = null;
 
+	@TestConfiguration
+	static class UserControllerTestContextConfiguration {
+
+		/**
+		 * Registry of the metrics, needed by the exception handler of the
+		 * controllers
+		 */
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+	}
+
 	@Autowired
 	private MockMvc mvc;
 
+	@Autowired
+	private MeterRegistry meterRegistry;
+
 	@MockBean
 	private UserService userService;
 
@@ -64,7 +112,7 @@ public class UserControllerTest {
 	private TimeService timeService;
 
 	/**
-	 * Test method {@link UserController#getUserById(Long)}. User should be returned
+	 * Test method {@link UserController#getUserById(Long, WebRequest)}. User should be returned
 	 * by controller in the response with same values as provided by the (mocked)
 	 * user service
 	 * 
@@ -85,6 +133,29 @@ public class UserControllerTest {
 		verify(userService, VerificationModeFactory.times(1)).getUserById(1L);
 	}
 
+	/**
+	 * Test method {@link UserController#getUserById(Long, WebRequest)}. The
+	 * response holds the entity tag of the user, and a request holding this
+	 * entity tag in its <code>If-None-Match</code> header has an empty
+	 * {@link HttpStatus#NOT_MODIFIED} response
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void getUserById_whenETagMatches_thenResponseIsNotModified() throws Exception {
+		final User userMichael = TestUtils.createTestUserMichaelWithId();
+		userMichael.setVersion(3L);
+		given(userService.getUserById(1L)).willReturn(userMichael);
+
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL + "/1").accept(MediaType.APPLICATION_JSON))
+				.andDo(print()).andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, "\"3\""));
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL + "/1").accept(MediaType.APPLICATION_JSON)
+				.header(HttpHeaders.IF_NONE_MATCH, "\"3\"")).andDo(print()).andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"3\"")).andExpect(content().string(""));
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL + "/1").accept(MediaType.APPLICATION_JSON)
+				.header(HttpHeaders.IF_NONE_MATCH, "\"2\"")).andDo(print()).andExpect(status().isOk());
+	}
+
 	@Test
 	public void getUserById_whenUserDoesNotExist_thenResponseIsNotFoundAndHasExceptionDetailsInBody() throws Exception {
 		given(timeService.getCurrentDateTimeTimestamp()).willReturn(EXCEPTION_TIMESTAMP);
@@ -109,15 +180,13 @@ public class UserControllerTest {
 		final User userMichael = TestUtils.createTestUserMichaelWithId();
 
 		// Mock repository response
-		given(userService.createUser(any(User.class), anyString())).willReturn(userMichael);
+		given(userService.createUserAsync(any(User.class), anyString()))
+				.willReturn(CompletableFuture.completedFuture(userMichael));
 
-		final ResultActions resultActions = mvc
-				.perform(post(UserControllerConstants.REST_API_ROOT_URL).contentType(MediaType.APPLICATION_JSON)
-						.content(JsonUtils.toJson(userMichael)))
-				.andDo(print()).andExpect(status().isCreated())
+		final ResultActions resultActions = performCreateUser(userMichael).andExpect(status().isCreated())
 				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE));
 		TestUtils.andExpectAllFieldsInJsonObjectIsUserMichael(resultActions);
-		verify(userService, VerificationModeFactory.times(1)).createUser(any(), any());
+		verify(userService, VerificationModeFactory.times(1)).createUserAsync(any(), any());
 	}
 
 	@Test
@@ -135,18 +204,198 @@ public class UserControllerTest {
 		Set<ConstraintViolation<?>> constraintViolations = Set.of(mockCV);
 		ConstraintViolationException cve = new ConstraintViolationException("a message", constraintViolations);
 
-		doThrow(cve).when(userService).createUser(any(User.class), anyString());
+		given(userService.createUserAsync(any(User.class), anyString())).willReturn(CompletableFuture.failedFuture(cve));
 
-		ResultActions resultActions = mvc.perform(post(UserControllerConstants.REST_API_ROOT_URL)
-				.contentType(MediaType.APPLICATION_JSON).content(JsonUtils.toJson(userMichael))).andDo(print())
-				.andExpect(status().isBadRequest());
+		ResultActions resultActions = performCreateUser(userMichael).andExpect(status().isBadRequest());
 
 		// Check error details are present in response body
 		final List<String> expectedDetailsMsgs = List.of(violationField + ": " + violationMsg);
 		resultActions = TestUtils.andExpectJsonObjectErrorDetails(resultActions, EXCEPTION_TIMESTAMP,
 				"Data has constraint violations (see the details field)", expectedDetailsMsgs, "uri=/users");
 
-		verify(userService, VerificationModeFactory.times(1)).createUser(any(User.class), anyString());
+		verify(userService, VerificationModeFactory.times(1)).createUserAsync(any(User.class), anyString());
+	}
+
+	/**
+	 * A user whose email is already used by another user violates the unique
+	 * index on email : response should be a conflict naming the constraint
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void createUser_whenEmailAlreadyUsed_thenResponseIsConflict() throws Exception {
+		given(timeService.getCurrentDateTimeTimestamp()).willReturn(EXCEPTION_TIMESTAMP);
+		final User userMichael = TestUtils.createTestUserMichaelWithId();
+
+		given(userService.createUserAsync(any(User.class), anyString())).willReturn(
+				CompletableFuture.failedFuture(new DataIntegrityViolationException("could not execute statement",
+						new org.hibernate.exception.ConstraintViolationException("Duplicate entry", null,
+								"UK_USER_EMAIL"))));
+
+		final ResultActions resultActions = performCreateUser(userMichael).andExpect(status().isConflict());
+		TestUtils.andExpectJsonObjectErrorDetails(resultActions, EXCEPTION_TIMESTAMP,
+				"Data conflicts with existing data (constraint UK_USER_EMAIL)", NO_DETAILS, "uri=/users");
+	}
+
+	/**
+	 * When too many creations are already waiting for the database, the creation
+	 * is rejected and the client may retry later
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void createUser_whenTooManyCreationsWaiting_thenResponseIsServiceUnavailable() throws Exception {
+		given(timeService.getCurrentDateTimeTimestamp()).willReturn(EXCEPTION_TIMESTAMP);
+		given(userService.createUserAsync(any(User.class), anyString())).willReturn(CompletableFuture
+				.failedFuture(new RejectedExecutionException("Too many operations on users are waiting, retry later")));
+
+		performCreateUser(TestUtils.createTestUserMichaelWithId()).andExpect(status().isServiceUnavailable());
+	}
+
+	/**
+	 * When the location of the client is not authorized, the creation is refused
+	 * and counted in the errors metric
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void createUser_whenLocationNotAuthorized_thenResponseIsForbiddenAndErrorIsCounted() throws Exception {
+		given(timeService.getCurrentDateTimeTimestamp()).willReturn(EXCEPTION_TIMESTAMP);
+		given(userService.createUserAsync(any(User.class), anyString())).willReturn(CompletableFuture
+				.failedFuture(new LocationNotAuthorizedException("Only users located in Switzerland are allowed")));
+
+		performCreateUser(TestUtils.createTestUserMichaelWithId()).andExpect(status().isForbidden())
+				.andExpect(jsonPath("$.message", is("Only users located in Switzerland are allowed")));
+		final Counter errors = meterRegistry.find(RestResponseEntityExceptionHandler.ERRORS_COUNTER_NAME)
+				.tag("exception", LocationNotAuthorizedException.class.getSimpleName()).tag("status", "403")
+				.counter();
+		assertThat(errors).isNotNull();
+		assertThat(errors.count()).isEqualTo(1);
+	}
+
+	/**
+	 * Post a user to be created, then wait for the asynchronous processing of the
+	 * request
+	 * 
+	 * @param user the user to be created
+	 * @return the result of the request once its processing is over
+	 * @throws Exception not expected
+	 */
+	private ResultActions performCreateUser(final User user) throws Exception {
+		final MvcResult asyncResult = mvc.perform(post(UserControllerConstants.REST_API_ROOT_URL)
+				.contentType(MediaType.APPLICATION_JSON).content(JsonUtils.toJson(user)))
+				.andExpect(request().asyncStarted()).andReturn();
+		return mvc.perform(asyncDispatch(asyncResult)).andDo(print());
+	}
+
+	/**
+	 * Test method {@link UserController#createUsers(HttpServletRequest)} with a
+	 * JSON array. All users should be handed to the service in order and the
+	 * response should contain the result of each user
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void createUsers_whenJsonArray_thenResponseContainsResultOfEachUser() throws Exception {
+		given(userService.createUsers(any(), anyString())).willReturn(
+				List.of(UserCreationResult.created(0, TestUtils.createTestUserMichaelWithId()),
+						UserCreationResult.invalid(1, List.of("email: Email should be valid"))));
+
+		final String body = "[{\"firstName\":\"Michael\",\"email\":\"mfaraday@userapi.sbr\",\"password\":\"dummyTestPwd1\"},"
+				+ "{\"firstName\":\"Marie\",\"email\":\"wrong\",\"password\":\"dummyTestPwd2\"}]";
+		mvc.perform(post(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_BULK)
+				.contentType(MediaType.APPLICATION_JSON).content(body)).andDo(print()).andExpect(status().isOk())
+				.andExpect(jsonPath("$.created", is(1))).andExpect(jsonPath("$.rejected", is(1)))
+				.andExpect(jsonPath("$.results[0].index", is(0)))
+				.andExpect(jsonPath("$.results[0].status", is("CREATED")))
+				.andExpect(jsonPath("$.results[0].id", is(TestUtils.USER_MICHAEL_ID.intValue())))
+				.andExpect(jsonPath("$.results[1].status", is("INVALID")))
+				.andExpect(jsonPath("$.results[1].errors[0]", is("email: Email should be valid")));
+
+		assertThat(captureCreatedUsers()).extracting(User::getFirstName).containsExactly("Michael", "Marie");
+	}
+
+	/**
+	 * Test method {@link UserController#createUsers(HttpServletRequest)} with
+	 * newline delimited JSON. Each line should be handed to the service as a user
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void createUsers_whenNdjson_thenEachLineIsAUser() throws Exception {
+		given(userService.createUsers(any(), anyString())).willReturn(List.of());
+
+		final String body = "{\"firstName\":\"Michael\",\"email\":\"mfaraday@userapi.sbr\",\"password\":\"dummyTestPwd1\"}\n"
+				+ "{\"firstName\":\"Marie\",\"email\":\"mcurie@userapi.sbr\",\"password\":\"dummyTestPwd2\"}\n";
+		mvc.perform(post(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_BULK)
+				.contentType(UserControllerConstants.MEDIA_TYPE_NDJSON).content(body)).andDo(print())
+				.andExpect(status().isOk());
+
+		assertThat(captureCreatedUsers()).extracting(User::getEmail).containsExactly(TestUtils.USER_MICHAEL_EMAIL,
+				TestUtils.USER_MARIE_EMAIL);
+	}
+
+	/**
+	 * Test method {@link UserController#createUsers(HttpServletRequest)} with a
+	 * malformed body. The request should be rejected before any user is created
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void createUsers_whenMalformedBody_thenResponseIsBadRequest() throws Exception {
+		final String truncatedBody = "[{\"firstName\":\"Michael\"},{\"firstName\":";
+		mvc.perform(post(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_BULK)
+				.contentType(MediaType.APPLICATION_JSON).content(truncatedBody)).andDo(print())
+				.andExpect(status().isBadRequest());
+		verify(userService, VerificationModeFactory.times(0)).createUsers(any(), any());
+	}
+
+	/**
+	 * Test method {@link UserController#deleteUsers(List)}. The response should
+	 * contain the number of deleted users and the missing ids
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void deleteUsers_thenResponseContainsDeletedCountAndMissingIds() throws Exception {
+		given(userService.deleteUsers(List.of(1L, 2L, 99L)))
+				.willReturn(new BulkOperationResult(List.of(1L, 2L), List.of(99L)));
+
+		mvc.perform(post(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_BULK_DELETE)
+				.contentType(MediaType.APPLICATION_JSON).content("[1,2,99]")).andDo(print())
+				.andExpect(status().isOk()).andExpect(jsonPath("$.affected", is(2)))
+				.andExpect(jsonPath("$.missingIds[0]", is(99)));
+	}
+
+	/**
+	 * Test method {@link UserController#updateUsers(BulkUpdateDTO)}. The new value
+	 * should be handed to the service, and a request without any new value should
+	 * be rejected
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void updateUsers_whenNoNewValue_thenResponseIsBadRequest() throws Exception {
+		given(userService.updateUsers(List.of(1L), "Mike", null))
+				.willReturn(new BulkOperationResult(List.of(1L), List.of()));
+
+		mvc.perform(post(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_BULK_UPDATE)
+				.contentType(MediaType.APPLICATION_JSON).content("{\"ids\":[1],\"firstName\":\"Mike\"}"))
+				.andDo(print()).andExpect(status().isOk()).andExpect(jsonPath("$.affected", is(1)));
+		mvc.perform(post(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_BULK_UPDATE)
+				.contentType(MediaType.APPLICATION_JSON).content("{\"ids\":[1]}")).andDo(print())
+				.andExpect(status().isBadRequest());
+		verify(userService, VerificationModeFactory.times(1)).updateUsers(any(), any(), any());
+	}
+
+	/**
+	 * @return the users handed to {@link UserService#createUsers(List, String)}
+	 */
+	private List<User> captureCreatedUsers() throws Exception {
+		@SuppressWarnings("unchecked")
+		final ArgumentCaptor<List<User>> usersCaptor = ArgumentCaptor.forClass(List.class);
+		verify(userService, VerificationModeFactory.times(1)).createUsers(usersCaptor.capture(), anyString());
+		return usersCaptor.getValue();
 	}
 
 	@Test
@@ -154,14 +403,15 @@ public class UserControllerTest {
 		final List<User> usersList = Collections.emptyList();
 
 		// Mock repository response
-		given(userService.findAll()).willReturn(usersList);
+		given(userService.findPage(null, UserControllerConstants.DEFAULT_PAGE_SIZE)).willReturn(usersList);
 
 		final MvcResult mvcResult = mvc
 				.perform(get(UserControllerConstants.REST_API_ROOT_URL).contentType(MediaType.APPLICATION_JSON))
 				.andDo(print()).andExpect(status().isOk())
-				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+				.andExpect(header().doesNotExist(HttpHeaders.LINK)).andReturn();
 		assertThat(mvcResult.getResponse().getContentLength()).isEqualTo(0);
-		verify(userService, VerificationModeFactory.times(1)).findAll();
+		verify(userService, VerificationModeFactory.times(1)).findPage(null, UserControllerConstants.DEFAULT_PAGE_SIZE);
 	}
 
 	@Test
@@ -173,12 +423,13 @@ public class UserControllerTest {
 		final List<User> allUsers = List.of(userMichael, userMarie, userCharles);
 
 		// Mock repository response
-		given(userService.findAll()).willReturn(allUsers);
+		given(userService.findPage(null, UserControllerConstants.DEFAULT_PAGE_SIZE)).willReturn(allUsers);
 
 		final ResultActions resultActions = mvc
 				.perform(get(UserControllerConstants.REST_API_ROOT_URL).contentType(MediaType.APPLICATION_JSON))
 				.andDo(print()).andExpect(status().isOk())
-				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE));
+				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+				.andExpect(header().doesNotExist(HttpHeaders.LINK));
 		// Check users in response
 		TestUtils.andExpectAllFieldsInJsonListIsUserMichael(resultActions, 0);
 		TestUtils.andExpectAllFieldsInJsonListIsUserMarie(resultActions, 1);
@@ -186,6 +437,126 @@ public class UserControllerTest {
 
 	}
 
+	/**
+	 * Test method {@link UserController#findAllUsers(Long, Integer, WebRequest)}. When the page
+	 * is full, the response should contain a link to the next page which starts
+	 * after the last returned user
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void findAll_whenPageIsFull_thenResponseContainsLinkToNextPage() throws Exception {
+		final User userMarie = TestUtils.createTestUserMarieWithId();
+		final User userCharles = TestUtils.createTestUserCharlesWithId();
+
+		// Mock repository response
+		given(userService.findPage(TestUtils.USER_MICHAEL_ID, 2)).willReturn(List.of(userMarie, userCharles));
+
+		final ResultActions resultActions = mvc
+				.perform(get(UserControllerConstants.REST_API_ROOT_URL)
+						.param(UserControllerConstants.PARAM_AFTER, String.valueOf(TestUtils.USER_MICHAEL_ID))
+						.param(UserControllerConstants.PARAM_LIMIT, "2").contentType(MediaType.APPLICATION_JSON))
+				.andDo(print()).andExpect(status().isOk()).andExpect(header().string(HttpHeaders.LINK,
+						"<http://localhost/users?after=" + TestUtils.USER_CHARLES_ID + "&limit=2>; rel=\"next\""));
+		TestUtils.andExpectAllFieldsInJsonListIsUserMarie(resultActions, 0);
+		TestUtils.andExpectAllFieldsInJsonListIsUserCharles(resultActions, 1);
+	}
+
+	/**
+	 * Test method {@link UserController#findAllUsers(Long, Integer, WebRequest)}. A page size
+	 * greater than the maximum is reduced to the maximum
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void findAll_whenLimitIsTooLarge_thenMaximumPageSizeIsUsed() throws Exception {
+		given(userService.findPage(null, UserControllerConstants.MAX_PAGE_SIZE)).willReturn(Collections.emptyList());
+
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL)
+				.param(UserControllerConstants.PARAM_LIMIT, String.valueOf(UserControllerConstants.MAX_PAGE_SIZE + 1))
+				.contentType(MediaType.APPLICATION_JSON)).andDo(print()).andExpect(status().isOk());
+		verify(userService, VerificationModeFactory.times(1)).findPage(null, UserControllerConstants.MAX_PAGE_SIZE);
+	}
+
+	/**
+	 * Test method {@link UserController#findAllUsers(Long, Integer, WebRequest)}.
+	 * The response holds the entity tag of the version of the users : while users
+	 * do not change, a request holding it in its <code>If-None-Match</code> header
+	 * has an empty {@link HttpStatus#NOT_MODIFIED} response and users are not read
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void findAll_whenUsersDidNotChange_thenResponseIsNotModifiedWithoutReadingUsers() throws Exception {
+		given(userService.getUsersVersion()).willReturn("5eed-7");
+		given(userService.findPage(null, UserControllerConstants.DEFAULT_PAGE_SIZE))
+				.willReturn(List.of(TestUtils.createTestUserMichaelWithId()));
+
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL).accept(MediaType.APPLICATION_JSON))
+				.andDo(print()).andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"5eed-7\""));
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL).accept(MediaType.APPLICATION_JSON)
+				.header(HttpHeaders.IF_NONE_MATCH, "\"5eed-7\"")).andDo(print())
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+		verify(userService, VerificationModeFactory.times(1)).findPage(any(), anyInt());
+	}
+
+	/**
+	 * Test method {@link UserController#exportAllUsers(HttpServletResponse)}. Each
+	 * user provided by the (mocked) user service should be written as one JSON
+	 * line in the response
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void exportAllUsers_whenUsersExist_thenResponseContainsOneJsonLinePerUser() throws Exception {
+		final User userMichael = TestUtils.createTestUserMichaelWithId();
+		final User userMarie = TestUtils.createTestUserMarieWithId();
+
+		// Mock service : hand over each user to the consumer
+		given(userService.exportAll(any())).willAnswer(invocation -> {
+			final Consumer<User> consumer = invocation.getArgument(0);
+			consumer.accept(userMichael);
+			consumer.accept(userMarie);
+			return 2L;
+		});
+
+		final String expectedBody = "{\"id\":1,\"firstName\":\"Michael\",\"email\":\"mfaraday@userapi.sbr\",\"password\":\"dummyTestPwd1\"}\n"
+				+ "{\"id\":2,\"firstName\":\"Marie\",\"email\":\"mcurie@userapi.sbr\",\"password\":\"dummyTestPwd2\"}\n";
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_EXPORT))
+				.andDo(print()).andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(UserControllerConstants.MEDIA_TYPE_NDJSON))
+				.andExpect(content().string(expectedBody));
+		verify(userService, VerificationModeFactory.times(1)).exportAll(any());
+	}
+
+	/**
+	 * Test method {@link UserController#suggestUsers(String, Integer)}. Suggested
+	 * users are returned with their id and first name only, and the requested
+	 * number of suggestions is bounded
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void suggestUsers_thenResponseContainsIdsAndFirstNames() throws Exception {
+		given(userService.suggestUsers("ma", UserControllerConstants.DEFAULT_SUGGESTION_COUNT)).willReturn(List.of(
+				new UserSuggestion(TestUtils.USER_MARIE_ID, TestUtils.USER_MARIE_FIRST_NAME),
+				new UserSuggestion(TestUtils.USER_MICHAEL_ID, "Marcel")));
+
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_SUGGEST)
+				.param(UserControllerConstants.PARAM_PREFIX, "ma")).andDo(print()).andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()", is(2)))
+				.andExpect(jsonPath("$[0].id", is(TestUtils.USER_MARIE_ID.intValue())))
+				.andExpect(jsonPath("$[0].firstName", is(TestUtils.USER_MARIE_FIRST_NAME)))
+				.andExpect(jsonPath("$[0].email").doesNotExist())
+				.andExpect(jsonPath("$[1].firstName", is("Marcel")));
+
+		mvc.perform(get(UserControllerConstants.REST_API_ROOT_URL + UserControllerConstants.PATH_SUGGEST)
+				.param(UserControllerConstants.PARAM_PREFIX, "ma").param(UserControllerConstants.PARAM_LIMIT, "5000"))
+				.andExpect(status().isOk());
+		verify(userService).suggestUsers("ma", UserControllerConstants.MAX_SUGGESTION_COUNT);
+	}
+
 	/**
 	 * Test method {@link UserController#findUser(String, String)}. When searching
 	 * by firstName only and user exists, it should be returned by controller in the
@@ -275,7 +646,7 @@ public class UserControllerTest {
 	}
 
 	/**
-	 * Test method {@link UserController#deleteUserById(Long)}. When user exists,
+	 * Test method {@link UserController#deleteUserById(Long, String)}. When user exists,
 	 * method should return with status {@link HttpStatus#NO_CONTENT
 	 * HttpStatus.NO_CONTENT (204)}
 	 * 
@@ -293,7 +664,25 @@ public class UserControllerTest {
 	}
 
 	/**
-	 * Test method {@link UserController#deleteUserById(Long)}. When user does NOT
+	 * Test method {@link UserController#deleteUserById(Long, String)}. The version
+	 * of the <code>If-Match</code> header is expected by the delete, an entity
+	 * tag which cannot be the one of a user fails the precondition
+	 * 
+	 * @throws Exception not expected
+	 */
+	@Test
+	public void deleteUserById_whenIfMatch_thenOnlyThisVersionIsDeleted() throws Exception {
+		mvc.perform(delete(UserControllerConstants.REST_API_ROOT_URL + "/1").header(HttpHeaders.IF_MATCH, "\"3\""))
+				.andDo(print()).andExpect(status().isNoContent());
+		verify(userService, VerificationModeFactory.times(1)).deleteUserById(1L, 3L);
+
+		mvc.perform(delete(UserControllerConstants.REST_API_ROOT_URL + "/1").header(HttpHeaders.IF_MATCH, "W/\"3\""))
+				.andDo(print()).andExpect(status().isPreconditionFailed());
+		verify(userService, VerificationModeFactory.times(0)).deleteUserById(1L);
+	}
+
+	/**
+	 * Test method {@link UserController#deleteUserById(Long, String)}. When user does NOT
 	 * exist, method should return with status {@link HttpStatus#NOT_FOUND
 	 * HttpStatus.NOT_FOUND (404)}
 	 * 
@@ -319,7 +708,7 @@ public class UserControllerTest {
 	}
 
 	/**
-	 * Test method {@link UserController#updateExistingUser(Long, UserDTO)}. All
+	 * Test method {@link UserController#updateExistingUser(Long, UserDTO, String)}. All
 	 * updated fields should be present also in the response with updated value
 	 * 
 	 * @throws Exception not expected
@@ -377,4 +766,103 @@ public class UserControllerTest {
 
 		verify(userService, VerificationModeFactory.times(1)).updateUser(any());
 	}
+
+	/**
+	 * Test method {@link UserController#updateExistingUser(Long, UserDTO, String)} : the
+	 * version of the body is passed to the service, and an outdated version is a
+	 * conflict
+	 */
+	@Test
+	public void updateExistingUser_whenVersionIsOutdated_thenResponseIsConflict() throws Exception {
+		given(timeService.getCurrentDateTimeTimestamp()).willReturn(EXCEPTION_TIMESTAMP);
+		final String exceptionMessage = "User with id [1] was updated meanwhile, its version is not [2] anymore";
+		doThrow(new UserVersionConflictException(exceptionMessage)).when(userService).updateUser(any(User.class));
+
+		final UserDTO userMichaelDTO = TestUtils.createTestUserDTOMichaelWithId();
+		userMichaelDTO.setVersion(2L);
+
+		final ResultActions resultActions = mvc
+				.perform(put(UserControllerConstants.REST_API_ROOT_URL + "/" + userMichaelDTO.getId())
+						.contentType(MediaType.APPLICATION_JSON).content(JsonUtils.toJson(userMichaelDTO)))
+				.andDo(print()).andExpect(status().isConflict());
+
+		TestUtils.andExpectJsonObjectErrorDetails(resultActions, EXCEPTION_TIMESTAMP, exceptionMessage, NO_DETAILS,
+				EXCEPTION_URL_USER_NOT_FOUND_ID_1);
+		final ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
+		verify(userService, VerificationModeFactory.times(1)).updateUser(userCaptor.capture());
+		assertThat(userCaptor.getValue().getVersion()).isEqualTo(2L);
+	}
+
+	/**
+	 * Test method {@link UserController#updateExistingUser(Long, UserDTO, String)}
+	 * : the version of the <code>If-Match</code> header is passed to the service,
+	 * and an outdated version fails the precondition
+	 */
+	@Test
+	public void updateExistingUser_whenIfMatchIsOutdated_thenResponseIsPreconditionFailed() throws Exception {
+		given(timeService.getCurrentDateTimeTimestamp()).willReturn(EXCEPTION_TIMESTAMP);
+		final String exceptionMessage = "User with id [1] was updated meanwhile, its version is not [2] anymore";
+		doThrow(new UserVersionConflictException(exceptionMessage)).when(userService).updateUser(any(User.class));
+
+		final UserDTO userMichaelDTO = TestUtils.createTestUserDTOMichaelWithId();
+
+		final ResultActions resultActions = mvc
+				.perform(put(UserControllerConstants.REST_API_ROOT_URL + "/" + userMichaelDTO.getId())
+						.header(HttpHeaders.IF_MATCH, "\"2\"").contentType(MediaType.APPLICATION_JSON)
+						.content(JsonUtils.toJson(userMichaelDTO)))
+				.andDo(print()).andExpect(status().isPreconditionFailed());
+
+		TestUtils.andExpectJsonObjectErrorDetails(resultActions, EXCEPTION_TIMESTAMP, exceptionMessage, NO_DETAILS,
+				EXCEPTION_URL_USER_NOT_FOUND_ID_1);
+		final ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
+		verify(userService, VerificationModeFactory.times(1)).updateUser(userCaptor.capture());
+		assertThat(userCaptor.getValue().getVersion()).isEqualTo(2L);
+	}
+
+	/**
+	 * Test method {@link UserController#patchExistingUser(Long, JsonNode, String)} : the
+	 * JSON Patch document is passed as is to the service, which returns the
+	 * patched user
+	 */
+	@Test
+	public void patchExistingUser_whenValidPatch_thenResponseIsPatchedUser() throws Exception {
+		final String patch = "[{\"op\":\"replace\",\"path\":\"/firstName\",\"value\":\"Mike\"}]";
+		final User userMichaelAfterPatch = TestUtils.createTestUserMichaelWithId();
+		userMichaelAfterPatch.setFirstName("Mike");
+		userMichaelAfterPatch.setVersion(1L);
+		given(userService.patchUser(eq(TestUtils.USER_MICHAEL_ID), any(), any())).willReturn(userMichaelAfterPatch);
+
+		final ResultActions resultActions = mvc
+				.perform(patch(UserControllerConstants.REST_API_ROOT_URL + "/" + TestUtils.USER_MICHAEL_ID)
+						.contentType("application/json-patch+json").content(patch))
+				.andDo(print()).andExpect(status().isOk()).andExpect(jsonPath("$.version", is(1)))
+				.andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
+
+		TestUtils.andExpectAllFieldsInJsonObjectIsUser(resultActions, TestUtils.USER_MICHAEL_ID, "Mike",
+				TestUtils.USER_MICHAEL_EMAIL, TestUtils.USER_MICHAEL_PASSWORD);
+		final ArgumentCaptor<JsonNode> patchCaptor = ArgumentCaptor.forClass(JsonNode.class);
+		verify(userService, VerificationModeFactory.times(1)).patchUser(eq(TestUtils.USER_MICHAEL_ID),
+				patchCaptor.capture(), eq(null));
+		assertThat(patchCaptor.getValue().toString()).isEqualTo(patch);
+	}
+
+	/**
+	 * Test method {@link UserController#patchExistingUser(Long, JsonNode, String)} : a
+	 * patch which cannot be compiled is a bad request
+	 */
+	@Test
+	public void patchExistingUser_whenInvalidPatch_thenResponseIsBadRequest() throws Exception {
+		given(timeService.getCurrentDateTimeTimestamp()).willReturn(EXCEPTION_TIMESTAMP);
+		final String exceptionMessage = "Operation 0 cannot modify /id";
+		doThrow(new InvalidPatchException(exceptionMessage)).when(userService).patchUser(any(), any(), any());
+
+		final ResultActions resultActions = mvc
+				.perform(patch(UserControllerConstants.REST_API_ROOT_URL + "/" + TestUtils.USER_MICHAEL_ID)
+						.contentType("application/json-patch+json")
+						.content("[{\"op\":\"replace\",\"path\":\"/id\",\"value\":2}]"))
+				.andDo(print()).andExpect(status().isBadRequest());
+
+		TestUtils.andExpectJsonObjectErrorDetails(resultActions, EXCEPTION_TIMESTAMP, exceptionMessage, NO_DETAILS,
+				EXCEPTION_URL_USER_NOT_FOUND_ID_1);
+	}
 }